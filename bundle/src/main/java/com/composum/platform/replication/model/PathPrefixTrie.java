@@ -0,0 +1,94 @@
+package com.composum.platform.replication.model;
+
+import org.apache.commons.lang3.StringUtils;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Values stored at absolute paths, with a lookup of all values stored at a path or its ancestors in time
+ * proportional to the depth of the path - independent of the number of stored values. Not thread safe.
+ */
+public class PathPrefixTrie<T> {
+
+    protected final Node<T> root = new Node<>();
+
+    protected int size;
+
+    /** Stores the value at the path. */
+    public void add(@Nonnull String path, @Nonnull T value) {
+        Node<T> node = root;
+        for (String segment : segments(path)) {
+            node = node.children.computeIfAbsent(segment, (k) -> new Node<>());
+        }
+        node.values.add(value);
+        size++;
+    }
+
+    /**
+     * Removes the value stored at the path.
+     *
+     * @return true if it was there
+     */
+    public boolean remove(@Nonnull String path, @Nonnull T value) {
+        List<Node<T>> trail = new ArrayList<>();
+        Node<T> node = root;
+        String[] segments = segments(path);
+        for (String segment : segments) {
+            trail.add(node);
+            node = node.children.get(segment);
+            if (node == null) {
+                return false;
+            }
+        }
+        if (!node.values.remove(value)) {
+            return false;
+        }
+        size--;
+        // prune nodes that became empty
+        for (int i = segments.length - 1; i >= 0 && node.isEmpty(); --i) {
+            trail.get(i).children.remove(segments[i]);
+            node = trail.get(i);
+        }
+        return true;
+    }
+
+    /** All values stored at the path or one of its ancestors, the ones at the shortest paths first. */
+    @Nonnull
+    public List<T> getPrefixValues(@Nonnull String path) {
+        List<T> result = new ArrayList<>(root.values);
+        Node<T> node = root;
+        for (String segment : segments(path)) {
+            node = node.children.get(segment);
+            if (node == null) {
+                break;
+            }
+            result.addAll(node.values);
+        }
+        return result;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    @Nonnull
+    protected String[] segments(@Nonnull String path) {
+        return StringUtils.split(path, '/');
+    }
+
+    protected static class Node<T> {
+
+        protected final Map<String, Node<T>> children = new HashMap<>();
+
+        protected final List<T> values = new ArrayList<>(1);
+
+        protected boolean isEmpty() {
+            return values.isEmpty() && children.isEmpty();
+        }
+    }
+
+}
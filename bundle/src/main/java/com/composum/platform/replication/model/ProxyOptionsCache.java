@@ -0,0 +1,146 @@
+package com.composum.platform.replication.model;
+
+import com.composum.platform.commons.proxy.ProxyManagerService;
+import com.composum.platform.commons.proxy.ProxyService;
+import org.apache.commons.lang3.StringUtils;
+import org.osgi.framework.Constants;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicy;
+import org.osgi.service.component.annotations.ReferencePolicyOption;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The keys and titles of the available proxies for the proxy selection of the replication configurations. They are
+ * looked up once through the {@link ProxyManagerService} and kept until a {@link ProxyService} is registered or
+ * unregistered, instead of resolving each proxy for each rendering of a configuration.
+ */
+@Component(
+        service = ProxyOptionsCache.class,
+        property = {
+                Constants.SERVICE_DESCRIPTION + "=Composum Platform Replication Proxy Options Cache"
+        }
+)
+public class ProxyOptionsCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ProxyOptionsCache.class);
+
+    /** A proxy to choose from. */
+    public static class ProxyOption {
+
+        protected final String key;
+        protected final String title;
+
+        public ProxyOption(@Nonnull String key, @Nullable String title) {
+            this.key = key;
+            this.title = title;
+        }
+
+        @Nonnull
+        public String getKey() {
+            return key;
+        }
+
+        /** The title of the proxy, the key if the proxy has no title. */
+        @Nonnull
+        public String getTitle() {
+            return StringUtils.isNotBlank(title) ? title : key;
+        }
+
+        /** A snapshot of the values for a JSON export. */
+        @Nonnull
+        public Map<String, Object> toMap() {
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("key", getKey());
+            result.put("title", getTitle());
+            return result;
+        }
+    }
+
+    @Reference
+    protected ProxyManagerService proxyManager;
+
+    /** The cached options; null if they have to be looked up again. */
+    protected volatile List<ProxyOption> proxies;
+
+    /** The available proxies, in the order of the proxy manager. */
+    @Nonnull
+    public List<ProxyOption> getProxies() {
+        List<ProxyOption> result = proxies;
+        if (result == null) {
+            result = Collections.unmodifiableList(lookupProxies(proxyManager));
+            proxies = result;
+        }
+        return result;
+    }
+
+    /**
+     * The options in the format of the select widget ('key:title,...'), starting with the empty key for no proxy.
+     *
+     * @param noProxyLabel the (translated) label of the empty option
+     */
+    @Nonnull
+    public String getOptions(@Nonnull String noProxyLabel) {
+        return toOptions(noProxyLabel, getProxies());
+    }
+
+    /** Invalidates the cached options. */
+    public void invalidate() {
+        proxies = null;
+    }
+
+    @Reference(
+            service = ProxyService.class,
+            cardinality = ReferenceCardinality.MULTIPLE,
+            policy = ReferencePolicy.DYNAMIC,
+            policyOption = ReferencePolicyOption.GREEDY
+    )
+    protected void bindProxyService(@Nonnull ProxyService proxyService) {
+        LOG.debug("bindProxyService: {}", proxyService);
+        invalidate();
+    }
+
+    protected void unbindProxyService(@Nonnull ProxyService proxyService) {
+        LOG.debug("unbindProxyService: {}", proxyService);
+        invalidate();
+    }
+
+    /** Looks up the proxies - also used without the cache if the service is not available. */
+    @Nonnull
+    public static List<ProxyOption> lookupProxies(@Nullable ProxyManagerService proxyManager) {
+        List<ProxyOption> result = new ArrayList<>();
+        if (proxyManager != null) {
+            for (String key : proxyManager.getProxyKeys()) {
+                ProxyService proxy = proxyManager.findProxyService(key);
+                if (proxy != null) {
+                    result.add(new ProxyOption(key, proxy.getTitle()));
+                }
+            }
+        }
+        return result;
+    }
+
+    /** The options in the format of the select widget ('key:title,...'), starting with the empty key. */
+    @Nonnull
+    public static String toOptions(@Nonnull String noProxyLabel, @Nonnull List<ProxyOption> proxies) {
+        StringBuilder result = new StringBuilder(":" + noProxyLabel);
+        for (ProxyOption proxy : proxies) {
+            result.append(',').append(proxy.key);
+            if (StringUtils.isNotBlank(proxy.title)) {
+                result.append(':').append(proxy.title);
+            }
+        }
+        return result.toString();
+    }
+
+}
@@ -1,11 +1,10 @@
 package com.composum.platform.replication.model;
 
 import com.composum.platform.commons.proxy.ProxyManagerService;
-import com.composum.platform.commons.proxy.ProxyService;
+import com.composum.platform.replication.remotereceiver.RemotePublicationConfig;
 import com.composum.sling.platform.staging.replication.ReplicationConfig;
 import com.composum.sling.platform.staging.replication.ReplicationType;
 import com.composum.sling.platform.staging.replication.inplace.InplaceReplicationType;
-import com.composum.platform.replication.remote.RemoteReplicationType;
 import com.composum.sling.core.BeanContext;
 import com.composum.sling.core.ResourceModel;
 import com.composum.sling.core.util.I18N;
@@ -15,10 +14,16 @@ import org.apache.sling.api.resource.Resource;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.regex.Pattern;
 
 public class ReplicationConfigNode extends ResourceModel implements ReplicationConfig {
 
+    /** Matches the path of a configuration; group 1 is the site path. */
+    public static final Pattern SITE_PATH = Pattern.compile("/conf(/.*)/replication/[^/]+");
+
     private transient String proxyOptions;
+    private transient String sitePath;
+    private transient ReplicationType replicationType;
 
     public ReplicationConfigNode() {
     }
@@ -57,7 +62,10 @@ public class ReplicationConfigNode extends ResourceModel implements ReplicationC
 
     @Nonnull
     public String getSitePath() {
-        return getPath().replaceAll("/conf(/.*)/replication/[^/]+", "$1");
+        if (sitePath == null) {
+            sitePath = SITE_PATH.matcher(getPath()).replaceAll("$1");
+        }
+        return sitePath;
     }
 
     @Nullable
@@ -74,10 +82,15 @@ public class ReplicationConfigNode extends ResourceModel implements ReplicationC
     @Nonnull
     @Override
     public ReplicationType getReplicationType() {
-        // ToDo retrieve replication type
-        String key = getProperty(PN_REPLICATION_TYPE, InplaceReplicationType.SERVICE_ID);
-        return InplaceReplicationType.SERVICE_ID.equals(key)
-                ? new InplaceReplicationType() : new RemoteReplicationType();
+        if (replicationType == null) {
+            String key = getProperty(PN_REPLICATION_TYPE, InplaceReplicationType.SERVICE_ID);
+            ReplicationTypeRegistry registry = context.getService(ReplicationTypeRegistry.class);
+            replicationType = registry != null ? registry.getType(key) : null;
+            if (replicationType == null) {
+                replicationType = ReplicationTypeRegistry.getBuiltinType(key);
+            }
+        }
+        return replicationType;
     }
 
     @Override
@@ -92,22 +105,30 @@ public class ReplicationConfigNode extends ResourceModel implements ReplicationC
         return StringUtils.isBlank(resourceType) ? getReplicationType().getResourceType() : resourceType;
     }
 
+    /**
+     * The options of the proxy selection ('key:title,...'), from the {@link ProxyOptionsCache} if available.
+     */
     public String getProxyOptions() {
         if (proxyOptions == null) {
-            StringBuilder result = new StringBuilder(":" + I18N.get(context.getRequest(), "no proxy"));
-            ProxyManagerService proxyManager = context.getService(ProxyManagerService.class);
-            for (String key : proxyManager.getProxyKeys()) {
-                ProxyService proxy = proxyManager.findProxyService(key);
-                if (proxy != null) {
-                    String title = proxy.getTitle();
-                    result.append(',').append(key);
-                    if (StringUtils.isNotBlank(title)) {
-                        result.append(':').append(title);
-                    }
-                }
-            }
-            proxyOptions = result.toString();
+            String noProxy = I18N.get(context.getRequest(), "no proxy");
+            ProxyOptionsCache cache = context.getService(ProxyOptionsCache.class);
+            proxyOptions = cache != null ? cache.getOptions(noProxy)
+                    : ProxyOptionsCache.toOptions(noProxy,
+                    ProxyOptionsCache.lookupProxies(context.getService(ProxyManagerService.class)));
         }
         return proxyOptions;
     }
+
+    /**
+     * The initial options of the proxy selection without any lookup: no proxy and the configured proxy. The
+     * dialog loads the available proxies when it is opened.
+     */
+    public String getProxyKeyOptions() {
+        StringBuilder result = new StringBuilder(":" + I18N.get(context.getRequest(), "no proxy"));
+        String proxyKey = getProperty(RemotePublicationConfig.PROP_PROXY_KEY, "");
+        if (StringUtils.isNotBlank(proxyKey)) {
+            result.append(',').append(proxyKey);
+        }
+        return result.toString();
+    }
 }
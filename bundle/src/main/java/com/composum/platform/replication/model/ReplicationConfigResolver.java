@@ -0,0 +1,459 @@
+package com.composum.platform.replication.model;
+
+import com.composum.sling.core.BeanContext;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.api.resource.observation.ExternalResourceChangeListener;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChangeListener;
+import org.osgi.framework.Constants;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps the parsed replication configurations of the replication setups (/conf/{site path}/replication), for the
+ * setup pages - with precomputed groupings by stage, source path and type - and for the lookup which configurations
+ * apply to a path. A setup is read with the service resolver when it is needed the first time: a lookup for a path
+ * reads only the setups of the path and its ancestors, which is where the configurations for a release root are
+ * kept; the configurations read so far are kept in a path prefix trie per stage, keyed by their source path.
+ * Changes below /conf, also the ones made on other cluster nodes, are tracked with resource change events: a
+ * changed configuration is read again on the next access, a changed subtree containing setups is dropped.
+ */
+@Component(
+        service = {ReplicationConfigResolver.class, ResourceChangeListener.class},
+        property = {
+                Constants.SERVICE_DESCRIPTION + "=Composum Platform Replication Configuration Resolver",
+                ResourceChangeListener.PATHS + "=" + ReplicationConfigResolver.CONF_ROOT,
+                ResourceChangeListener.CHANGES + "=ADDED",
+                ResourceChangeListener.CHANGES + "=CHANGED",
+                ResourceChangeListener.CHANGES + "=REMOVED"
+        }
+)
+public class ReplicationConfigResolver implements ResourceChangeListener, ExternalResourceChangeListener {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ReplicationConfigResolver.class);
+
+    public static final String CONF_ROOT = "/conf";
+
+    public static final String SETUP_NAME = "replication";
+
+    /** Matches paths at or below a replication configuration; group 1 is the setup, group 2 the configuration name. */
+    public static final Pattern CONFIG_PATH = Pattern.compile("^(/conf/.*/replication)/([^/]+)(/.*)?$");
+
+    /** The groupings of the configurations of a setup. */
+    public enum Index {stage, path, type}
+
+    @Reference
+    protected ResourceResolverFactory resolverFactory;
+
+    protected final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /** The setups read so far by their path - also the ones that don't exist, so that they aren't looked up again. */
+    protected final Map<String, CachedSetup> setups = new HashMap<>();
+
+    /** The configurations of the read setups per stage, keyed by source path. */
+    protected final Map<String, PathPrefixTrie<ResolvedConfig>> tries = new HashMap<>();
+
+    /** The path of the setup containing the configurations for the site. */
+    @Nonnull
+    public static String getSetupPath(@Nonnull String sitePath) {
+        return CONF_ROOT + sitePath + "/" + SETUP_NAME;
+    }
+
+    /**
+     * The enabled configurations of the stage that replicate the path, that is, whose source path is the path or
+     * one of its ancestors.
+     *
+     * @return the configurations, the ones with the shortest source path first; empty if the configurations can't
+     * be read with the service resolver
+     */
+    @Nonnull
+    public List<ResolvedConfig> findTargets(@Nonnull String stage, @Nonnull String path) {
+        List<ResolvedConfig> result = new ArrayList<>();
+        for (ResolvedConfig config : findConfigs(stage, path)) {
+            if (config.isEnabled()) {
+                result.add(config);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * All configurations of the stage, including the disabled ones, whose source path is the path or an ancestor,
+     * from the setups of the path and its ancestors.
+     */
+    @Nonnull
+    public List<ResolvedConfig> findConfigs(@Nonnull String stage, @Nonnull String path) {
+        List<String> setupPaths = new ArrayList<>();
+        StringBuilder sitePath = new StringBuilder();
+        for (String segment : StringUtils.split(path, '/')) {
+            setupPaths.add(getSetupPath(sitePath.append('/').append(segment).toString()));
+        }
+        if (!load(setupPaths)) {
+            return Collections.emptyList();
+        }
+        List<ResolvedConfig> result = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            PathPrefixTrie<ResolvedConfig> trie = tries.get(stage);
+            if (trie != null) {
+                for (ResolvedConfig config : trie.getPrefixValues(path)) {
+                    // skip configurations of other sites read for other lookups
+                    if (setupPaths.contains(config.getSetupPath())) {
+                        result.add(config);
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return result;
+    }
+
+    /** The configuration at the path, if there is one. */
+    @Nullable
+    public ResolvedConfig getConfig(@Nonnull String configPath) {
+        Matcher matcher = CONFIG_PATH.matcher(configPath);
+        if (!matcher.matches() || matcher.group(3) != null
+                || !load(Collections.singletonList(matcher.group(1)))) {
+            return null;
+        }
+        lock.readLock().lock();
+        try {
+            CachedSetup setup = setups.get(matcher.group(1));
+            return setup != null ? setup.configs.get(matcher.group(2)) : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * The current state of the setup at the given path.
+     *
+     * @return the configurations, or null if they can't be read with the service resolver
+     */
+    @Nullable
+    public Snapshot getSetup(@Nonnull String setupPath) {
+        if (!load(Collections.singletonList(setupPath))) {
+            return null;
+        }
+        lock.readLock().lock();
+        try {
+            CachedSetup setup = setups.get(setupPath);
+            return setup != null ? setup.getSnapshot() : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void onChange(@Nonnull List<ResourceChange> changes) {
+        lock.writeLock().lock();
+        try {
+            for (ResourceChange change : changes) {
+                String path = change.getPath();
+                Matcher configMatcher = CONFIG_PATH.matcher(path);
+                if (configMatcher.matches()) {
+                    CachedSetup setup = setups.get(configMatcher.group(1));
+                    if (setup != null) {
+                        setup.invalidate(configMatcher.group(2));
+                    }
+                } else {
+                    // a setup or a subtree that could contain setups: read them again when they are needed
+                    for (String setupPath : new ArrayList<>(setups.keySet())) {
+                        if (setupPath.equals(path) || setupPath.startsWith(path + "/")) {
+                            removeSetup(setupPath);
+                        }
+                    }
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Reads the setups not read yet and the changed configurations of the others.
+     *
+     * @return false if that's not possible since there is no service resolver
+     */
+    protected boolean load(@Nonnull Collection<String> setupPaths) {
+        lock.readLock().lock();
+        try {
+            if (isLoaded(setupPaths)) {
+                return true;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        Boolean loaded = withServiceResolver((resolver) -> {
+            BeanContext context = new BeanContext.Service(resolver);
+            lock.writeLock().lock();
+            try {
+                for (String setupPath : setupPaths) {
+                    CachedSetup setup = setups.get(setupPath);
+                    Resource setupResource = setup == null || !setup.changed.isEmpty()
+                            ? resolver.getResource(setupPath) : null;
+                    if (setup == null) {
+                        setup = new CachedSetup(setupPath);
+                        setups.put(setupPath, setup);
+                        if (setupResource != null) {
+                            for (Resource child : setupResource.getChildren()) {
+                                addConfig(setup, context, child);
+                            }
+                            LOG.debug("Read {} replication configurations of {}", setup.configs.size(), setupPath);
+                        }
+                    } else if (!setup.changed.isEmpty()) {
+                        for (String name : setup.changed) {
+                            removeConfig(setup, name);
+                            Resource child = setupResource != null ? setupResource.getChild(name) : null;
+                            if (child != null) {
+                                addConfig(setup, context, child);
+                            }
+                        }
+                        LOG.debug("Updated replication configurations {} of {}", setup.changed, setupPath);
+                        setup.changed.clear();
+                    }
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+            return true;
+        });
+        return loaded != null;
+    }
+
+    protected boolean isLoaded(@Nonnull Collection<String> setupPaths) {
+        for (String setupPath : setupPaths) {
+            CachedSetup setup = setups.get(setupPath);
+            if (setup == null || !setup.changed.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    protected void addConfig(@Nonnull CachedSetup setup, @Nonnull BeanContext context,
+                             @Nonnull Resource configResource) {
+        ResolvedConfig config = new ResolvedConfig(new ReplicationConfigNode(context, configResource));
+        setup.configs.put(configResource.getName(), config);
+        setup.snapshot = null;
+        tries.computeIfAbsent(config.getStage(), (k) -> new PathPrefixTrie<>()).add(config.getSourcePath(), config);
+    }
+
+    protected void removeConfig(@Nonnull CachedSetup setup, @Nonnull String name) {
+        ResolvedConfig config = setup.configs.remove(name);
+        if (config != null) {
+            setup.snapshot = null;
+            PathPrefixTrie<ResolvedConfig> trie = tries.get(config.getStage());
+            if (trie != null) {
+                trie.remove(config.getSourcePath(), config);
+                if (trie.size() == 0) {
+                    tries.remove(config.getStage());
+                }
+            }
+        }
+    }
+
+    protected void removeSetup(@Nonnull String setupPath) {
+        CachedSetup setup = setups.remove(setupPath);
+        if (setup != null) {
+            for (String name : new ArrayList<>(setup.configs.keySet())) {
+                removeConfig(setup, name);
+            }
+        }
+    }
+
+    /** Calls the function with a service resolver; null if there is no service resolver. */
+    @Nullable
+    protected <T> T withServiceResolver(@Nonnull Function<ResourceResolver, T> function) {
+        try (ResourceResolver resolver = resolverFactory.getServiceResourceResolver(null)) {
+            return function.apply(resolver);
+        } catch (LoginException e) {
+            LOG.error("Could not get service resolver", e);
+            return null;
+        }
+    }
+
+    /** The data of a replication configuration needed to decide what it replicates and to list it. */
+    public static class ResolvedConfig {
+
+        protected final String path;
+        protected final String setupPath;
+        protected final String stage;
+        protected final String sourcePath;
+        protected final String targetPath;
+        protected final String title;
+        protected final String replicationType;
+        protected final String replicationTypeTitle;
+        protected final boolean enabled;
+
+        protected ResolvedConfig(@Nonnull ReplicationConfigNode config) {
+            path = config.getPath();
+            setupPath = StringUtils.substringBeforeLast(path, "/");
+            stage = config.getStage();
+            sourcePath = config.getSourcePath();
+            targetPath = config.getTargetPath();
+            title = config.getTitle();
+            replicationType = config.getReplicationType().getServiceId();
+            replicationTypeTitle = config.getReplicationType().getTitle();
+            enabled = config.isEnabled();
+        }
+
+        /** The path of the configuration resource. */
+        @Nonnull
+        public String getPath() {
+            return path;
+        }
+
+        /** The path of the setup containing the configuration. */
+        @Nonnull
+        public String getSetupPath() {
+            return setupPath;
+        }
+
+        @Nonnull
+        public String getStage() {
+            return stage;
+        }
+
+        @Nonnull
+        public String getSourcePath() {
+            return sourcePath;
+        }
+
+        @Nullable
+        public String getTargetPath() {
+            return targetPath;
+        }
+
+        @Nonnull
+        public String getTitle() {
+            return title;
+        }
+
+        /** The service id of the replication type. */
+        @Nonnull
+        public String getReplicationType() {
+            return replicationType;
+        }
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        /** The value the configuration is grouped by in the index. */
+        @Nonnull
+        public String getKey(@Nonnull Index index) {
+            switch (index) {
+                case stage:
+                    return stage;
+                case path:
+                    return sourcePath;
+                default:
+                    return replicationTypeTitle;
+            }
+        }
+
+        /** The data for a JSON export. */
+        @Nonnull
+        public Map<String, Object> toMap() {
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("path", path);
+            result.put("stage", stage);
+            result.put("sourcePath", sourcePath);
+            result.put("targetPath", targetPath);
+            result.put("title", title);
+            result.put("type", replicationType);
+            result.put("enabled", enabled);
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return path;
+        }
+    }
+
+    /** An immutable state of a setup. */
+    public static class Snapshot {
+
+        protected final Map<Index, Map<String, List<ResolvedConfig>>> indexes = new EnumMap<>(Index.class);
+
+        protected Snapshot(@Nonnull Collection<ResolvedConfig> configs) {
+            for (Index index : Index.values()) {
+                List<ResolvedConfig> sorted = new ArrayList<>(configs);
+                sorted.sort(Comparator.comparing((ResolvedConfig config) -> config.getKey(index))
+                        .thenComparing(ResolvedConfig::getTitle));
+                Map<String, List<ResolvedConfig>> grouped = new LinkedHashMap<>();
+                for (ResolvedConfig config : sorted) {
+                    grouped.computeIfAbsent(config.getKey(index), (k) -> new ArrayList<>()).add(config);
+                }
+                grouped.replaceAll((key, list) -> Collections.unmodifiableList(list));
+                indexes.put(index, Collections.unmodifiableMap(grouped));
+            }
+        }
+
+        /** The configurations grouped by the key of the index, sorted by key and title. */
+        @Nonnull
+        public Map<String, List<ResolvedConfig>> getIndex(@Nonnull Index index) {
+            return indexes.get(index);
+        }
+    }
+
+    /**
+     * The configurations of one setup by their name, with the names of the configurations changed since they were
+     * read; modified only with the write lock.
+     */
+    protected static class CachedSetup {
+
+        protected final String path;
+        protected final Map<String, ResolvedConfig> configs = new TreeMap<>();
+        protected final Set<String> changed = new HashSet<>();
+        protected Snapshot snapshot;
+
+        protected CachedSetup(@Nonnull String path) {
+            this.path = path;
+        }
+
+        protected void invalidate(@Nonnull String name) {
+            changed.add(name);
+            snapshot = null;
+        }
+
+        /** Created on demand; synchronized since that happens with the read lock. */
+        @Nonnull
+        protected synchronized Snapshot getSnapshot() {
+            if (snapshot == null) {
+                snapshot = new Snapshot(configs.values());
+            }
+            return snapshot;
+        }
+    }
+
+}
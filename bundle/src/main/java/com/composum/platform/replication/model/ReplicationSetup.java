@@ -1,15 +1,16 @@
 package com.composum.platform.replication.model;
 
+import com.composum.platform.replication.model.ReplicationConfigResolver.ResolvedConfig;
 import com.composum.sling.platform.staging.replication.ReplicationConfig;
 import com.composum.sling.platform.staging.replication.ReplicationType;
-import com.composum.sling.platform.staging.replication.inplace.InplaceReplicationType;
-import com.composum.platform.replication.remote.RemoteReplicationType;
 import com.composum.sling.core.AbstractSlingBean;
+import com.composum.sling.core.util.I18N;
 import com.composum.sling.cpnl.CpnlElFunctions;
 import org.apache.sling.api.resource.Resource;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -62,38 +63,100 @@ public class ReplicationSetup extends AbstractSlingBean {
 
     private transient List<ReplicationConfig> setup;
 
+    private transient Map<String, ReplicationConfig> configNodes;
+
+    /** The available replication types by their service id, see {@link ReplicationTypeRegistry}. */
     public Map<String, ReplicationType> getReplicationTypes() {
-        // ToDo scan available services...
         if (replicationTypes == null) {
-            replicationTypes = new LinkedHashMap<String, ReplicationType>() {{
-                put(InplaceReplicationType.SERVICE_ID, new InplaceReplicationType());
-                put(RemoteReplicationType.SERVICE_ID, new RemoteReplicationType());
-            }};
+            ReplicationTypeRegistry registry = context.getService(ReplicationTypeRegistry.class);
+            replicationTypes = registry != null ? registry.getTypes() : ReplicationTypeRegistry.BUILTIN_TYPES;
         }
         return replicationTypes;
     }
 
+    /** The replication types as options for a select widget: 'id:title,...' with the titles translated. */
+    public String getReplicationTypeOptions() {
+        StringBuilder result = new StringBuilder();
+        for (ReplicationType type : getReplicationTypes().values()) {
+            if (result.length() > 0) {
+                result.append(',');
+            }
+            result.append(type.getServiceId()).append(':')
+                    .append(I18N.get(context.getRequest(), type.getTitle()).replace(',', ' '));
+        }
+        return result.toString();
+    }
+
     public Collection<ConfigSet> getSetupByStage() {
         if (setupByStage == null) {
-            setupByStage = getGrouped(new StageComparator());
+            setupByStage = getIndexed(ReplicationConfigResolver.Index.stage, new StageComparator());
         }
         return setupByStage.values();
     }
 
     public Collection<ConfigSet> getSetupByPath() {
         if (setupByPath == null) {
-            setupByPath = getGrouped(new PathComparator());
+            setupByPath = getIndexed(ReplicationConfigResolver.Index.path, new PathComparator());
         }
         return setupByPath.values();
     }
 
     public Collection<ConfigSet> getSetupByType() {
         if (setupByType == null) {
-            setupByType = getGrouped(new TypeComparator());
+            setupByType = getIndexed(ReplicationConfigResolver.Index.type, new TypeComparator());
         }
         return setupByType.values();
     }
 
+    /**
+     * The configurations grouped according to the index of the {@link ReplicationConfigResolver}; if that's not
+     * available, the configurations are read and grouped with the comparator.
+     */
+    protected Map<String, ConfigSet> getIndexed(ReplicationConfigResolver.Index index, Comparator comparator) {
+        ReplicationConfigResolver.Snapshot snapshot = getCachedSetup();
+        if (snapshot == null) {
+            return getGrouped(comparator);
+        }
+        Map<String, ConfigSet> result = new LinkedHashMap<>();
+        for (Map.Entry<String, List<ResolvedConfig>> group : snapshot.getIndex(index).entrySet()) {
+            ConfigSet configSet = new ConfigSet(group.getKey());
+            for (ResolvedConfig resolved : group.getValue()) {
+                ReplicationConfig config = getConfigNode(resolved.getPath());
+                if (config != null) {
+                    configSet.getSet().add(config);
+                }
+            }
+            if (!configSet.getSet().isEmpty()) {
+                result.put(group.getKey(), configSet);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The configuration at the path as seen by the user - null if it's not readable for them; the nodes are shared
+     * between the groupings.
+     */
+    protected ReplicationConfig getConfigNode(String path) {
+        if (configNodes == null) {
+            configNodes = new HashMap<>();
+        }
+        return configNodes.computeIfAbsent(path, (p) -> {
+            Resource node = resource.getResourceResolver().getResource(p);
+            return node != null ? new ReplicationConfigNode(context, node) : null;
+        });
+    }
+
+    protected ReplicationConfigResolver.Snapshot getCachedSetup() {
+        if (resource.isResourceType(RT_REPLICATION_SETUP)) {
+            ReplicationConfigResolver resolver = context.getService(ReplicationConfigResolver.class);
+            if (resolver != null) {
+                return resolver.getSetup(resource.getPath());
+            }
+        }
+        return null;
+    }
+
     /**
      * @return the set of replication configurations for the models resource (release owner)
      */
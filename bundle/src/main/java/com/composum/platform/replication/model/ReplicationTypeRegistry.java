@@ -0,0 +1,105 @@
+package com.composum.platform.replication.model;
+
+import com.composum.platform.replication.remote.RemoteReplicationType;
+import com.composum.sling.platform.staging.replication.ReplicationType;
+import com.composum.sling.platform.staging.replication.inplace.InplaceReplicationType;
+import org.osgi.framework.Constants;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicy;
+import org.osgi.service.component.annotations.ReferencePolicyOption;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Whiteboard of the available {@link ReplicationType}s: each OSGi service implementing {@link ReplicationType}
+ * is registered under its {@link ReplicationType#getServiceId()}, so that further transports can be plugged in
+ * and chosen per configuration (property 'replicationType').
+ * The standard in-place and remote types are always available, even if they are not registered as services. The
+ * types are shared singletons; the lookups work on an immutable snapshot and need no locking.
+ */
+@Component(
+        service = ReplicationTypeRegistry.class,
+        property = {
+                Constants.SERVICE_DESCRIPTION + "=Composum Platform Replication Type Registry"
+        }
+)
+public class ReplicationTypeRegistry {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ReplicationTypeRegistry.class);
+
+    public static final ReplicationType INPLACE_TYPE = new InplaceReplicationType();
+
+    /** The built-in types, used if there is no service with that id. */
+    protected static final Map<String, ReplicationType> BUILTIN_TYPES;
+
+    static {
+        Map<String, ReplicationType> types = new LinkedHashMap<>();
+        types.put(RemoteReplicationType.SERVICE_ID, RemoteReplicationType.INSTANCE);
+        types.put(InplaceReplicationType.SERVICE_ID, INPLACE_TYPE);
+        BUILTIN_TYPES = Collections.unmodifiableMap(types);
+    }
+
+    protected volatile Map<String, ReplicationType> types = BUILTIN_TYPES;
+
+    /**
+     * The type registered for the id; for the built-in ids the built-in type if there is no service for it.
+     *
+     * @return the type, or null if the id is unknown
+     */
+    @Nullable
+    public ReplicationType getType(@Nullable String serviceId) {
+        return serviceId != null ? types.get(serviceId) : null;
+    }
+
+    /** All available types by their id - the built-in types first. */
+    @Nonnull
+    public Map<String, ReplicationType> getTypes() {
+        return types;
+    }
+
+    /**
+     * The type for the id without the registry, e.g. for models created without OSGi services: the built-in
+     * type; for unknown ids the remote type - the former default.
+     */
+    @Nonnull
+    public static ReplicationType getBuiltinType(@Nullable String serviceId) {
+        ReplicationType type = serviceId != null ? BUILTIN_TYPES.get(serviceId) : null;
+        return type != null ? type : RemoteReplicationType.INSTANCE;
+    }
+
+    @Reference(
+            service = ReplicationType.class,
+            cardinality = ReferenceCardinality.MULTIPLE,
+            policy = ReferencePolicy.DYNAMIC,
+            policyOption = ReferencePolicyOption.GREEDY
+    )
+    protected synchronized void addReplicationType(@Nonnull ReplicationType type) {
+        LOG.info("addReplicationType: {}", type.getServiceId());
+        Map<String, ReplicationType> changed = new LinkedHashMap<>(types);
+        changed.put(type.getServiceId(), type);
+        types = Collections.unmodifiableMap(changed);
+    }
+
+    protected synchronized void removeReplicationType(@Nonnull ReplicationType type) {
+        LOG.info("removeReplicationType: {}", type.getServiceId());
+        if (types.get(type.getServiceId()) == type) {
+            Map<String, ReplicationType> changed = new LinkedHashMap<>(types);
+            ReplicationType builtin = BUILTIN_TYPES.get(type.getServiceId());
+            if (builtin != null) {
+                changed.put(type.getServiceId(), builtin);
+            } else {
+                changed.remove(type.getServiceId());
+            }
+            types = Collections.unmodifiableMap(changed);
+        }
+    }
+
+}
@@ -0,0 +1,99 @@
+package com.composum.platform.replication.remote;
+
+import javax.annotation.Nonnull;
+import java.util.function.LongSupplier;
+
+/**
+ * Merges release change events that come in quick succession - e.g. an editor activating page after page - into
+ * one replication run, without blocking a thread. A run started while the events haven't settled yet - no event
+ * for the debounce window, or the maximum delay after the first pending event passed - is deferred: it returns at
+ * once and the process is scheduled to run again when they are due. Runs started while such a deferred run is
+ * scheduled are skipped, since the deferred run replicates the changed paths of all events collected until then.
+ */
+public class ReleaseChangeDebouncer {
+
+    /** Returned by {@link #startRun(long, long)} if the run is skipped since a deferred run is scheduled. */
+    public static final long SKIP = -1;
+
+    @Nonnull
+    protected final LongSupplier clock;
+
+    protected int pendingTriggers;
+    protected long firstPendingTrigger;
+    protected long lastTrigger;
+
+    /** True while a deferred run is scheduled. */
+    protected boolean deferred;
+
+    public ReleaseChangeDebouncer() {
+        this(System::currentTimeMillis);
+    }
+
+    /** @param clock the current time in milliseconds */
+    public ReleaseChangeDebouncer(@Nonnull LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    /** Records that the process was triggered by an event. */
+    public synchronized void triggered() {
+        long now = clock.getAsLong();
+        if (pendingTriggers == 0) {
+            firstPendingTrigger = now;
+        }
+        lastTrigger = now;
+        pendingTriggers++;
+    }
+
+    /**
+     * Called at the start of a run; decides whether it is done now.
+     *
+     * @param windowMillis   the time without further events after which the run starts; &lt;= 0 switches the
+     *                       debouncing off
+     * @param maxDelayMillis the maximum time a run is deferred after the first pending event
+     * @return 0 if the run has to be done now, {@link #SKIP} if it has nothing to do since a deferred run is
+     * scheduled, or the time in milliseconds after which the caller has to schedule the deferred run, followed by
+     * {@link #deferredRunDue()}
+     */
+    public synchronized long startRun(long windowMillis, long maxDelayMillis) {
+        if (windowMillis <= 0 || pendingTriggers == 0) {
+            // not debounced, or a run not started by a new event
+            pendingTriggers = 0;
+            return deferred ? SKIP : 0;
+        }
+        if (deferred) {
+            return SKIP;
+        }
+        long due = Math.min(lastTrigger + windowMillis, firstPendingTrigger + Math.max(0, maxDelayMillis));
+        long delay = due - clock.getAsLong();
+        if (delay > 0) {
+            deferred = true;
+            return delay;
+        }
+        pendingTriggers = 0;
+        return 0;
+    }
+
+    /**
+     * Marks a run as deferred for another reason, e.g. an unavailable target: until {@link #deferredRunDue()}, the
+     * runs started by further events are skipped as well.
+     */
+    public synchronized void defer() {
+        deferred = true;
+    }
+
+    /** Called when the deferred run is started - or cannot be scheduled - before {@link #startRun(long, long)}. */
+    public synchronized void deferredRunDue() {
+        deferred = false;
+    }
+
+    /** The number of events waiting for a run. */
+    public synchronized int getPendingTriggers() {
+        return pendingTriggers;
+    }
+
+    /** True while a deferred run is scheduled. */
+    public synchronized boolean isDeferred() {
+        return deferred;
+    }
+
+}
@@ -3,19 +3,25 @@ package com.composum.platform.replication.remote;
 import com.composum.platform.commons.credentials.CredentialService;
 import com.composum.platform.commons.proxy.ProxyManagerService;
 import com.composum.platform.commons.util.CachedCalculation;
+import com.composum.platform.replication.model.ReplicationConfigResolver;
+import com.composum.platform.replication.model.ReplicationConfigResolver.ResolvedConfig;
 import com.composum.platform.replication.remote.RemotePublisherService.RemoteReleasePublishingProcess;
 import com.composum.platform.replication.remotereceiver.RemotePublicationConfig;
 import com.composum.platform.replication.remotereceiver.RemotePublicationReceiverFacade;
 import com.composum.platform.replication.remotereceiver.RemotePublicationReceiverServlet;
 import com.composum.sling.core.BeanContext;
+import com.composum.sling.core.logging.Message;
 import com.composum.sling.nodes.NodesConfiguration;
+import com.composum.sling.platform.staging.ReleaseChangeEvent;
 import com.composum.sling.platform.staging.ReleaseChangeEventListener;
 import com.composum.sling.platform.staging.ReleaseChangeProcess;
 import com.composum.sling.platform.staging.StagingReleaseManager;
 import com.composum.sling.platform.staging.replication.*;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.impl.client.BasicCookieStore;
+import org.apache.sling.api.resource.LoginException;
 import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
 import org.apache.sling.api.resource.ResourceResolverFactory;
 import org.osgi.framework.Constants;
 import org.osgi.service.component.annotations.*;
@@ -26,7 +32,22 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.jcr.RepositoryException;
 import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static java.util.Objects.requireNonNull;
 
 /**
  * Transmits the changes of the JCR content of a release to a remote system.
@@ -34,7 +55,7 @@ import java.io.IOException;
  * {@link RemotePublicationReceiverServlet}.
  */
 @Component(
-        service = ReleaseChangeEventListener.class,
+        service = {ReleaseChangeEventListener.class, RemotePublisherService.class},
         property = {Constants.SERVICE_DESCRIPTION + "=Composum Platform Remote Replication Service"},
         configurationPolicy = ConfigurationPolicy.REQUIRE,
         immediate = true
@@ -62,6 +83,20 @@ public class RemotePublisherService
     @Reference
     protected CredentialService credentialService;
 
+    @Reference
+    protected ReplicationConfigResolver configResolver;
+
+    /** The runtime state of the targets, by the path of their configuration. */
+    protected final Map<String, RemoteTarget> targets = new ConcurrentHashMap<>();
+
+    /** The latest dry run per configuration path, see {@link #startDryRun(String)}. */
+    protected final Map<String, CompletableFuture<ReplicationCostEstimate>> dryRuns = new ConcurrentHashMap<>();
+
+    /** The threads for asynchronous responses, retries and parallel transmissions for all targets. */
+    protected volatile ReplicationExecutors executors;
+
+    protected final TargetHealthProber healthProber = new TargetHealthProber();
+
     @Nonnull
     @Override
     protected RemoteReleasePublishingProcess makePublishingProcess(Resource releaseRoot, RemotePublicationConfig replicationConfig) {
@@ -73,6 +108,13 @@ public class RemotePublisherService
     protected void activate(final Configuration theConfig) {
         LOG.info("activated");
         this.config = theConfig;
+        if (executors == null) {
+            executors = new ReplicationExecutors();
+        }
+        executors.configure(theConfig.executionMode(), theConfig.workerThreads());
+        LOG.info("Execution mode {}", executors.getMode());
+        healthProber.start(executors.getScheduler(), executors.getWorkers(), theConfig.healthProbeInterval(),
+                this::probeTargets);
     }
 
     @Nonnull
@@ -92,6 +134,14 @@ public class RemotePublisherService
     protected void deactivate() throws IOException {
         LOG.info("deactivated");
         this.config = null;
+        healthProber.close();
+        targets.values().forEach(RemoteTarget::close);
+        targets.clear();
+        dryRuns.clear();
+        if (executors != null) {
+            executors.shutdown();
+            executors = null;
+        }
         super.deactivate();
     }
 
@@ -118,17 +168,165 @@ public class RemotePublisherService
     protected class RemoteReleasePublishingProcess extends AbstractReplicationProcess implements ReleaseChangeProcess {
         protected final CachedCalculation<UpdateInfo, ReplicationException> remoteReleaseInfo;
 
+        @Nonnull
+        protected final RemotePublicationConfig remoteConfig;
+
         public RemoteReleasePublishingProcess(@Nonnull Resource releaseRoot, @Nonnull RemotePublicationConfig config) {
             super(releaseRoot, config);
+            remoteConfig = config;
             remoteReleaseInfo = new CachedCalculation<>(this::remoteReleaseInfo, 60000);
         }
 
-        @Nonnull
+        /** Set during {@link #dryRun(Resource)}. */
+        protected volatile ReplicationCostEstimate dryRunEstimate;
+
+        protected final ReleaseChangeDebouncer debouncer = new ReleaseChangeDebouncer();
+
+        /** When the run was first deferred since the target is unhealthy; 0 if it isn't. */
+        protected volatile long unhealthySince;
+
+        /** True while a thread executes {@link #run()}. */
+        protected final AtomicBoolean running = new AtomicBoolean();
+
+        /** Set by each {@link #run()}; a run started while another one is active is repeated after it. */
+        protected final AtomicBoolean runRequested = new AtomicBoolean();
+
+        @Override
+        public void triggerProcessing(@Nonnull ReleaseChangeEvent event) {
+            super.triggerProcessing(event);
+            debouncer.triggered();
+        }
+
+        /**
+         * Defers the run until the release changes have settled (see {@link ReleaseChangeDebouncer}), so that the
+         * changes of several events are replicated in one run, and while the target is unhealthy - without blocking
+         * the thread meanwhile. A deferred run on a worker thread and a run started by the publisher thread never
+         * overlap: a run started while another one is active returns at once, and the active one is repeated
+         * afterwards on its thread.
+         */
+        @Override
+        public void run() {
+            runRequested.set(true);
+            while (runRequested.get() && running.compareAndSet(false, true)) {
+                try {
+                    runRequested.set(false);
+                    runOnce();
+                } finally {
+                    running.set(false);
+                }
+            }
+        }
+
+        protected void runOnce() {
+            Configuration theConfig = config;
+            if (theConfig != null && dryRunEstimate == null) {
+                long delay = debouncer.startRun(theConfig.debounceWindow(), theConfig.debounceMaxDelay());
+                if (delay == ReleaseChangeDebouncer.SKIP) {
+                    LOG.debug("Changes are replicated by a deferred run for {}", remoteConfig.getPath());
+                    return;
+                } else if (delay > 0) {
+                    LOG.debug("Deferring the replication for {} by {} ms", remoteConfig.getPath(), delay);
+                    scheduleDeferredRun(delay);
+                    return;
+                }
+                delay = unhealthyDelay(theConfig);
+                if (delay > 0) {
+                    debouncer.defer();
+                    scheduleDeferredRun(delay);
+                    return;
+                }
+            }
+            super.run();
+        }
+
+        /**
+         * Runs the process again after the delay on a worker thread. If that's not possible since the service is
+         * deactivated, the events are left for the next run.
+         */
+        protected void scheduleDeferredRun(long delayMillis) {
+            ReplicationExecutors theExecutors = executors;
+            if (theExecutors == null) {
+                debouncer.deferredRunDue();
+                return;
+            }
+            try {
+                theExecutors.getScheduler().schedule(() -> {
+                    try {
+                        theExecutors.getWorkers().execute(() -> {
+                            debouncer.deferredRunDue();
+                            run();
+                        });
+                    } catch (RejectedExecutionException e) {
+                        debouncer.deferredRunDue();
+                    }
+                }, delayMillis, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                LOG.warn("Could not schedule the replication of {}: {}", remoteConfig.getPath(), e.toString());
+                debouncer.deferredRunDue();
+            }
+        }
+
+        /**
+         * If the {@link TargetHealthProber} found the target unhealthy, the run is deferred until the next probe,
+         * but at most {@link Configuration#unhealthyMaxDelay()} after it was deferred first - then it is tried
+         * anyway.
+         *
+         * @return the time in milliseconds to defer the run, 0 if it is done now
+         */
+        protected long unhealthyDelay(@Nonnull Configuration theConfig) {
+            RemoteTarget target = targets.get(remoteConfig.getPath());
+            if (target == null || target.getHealth().isHealthy()) {
+                unhealthySince = 0;
+                return 0;
+            }
+            long now = System.currentTimeMillis();
+            if (unhealthySince == 0) {
+                unhealthySince = now;
+            }
+            long remaining = unhealthySince + theConfig.unhealthyMaxDelay() * 1000L - now;
+            if (remaining <= 0) {
+                LOG.warn("Target of {} still unhealthy, trying anyway", remoteConfig.getPath());
+                unhealthySince = 0;
+                return 0;
+            }
+            long delay = Math.min(remaining, Math.max(1, theConfig.healthProbeInterval()) * 1000L);
+            LOG.warn("Target of {} is unhealthy, deferring the replication by {} ms", remoteConfig.getPath(), delay);
+            return delay;
+        }
+
         @Override
         protected PublicationReceiverFacade createTargetFacade(@Nonnull AbstractReplicationConfig replicationConfig, @Nonnull BeanContext context) {
-            CloseableHttpClient httpClient = createHttpClient();
-            return new RemotePublicationReceiverFacade((RemotePublicationConfig) replicationConfig,
-                    context, httpClient, () -> config, nodesConfig, proxyManagerService, credentialService);
+            RemotePublicationConfig remoteConfig = (RemotePublicationConfig) replicationConfig;
+            RemoteTarget target = getTarget(remoteConfig);
+            RemotePublicationReceiverFacade facade = new RemotePublicationReceiverFacade(remoteConfig,
+                    context, target.getHttpClient(), () -> config, nodesConfig, proxyManagerService,
+                    credentialService, target);
+            facade.setDryRun(dryRunEstimate);
+            return facade;
+        }
+
+        /**
+         * Runs the replication of the whole release in the calling thread - a worker, see
+         * {@link RemotePublisherService#startDryRun(String)} - up to the point where the content would
+         * be transmitted: the target is asked for its release info and compared, but instead of uploading and
+         * committing the costs are estimated and the update is aborted. Only for processes created for that
+         * purpose, never for the processes that actually replicate.
+         */
+        @Nonnull
+        public ReplicationCostEstimate dryRun(@Nonnull Resource releaseRoot) {
+            ReplicationCostEstimate estimate = new ReplicationCostEstimate();
+            dryRunEstimate = estimate;
+            long start = System.currentTimeMillis();
+            try {
+                triggerProcessing(ReleaseChangeEvent.fullUpdate(releaseRoot));
+                run();
+            } finally {
+                dryRunEstimate = null;
+            }
+            RemoteTarget target = targets.get(remoteConfig.getPath());
+            estimate.setTimes(System.currentTimeMillis() - start,
+                    target != null ? target.getStatistics().getThroughput() : 0);
+            return estimate;
         }
 
         @Override
@@ -166,10 +364,161 @@ public class RemotePublisherService
     }
 
     /**
-     * Use different http clients for each replication to avoid sharing cookies etc. - each replication can have a different user.
+     * Starts estimating what a replication of the release to the target configured at configPath would transmit and
+     * how long it would take, without changing anything on the target. The dry run takes as long as the comparison
+     * with the target, so it runs on a worker thread; if one is already running for the configuration, that one is
+     * returned.
+     *
+     * @return the running dry run, which fails with a {@link ReplicationException} if it cannot be done
+     * @see RemoteReleasePublishingProcess#dryRun(Resource)
+     */
+    @Nonnull
+    public CompletableFuture<ReplicationCostEstimate> startDryRun(@Nonnull String configPath)
+            throws ReplicationException {
+        ReplicationExecutors theExecutors = executors;
+        if (!isEnabled() || theExecutors == null) {
+            throw new ReplicationException(Message.error("Remote replication is not enabled"), null);
+        }
+        return dryRuns.compute(configPath, (path, previous) -> previous != null && !previous.isDone() ? previous
+                : CompletableFuture.supplyAsync(() -> dryRun(path), theExecutors.getWorkers())
+                .whenComplete((estimate, ex) -> {
+                    if (ex != null) {
+                        LOG.error("Dry run failed for {}", path, ex);
+                    }
+                }));
+    }
+
+    /** The latest dry run for the configuration since activation, if there is one. */
+    @Nullable
+    public CompletableFuture<ReplicationCostEstimate> getDryRun(@Nonnull String configPath) {
+        return dryRuns.get(configPath);
+    }
+
+    /**
+     * Does the dry run for {@link #startDryRun(String)} with a service resolver.
+     *
+     * @throws CompletionException with the {@link ReplicationException} if the dry run cannot be done
+     */
+    @Nonnull
+    protected ReplicationCostEstimate dryRun(@Nonnull String configPath) {
+        try (ResourceResolver resolver = resolverFactory.getServiceResourceResolver(null)) {
+            Resource configResource = resolver.getResource(configPath);
+            RemotePublicationConfig replicationConfig = configResource != null
+                    ? new BeanContext.Service(resolver).withResource(configResource)
+                    .adaptTo(RemotePublicationConfig.class) : null;
+            Resource sourceResource = replicationConfig != null
+                    ? resolver.getResource(replicationConfig.getSourcePath()) : null;
+            Resource releaseRoot = sourceResource != null ? releaseManager.findReleaseRoot(sourceResource) : null;
+            if (releaseRoot == null) {
+                throw new CompletionException(new ReplicationException(Message.error(
+                        "No release root found for replication configuration {}", configPath), null));
+            }
+            LOG.info("Dry run of {} for {}", configPath, releaseRoot.getPath());
+            ReplicationCostEstimate estimate = makePublishingProcess(releaseRoot, replicationConfig)
+                    .dryRun(releaseRoot);
+            LOG.info("Dry run of {} : {}", configPath, estimate);
+            return estimate;
+        } catch (LoginException e) {
+            throw new CompletionException(new ReplicationException(Message.error(
+                    "Could not get service resolver for the dry run of {}", configPath), e));
+        }
+    }
+
+    /**
+     * The runtime state for the target, shared between all processes replicating to it, updated with the current
+     * configuration.
+     */
+    @Nonnull
+    protected RemoteTarget getTarget(@Nonnull RemotePublicationConfig replicationConfig) {
+        RemoteTarget target = targets.computeIfAbsent(replicationConfig.getPath(),
+                (path) -> new RemoteTarget(path, requireNonNull(executors, "not active")));
+        target.configure(replicationConfig);
+        Configuration theConfig = config;
+        if (theConfig != null) {
+            target.getLanes().configure(theConfig.urgentConnections(), theConfig.bulkConnections(),
+                    theConfig.bulkMaxWait() * 1000L);
+            target.getHealth().configure(theConfig.healthFailureThreshold());
+        }
+        return target;
+    }
+
+    /** The statistics about the communication with the targets used since activation, by their configuration path. */
+    @Nonnull
+    public Map<String, TargetStatistics> getTargetStatistics() {
+        Map<String, TargetStatistics> result = new TreeMap<>();
+        targets.forEach((path, target) -> result.put(path, target.getStatistics()));
+        return result;
+    }
+
+    /** The dashboard data of the targets used since activation, see {@link RemoteTarget#toMap()}, sorted by path. */
+    @Nonnull
+    public List<Map<String, Object>> getDashboard() {
+        List<Map<String, Object>> result = new ArrayList<>();
+        new TreeMap<>(targets).forEach((path, target) -> result.add(target.toMap()));
+        return result;
+    }
+
+    /**
+     * The context for a probe: the target's shared context if {@link Configuration#authContextTtl()} is set, so
+     * that the probe authenticates for the next replication.
      */
-    protected CloseableHttpClient createHttpClient() {
-        return HttpClients.createSystem();
+    @Nonnull
+    protected HttpClientContext getProbeContext(@Nonnull RemoteTarget target,
+                                                @Nonnull RemotePublicationConfig remoteConfig,
+                                                @Nonnull Configuration theConfig)
+            throws ReplicationException, RepositoryException {
+        if (theConfig.authContextTtl() > 0) {
+            return target.getHttpClientContext(theConfig.authContextTtl() * 1000L, (context) -> {
+                try {
+                    remoteConfig.initHttpContext(context, proxyManagerService, credentialService);
+                } catch (RepositoryException e) {
+                    throw new ReplicationException(Message.error("Trouble initializing connection for {}",
+                            remoteConfig.getPath()), e);
+                }
+            });
+        }
+        HttpClientContext context = HttpClientContext.create();
+        context.setCookieStore(new BasicCookieStore());
+        return remoteConfig.initHttpContext(context, proxyManagerService, credentialService);
+    }
+
+    /**
+     * Probes the enabled remote targets used since activation, see {@link TargetHealthProber}. The contexts are
+     * prepared here since the configurations need the resolver; the requests are sent by the worker threads, so that
+     * an unreachable target doesn't hold up the others.
+     */
+    protected void probeTargets() {
+        ReplicationExecutors theExecutors = executors;
+        Configuration theConfig = config;
+        if (!isEnabled() || theExecutors == null || theConfig == null) {
+            return;
+        }
+        try (ResourceResolver resolver = resolverFactory.getServiceResourceResolver(null)) {
+            BeanContext context = new BeanContext.Service(resolver);
+            for (String configPath : new ArrayList<>(targets.keySet())) {
+                ResolvedConfig resolved = configResolver.getConfig(configPath);
+                if (resolved == null || !resolved.isEnabled()
+                        || !RemoteReplicationType.SERVICE_ID.equals(resolved.getReplicationType())) {
+                    continue;
+                }
+                Resource configResource = resolver.getResource(resolved.getPath());
+                RemotePublicationConfig remoteConfig = configResource != null
+                        ? context.withResource(configResource).adaptTo(RemotePublicationConfig.class) : null;
+                if (remoteConfig == null) {
+                    continue;
+                }
+                RemoteTarget target = getTarget(remoteConfig);
+                try {
+                    HttpClientContext httpContext = getProbeContext(target, remoteConfig, theConfig);
+                    URI targetUrl = remoteConfig.getTargetUrl();
+                    theExecutors.getWorkers().submit(() -> TargetHealthProber.probe(target, targetUrl, httpContext));
+                } catch (ReplicationException | RepositoryException | RuntimeException e) {
+                    target.getHealth().recordFailure(e.toString());
+                }
+            }
+        } catch (LoginException e) {
+            LOG.error("Could not get service resolver for probing the targets", e);
+        }
     }
 
     @ObjectClassDefinition(
@@ -183,6 +532,133 @@ public class RemotePublisherService
         )
         boolean enabled() default false;
 
+        @AttributeDefinition(
+                description = "How often a request is retried if the publisher rejects it because it is " +
+                        "overloaded (status 429 or 503), waiting the time given in its Retry-After header."
+        )
+        int backpressureRetries() default 5;
+
+        @AttributeDefinition(
+                description = "The maximum time in seconds waited before a request is retried."
+        )
+        int maxRetryWait() default 120;
+
+        @AttributeDefinition(
+                description = "How often a request is retried after a transient failure (I/O error, gateway " +
+                        "timeout). Only requests that can safely be repeated are retried."
+        )
+        int maxRetries() default 3;
+
+        @AttributeDefinition(
+                description = "The time in milliseconds waited before the first retry after a transient failure; " +
+                        "doubled for each further retry."
+        )
+        int retryDelay() default 1000;
+
+        @AttributeDefinition(
+                description = "Maximum number of packages uploaded in parallel by one replication process. The " +
+                        "uploads are pipelined: the packages are created one by one by the process, transmitted in " +
+                        "parallel, and the commit waits until all are through. 1 uploads sequentially."
+        )
+        int parallelUploads() default 1;
+
+        @AttributeDefinition(
+                description = "If true, changed subtrees are transmitted as property level deltas to the " +
+                        "receiver's copy instead of a package of the whole subtree, where possible. Costs an " +
+                        "additional request per subtree, but saves transmitting unchanged properties and binaries."
+        )
+        boolean deltaUploads() default false;
+
+        @AttributeDefinition(
+                description = "If compareContent reports at least this many differing versionables - e.g. at the " +
+                        "initial synchronization of a new publisher - their packages are transmitted in one " +
+                        "archive streamed in a single request instead of one request per versionable. 0 switches " +
+                        "this off."
+        )
+        int bulkUploadThreshold() default 0;
+
+        @AttributeDefinition(
+                description = "The maximum size in kB of the changed binaries in a delta; larger changes are " +
+                        "transmitted as package."
+        )
+        int deltaMaxBinarySize() default 1024;
+
+        @AttributeDefinition(
+                description = "Time in milliseconds without further release changes a replication is deferred " +
+                        "for, so that changes in quick succession (e.g. activating page after page) are replicated " +
+                        "together in one run. 0 starts replicating immediately."
+        )
+        int debounceWindow() default 0;
+
+        @AttributeDefinition(
+                description = "The maximum time in milliseconds a replication is deferred by further changes."
+        )
+        int debounceMaxDelay() default 10000;
+
+        @AttributeDefinition(
+                description = "A replication is urgent - e.g. the publication of a single page - if " +
+                        "compareContent reports at most this many differing versionables; otherwise it is a bulk " +
+                        "replication. Urgent and bulk replications have separate request budgets per target."
+        )
+        int urgentMaxPaths() default 10;
+
+        @AttributeDefinition(
+                description = "Maximum number of concurrent requests of urgent replications to one target; " +
+                        "0 for unlimited."
+        )
+        int urgentConnections() default 4;
+
+        @AttributeDefinition(
+                description = "Maximum number of concurrent requests of bulk replications to one target; " +
+                        "0 for unlimited. Bulk requests are not started while urgent requests are waiting or " +
+                        "running."
+        )
+        int bulkConnections() default 2;
+
+        @AttributeDefinition(
+                description = "Maximum time in seconds a bulk request waits for urgent requests before it is " +
+                        "started anyway, so that bulk replications progress under steady urgent traffic. " +
+                        "0 for unlimited."
+        )
+        int bulkMaxWait() default 10;
+
+        @AttributeDefinition(
+                description = "Threads used for the parallel uploads: 'platform' for a pool of platform threads, " +
+                        "'virtual' for a virtual thread per upload if the Java runtime supports it (Java 21+)."
+        )
+        String executionMode() default ReplicationExecutors.MODE_PLATFORM;
+
+        @AttributeDefinition(
+                description = "Size of the platform thread pool for the parallel uploads of all processes."
+        )
+        int workerThreads() default 16;
+
+        @AttributeDefinition(
+                description = "Time in seconds between two probes of each enabled remote target, which measure " +
+                        "its availability and keep the connections ready. 0 switches the probing off."
+        )
+        int healthProbeInterval() default 0;
+
+        @AttributeDefinition(
+                description = "The number of failed probes in a row after which a target is unhealthy."
+        )
+        int healthFailureThreshold() default 3;
+
+        @AttributeDefinition(
+                description = "The maximum time in seconds a replication to an unhealthy target is deferred " +
+                        "until the target is available again; then it is tried anyway."
+        )
+        int unhealthyMaxDelay() default 300;
+
+        @AttributeDefinition(
+                description = "Time in seconds the authenticated connection context of a target (credentials, " +
+                        "proxy, cookies, auth cache) is shared by the replication processes and probes before it " +
+                        "is created anew. It is also renewed when the configuration changes or the target rejects " +
+                        "the credentials. 0 (default) creates a context per process; e.g. 600 saves the " +
+                        "authentication of each process."
+        )
+        int authContextTtl() default 0;
+
     }
 
 }
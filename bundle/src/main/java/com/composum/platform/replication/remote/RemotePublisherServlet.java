@@ -0,0 +1,195 @@
+package com.composum.platform.replication.remote;
+
+import com.composum.platform.replication.model.ProxyOptionsCache;
+import com.composum.platform.replication.model.ReplicationConfigResolver;
+import com.composum.platform.replication.model.ReplicationConfigResolver.ResolvedConfig;
+import com.composum.sling.core.ResourceHandle;
+import com.composum.sling.core.servlet.AbstractServiceServlet;
+import com.composum.sling.core.servlet.ServletOperation;
+import com.composum.sling.core.servlet.ServletOperationSet;
+import com.composum.sling.core.servlet.Status;
+import com.composum.sling.platform.staging.replication.ReplicationException;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.api.servlets.HttpConstants;
+import org.apache.sling.api.servlets.ServletResolverConstants;
+import org.osgi.framework.Constants;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.servlet.Servlet;
+import javax.servlet.ServletException;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Operations of the {@link RemotePublisherService} on the author host for the replication setup UI.
+ */
+@Component(service = Servlet.class,
+        property = {
+                Constants.SERVICE_DESCRIPTION + "=Composum Platform Remote Publisher Servlet",
+                ServletResolverConstants.SLING_SERVLET_PATHS + "=/bin/cpm/platform/replication/remotepublisher",
+                ServletResolverConstants.SLING_SERVLET_METHODS + "=" + HttpConstants.METHOD_GET,
+                ServletResolverConstants.SLING_SERVLET_METHODS + "=" + HttpConstants.METHOD_POST
+        })
+public class RemotePublisherServlet extends AbstractServiceServlet {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RemotePublisherServlet.class);
+
+    public enum Extension {json}
+
+    public enum Operation {dryRun, targets, dashboard, proxies}
+
+    protected final ServletOperationSet<Extension, Operation> operations = new ServletOperationSet<>(Extension.json);
+
+    @Reference
+    protected RemotePublisherService publisherService;
+
+    @Reference
+    protected ReplicationConfigResolver configResolver;
+
+    @Reference
+    protected ProxyOptionsCache proxyOptions;
+
+    @Deprecated
+    protected boolean isEnabled() {
+        return true;
+    }
+
+    @Override
+    protected ServletOperationSet getOperations() {
+        return operations;
+    }
+
+    @Override
+    public void init() throws ServletException {
+        super.init();
+
+        // POST starts a dry run, which starts an update on the target (which is aborted); GET polls its state
+        operations.setOperation(ServletOperationSet.Method.POST, Extension.json, Operation.dryRun,
+                new DryRunOperation(true));
+        operations.setOperation(ServletOperationSet.Method.GET, Extension.json, Operation.dryRun,
+                new DryRunOperation(false));
+        operations.setOperation(ServletOperationSet.Method.GET, Extension.json, Operation.targets,
+                new TargetsOperation());
+        operations.setOperation(ServletOperationSet.Method.GET, Extension.json, Operation.dashboard,
+                new DashboardOperation());
+        operations.setOperation(ServletOperationSet.Method.GET, Extension.json, Operation.proxies,
+                new ProxiesOperation());
+    }
+
+    /**
+     * Starts (POST) the estimation of the costs of a replication of the release to the target configured at the
+     * suffix, see {@link RemotePublisherService#startDryRun(String)}, or returns (GET) the state of the latest one:
+     * 'running' in the data 'dryRun', and if it's done the data 'estimate'. The client polls until it's done.
+     */
+    protected class DryRunOperation implements ServletOperation {
+
+        protected final boolean start;
+
+        protected DryRunOperation(boolean start) {
+            this.start = start;
+        }
+
+        @Override
+        public void doIt(@Nonnull SlingHttpServletRequest request, @Nonnull SlingHttpServletResponse response,
+                         @Nullable ResourceHandle resource) throws IOException {
+            Status status = new Status(request, response, LOG);
+            if (resource != null && resource.isValid()) {
+                try {
+                    CompletableFuture<ReplicationCostEstimate> dryRun = start
+                            ? publisherService.startDryRun(resource.getPath())
+                            : publisherService.getDryRun(resource.getPath());
+                    addDryRun(status, dryRun);
+                } catch (ReplicationException e) {
+                    LOG.error("Dry run failed for {}", resource.getPath(), e);
+                    status.error("Dry run failed: {}", e.getMessage());
+                }
+            } else {
+                status.error("no replication configuration found at {}", request.getRequestPathInfo().getSuffix());
+            }
+            status.sendJson();
+        }
+
+        protected void addDryRun(@Nonnull Status status,
+                                 @Nullable CompletableFuture<ReplicationCostEstimate> dryRun) {
+            status.data("dryRun").put("running", dryRun != null && !dryRun.isDone());
+            if (dryRun != null && dryRun.isDone()) {
+                try {
+                    ReplicationCostEstimate estimate = dryRun.join();
+                    status.data("estimate").putAll(estimate.toMap());
+                    if (!estimate.isCompleted()) {
+                        status.warn("The dry run did not reach the commit - please check the log.");
+                    }
+                } catch (CompletionException | CancellationException e) {
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    status.error("Dry run failed: {}", cause.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Lists the enabled replication configurations which replicate the content path given as suffix for the stage
+     * given as parameter 'stage' (default 'public').
+     */
+    protected class TargetsOperation implements ServletOperation {
+        @Override
+        public void doIt(@Nonnull SlingHttpServletRequest request, @Nonnull SlingHttpServletResponse response,
+                         @Nullable ResourceHandle resource) throws IOException {
+            Status status = new Status(request, response, LOG);
+            String path = request.getRequestPathInfo().getSuffix();
+            if (StringUtils.isNotBlank(path)) {
+                String stage = StringUtils.defaultIfBlank(request.getParameter("stage"), "public");
+                List<Map<String, Object>> targets = status.list("targets");
+                for (ResolvedConfig config : configResolver.findTargets(stage, path)) {
+                    targets.add(config.toMap());
+                }
+            } else {
+                status.error("no content path given as suffix");
+            }
+            status.sendJson();
+        }
+    }
+
+    /**
+     * The live state of the targets used since activation ({@link RemotePublisherService#getDashboard()}) as list
+     * 'targets'; the dashboard polls it.
+     */
+    protected class DashboardOperation implements ServletOperation {
+        @Override
+        public void doIt(@Nonnull SlingHttpServletRequest request, @Nonnull SlingHttpServletResponse response,
+                         @Nullable ResourceHandle resource) throws IOException {
+            Status status = new Status(request, response, LOG);
+            status.list("targets").addAll(publisherService.getDashboard());
+            status.sendJson();
+        }
+    }
+
+    /**
+     * The available proxies as list 'proxies' of key and title, loaded by the configuration dialog when it is
+     * opened.
+     */
+    protected class ProxiesOperation implements ServletOperation {
+        @Override
+        public void doIt(@Nonnull SlingHttpServletRequest request, @Nonnull SlingHttpServletResponse response,
+                         @Nullable ResourceHandle resource) throws IOException {
+            Status status = new Status(request, response, LOG);
+            List<Map<String, Object>> proxies = status.list("proxies");
+            for (ProxyOptionsCache.ProxyOption proxy : proxyOptions.getProxies()) {
+                proxies.add(proxy.toMap());
+            }
+            status.sendJson();
+        }
+    }
+
+}
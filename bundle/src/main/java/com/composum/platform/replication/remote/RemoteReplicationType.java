@@ -1,14 +1,29 @@
 package com.composum.platform.replication.remote;
 
 import com.composum.sling.platform.staging.replication.ReplicationType;
+import org.osgi.framework.Constants;
+import org.osgi.service.component.annotations.Component;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
+/**
+ * The standard remote replication type; registered as service for the
+ * {@link com.composum.platform.replication.model.ReplicationTypeRegistry}.
+ */
+@Component(
+        service = ReplicationType.class,
+        property = {
+                Constants.SERVICE_DESCRIPTION + "=Composum Platform Remote Replication Type"
+        }
+)
 public class RemoteReplicationType implements ReplicationType {
 
     public static final String SERVICE_ID = "remote";
 
+    /** The shared instance for use outside of the registry. */
+    public static final RemoteReplicationType INSTANCE = new RemoteReplicationType();
+
     @Nonnull
     @Override
     public String getServiceId() {
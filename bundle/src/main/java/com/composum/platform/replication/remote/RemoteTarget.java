@@ -0,0 +1,296 @@
+package com.composum.platform.replication.remote;
+
+import com.composum.platform.replication.remotereceiver.ClassicReceiverTransport;
+import com.composum.platform.replication.remotereceiver.Http2ReceiverTransport;
+import com.composum.platform.replication.remotereceiver.ReceiverEndpoints;
+import com.composum.platform.replication.remotereceiver.ReceiverTransport;
+import com.composum.platform.replication.remotereceiver.RemotePublicationConfig;
+import com.composum.platform.replication.remotereceiver.ReplicationThrottle;
+import com.composum.sling.platform.staging.replication.ReplicationException;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.impl.client.BasicAuthCache;
+import org.apache.http.impl.client.BasicCookieStore;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.protocol.BasicHttpContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * The runtime state kept for one remote replication target (that is, one {@link RemotePublicationConfig}), shared
+ * between all processes replicating to it.
+ */
+public class RemoteTarget implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RemoteTarget.class);
+
+    /** The maximum number of pooled connections to the target. */
+    public static final int MAX_CONNECTIONS = 32;
+
+    /** Connections idle for longer than this are closed. */
+    public static final int IDLE_CONNECTION_SECONDS = 300;
+
+    protected final String configPath;
+
+    protected final ReplicationExecutors executors;
+
+    /** The current time in milliseconds, for the expiry of the {@link #httpClientContext}. */
+    protected final LongSupplier clock;
+
+    protected final ReplicationThrottle throttle = new ReplicationThrottle();
+
+    protected final TargetStatistics statistics = new TargetStatistics();
+
+    protected final ReplicationLanes lanes = new ReplicationLanes();
+
+    protected final ReplicationProgress progress = new ReplicationProgress();
+
+    protected final TargetHealth health = new TargetHealth();
+
+    protected volatile String transportType = RemotePublicationConfig.TRANSPORT_HTTP1;
+
+    /** Created on demand if {@link RemotePublicationConfig#TRANSPORT_HTTP2} is configured. */
+    protected Http2ReceiverTransport http2Transport;
+
+    protected volatile ReceiverEndpoints endpoints;
+
+    /** The context with credentials, proxy, cookies and auth cache shared by the processes; guarded by this. */
+    protected HttpClientContext httpClientContext;
+
+    /** The time after which {@link #httpClientContext} is created anew. */
+    protected long httpClientContextExpiry;
+
+    /** The configuration values the {@link #httpClientContext} was made for. */
+    protected volatile String contextConfiguration;
+
+    /** The classic client with the connection pool shared by all processes and the health probes; on demand. */
+    protected CloseableHttpClient httpClient;
+
+    /**
+     * @param configPath the path of the configuration
+     * @param executors  the threads of the remote replication
+     */
+    public RemoteTarget(@Nonnull String configPath, @Nonnull ReplicationExecutors executors) {
+        this(configPath, executors, System::currentTimeMillis);
+    }
+
+    /**
+     * @param configPath the path of the configuration
+     * @param executors  the threads of the remote replication
+     * @param clock      the current time in milliseconds
+     */
+    public RemoteTarget(@Nonnull String configPath, @Nonnull ReplicationExecutors executors,
+                        @Nonnull LongSupplier clock) {
+        this.configPath = configPath;
+        this.executors = executors;
+        this.clock = clock;
+    }
+
+    /** Takes over the current configuration; closes the HTTP/2 client if the target doesn't use it anymore. */
+    public void configure(@Nonnull RemotePublicationConfig config) {
+        throttle.configure(config);
+        transportType = config.getTransport();
+        if (!RemotePublicationConfig.TRANSPORT_HTTP2.equals(transportType)) {
+            closeHttp2Transport();
+        }
+        String contextConfig = config.getTargetUrl() + " " + config.getCredentialId() + " " + config.getProxyKey();
+        if (!contextConfig.equals(contextConfiguration)) {
+            contextConfiguration = contextConfig;
+            invalidateHttpClientContext();
+        }
+    }
+
+    /** Initializes a context with the credentials and the proxy of the configuration. */
+    @FunctionalInterface
+    public interface HttpClientContextInitializer {
+        void init(@Nonnull HttpClientContext context) throws ReplicationException;
+    }
+
+    /**
+     * A context for the requests of one process, derived from the context shared by all processes of the target:
+     * credentials, proxy setup, cookies (e.g. a session) and the auth cache (so that basic authentication is
+     * sent preemptively after the first challenge) are taken over, so that they aren't looked up and negotiated
+     * anew for each process. The shared context is created anew after the time to live, after a configuration
+     * change and after {@link #invalidateHttpClientContext()}, e.g. due to a 401 response.
+     *
+     * @param ttlMillis   the time to live of the shared context
+     * @param initializer sets the credentials and the proxy of the current configuration
+     */
+    @Nonnull
+    public HttpClientContext getHttpClientContext(long ttlMillis, @Nonnull HttpClientContextInitializer initializer)
+            throws ReplicationException {
+        HttpClientContext shared;
+        synchronized (this) {
+            long now = clock.getAsLong();
+            if (httpClientContext == null || now >= httpClientContextExpiry) {
+                HttpClientContext context = HttpClientContext.create();
+                context.setCookieStore(new BasicCookieStore());
+                context.setAuthCache(new BasicAuthCache());
+                initializer.init(context);
+                statistics.countContextCreation();
+                httpClientContext = context;
+                httpClientContextExpiry = now + ttlMillis;
+            }
+            shared = httpClientContext;
+        }
+        // the attributes set during the requests stay in the child; cookie store and auth cache are thread safe
+        return HttpClientContext.adapt(new BasicHttpContext(shared));
+    }
+
+    /** Discards the shared context, e.g. since the target rejected its credentials. */
+    public synchronized void invalidateHttpClientContext() {
+        httpClientContext = null;
+    }
+
+    /**
+     * The transport for a facade according to the configuration: the shared HTTP/2 transport multiplexing the
+     * requests of all processes, or a classic transport with the facade's own client. The HTTP/2 transport falls
+     * back to the classic transport with the {@link #getHttpClient() shared client} for requests whose proxy setup
+     * it cannot take over.
+     */
+    @Nonnull
+    public ReceiverTransport getTransport(@Nonnull CloseableHttpClient httpClient) {
+        if (RemotePublicationConfig.TRANSPORT_HTTP2.equals(transportType)) {
+            return getHttp2Transport();
+        }
+        return new ClassicReceiverTransport(httpClient);
+    }
+
+    /** The operation URLs for the target URL, reused as long as the target URL doesn't change. */
+    @Nonnull
+    public ReceiverEndpoints getEndpoints(@Nullable URI targetUrl) {
+        ReceiverEndpoints result = endpoints;
+        if (result == null || !result.isFor(targetUrl)) {
+            result = new ReceiverEndpoints(targetUrl);
+            endpoints = result;
+        }
+        return result;
+    }
+
+    /**
+     * The client for the classic transport, shared by all processes replicating to the target and by the
+     * {@link TargetHealthProber}, so that the connections opened by the probes are reused by the replications.
+     * Since the client's default cookie store would be shared with all users of the client, the contexts used with
+     * it have to bring their own cookie store - see {@link #getHttpClientContext(long, HttpClientContextInitializer)}.
+     */
+    @Nonnull
+    public synchronized CloseableHttpClient getHttpClient() {
+        if (httpClient == null) {
+            httpClient = HttpClientBuilder.create().useSystemProperties()
+                    .setMaxConnPerRoute(MAX_CONNECTIONS).setMaxConnTotal(MAX_CONNECTIONS)
+                    .evictIdleConnections(IDLE_CONNECTION_SECONDS, TimeUnit.SECONDS)
+                    .build();
+        }
+        return httpClient;
+    }
+
+    @Nonnull
+    protected synchronized Http2ReceiverTransport getHttp2Transport() {
+        if (http2Transport == null) {
+            http2Transport = new Http2ReceiverTransport(new ClassicReceiverTransport(getHttpClient()));
+        }
+        return http2Transport;
+    }
+
+    protected synchronized void closeHttp2Transport() {
+        if (http2Transport != null) {
+            http2Transport.close();
+            http2Transport = null;
+        }
+    }
+
+    /** Releases the connections. */
+    @Override
+    public synchronized void close() {
+        closeHttp2Transport();
+        if (httpClient != null) {
+            try {
+                httpClient.close();
+            } catch (IOException e) {
+                LOG.warn("Closing the client for {} failed: {}", configPath, e.toString());
+            }
+            httpClient = null;
+        }
+    }
+
+    /** The path of the {@link RemotePublicationConfig} of the target. */
+    @Nonnull
+    public String getConfigPath() {
+        return configPath;
+    }
+
+    @Nonnull
+    public ReplicationThrottle getThrottle() {
+        return throttle;
+    }
+
+    /** The request budgets for urgent and bulk replications. */
+    @Nonnull
+    public ReplicationLanes getLanes() {
+        return lanes;
+    }
+
+    @Nonnull
+    public TargetStatistics getStatistics() {
+        return statistics;
+    }
+
+    /** The availability of the target according to the {@link TargetHealthProber}. */
+    @Nonnull
+    public TargetHealth getHealth() {
+        return health;
+    }
+
+    /** The state of the current and the last replication runs. */
+    @Nonnull
+    public ReplicationProgress getProgress() {
+        return progress;
+    }
+
+    /**
+     * A snapshot of the state for the dashboard: the progress of the runs, the number of requests waiting for the
+     * lane budgets (the queue depth), the error rate of the requests and the detailed statistics and lanes.
+     */
+    @Nonnull
+    public Map<String, Object> toMap() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("path", configPath);
+        result.putAll(progress.toMap());
+        int queueDepth = 0;
+        for (ReplicationLanes.Lane lane : ReplicationLanes.Lane.values()) {
+            queueDepth += lanes.getWaiting(lane);
+        }
+        result.put("queueDepth", queueDepth);
+        long requests = statistics.getRequests();
+        result.put("errorRate", requests > 0 ? (double) statistics.getFailures() / requests : 0.0);
+        result.put("health", health.toMap());
+        result.put("statistics", statistics.toMap());
+        result.put("lanes", lanes.toMap());
+        return result;
+    }
+
+    /** Times delayed retries; must not be blocked, see {@link ReplicationExecutors#getScheduler()}. */
+    @Nonnull
+    public ScheduledExecutorService getScheduler() {
+        return executors.getScheduler();
+    }
+
+    /** Transmits content in parallel to the replication process and runs the asynchronous requests. */
+    @Nonnull
+    public ExecutorService getWorkers() {
+        return executors.getWorkers();
+    }
+
+}
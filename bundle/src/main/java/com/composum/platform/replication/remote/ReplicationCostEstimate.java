@@ -0,0 +1,162 @@
+package com.composum.platform.replication.remote;
+
+import org.apache.sling.api.resource.Resource;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.Property;
+import javax.jcr.PropertyIterator;
+import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The result of a dry run of a replication: what would be transmitted to the target and an estimation of how long
+ * that would take. The size of the packages is estimated from the JCR content - the binaries are transmitted as
+ * they are, the other properties are serialized as XML and compressed - so it is only a rough figure.
+ */
+public class ReplicationCostEstimate {
+
+    /** The approximate size of the XML of a node in a package without its properties, including the zip entry. */
+    public static final int NODE_OVERHEAD = 200;
+
+    /** The approximate size of the XML of a property without its value. */
+    public static final int PROPERTY_OVERHEAD = 20;
+
+    /** The factor the XML in the packages is approximately compressed by. */
+    public static final int XML_COMPRESSION = 4;
+
+    /** At most that many changed paths are listed. */
+    public static final int MAX_LISTED_PATHS = 100;
+
+    protected final List<String> changedPaths = new ArrayList<>();
+    protected int changedVersionables;
+    protected int restorableVersionables;
+    protected int deletedPaths;
+    protected long nodes;
+    protected long binaryBytes;
+    protected long xmlBytes;
+    protected boolean completed;
+    protected long elapsedMillis;
+    protected double throughput;
+
+    /**
+     * Adds a versionable that would be transmitted.
+     *
+     * @param restorable true if the receiver could restore it from its cache, so that nearly nothing is transmitted
+     */
+    public synchronized void addVersionable(@Nonnull Resource resource, boolean restorable)
+            throws RepositoryException {
+        changedVersionables++;
+        if (changedPaths.size() < MAX_LISTED_PATHS) {
+            changedPaths.add(resource.getPath());
+        }
+        Node node = resource.adaptTo(Node.class);
+        if (restorable) {
+            restorableVersionables++;
+        } else if (node != null) {
+            addSubtree(node);
+        }
+    }
+
+    protected void addSubtree(@Nonnull Node node) throws RepositoryException {
+        nodes++;
+        xmlBytes += NODE_OVERHEAD + node.getName().length();
+        for (PropertyIterator properties = node.getProperties(); properties.hasNext(); ) {
+            Property property = properties.nextProperty();
+            long size = 0;
+            if (property.isMultiple()) {
+                for (long length : property.getLengths()) {
+                    size += Math.max(0, length);
+                }
+            } else {
+                size = Math.max(0, property.getLength());
+            }
+            if (property.getType() == PropertyType.BINARY) {
+                binaryBytes += size;
+            } else {
+                xmlBytes += PROPERTY_OVERHEAD + property.getName().length() + size;
+            }
+        }
+        for (NodeIterator children = node.getNodes(); children.hasNext(); ) {
+            addSubtree(children.nextNode());
+        }
+    }
+
+    /** Records the number of paths that would be deleted on the target. */
+    public synchronized void setDeletedPaths(int deletedPaths) {
+        this.deletedPaths = deletedPaths;
+    }
+
+    /** Marks that the dry run went through up to the point where the update would have been committed. */
+    public synchronized void setCompleted() {
+        this.completed = true;
+    }
+
+    /**
+     * Records the duration of the dry run itself, which is about the time the comparison with the target takes,
+     * and the observed throughput of the target in bytes per second (0 if unknown) for the projection.
+     */
+    public synchronized void setTimes(long elapsedMillis, double throughput) {
+        this.elapsedMillis = elapsedMillis;
+        this.throughput = throughput;
+    }
+
+    public synchronized boolean isCompleted() {
+        return completed;
+    }
+
+    public synchronized int getChangedVersionables() {
+        return changedVersionables;
+    }
+
+    public synchronized int getRestorableVersionables() {
+        return restorableVersionables;
+    }
+
+    /** The estimated size of the packages that would be transmitted. */
+    public synchronized long getEstimatedBytes() {
+        return binaryBytes + xmlBytes / XML_COMPRESSION;
+    }
+
+    /**
+     * The projected duration of the replication: the time of the comparison plus the transmission of the
+     * estimated bytes with the observed throughput; null if there is no throughput observed yet.
+     */
+    @Nullable
+    public synchronized Long getProjectedMillis() {
+        if (throughput <= 0) {
+            return null;
+        }
+        return elapsedMillis + Math.round(getEstimatedBytes() * 1000.0 / throughput);
+    }
+
+    /** A snapshot of the values for a JSON export. */
+    @Nonnull
+    public synchronized Map<String, Object> toMap() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("completed", completed);
+        result.put("changedVersionables", changedVersionables);
+        result.put("restorableVersionables", restorableVersionables);
+        result.put("deletedPaths", deletedPaths);
+        result.put("nodes", nodes);
+        result.put("binaryBytes", binaryBytes);
+        result.put("estimatedBytes", getEstimatedBytes());
+        result.put("elapsedMillis", elapsedMillis);
+        result.put("throughput", Math.round(throughput));
+        result.put("projectedMillis", getProjectedMillis());
+        result.put("changedPaths", new ArrayList<>(changedPaths));
+        return result;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ReplicationCostEstimate" + toMap();
+    }
+
+}
@@ -0,0 +1,153 @@
+package com.composum.platform.replication.remote;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The threads used by the remote replication besides the threads running the replication processes: a scheduler
+ * timing delayed retries and periodic tasks, which must never block and hands the actual work over to the workers,
+ * and the workers transmitting content in parallel to the process and processing asynchronous requests. The workers are either a platform thread pool, or - if {@link #MODE_VIRTUAL} is configured and the
+ * runtime supports it (Java 21+) - a virtual thread per task, which fits the blocking I/O of the transmission well.
+ */
+public class ReplicationExecutors {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ReplicationExecutors.class);
+
+    /** Execution mode: a fixed pool of platform threads. */
+    public static final String MODE_PLATFORM = "platform";
+
+    /** Execution mode: a new virtual thread per task, if available; otherwise falls back to {@link #MODE_PLATFORM}. */
+    public static final String MODE_VIRTUAL = "virtual";
+
+    /** Number of threads timing retries and periodic tasks. */
+    public static final int SCHEDULER_THREADS = 4;
+
+    protected final ScheduledExecutorService scheduler;
+
+    protected volatile ExecutorService workers;
+    protected volatile String mode;
+    protected volatile String effectiveMode;
+    protected volatile int platformThreads;
+
+    public ReplicationExecutors() {
+        scheduler = Executors.newScheduledThreadPool(SCHEDULER_THREADS, threadFactory("replication-scheduler-"));
+    }
+
+    /**
+     * (Re-)creates the workers if the configuration changed; the old workers finish their running tasks.
+     *
+     * @param mode            {@link #MODE_PLATFORM} or {@link #MODE_VIRTUAL}
+     * @param platformThreads the size of the pool of platform threads
+     */
+    public synchronized void configure(@Nullable String mode, int platformThreads) {
+        String newMode = MODE_VIRTUAL.equals(mode) ? MODE_VIRTUAL : MODE_PLATFORM;
+        int newPlatformThreads = Math.max(1, platformThreads);
+        if (workers != null && newMode.equals(this.mode) && newPlatformThreads == this.platformThreads) {
+            return;
+        }
+        ExecutorService oldWorkers = workers;
+        ExecutorService newWorkers = MODE_VIRTUAL.equals(newMode) ? newVirtualThreadExecutor() : null;
+        if (newWorkers == null) {
+            if (MODE_VIRTUAL.equals(newMode)) {
+                LOG.warn("Virtual threads are not supported by this runtime - using {} platform threads",
+                        newPlatformThreads);
+            }
+            newWorkers = newPlatformThreadExecutor(newPlatformThreads);
+        }
+        workers = newWorkers;
+        this.mode = newMode;
+        this.effectiveMode = newWorkers instanceof ThreadPoolExecutor ? MODE_PLATFORM : MODE_VIRTUAL;
+        this.platformThreads = newPlatformThreads;
+        if (oldWorkers != null) {
+            oldWorkers.shutdown();
+        }
+    }
+
+    /** Times retries and periodic tasks; the tasks must not block, but hand blocking work to the {@link #getWorkers()}. */
+    @Nonnull
+    public ScheduledExecutorService getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * Executes blocking work in parallel to the replication process, e.g. transmitting content or waiting for the
+     * request budget of asynchronous requests.
+     */
+    @Nonnull
+    public ExecutorService getWorkers() {
+        ExecutorService result = workers;
+        if (result == null) {
+            configure(MODE_PLATFORM, 1);
+            result = workers;
+        }
+        return result;
+    }
+
+    /**
+     * The mode actually used, {@link #MODE_PLATFORM} or {@link #MODE_VIRTUAL}; differs from the configured mode if
+     * virtual threads are not supported.
+     */
+    @Nonnull
+    public String getMode() {
+        return effectiveMode != null ? effectiveMode : MODE_PLATFORM;
+    }
+
+    public synchronized void shutdown() {
+        scheduler.shutdownNow();
+        if (workers != null) {
+            workers.shutdownNow();
+        }
+    }
+
+    /** True if the runtime supports virtual threads. */
+    public static boolean isVirtualThreadsSupported() {
+        ExecutorService executor = newVirtualThreadExecutor();
+        if (executor != null) {
+            executor.shutdown();
+        }
+        return executor != null;
+    }
+
+    /**
+     * Creates an executor starting a new virtual thread per task - by reflection, since we compile for older
+     * Java versions.
+     *
+     * @return the executor, or null if virtual threads are not supported
+     */
+    @Nullable
+    public static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOG.debug("No virtual threads available: {}", e.toString());
+            return null;
+        }
+    }
+
+    @Nonnull
+    public static ExecutorService newPlatformThreadExecutor(int threads) {
+        return Executors.newFixedThreadPool(threads, threadFactory("replication-worker-"));
+    }
+
+    @Nonnull
+    protected static ThreadFactory threadFactory(@Nonnull String prefix) {
+        AtomicInteger threadCount = new AtomicInteger();
+        return (runnable) -> {
+            Thread thread = new Thread(runnable, prefix + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+}
@@ -0,0 +1,124 @@
+package com.composum.platform.replication.remote;
+
+import javax.annotation.Nonnull;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Separate budgets of concurrent requests to one target for urgent replications (small change sets like a single
+ * page) and bulk replications (large releases), so that an urgent replication doesn't have to wait until a large
+ * one is through: it has its own budget, and while urgent requests are pending - waiting or running - no new bulk
+ * requests are started. A bulk request waits for the urgent requests only up to a maximum time, though, so that bulk
+ * replications don't starve under steady urgent traffic.
+ * Since the receiver locks only the paths of an update, urgent updates of other paths are processed in parallel
+ * there.
+ */
+public class ReplicationLanes {
+
+    /** The priority classes of the replications. */
+    public enum Lane {urgent, bulk}
+
+    /** Default for the maximum time a bulk request gives way to urgent requests. */
+    public static final long DEFAULT_MAX_BULK_WAIT_MILLIS = 10000;
+
+    /** The maximum number of concurrent requests per lane; &lt;= 0 is unlimited. */
+    protected final Map<Lane, Integer> limits = new EnumMap<>(Lane.class);
+
+    protected final Map<Lane, Integer> active = new EnumMap<>(Lane.class);
+
+    protected final Map<Lane, Integer> waiting = new EnumMap<>(Lane.class);
+
+    protected long maxBulkWaitMillis = DEFAULT_MAX_BULK_WAIT_MILLIS;
+
+    public ReplicationLanes() {
+        for (Lane lane : Lane.values()) {
+            limits.put(lane, 0);
+            active.put(lane, 0);
+            waiting.put(lane, 0);
+        }
+    }
+
+    /** Sets the budgets of the lanes; &lt;= 0 is unlimited. */
+    public synchronized void configure(int urgentLimit, int bulkLimit) {
+        limits.put(Lane.urgent, urgentLimit);
+        limits.put(Lane.bulk, bulkLimit);
+        notifyAll();
+    }
+
+    /**
+     * Sets the budgets of the lanes; &lt;= 0 is unlimited.
+     *
+     * @param maxBulkWaitMillis the maximum time a bulk request gives way to urgent requests; it still waits for the
+     *                          budget of its lane after that. &lt;= 0 is unlimited.
+     */
+    public synchronized void configure(int urgentLimit, int bulkLimit, long maxBulkWaitMillis) {
+        this.maxBulkWaitMillis = maxBulkWaitMillis;
+        configure(urgentLimit, bulkLimit);
+    }
+
+    /** Waits until a request in the lane may be started; has to be followed by a {@link #release(Lane)}. */
+    public synchronized void acquire(@Nonnull Lane lane) throws InterruptedException {
+        waiting.merge(lane, 1, Integer::sum);
+        try {
+            long start = System.nanoTime();
+            while (true) {
+                long remainingMillis = lane == Lane.bulk && maxBulkWaitMillis > 0
+                        ? maxBulkWaitMillis - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+                        : Long.MAX_VALUE;
+                if (isAdmissible(lane, remainingMillis <= 0)) {
+                    break;
+                }
+                if (remainingMillis > 0 && remainingMillis < Long.MAX_VALUE) {
+                    wait(remainingMillis);
+                } else {
+                    wait();
+                }
+            }
+        } finally {
+            waiting.merge(lane, -1, Integer::sum);
+        }
+        active.merge(lane, 1, Integer::sum);
+    }
+
+    public synchronized void release(@Nonnull Lane lane) {
+        active.merge(lane, -1, Integer::sum);
+        notifyAll();
+    }
+
+    /** @param overdue true if the request has given way to urgent requests long enough */
+    protected boolean isAdmissible(@Nonnull Lane lane, boolean overdue) {
+        int limit = limits.get(lane);
+        if (limit > 0 && active.get(lane) >= limit) {
+            return false;
+        }
+        // bulk requests give way to pending urgent requests
+        return lane != Lane.bulk || overdue || (waiting.get(Lane.urgent) == 0 && active.get(Lane.urgent) == 0);
+    }
+
+    /** The number of currently running requests in the lane. */
+    public synchronized int getActive(@Nonnull Lane lane) {
+        return active.get(lane);
+    }
+
+    /** The number of requests waiting for the budget of the lane. */
+    public synchronized int getWaiting(@Nonnull Lane lane) {
+        return waiting.get(lane);
+    }
+
+    /** A snapshot of the values for a JSON export. */
+    @Nonnull
+    public synchronized Map<String, Object> toMap() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        for (Lane lane : Lane.values()) {
+            Map<String, Object> laneData = new LinkedHashMap<>();
+            laneData.put("limit", limits.get(lane));
+            laneData.put("active", active.get(lane));
+            laneData.put("waiting", waiting.get(lane));
+            result.put(lane.name(), laneData);
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,169 @@
+package com.composum.platform.replication.remote;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory state of the replication runs to one remote target for the dashboard: the phase of the current run,
+ * the paths transmitted so far, the current transfer rate and the durations of the last runs. If several runs are
+ * active at the same time (e.g. an urgent one during a large release), the phase is that of the run which changed
+ * last, and the path counts add up until all of them are finished.
+ */
+public class ReplicationProgress {
+
+    /** The phases of a replication run. */
+    public enum Phase {idle, starting, comparing, uploading, committing, aborting}
+
+    /** The number of finished runs whose durations are kept. */
+    public static final int LAST_RUNS = 10;
+
+    /** The length of the window for the current transfer rate in seconds. */
+    protected static final int RATE_WINDOW = 10;
+
+    protected volatile Phase phase = Phase.idle;
+
+    protected final AtomicInteger activeRuns = new AtomicInteger();
+    protected final AtomicLong pathsDone = new AtomicLong();
+    protected final AtomicLong pathsTotal = new AtomicLong();
+    protected final AtomicLong runs = new AtomicLong();
+    protected final AtomicLong failedRuns = new AtomicLong();
+
+    /** Ring buffer of the last run durations and their outcome, guarded by this. */
+    protected final long[] runMillis = new long[LAST_RUNS];
+    protected final boolean[] runSuccess = new boolean[LAST_RUNS];
+    protected int nextRun;
+    protected int runCount;
+
+    /** Transferred bytes per second of the last {@link #RATE_WINDOW} seconds, guarded by {@link #rateBytes}. */
+    protected final long[] rateBytes = new long[RATE_WINDOW];
+    protected final long[] rateSeconds = new long[RATE_WINDOW];
+
+    /** A run starts; it has to be followed by {@link #endRun(long, boolean)}. */
+    public void startRun() {
+        if (activeRuns.getAndIncrement() == 0) {
+            pathsDone.set(0);
+            pathsTotal.set(0);
+        }
+        phase = Phase.starting;
+    }
+
+    public void setPhase(@Nonnull Phase phase) {
+        this.phase = phase;
+    }
+
+    /** Adds paths a run is going to transmit, as reported by the comparison with the target. */
+    public void addPathsTotal(long count) {
+        pathsTotal.addAndGet(count);
+    }
+
+    /** Counts a transmitted path. */
+    public void countPath() {
+        pathsDone.incrementAndGet();
+    }
+
+    /** Records transmitted bytes for the current transfer rate. */
+    public void countBytes(long bytes) {
+        long second = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime());
+        int index = (int) Math.floorMod(second, (long) RATE_WINDOW);
+        synchronized (rateBytes) {
+            if (rateSeconds[index] != second) {
+                rateSeconds[index] = second;
+                rateBytes[index] = 0;
+            }
+            rateBytes[index] += bytes;
+        }
+    }
+
+    /** A run is finished. */
+    public void endRun(long millis, boolean success) {
+        runs.incrementAndGet();
+        if (!success) {
+            failedRuns.incrementAndGet();
+        }
+        synchronized (this) {
+            runMillis[nextRun] = millis;
+            runSuccess[nextRun] = success;
+            nextRun = (nextRun + 1) % LAST_RUNS;
+            runCount = Math.min(runCount + 1, LAST_RUNS);
+        }
+        if (activeRuns.decrementAndGet() <= 0) {
+            activeRuns.set(0);
+            phase = Phase.idle;
+        }
+    }
+
+    @Nonnull
+    public Phase getPhase() {
+        return phase;
+    }
+
+    public int getActiveRuns() {
+        return activeRuns.get();
+    }
+
+    public long getPathsDone() {
+        return pathsDone.get();
+    }
+
+    public long getPathsTotal() {
+        return pathsTotal.get();
+    }
+
+    public long getRuns() {
+        return runs.get();
+    }
+
+    public long getFailedRuns() {
+        return failedRuns.get();
+    }
+
+    /** The transfer rate in bytes per second over the last {@link #RATE_WINDOW} seconds. */
+    public long getBytesPerSecond() {
+        long now = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime());
+        long sum = 0;
+        synchronized (rateBytes) {
+            for (int i = 0; i < RATE_WINDOW; ++i) {
+                if (rateSeconds[i] > now - RATE_WINDOW && rateSeconds[i] <= now) {
+                    sum += rateBytes[i];
+                }
+            }
+        }
+        return sum / RATE_WINDOW;
+    }
+
+    /** The durations of the last finished runs, the latest first, as maps with 'millis' and 'success'. */
+    @Nonnull
+    public synchronized List<Map<String, Object>> getLastRuns() {
+        List<Map<String, Object>> result = new ArrayList<>();
+        for (int i = 1; i <= runCount; ++i) {
+            int index = (nextRun - i + LAST_RUNS) % LAST_RUNS;
+            Map<String, Object> run = new LinkedHashMap<>();
+            run.put("millis", runMillis[index]);
+            run.put("success", runSuccess[index]);
+            result.add(run);
+        }
+        return result;
+    }
+
+    /** A snapshot of the values for a JSON export. */
+    @Nonnull
+    public Map<String, Object> toMap() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("phase", getPhase().name());
+        result.put("activeRuns", getActiveRuns());
+        result.put("pathsDone", getPathsDone());
+        result.put("pathsTotal", getPathsTotal());
+        result.put("bytesPerSecond", getBytesPerSecond());
+        result.put("runs", getRuns());
+        result.put("failedRuns", getFailedRuns());
+        result.put("lastRuns", getLastRuns());
+        return result;
+    }
+
+}
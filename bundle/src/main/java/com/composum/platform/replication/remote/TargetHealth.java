@@ -0,0 +1,79 @@
+package com.composum.platform.replication.remote;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The availability of one remote target as observed by the {@link TargetHealthProber}: a target is unhealthy after
+ * a number of failed probes in a row, and healthy again after the first successful probe. Targets that were not
+ * probed yet count as healthy, so that nothing is delayed if the probing is switched off.
+ */
+public class TargetHealth {
+
+    protected int failureThreshold = 3;
+
+    protected int consecutiveFailures;
+    protected long probes;
+    protected long failedProbes;
+    protected long lastProbe;
+    protected long lastRoundTripMillis = -1;
+    protected String lastError;
+
+    /** Sets the number of failed probes in a row after which the target is unhealthy. */
+    public synchronized void configure(int failureThreshold) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+    }
+
+    /** Records a successful probe. */
+    public synchronized void recordSuccess(long roundTripMillis) {
+        probes++;
+        lastProbe = System.currentTimeMillis();
+        lastRoundTripMillis = roundTripMillis;
+        consecutiveFailures = 0;
+        lastError = null;
+    }
+
+    /** Records a failed probe. */
+    public synchronized void recordFailure(@Nonnull String error) {
+        probes++;
+        failedProbes++;
+        lastProbe = System.currentTimeMillis();
+        consecutiveFailures++;
+        lastError = error;
+    }
+
+    public synchronized boolean isHealthy() {
+        return consecutiveFailures < failureThreshold;
+    }
+
+    /** The round trip time of the last successful probe in milliseconds; -1 if there was none. */
+    public synchronized long getLastRoundTripMillis() {
+        return lastRoundTripMillis;
+    }
+
+    public synchronized int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    @Nullable
+    public synchronized String getLastError() {
+        return lastError;
+    }
+
+    /** A snapshot of the values for a JSON export. */
+    @Nonnull
+    public synchronized Map<String, Object> toMap() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("healthy", isHealthy());
+        result.put("probes", probes);
+        result.put("failedProbes", failedProbes);
+        result.put("consecutiveFailures", consecutiveFailures);
+        result.put("lastProbe", lastProbe);
+        result.put("roundTripMillis", lastRoundTripMillis);
+        result.put("lastError", lastError);
+        return result;
+    }
+
+}
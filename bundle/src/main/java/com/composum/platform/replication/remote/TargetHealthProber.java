@@ -0,0 +1,130 @@
+package com.composum.platform.replication.remote;
+
+import com.composum.platform.replication.remotereceiver.RemotePublicationReceiverServlet.Extension;
+import com.composum.platform.replication.remotereceiver.RemotePublicationReceiverServlet.Operation;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Probes the remote targets in the background: a cheap authenticated request (the receiver's
+ * {@link Operation#statistics}) through the target's shared connection pool and transport measures the round trip
+ * time and records the availability in the {@link TargetHealth}. As side effect the connections, TLS sessions and
+ * the proxy and credential setup are ready when the next replication starts.
+ */
+public class TargetHealthProber implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TargetHealthProber.class);
+
+    /** The connect and socket timeout of a probe in milliseconds. */
+    public static final int PROBE_TIMEOUT = 10000;
+
+    protected ScheduledFuture<?> schedule;
+
+    /** True while a round is running; a round isn't started while the last one is still running. */
+    protected final AtomicBoolean probing = new AtomicBoolean();
+
+    /**
+     * (Re)starts probing all targets. The scheduler only triggers the rounds; they run on the workers, so that the
+     * resolver and the configurations are never accessed by the scheduler thread.
+     *
+     * @param intervalSeconds the time between two rounds; &lt;= 0 switches the probing off
+     * @param probeAll        probes all targets, see {@link #probe(RemoteTarget, URI, HttpClientContext)}
+     */
+    public synchronized void start(@Nonnull ScheduledExecutorService scheduler, @Nonnull Executor workers,
+                                   int intervalSeconds, @Nonnull Runnable probeAll) {
+        close();
+        if (intervalSeconds > 0) {
+            schedule = scheduler.scheduleWithFixedDelay(() -> startRound(workers, probeAll),
+                    intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    protected void startRound(@Nonnull Executor workers, @Nonnull Runnable probeAll) {
+        if (!probing.compareAndSet(false, true)) {
+            LOG.debug("Last probing round still running");
+            return;
+        }
+        try {
+            workers.execute(() -> {
+                try {
+                    probeAll.run();
+                } catch (RuntimeException e) {
+                    LOG.error("Probing the targets failed", e);
+                } finally {
+                    probing.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) { // would stop the schedule
+            probing.set(false);
+            LOG.warn("Could not start probing the targets: {}", e.toString());
+        }
+    }
+
+    /** Stops probing. */
+    @Override
+    public synchronized void close() {
+        if (schedule != null) {
+            schedule.cancel(false);
+            schedule = null;
+        }
+    }
+
+    /**
+     * Sends one probe to the target and records the outcome in its {@link TargetHealth}.
+     *
+     * @param targetUrl the URL of the receiver
+     * @param context   the context initialized with proxy and credentials of the configuration
+     */
+    public static void probe(@Nonnull RemoteTarget target, @Nullable URI targetUrl,
+                             @Nonnull HttpClientContext context) {
+        TargetHealth health = target.getHealth();
+        boolean wasHealthy = health.isHealthy();
+        if (targetUrl == null) {
+            health.recordFailure("no target URL configured");
+            return;
+        }
+        HttpGet get = new HttpGet(target.getEndpoints(targetUrl).url(Operation.statistics, Extension.json));
+        get.setConfig(RequestConfig.copy(context.getRequestConfig())
+                .setConnectTimeout(PROBE_TIMEOUT).setSocketTimeout(PROBE_TIMEOUT).build());
+        long start = System.nanoTime();
+        try (CloseableHttpResponse response = target.getTransport(target.getHttpClient()).execute(get, context)) {
+            EntityUtils.consume(response.getEntity()); // returns the connection to the pool
+            int status = response.getStatusLine().getStatusCode();
+            if (status == HttpStatus.SC_UNAUTHORIZED) {
+                target.getStatistics().countUnauthorized();
+                target.invalidateHttpClientContext();
+            }
+            if (status >= 200 && status < 300) {
+                health.recordSuccess(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            } else {
+                health.recordFailure("status " + status);
+            }
+        } catch (IOException | RuntimeException e) {
+            health.recordFailure(e.toString());
+        }
+        if (wasHealthy && !health.isHealthy()) {
+            LOG.warn("Target {} is unhealthy: {}", target.getConfigPath(), health.getLastError());
+        } else if (!wasHealthy && health.isHealthy()) {
+            LOG.info("Target {} is healthy again", target.getConfigPath());
+        }
+    }
+
+}
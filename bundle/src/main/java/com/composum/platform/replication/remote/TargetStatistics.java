@@ -0,0 +1,122 @@
+package com.composum.platform.replication.remote;
+
+import javax.annotation.Nonnull;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory counters about the communication with one remote replication target.
+ */
+public class TargetStatistics {
+
+    protected final AtomicLong requests = new AtomicLong();
+    protected final AtomicLong retries = new AtomicLong();
+    protected final AtomicLong backpressureRetries = new AtomicLong();
+    protected final AtomicLong failures = new AtomicLong();
+    protected final AtomicLong transfers = new AtomicLong();
+    protected final AtomicLong transferredBytes = new AtomicLong();
+    protected final AtomicLong transferNanos = new AtomicLong();
+    protected final AtomicLong contextCreations = new AtomicLong();
+    protected final AtomicLong unauthorized = new AtomicLong();
+
+    /** Counts a request sent to the target, including retries. */
+    public void countRequest() {
+        requests.incrementAndGet();
+    }
+
+    /** Counts a retry because of a transient failure; returns the total number of such retries. */
+    public long countRetry() {
+        return retries.incrementAndGet();
+    }
+
+    /** Counts a retry because the target was overloaded; returns the total number of such retries. */
+    public long countBackpressureRetry() {
+        return backpressureRetries.incrementAndGet();
+    }
+
+    /** Counts a request that finally failed. */
+    public void countFailure() {
+        failures.incrementAndGet();
+    }
+
+    /**
+     * Records a successful request that transmitted content, to derive the throughput of the target.
+     *
+     * @param bytes the size of the request entity
+     * @param nanos the time from sending the request until the response was received
+     */
+    public void recordTransfer(long bytes, long nanos) {
+        transfers.incrementAndGet();
+        transferredBytes.addAndGet(bytes);
+        transferNanos.addAndGet(nanos);
+    }
+
+    /** Counts the creation of an authenticated context, which includes the lookup of the credentials. */
+    public void countContextCreation() {
+        contextCreations.incrementAndGet();
+    }
+
+    /** Counts a 401 response. */
+    public void countUnauthorized() {
+        unauthorized.incrementAndGet();
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getRetries() {
+        return retries.get();
+    }
+
+    public long getBackpressureRetries() {
+        return backpressureRetries.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    public long getContextCreations() {
+        return contextCreations.get();
+    }
+
+    public long getUnauthorized() {
+        return unauthorized.get();
+    }
+
+    public long getTransfers() {
+        return transfers.get();
+    }
+
+    public long getTransferredBytes() {
+        return transferredBytes.get();
+    }
+
+    /**
+     * The observed throughput in bytes per second over all recorded transfers, including the latency of the
+     * requests; 0 if nothing was transferred yet.
+     */
+    public double getThroughput() {
+        long nanos = transferNanos.get();
+        return nanos > 0 ? transferredBytes.get() * 1e9 / nanos : 0;
+    }
+
+    /** A snapshot of the values for a JSON export. */
+    @Nonnull
+    public Map<String, Object> toMap() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("requests", getRequests());
+        result.put("retries", getRetries());
+        result.put("backpressureRetries", getBackpressureRetries());
+        result.put("failures", getFailures());
+        result.put("transfers", getTransfers());
+        result.put("transferredBytes", getTransferredBytes());
+        result.put("throughput", Math.round(getThroughput()));
+        result.put("contextCreations", getContextCreations());
+        result.put("unauthorized", getUnauthorized());
+        return result;
+    }
+
+}
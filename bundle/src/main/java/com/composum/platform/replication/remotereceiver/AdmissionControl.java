@@ -0,0 +1,130 @@
+package com.composum.platform.replication.remotereceiver;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.servlet.http.HttpServletResponse;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Limits the number of concurrently processed requests per operation of the {@link RemotePublicationReceiverServlet},
+ * so that a mass replication from several authors doesn't starve the request threads serving the visitors of the
+ * publisher. Requests above the limit wait in a bounded queue; if the queue is full or the waiting time is exceeded,
+ * they are rejected and the author is asked to retry later.
+ */
+public class AdmissionControl {
+
+    /** HTTP status 429 Too Many Requests - not contained in {@link HttpServletResponse}. */
+    public static final int SC_TOO_MANY_REQUESTS = 429;
+
+    protected final Map<String, Gate> gates = new ConcurrentHashMap<>();
+
+    /**
+     * Sets the limits for a key (usually the operation).
+     *
+     * @param maxConcurrent the maximum number of concurrently processed requests, &lt;= 0 for unlimited
+     * @param maxQueued     the maximum number of requests waiting for admission
+     */
+    public void configure(@Nonnull String key, int maxConcurrent, int maxQueued) {
+        if (maxConcurrent > 0) {
+            gates.put(key, new Gate(maxConcurrent, Math.max(0, maxQueued)));
+        } else {
+            gates.remove(key);
+        }
+    }
+
+    /**
+     * Waits for admission of a request.
+     *
+     * @param key           the key (usually the operation)
+     * @param maxWaitMillis the maximum time to wait in the queue
+     * @return a ticket that has to be closed when the request is processed
+     * @throws AdmissionRejectedException if the queue is full or the wait time was exceeded
+     */
+    @Nonnull
+    public Ticket admit(@Nonnull String key, long maxWaitMillis) throws AdmissionRejectedException, InterruptedException {
+        Gate gate = gates.get(key);
+        if (gate == null) {
+            return new Ticket(null);
+        }
+        if (gate.permits.tryAcquire()) {
+            return new Ticket(gate);
+        }
+        if (gate.waiting.incrementAndGet() > gate.maxQueued) {
+            gate.waiting.decrementAndGet();
+            throw new AdmissionRejectedException(key, SC_TOO_MANY_REQUESTS, "too many waiting requests");
+        }
+        try {
+            if (gate.permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS)) {
+                return new Ticket(gate);
+            }
+        } finally {
+            gate.waiting.decrementAndGet();
+        }
+        throw new AdmissionRejectedException(key, HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+                "timeout waiting for admission");
+    }
+
+    /** Number of requests currently waiting for the key. */
+    public int getWaiting(@Nonnull String key) {
+        Gate gate = gates.get(key);
+        return gate != null ? gate.waiting.get() : 0;
+    }
+
+    /** Number of requests currently processed for the key - only known if there is a limit. */
+    public int getActive(@Nonnull String key) {
+        Gate gate = gates.get(key);
+        return gate != null ? gate.maxConcurrent - gate.permits.availablePermits() : 0;
+    }
+
+    protected static class Gate {
+        protected final int maxConcurrent;
+        protected final int maxQueued;
+        protected final Semaphore permits;
+        protected final AtomicInteger waiting = new AtomicInteger();
+
+        protected Gate(int maxConcurrent, int maxQueued) {
+            this.maxConcurrent = maxConcurrent;
+            this.maxQueued = maxQueued;
+            this.permits = new Semaphore(maxConcurrent, true);
+        }
+    }
+
+    /** Admission of one request; releases the admission when closed. */
+    public static class Ticket implements AutoCloseable {
+
+        protected Gate gate;
+
+        protected Ticket(@Nullable Gate gate) {
+            this.gate = gate;
+        }
+
+        @Override
+        public void close() {
+            if (gate != null) {
+                gate.permits.release();
+                gate = null;
+            }
+        }
+    }
+
+    /** Signals that a request could not be admitted. */
+    public static class AdmissionRejectedException extends Exception {
+
+        protected final int statusCode;
+
+        public AdmissionRejectedException(@Nonnull String key, int statusCode, @Nonnull String reason) {
+            super("Request for " + key + " rejected: " + reason);
+            this.statusCode = statusCode;
+        }
+
+        /** The HTTP status code to answer with: 429 if the queue is full, 503 if the waiting time was exceeded. */
+        public int getStatusCode() {
+            return statusCode;
+        }
+    }
+
+}
@@ -0,0 +1,72 @@
+package com.composum.platform.replication.remotereceiver;
+
+import com.composum.platform.commons.util.ExceptionThrowingRunnable;
+import com.composum.sling.core.servlet.Status;
+import com.composum.sling.platform.staging.replication.*;
+import com.composum.sling.platform.staging.replication.json.ChildrenOrderInfo;
+import com.composum.sling.platform.staging.replication.json.NodeAttributeComparisonInfo;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+
+import javax.annotation.Nonnull;
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Non blocking variants of the operations of the {@link PublicationReceiverFacade}: the requests are built (including
+ * reading the content from the JCR) in the calling thread, but the caller doesn't wait for the transmission and the
+ * response, so that operations can be pipelined and many targets can be served from a few threads. The returned
+ * futures fail with a {@link ReplicationException} if the operation was not successful, just like the blocking
+ * variants. Whether the transmission is really non blocking depends on the transport of the facade.
+ */
+public interface AsyncPublicationReceiverFacade extends PublicationReceiverFacade {
+
+    /** Asynchronous variant of {@link #startUpdate(ReplicationPaths)}. */
+    @Nonnull
+    CompletableFuture<StatusWithReleaseData> startUpdateAsync(@Nonnull ReplicationPaths replicationPaths);
+
+    /** Asynchronous variant of {@link #releaseInfo(ReplicationPaths)}. */
+    @Nonnull
+    CompletableFuture<StatusWithReleaseData> releaseInfoAsync(@Nonnull ReplicationPaths replicationPaths);
+
+    /** Asynchronous variant of {@link #contentState(UpdateInfo, Collection, ResourceResolver, ReplicationPaths)}. */
+    @Nonnull
+    CompletableFuture<ContentStateStatus> contentStateAsync(
+            @Nonnull UpdateInfo updateInfo, @Nonnull Collection<String> paths, @Nonnull ResourceResolver resolver,
+            @Nonnull ReplicationPaths replicationPaths);
+
+    /** Asynchronous variant of {@link #compareContent(UpdateInfo, Collection, ResourceResolver, ReplicationPaths)}. */
+    @Nonnull
+    CompletableFuture<Status> compareContentAsync(
+            @Nonnull UpdateInfo updateInfo, @Nonnull Collection<String> paths, ResourceResolver resolver,
+            ReplicationPaths replicationPaths);
+
+    /** Asynchronous variant of {@link #pathupload(UpdateInfo, Resource)}. */
+    @Nonnull
+    CompletableFuture<Status> pathuploadAsync(@Nonnull UpdateInfo updateInfo, @Nonnull Resource resource);
+
+    /**
+     * Asynchronous variant of {@link #commitUpdate(UpdateInfo, String, Set, Supplier, ExceptionThrowingRunnable)};
+     * the check for parallel modifications is done in the calling thread, before the request is sent.
+     */
+    @Nonnull
+    CompletableFuture<Status> commitUpdateAsync(
+            @Nonnull UpdateInfo updateInfo, @Nonnull String newReleaseChangeNumber, @Nonnull Set<String> deletedPaths,
+            @Nonnull Supplier<Stream<ChildrenOrderInfo>> relevantOrderings,
+            @Nonnull ExceptionThrowingRunnable<? extends Exception> checkForParallelModifications);
+
+    /** Asynchronous variant of {@link #abortUpdate(UpdateInfo)}. */
+    @Nonnull
+    CompletableFuture<Status> abortUpdateAsync(@Nonnull UpdateInfo updateInfo);
+
+    /** Asynchronous variant of {@link #compareParents(ReplicationPaths, ResourceResolver, Supplier, Supplier)}. */
+    @Nonnull
+    CompletableFuture<Status> compareParentsAsync(
+            @Nonnull ReplicationPaths replicationPaths, @Nonnull ResourceResolver resolver,
+            @Nonnull Supplier<Stream<ChildrenOrderInfo>> relevantOrderings,
+            @Nonnull Supplier<Stream<NodeAttributeComparisonInfo>> attributeInfos);
+
+}
@@ -0,0 +1,95 @@
+package com.composum.platform.replication.remotereceiver;
+
+import org.apache.sling.api.resource.PersistenceException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Deletes large subtrees bottom up with a save after each batch of nodes, so that the transient space of the session
+ * and thus the heap stays small regardless of the size of the subtrees. If a save fails, e.g. because of a
+ * concurrent modification, the session is refreshed and the deletion of the subtree is repeated.
+ */
+public class BatchedDeletion {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BatchedDeletion.class);
+
+    protected final int batchSize;
+    protected final int maxRetries;
+
+    protected int pending;
+    protected int deleted;
+
+    /**
+     * @param batchSize  the number of nodes deleted before the changes are saved
+     * @param maxRetries how often the deletion of a subtree is repeated if a save fails
+     */
+    public BatchedDeletion(int batchSize, int maxRetries) {
+        this.batchSize = Math.max(1, batchSize);
+        this.maxRetries = Math.max(0, maxRetries);
+    }
+
+    /**
+     * Deletes the given paths, if they exist, and saves the changes.
+     *
+     * @return the number of deleted nodes
+     */
+    public int delete(@Nonnull ResourceResolver resolver, @Nonnull Collection<String> paths)
+            throws PersistenceException {
+        for (String path : paths) {
+            for (int attempt = 0; ; ++attempt) {
+                try {
+                    Resource resource = resolver.getResource(path);
+                    if (resource != null) {
+                        deleteSubtree(resolver, resource);
+                        save(resolver);
+                    }
+                    break;
+                } catch (PersistenceException e) {
+                    if (attempt >= maxRetries) {
+                        throw e;
+                    }
+                    LOG.warn("Retrying deletion of {} after {}", path, e.toString());
+                    resolver.revert();
+                    resolver.refresh();
+                    deleted -= pending;
+                    pending = 0;
+                }
+            }
+        }
+        return deleted;
+    }
+
+    /** The number of nodes deleted so far. */
+    public int getDeleted() {
+        return deleted;
+    }
+
+    protected void deleteSubtree(@Nonnull ResourceResolver resolver, @Nonnull Resource resource)
+            throws PersistenceException {
+        List<Resource> children = new ArrayList<>();
+        resource.getChildren().forEach(children::add);
+        for (Resource child : children) {
+            deleteSubtree(resolver, child);
+        }
+        resolver.delete(resource);
+        deleted++;
+        if (++pending >= batchSize) {
+            save(resolver);
+        }
+    }
+
+    protected void save(@Nonnull ResourceResolver resolver) throws PersistenceException {
+        if (pending > 0) {
+            resolver.commit();
+            pending = 0;
+        }
+    }
+
+}
@@ -0,0 +1,90 @@
+package com.composum.platform.replication.remotereceiver;
+
+import com.composum.sling.core.BeanContext;
+import com.composum.sling.nodes.NodesConfiguration;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.sling.api.resource.Resource;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * An {@link HttpEntity} that generates on the fly one archive with the packages of many resources, which is
+ * written sequentially into the request: a zip with one uncompressed entry per resource, named like the path of the
+ * resource, containing the package {@link PackageHttpEntity} would transmit for it.
+ */
+public class BulkPackageHttpEntity extends AbstractHttpEntity implements ThrottledHttpEntity {
+
+    private final NodesConfiguration nodesConfig;
+    private final BeanContext context;
+    private final List<Resource> resources;
+    private final ReplicationThrottle throttle;
+
+    /**
+     * @param resources the top-levels of the packages
+     * @param throttle  optional throttle limiting the bandwidth used to transmit the archive
+     */
+    public BulkPackageHttpEntity(@Nonnull NodesConfiguration nodesConfig, @Nonnull BeanContext context,
+                                 @Nonnull List<Resource> resources, @Nullable ReplicationThrottle throttle) {
+        setContentType("application/zip");
+        this.nodesConfig = nodesConfig;
+        this.context = context;
+        this.resources = resources;
+        this.throttle = throttle;
+    }
+
+    @Override
+    public void writeTo(OutputStream outstream) throws IOException {
+        writeUnthrottledTo(throttle != null ? throttle.throttle(outstream) : outstream);
+    }
+
+    @Nullable
+    @Override
+    public ReplicationThrottle getThrottle() {
+        return throttle;
+    }
+
+    @Override
+    public void writeUnthrottledTo(@Nonnull OutputStream outstream) throws IOException {
+        ZipOutputStream zip = new ZipOutputStream(outstream);
+        // the packages are already compressed
+        zip.setLevel(0);
+        for (Resource resource : resources) {
+            zip.putNextEntry(new ZipEntry(resource.getPath()));
+            PackageHttpEntity.writePackage(nodesConfig, context, resource, new CloseShieldOutputStream(zip));
+            zip.closeEntry();
+        }
+        zip.finish();
+        zip.flush();
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public long getContentLength() {
+        return -1;
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+
+    /** Not implemented. */
+    @Override
+    public InputStream getContent() throws UnsupportedOperationException {
+        throw new UnsupportedOperationException("BulkPackageHttpEntity only supports writeTo(OutputStream).");
+    }
+
+}
@@ -0,0 +1,32 @@
+package com.composum.platform.replication.remotereceiver;
+
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.impl.client.CloseableHttpClient;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+
+/**
+ * The default transport: blocking requests over HTTP/1.1 with a classic {@link CloseableHttpClient}. It doesn't
+ * override {@link #executeAsync(HttpUriRequest, HttpClientContext)}, so asynchronous calls block the worker thread
+ * executing them for the whole transmission.
+ */
+public class ClassicReceiverTransport implements ReceiverTransport {
+
+    @Nonnull
+    protected final CloseableHttpClient httpClient;
+
+    public ClassicReceiverTransport(@Nonnull CloseableHttpClient httpClient) {
+        this.httpClient = httpClient;
+    }
+
+    @Nonnull
+    @Override
+    public CloseableHttpResponse execute(@Nonnull HttpUriRequest request, @Nonnull HttpClientContext context)
+            throws IOException {
+        return httpClient.execute(request, context);
+    }
+
+}
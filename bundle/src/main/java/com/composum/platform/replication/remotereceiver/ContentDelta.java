@@ -0,0 +1,778 @@
+package com.composum.platform.replication.remotereceiver;
+
+import com.composum.sling.core.servlet.Status;
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.jackrabbit.api.ReferenceBinary;
+import org.apache.jackrabbit.util.ISO8601;
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.jcr.Binary;
+import javax.jcr.Node;
+import javax.jcr.Property;
+import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
+import javax.jcr.Value;
+import javax.jcr.ValueFactory;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.TreeMap;
+
+/**
+ * The property level difference between the author's version of a subtree and the receiver's copy of it: the
+ * changed, added and removed properties and nodes, which is transmitted instead of a package of the whole subtree.
+ * <p>
+ * The author requests the {@link Manifest} of the receiver's copy - the node types, the child node order and hashes
+ * of all property values, but no values - with {@link RemotePublicationReceiverServlet.Operation#pathManifest},
+ * computes the delta of its content to it with {@link #create(Resource, Manifest, long)} and transmits it with
+ * {@link RemotePublicationReceiverServlet.Operation#pathDelta}. The receiver {@link #apply(Resource)}s the delta
+ * transiently to its copy and processes an export of the result as if the package was uploaded, so that the
+ * update itself works as before.
+ */
+public class ContentDelta {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ContentDelta.class);
+
+    public static final String PROP_PRIMARY_TYPE = "jcr:primaryType";
+    public static final String PROP_MIXIN_TYPES = "jcr:mixinTypes";
+    public static final String PROP_UUID = "jcr:uuid";
+
+    /** Properties maintained by the repository itself, which are neither compared nor transmitted. */
+    public static final Set<String> IGNORED_PROPERTIES = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            PROP_PRIMARY_TYPE, PROP_MIXIN_TYPES, PROP_UUID, "jcr:created", "jcr:createdBy",
+            "jcr:baseVersion", "jcr:predecessors", "jcr:versionHistory", "jcr:isCheckedOut", "jcr:mergeFailed",
+            "jcr:activity", "jcr:configuration", "jcr:lockOwner", "jcr:lockIsDeep",
+            "jcr:frozenUuid", "jcr:frozenPrimaryType", "jcr:frozenMixinTypes")));
+
+    /** Kinds of {@link Change}s. */
+    public enum Op {update, add, remove}
+
+    /** The absolute path of the root of the subtree at the author. */
+    public String path;
+
+    /** The changes; nodes are given by their path relative to {@link #path}, "" being the root. */
+    public List<Change> changes = new ArrayList<>();
+
+    /** The number of bytes of the binary properties contained in the delta - not transmitted. */
+    protected transient long binarySize;
+
+    public boolean isEmpty() {
+        return changes.isEmpty();
+    }
+
+    /** Changes of one node. */
+    public static class Change {
+
+        public Op op;
+        public String path;
+        /** For {@link Op#add}, or for {@link Op#update} if the type changed. */
+        public String primaryType;
+        /** The complete list of mixins for {@link Op#add}, or for {@link Op#update} if they changed. */
+        public List<String> mixins;
+        /** The properties to set - all properties for {@link Op#add}. */
+        public List<PropertyValue> properties;
+        /** Names of the properties to remove. */
+        public List<String> removedProperties;
+        /** The complete order of the child nodes for {@link Op#update}, if it changed. */
+        public List<String> childOrder;
+
+        public Change() {
+            // for JSON deserialization
+        }
+
+        protected Change(@Nonnull Op op, @Nonnull String path) {
+            this.op = op;
+            this.path = path;
+        }
+
+        @Override
+        public String toString() {
+            return op + ":" + path;
+        }
+    }
+
+    /** A property value in transmittable form: strings as the JCR represents them, binaries in Base64. */
+    public static class PropertyValue {
+
+        public String name;
+        /** The JCR property type name, e.g. "String", "Date", "Binary". */
+        public String type;
+        public boolean multiple;
+        public List<String> values;
+    }
+
+    /** A description of a subtree precise enough to compute a {@link ContentDelta} to it. */
+    public static class Manifest {
+
+        /** False if there is no such subtree; a delta cannot be applied then. */
+        public boolean exists;
+
+        /** The states of all nodes of the subtree, by their path relative to the root, "" being the root. */
+        public Map<String, NodeState> nodes = new LinkedHashMap<>();
+    }
+
+    /** The state of one node within a {@link Manifest}. */
+    public static class NodeState {
+
+        public String primaryType;
+        public List<String> mixins;
+        /** Hashes of the property values by property name. */
+        public Map<String, String> properties = new TreeMap<>();
+        public List<String> children = new ArrayList<>();
+    }
+
+    /** The response of {@link RemotePublicationReceiverServlet.Operation#pathManifest}. */
+    public static class ManifestStatus extends Status {
+
+        public Manifest manifest;
+
+        public ManifestStatus(@Nullable SlingHttpServletRequest request, @Nullable SlingHttpServletResponse response,
+                              @Nonnull Logger log) {
+            super(request, response, log);
+        }
+
+        /** @deprecated for JSON deserialization */
+        @Deprecated
+        public ManifestStatus() {
+            super(null, null, LOG);
+        }
+    }
+
+    /**
+     * Remembers the hashes of binary properties for the {@link Manifest}s, so that the receiver doesn't read all
+     * binaries of a subtree for each request. A hash is only reused while the binary has the same identity: the
+     * content reference the repository gives it ({@link ReferenceBinary#getReference()}) or, if there is none, its
+     * length together with the jcr:lastModified of its node. Binaries without either are always hashed.
+     */
+    public static class BinaryHashCache {
+
+        /** Identity and hash by path of the property. */
+        protected final Map<String, String[]> hashes = new LinkedHashMap<String, String[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String[]> eldest) {
+                return size() > maxEntries;
+            }
+        };
+
+        protected volatile int maxEntries;
+
+        public BinaryHashCache(int maxEntries) {
+            this.maxEntries = maxEntries;
+        }
+
+        /** Sets the maximum number of remembered hashes; 0 switches the cache off. */
+        public synchronized void setMaxEntries(int maxEntries) {
+            this.maxEntries = maxEntries;
+            if (maxEntries <= 0) {
+                hashes.clear();
+            }
+        }
+
+        public synchronized int size() {
+            return hashes.size();
+        }
+
+        @Nullable
+        protected synchronized String get(@Nonnull String path, @Nonnull String identity) {
+            String[] entry = hashes.get(path);
+            return entry != null && entry[0].equals(identity) ? entry[1] : null;
+        }
+
+        protected synchronized void put(@Nonnull String path, @Nonnull String identity, @Nonnull String hash) {
+            if (maxEntries > 0) {
+                hashes.put(path, new String[]{identity, hash});
+            }
+        }
+    }
+
+    /**
+     * The author's state of a subtree from which the delta to the manifest of the receiver's copy can be computed
+     * without accessing the repository - e.g. in another thread, when the manifest arrives after the snapshot was
+     * taken in the thread owning the resource. Like a {@link Manifest} plus the transmittable values of the
+     * properties; binaries only as far as they fit into the maximum size of a delta together.
+     */
+    public static class Snapshot {
+
+        protected final String path;
+
+        /** The states of all nodes of the subtree, by their path relative to the root, "" being the root. */
+        protected final Map<String, NodeSnapshot> nodes = new LinkedHashMap<>();
+
+        protected Snapshot(@Nonnull String path) {
+            this.path = path;
+        }
+
+        @Nonnull
+        public String getPath() {
+            return path;
+        }
+    }
+
+    /** The state of one node within a {@link Snapshot}. */
+    protected static class NodeSnapshot {
+
+        protected final NodeState state = new NodeState();
+
+        /** The values of the properties by name; missing for binaries that didn't fit or unchanged properties. */
+        protected final Map<String, PropertyValue> values = new LinkedHashMap<>();
+
+        protected boolean referenceable;
+    }
+
+    /** Creates the manifest for the subtree at root. */
+    @Nonnull
+    public static Manifest manifest(@Nullable Resource root) throws IOException, RepositoryException {
+        return manifest(root, null);
+    }
+
+    /**
+     * Creates the manifest for the subtree at root.
+     *
+     * @param hashCache if given, the hashes of unchanged binaries are taken from there
+     */
+    @Nonnull
+    public static Manifest manifest(@Nullable Resource root, @Nullable BinaryHashCache hashCache)
+            throws IOException, RepositoryException {
+        Manifest manifest = new Manifest();
+        if (root != null && !ResourceUtil.isNonExistingResource(root)) {
+            manifest.exists = true;
+            addToManifest(manifest, root, "", hashCache);
+        }
+        return manifest;
+    }
+
+    protected static void addToManifest(@Nonnull Manifest manifest, @Nonnull Resource resource,
+                                        @Nonnull String relPath, @Nullable BinaryHashCache hashCache)
+            throws IOException, RepositoryException {
+        NodeState state = new NodeState();
+        Map<String, Object> properties = resource.getValueMap();
+        state.primaryType = (String) properties.get(PROP_PRIMARY_TYPE);
+        state.mixins = mixins(properties);
+        Node node = hashCache != null ? resource.adaptTo(Node.class) : null;
+        for (Map.Entry<String, Object> entry : properties.entrySet()) {
+            String name = entry.getKey();
+            if (!IGNORED_PROPERTIES.contains(name)) {
+                String identity = node != null && node.hasProperty(name)
+                        ? binaryIdentity(node, node.getProperty(name)) : null;
+                String hash = identity != null ? hashCache.get(resource.getPath() + "/" + name, identity) : null;
+                if (hash != null) {
+                    closeStreams(entry.getValue());
+                } else {
+                    hash = hash(entry.getValue());
+                    if (identity != null) {
+                        hashCache.put(resource.getPath() + "/" + name, identity, hash);
+                    }
+                }
+                state.properties.put(name, hash);
+            }
+        }
+        manifest.nodes.put(relPath, state);
+        for (Resource child : resource.getChildren()) {
+            state.children.add(child.getName());
+            addToManifest(manifest, child, childPath(relPath, child.getName()), hashCache);
+        }
+    }
+
+    /**
+     * An identity of the value of a binary property that changes whenever the value changes.
+     *
+     * @return null if it's not a binary property or no reliable identity is known
+     */
+    @Nullable
+    protected static String binaryIdentity(@Nonnull Node node, @Nonnull Property property)
+            throws RepositoryException {
+        if (property.getType() != PropertyType.BINARY) {
+            return null;
+        }
+        StringBuilder identity = new StringBuilder(property.isMultiple() ? "[" : "");
+        boolean referenced = true;
+        for (Value value : property.isMultiple() ? property.getValues() : new Value[]{property.getValue()}) {
+            Binary binary = value.getBinary();
+            try {
+                String reference = binary instanceof ReferenceBinary ? ((ReferenceBinary) binary).getReference() : null;
+                if (reference == null) {
+                    referenced = false;
+                }
+                identity.append(reference != null ? reference : "#" + binary.getSize()).append(' ');
+            } finally {
+                binary.dispose();
+            }
+        }
+        if (!referenced) {
+            if (!node.hasProperty("jcr:lastModified")) {
+                return null;
+            }
+            identity.append(node.getProperty("jcr:lastModified").getString());
+        }
+        return identity.toString();
+    }
+
+    /**
+     * Computes the changes that make the receiver's copy described by the manifest equal to the subtree at root.
+     *
+     * @param maxBinarySize the maximum size of the binaries contained in the delta
+     * @return the delta, or null if a delta cannot be used: if the receiver has no copy, if the binaries are too
+     * large, or if nodes with an identifier are added, since the receiver would assign them a different identifier
+     */
+    @Nullable
+    public static ContentDelta create(@Nonnull Resource root, @Nonnull Manifest manifest, long maxBinarySize)
+            throws IOException, RepositoryException {
+        if (!manifest.exists || manifest.nodes.get("") == null) {
+            return null;
+        }
+        return create(snapshot(root, manifest, maxBinarySize), manifest);
+    }
+
+    /**
+     * Takes a {@link Snapshot} of the subtree at root.
+     *
+     * @param manifest      if given, only the values of the properties that differ from it are taken
+     * @param maxBinarySize the maximum size of the binaries taken
+     */
+    @Nonnull
+    public static Snapshot snapshot(@Nonnull Resource root, @Nullable Manifest manifest, long maxBinarySize)
+            throws IOException, RepositoryException {
+        Snapshot snapshot = new Snapshot(root.getPath());
+        // keeps track of the size of the binaries read
+        ContentDelta reader = new ContentDelta();
+        reader.addToSnapshot(snapshot, root, "", manifest, maxBinarySize);
+        return snapshot;
+    }
+
+    protected void addToSnapshot(@Nonnull Snapshot snapshot, @Nonnull Resource resource, @Nonnull String relPath,
+                                 @Nullable Manifest manifest, long maxBinarySize)
+            throws IOException, RepositoryException {
+        NodeState receiverState = manifest != null ? manifest.nodes.get(relPath) : null;
+        Map<String, Object> properties = resource.getValueMap();
+        NodeSnapshot nodeSnapshot = new NodeSnapshot();
+        nodeSnapshot.state.primaryType = (String) properties.get(PROP_PRIMARY_TYPE);
+        nodeSnapshot.state.mixins = mixins(properties);
+        nodeSnapshot.referenceable = properties.containsKey(PROP_UUID);
+        Node node = resource.adaptTo(Node.class);
+        for (Map.Entry<String, Object> entry : properties.entrySet()) {
+            String name = entry.getKey();
+            if (!IGNORED_PROPERTIES.contains(name)) {
+                String hash = hash(freshValue(node, name, entry.getValue()));
+                nodeSnapshot.state.properties.put(name, hash);
+                if (receiverState == null || !hash.equals(receiverState.properties.get(name))) {
+                    PropertyValue value = propertyValue(resource, name, freshValue(node, name, entry.getValue()),
+                            maxBinarySize);
+                    if (value != null) {
+                        nodeSnapshot.values.put(name, value);
+                    }
+                }
+            }
+        }
+        snapshot.nodes.put(relPath, nodeSnapshot);
+        for (Resource child : resource.getChildren()) {
+            nodeSnapshot.state.children.add(child.getName());
+            addToSnapshot(snapshot, child, childPath(relPath, child.getName()), manifest, maxBinarySize);
+        }
+    }
+
+    /**
+     * Computes the changes that make the receiver's copy described by the manifest equal to the snapshot, without
+     * accessing the repository.
+     *
+     * @return the delta, or null if a delta cannot be used: if the receiver has no copy, if the snapshot doesn't
+     * contain the value of a changed binary since the binaries were too large, or if nodes with an identifier are
+     * added, since the receiver would assign them a different identifier
+     */
+    @Nullable
+    public static ContentDelta create(@Nonnull Snapshot snapshot, @Nonnull Manifest manifest) {
+        if (!manifest.exists || manifest.nodes.get("") == null) {
+            return null;
+        }
+        ContentDelta delta = new ContentDelta();
+        delta.path = snapshot.getPath();
+        for (Map.Entry<String, NodeSnapshot> entry : snapshot.nodes.entrySet()) {
+            if (!delta.addChanges(entry.getKey(), entry.getValue(), manifest.nodes.get(entry.getKey()))) {
+                return null;
+            }
+        }
+        return delta;
+    }
+
+    /** @return false if no delta can be used */
+    protected boolean addChanges(@Nonnull String relPath, @Nonnull NodeSnapshot nodeSnapshot,
+                                 @Nullable NodeState receiverState) {
+        NodeState state = nodeSnapshot.state;
+        if (receiverState == null) {
+            if (nodeSnapshot.referenceable) {
+                LOG.debug("No delta since referenceable node is added: {} {}", path, relPath);
+                return false;
+            }
+            Change change = new Change(Op.add, relPath);
+            change.primaryType = state.primaryType;
+            change.mixins = state.mixins;
+            change.properties = new ArrayList<>();
+            for (String name : state.properties.keySet()) {
+                PropertyValue value = nodeSnapshot.values.get(name);
+                if (value == null) {
+                    LOG.debug("No delta since the binaries are too large: {} {}/{}", path, relPath, name);
+                    return false;
+                }
+                change.properties.add(value);
+            }
+            changes.add(change);
+            return true;
+        }
+        Change change = new Change(Op.update, relPath);
+        if (!Objects.equals(state.primaryType, receiverState.primaryType)) {
+            change.primaryType = state.primaryType;
+        }
+        if (!new HashSet<>(state.mixins).equals(new HashSet<>(receiverState.mixins != null
+                ? receiverState.mixins : Collections.emptyList()))) {
+            change.mixins = state.mixins;
+        }
+        for (Map.Entry<String, String> property : state.properties.entrySet()) {
+            String name = property.getKey();
+            if (!property.getValue().equals(receiverState.properties.get(name))) {
+                PropertyValue value = nodeSnapshot.values.get(name);
+                if (value == null) {
+                    LOG.debug("No delta since the binaries are too large: {} {}/{}", path, relPath, name);
+                    return false;
+                }
+                if (change.properties == null) {
+                    change.properties = new ArrayList<>();
+                }
+                change.properties.add(value);
+            }
+        }
+        for (String name : receiverState.properties.keySet()) {
+            if (!state.properties.containsKey(name)) {
+                if (change.removedProperties == null) {
+                    change.removedProperties = new ArrayList<>();
+                }
+                change.removedProperties.add(name);
+            }
+        }
+        for (String receiverChild : receiverState.children) {
+            if (!state.children.contains(receiverChild)) {
+                changes.add(new Change(Op.remove, childPath(relPath, receiverChild)));
+            }
+        }
+        if (!state.children.equals(receiverState.children)) {
+            change.childOrder = state.children;
+        }
+        if (change.primaryType != null || change.mixins != null || change.properties != null
+                || change.removedProperties != null || change.childOrder != null) {
+            changes.add(change);
+        }
+        return true;
+    }
+
+    /**
+     * The transmittable form of a property. Binaries are only read if they fit into the remaining size - the length
+     * the repository knows is checked before reading, and reading stops as soon as the size is exceeded.
+     *
+     * @return null if the binaries would exceed maxBinarySize together with those already in the delta
+     */
+    @Nullable
+    protected PropertyValue propertyValue(@Nonnull Resource resource, @Nonnull String name, @Nullable Object value,
+                                          long maxBinarySize) throws IOException, RepositoryException {
+        PropertyValue result = new PropertyValue();
+        result.name = name;
+        Node node = resource.adaptTo(Node.class);
+        Property property = node != null && node.hasProperty(name) ? node.getProperty(name) : null;
+        result.type = PropertyType.nameFromValue(property != null ? property.getType() : typeOf(value));
+        result.multiple = value != null && value.getClass().isArray();
+        result.values = new ArrayList<>();
+        if (property != null && property.getType() == PropertyType.BINARY) {
+            long length = 0;
+            for (long singleLength : property.isMultiple() ? property.getLengths() : new long[]{property.getLength()}) {
+                length += Math.max(0, singleLength);
+            }
+            if (binarySize + length > maxBinarySize) {
+                LOG.debug("No delta since the binaries are too large: {}", property.getPath());
+                closeStreams(value);
+                return null;
+            }
+        }
+        List<Object> values = values(value);
+        for (int i = 0; i < values.size(); ++i) {
+            Object singleValue = values.get(i);
+            if (singleValue instanceof InputStream) {
+                long remaining = maxBinarySize - binarySize;
+                byte[] data;
+                try (InputStream stream = (InputStream) singleValue) {
+                    data = IOUtils.toByteArray(new BoundedInputStream(stream, remaining + 1));
+                }
+                if (data.length > remaining) {
+                    LOG.debug("No delta since the binaries are too large: {}/{}", resource.getPath(), name);
+                    closeStreams(values.subList(i + 1, values.size()).toArray());
+                    return null;
+                }
+                binarySize += data.length;
+                result.values.add(Base64.encodeBase64String(data));
+            } else {
+                result.values.add(stringValue(singleValue));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The value of a value map entry, with new streams if it is a binary: the streams of the entry can only be read
+     * once, but a changed binary is read for the hash and again for the delta. The streams of the entry are closed.
+     */
+    @Nullable
+    protected static Object freshValue(@Nullable Node node, @Nonnull String name, @Nullable Object value)
+            throws RepositoryException {
+        Property property = node != null && node.hasProperty(name) ? node.getProperty(name) : null;
+        if (property == null || property.getType() != PropertyType.BINARY) {
+            return value;
+        }
+        closeStreams(value);
+        if (!property.isMultiple()) {
+            return property.getBinary().getStream();
+        }
+        Value[] values = property.getValues();
+        InputStream[] streams = new InputStream[values.length];
+        for (int i = 0; i < values.length; ++i) {
+            streams[i] = values[i].getBinary().getStream();
+        }
+        return streams;
+    }
+
+    /** Closes the streams of a binary value of a value map that is not read. */
+    protected static void closeStreams(@Nullable Object value) {
+        for (Object singleValue : values(value)) {
+            if (singleValue instanceof InputStream) {
+                IOUtils.closeQuietly((InputStream) singleValue);
+            }
+        }
+    }
+
+    /**
+     * Applies the delta to the node at target without saving - the caller has to save or revert the session.
+     *
+     * @throws RepositoryException if a change cannot be applied, e.g. since the target doesn't match the manifest
+     *                             the delta was computed against
+     */
+    public void apply(@Nonnull Resource target) throws RepositoryException {
+        Node root = Objects.requireNonNull(target.adaptTo(Node.class), "Not a node: " + target.getPath());
+        ValueFactory valueFactory = root.getSession().getValueFactory();
+        for (Change change : changes) {
+            if (change.op == Op.remove) {
+                root.getNode(change.path).remove();
+            }
+        }
+        for (Change change : changes) {
+            if (change.op == Op.add) {
+                String parentPath = change.path.contains("/")
+                        ? change.path.substring(0, change.path.lastIndexOf('/')) : "";
+                Node parent = parentPath.isEmpty() ? root : root.getNode(parentPath);
+                Node node = parent.addNode(change.path.substring(change.path.lastIndexOf('/') + 1),
+                        change.primaryType);
+                applyChange(node, change, valueFactory);
+            } else if (change.op == Op.update) {
+                applyChange(change.path.isEmpty() ? root : root.getNode(change.path), change, valueFactory);
+            }
+        }
+        for (Change change : changes) {
+            if (change.childOrder != null) {
+                Node node = change.path.isEmpty() ? root : root.getNode(change.path);
+                if (node.getPrimaryNodeType().hasOrderableChildNodes()) {
+                    for (String child : change.childOrder) {
+                        node.orderBefore(child, null);
+                    }
+                }
+            }
+        }
+    }
+
+    protected void applyChange(@Nonnull Node node, @Nonnull Change change, @Nonnull ValueFactory valueFactory)
+            throws RepositoryException {
+        if (change.op == Op.update && change.primaryType != null) {
+            node.setPrimaryType(change.primaryType);
+        }
+        if (change.mixins != null) {
+            List<String> existing = new ArrayList<>();
+            for (javax.jcr.nodetype.NodeType mixin : node.getMixinNodeTypes()) {
+                existing.add(mixin.getName());
+            }
+            for (String mixin : existing) {
+                if (!change.mixins.contains(mixin)) {
+                    node.removeMixin(mixin);
+                }
+            }
+            for (String mixin : change.mixins) {
+                if (!existing.contains(mixin)) {
+                    node.addMixin(mixin);
+                }
+            }
+        }
+        if (change.removedProperties != null) {
+            for (String name : change.removedProperties) {
+                if (node.hasProperty(name)) {
+                    node.getProperty(name).remove();
+                }
+            }
+        }
+        if (change.properties != null) {
+            for (PropertyValue propertyValue : change.properties) {
+                setProperty(node, propertyValue, valueFactory);
+            }
+        }
+    }
+
+    protected void setProperty(@Nonnull Node node, @Nonnull PropertyValue propertyValue,
+                               @Nonnull ValueFactory valueFactory) throws RepositoryException {
+        int type = PropertyType.valueFromName(propertyValue.type);
+        if (node.hasProperty(propertyValue.name)) {
+            Property existing = node.getProperty(propertyValue.name);
+            if (type == PropertyType.STRING && existing.getType() != PropertyType.BINARY) {
+                type = existing.getType(); // the author might not know the precise type, e.g. Name or Path
+            }
+            if (existing.isMultiple() != propertyValue.multiple || existing.getType() != type) {
+                existing.remove();
+            }
+        }
+        Value[] values = new Value[propertyValue.values.size()];
+        for (int i = 0; i < values.length; ++i) {
+            String value = propertyValue.values.get(i);
+            values[i] = type == PropertyType.BINARY
+                    ? valueFactory.createValue(valueFactory.createBinary(
+                    new ByteArrayInputStream(Base64.decodeBase64(value))))
+                    : valueFactory.createValue(value, type);
+        }
+        if (propertyValue.multiple) {
+            node.setProperty(propertyValue.name, values, type);
+        } else if (values.length > 0) {
+            node.setProperty(propertyValue.name, values[0]);
+        }
+    }
+
+    /** A hash of the value that is the same at the author and the receiver if the value is the same. */
+    @Nonnull
+    protected static String hash(@Nullable Object value) throws IOException {
+        MessageDigest digest = DigestUtils.getSha256Digest();
+        if (value != null && value.getClass().isArray()) {
+            digest.update((byte) '[');
+        }
+        for (Object singleValue : values(value)) {
+            if (singleValue instanceof InputStream) {
+                try (InputStream stream = (InputStream) singleValue) {
+                    DigestUtils.updateDigest(digest, stream);
+                }
+            } else {
+                digest.update(hashString(singleValue).getBytes(StandardCharsets.UTF_8));
+            }
+            digest.update((byte) 0);
+        }
+        return Hex.encodeHexString(digest.digest());
+    }
+
+    @Nonnull
+    protected static List<Object> values(@Nullable Object value) {
+        List<Object> result = new ArrayList<>();
+        if (value != null && value.getClass().isArray()) {
+            for (int i = 0; i < Array.getLength(value); ++i) {
+                result.add(Array.get(value, i));
+            }
+        } else if (value != null) {
+            result.add(value);
+        }
+        return result;
+    }
+
+    /**
+     * The string form of a value for the {@link #hash(Object)}: dates in UTC, since author and receiver might
+     * represent the same time in different time zones.
+     */
+    @Nonnull
+    protected static String hashString(@Nullable Object value) {
+        if (value instanceof Calendar || value instanceof Date) {
+            Calendar utc = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+            utc.setTimeInMillis(value instanceof Calendar ? ((Calendar) value).getTimeInMillis()
+                    : ((Date) value).getTime());
+            return ISO8601.format(utc);
+        }
+        return stringValue(value);
+    }
+
+    @Nonnull
+    protected static String stringValue(@Nullable Object value) {
+        if (value instanceof Calendar) {
+            return ISO8601.format((Calendar) value);
+        } else if (value instanceof Date) {
+            Calendar calendar = Calendar.getInstance();
+            calendar.setTime((Date) value);
+            return ISO8601.format(calendar);
+        }
+        return String.valueOf(value);
+    }
+
+    /** The JCR property type for a value of the value map, if the node itself is not available. */
+    protected static int typeOf(@Nullable Object value) {
+        Class<?> type = value == null ? null
+                : value.getClass().isArray() ? value.getClass().getComponentType() : value.getClass();
+        if (type == null) {
+            return PropertyType.STRING;
+        } else if (Calendar.class.isAssignableFrom(type) || Date.class.isAssignableFrom(type)) {
+            return PropertyType.DATE;
+        } else if (Long.class.equals(type) || Integer.class.equals(type) || long.class.equals(type)
+                || int.class.equals(type)) {
+            return PropertyType.LONG;
+        } else if (Double.class.equals(type) || Float.class.equals(type) || double.class.equals(type)
+                || float.class.equals(type)) {
+            return PropertyType.DOUBLE;
+        } else if (Boolean.class.equals(type) || boolean.class.equals(type)) {
+            return PropertyType.BOOLEAN;
+        } else if (BigDecimal.class.isAssignableFrom(type)) {
+            return PropertyType.DECIMAL;
+        } else if (InputStream.class.isAssignableFrom(type)) {
+            return PropertyType.BINARY;
+        }
+        return PropertyType.STRING;
+    }
+
+    @Nonnull
+    protected static List<String> mixins(@Nonnull Map<String, Object> properties) {
+        Object mixins = properties.get(PROP_MIXIN_TYPES);
+        List<String> result = new ArrayList<>();
+        for (Object mixin : values(mixins)) {
+            result.add(String.valueOf(mixin));
+        }
+        return result;
+    }
+
+    @Nonnull
+    protected static String childPath(@Nonnull String relPath, @Nonnull String name) {
+        return relPath.isEmpty() ? name : relPath + "/" + name;
+    }
+
+    @Override
+    public String toString() {
+        return "ContentDelta(" + path + ", " + changes + ")";
+    }
+
+}
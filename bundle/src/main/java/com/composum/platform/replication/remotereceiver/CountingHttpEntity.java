@@ -0,0 +1,75 @@
+package com.composum.platform.replication.remotereceiver;
+
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpRequest;
+import org.apache.http.entity.HttpEntityWrapper;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Counts the bytes written by an entity, e.g. a {@link PackageHttpEntity} whose size is not known in advance, to
+ * derive the throughput of the transmissions.
+ */
+public class CountingHttpEntity extends HttpEntityWrapper {
+
+    protected volatile long count;
+
+    public CountingHttpEntity(@Nonnull HttpEntity wrappedEntity) {
+        super(wrappedEntity);
+    }
+
+    /**
+     * Wraps the entity of the request, if it has one whose size is not known in advance.
+     *
+     * @return the wrapper, or null if the request has no such entity
+     */
+    @Nullable
+    public static CountingHttpEntity wrap(@Nonnull HttpRequest request) {
+        if (!(request instanceof HttpEntityEnclosingRequest)) {
+            return null;
+        }
+        HttpEntityEnclosingRequest enclosingRequest = (HttpEntityEnclosingRequest) request;
+        HttpEntity entity = enclosingRequest.getEntity();
+        if (entity == null || entity instanceof CountingHttpEntity) {
+            return (CountingHttpEntity) entity;
+        }
+        if (entity.getContentLength() >= 0) {
+            return null;
+        }
+        CountingHttpEntity counting = new CountingHttpEntity(entity);
+        enclosingRequest.setEntity(counting);
+        return counting;
+    }
+
+    @Override
+    public void writeTo(OutputStream outstream) throws IOException {
+        CountingOutputStream counting = new CountingOutputStream(outstream);
+        try {
+            super.writeTo(counting);
+        } finally {
+            count = counting.getByteCount();
+        }
+    }
+
+    /** The number of bytes written by the last transmission. */
+    public long getCount() {
+        return count;
+    }
+
+    /** The wrapped entity, for transports that don't transmit it with {@link #writeTo(OutputStream)}. */
+    @Nonnull
+    public HttpEntity getWrappedEntity() {
+        return wrappedEntity;
+    }
+
+    /** Records the size of a transmission that was not done with {@link #writeTo(OutputStream)}. */
+    public void setCount(long count) {
+        this.count = count;
+    }
+
+}
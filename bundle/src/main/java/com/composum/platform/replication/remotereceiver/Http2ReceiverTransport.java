@@ -0,0 +1,348 @@
+package com.composum.platform.replication.remotereceiver;
+
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
+import org.apache.hc.client5.http.async.methods.SimpleResponseConsumer;
+import org.apache.hc.client5.http.cookie.BasicCookieStore;
+import org.apache.hc.client5.http.impl.auth.BasicAuthCache;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.message.BasicHttpRequest;
+import org.apache.hc.core5.http.nio.AsyncEntityProducer;
+import org.apache.hc.core5.http.nio.entity.AsyncEntityProducers;
+import org.apache.hc.core5.http.nio.support.BasicRequestProducer;
+import org.apache.hc.core5.http2.HttpVersionPolicy;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.reactor.IOReactorConfig;
+import org.apache.hc.core5.util.Timeout;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpHost;
+import org.apache.http.ProtocolVersion;
+import org.apache.http.auth.AuthScope;
+import org.apache.http.client.AuthCache;
+import org.apache.http.client.CredentialsProvider;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.message.BasicStatusLine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * A transport that uses an asynchronous HTTP/2 capable client shared by all processes replicating to one target, so
+ * that concurrent requests are multiplexed over one connection. HTTP/2 is negotiated via TLS ALPN; if the target (or
+ * a proxy in between) doesn't support it, or the target URL is plain http, HTTP/1.1 is used.
+ * <p>
+ * The proxy, the credentials and the timeouts are taken over from the context initialized with
+ * {@link RemotePublicationConfig#initHttpContext}. Cookies and the auth cache of this client live exactly as long
+ * as the authenticated context the target shares between its processes
+ * ({@link com.composum.platform.replication.remote.RemoteTarget#getHttpClientContext}), so they expire with its
+ * time to live; without a shared context each request gets its own. A proxy requiring authentication cannot be
+ * taken over reliably, so such requests are sent with the classic fallback transport instead. Request bodies are
+ * produced completely before the request is sent (a {@link SpooledHttpEntity}), so that the JCR resources are only
+ * accessed from the calling thread; the bandwidth limit of the body is waited for before it is handed over to the
+ * client. Responses are buffered in memory.
+ */
+public class Http2ReceiverTransport implements ReceiverTransport, Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Http2ReceiverTransport.class);
+
+    protected final CloseableHttpAsyncClient client;
+
+    /**
+     * The cookies and the auth cache for each shared context of the target, identified by its auth cache; dropped
+     * when the target discards the shared context.
+     */
+    protected final Map<AuthCache, AuthContext> authContexts = Collections.synchronizedMap(new WeakHashMap<>());
+
+    /** Sends the requests this transport cannot send, see {@link #canConvert(HttpClientContext)}. */
+    @Nonnull
+    protected final ReceiverTransport fallback;
+
+    protected volatile boolean fallbackLogged;
+
+    /**
+     * @param fallback the transport for requests whose setup cannot be taken over
+     */
+    public Http2ReceiverTransport(@Nonnull ReceiverTransport fallback) {
+        this.fallback = fallback;
+        client = HttpAsyncClients.custom()
+                .setVersionPolicy(HttpVersionPolicy.NEGOTIATE)
+                .setIOReactorConfig(IOReactorConfig.custom()
+                        .setSoKeepAlive(true)
+                        .build())
+                .useSystemProperties()
+                .build();
+        client.start();
+    }
+
+    @Nonnull
+    @Override
+    public CloseableHttpResponse execute(@Nonnull HttpUriRequest request, @Nonnull HttpClientContext context)
+            throws IOException {
+        if (!canConvert(context)) {
+            return fallback.execute(request, context);
+        }
+        try {
+            return executeAsync(request, context).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for " + request.getURI());
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Request to " + request.getURI() + " failed", e.getCause());
+        }
+    }
+
+    /**
+     * Starts the request. The request body is produced in the calling thread; only the transmission is
+     * asynchronous.
+     */
+    @Nonnull
+    @Override
+    public CompletableFuture<CloseableHttpResponse> executeAsync(@Nonnull HttpUriRequest request,
+                                                                 @Nonnull HttpClientContext context) {
+        if (!canConvert(context)) {
+            return fallback.executeAsync(request, context);
+        }
+        CompletableFuture<CloseableHttpResponse> result = new CompletableFuture<>();
+        try {
+            start(request, context, result);
+        } catch (IOException | RuntimeException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    protected void start(@Nonnull HttpUriRequest request, @Nonnull HttpClientContext context,
+                         @Nonnull CompletableFuture<CloseableHttpResponse> result) throws IOException {
+        BasicHttpRequest httpRequest = new BasicHttpRequest(request.getMethod(), request.getURI());
+        for (Header header : request.getAllHeaders()) {
+            httpRequest.addHeader(header.getName(), header.getValue());
+        }
+        HttpEntity entity = request instanceof HttpEntityEnclosingRequest
+                ? ((HttpEntityEnclosingRequest) request).getEntity() : null;
+        CountingHttpEntity counting = entity instanceof CountingHttpEntity ? (CountingHttpEntity) entity : null;
+        if (counting != null) {
+            entity = counting.getWrappedEntity();
+        }
+        SpooledHttpEntity body = entity instanceof SpooledHttpEntity ? (SpooledHttpEntity) entity
+                : entity != null ? new SpooledHttpEntity(entity) : null;
+        // if the caller already spooled the entity, it's his responsibility to remove it
+        SpooledHttpEntity spooledBody = body != entity ? body : null;
+        if (counting != null && body != null) {
+            counting.setCount(body.getContentLength());
+        }
+        if (body != null && body.getThrottle() != null) {
+            try {
+                body.getThrottle().acquireBandwidth(body.getContentLength());
+            } catch (InterruptedIOException e) {
+                if (spooledBody != null) {
+                    spooledBody.delete();
+                }
+                throw e;
+            }
+        }
+        client.execute(new BasicRequestProducer(httpRequest, body != null ? producer(body) : null),
+                SimpleResponseConsumer.create(), convertContext(context),
+                new FutureCallback<SimpleHttpResponse>() {
+                    @Override
+                    public void completed(SimpleHttpResponse response) {
+                        cleanup();
+                        LOG.debug("{} {} : {} {}", request.getMethod(), request.getURI(), response.getVersion(),
+                                response.getCode());
+                        result.complete(convertResponse(response));
+                    }
+
+                    @Override
+                    public void failed(Exception ex) {
+                        cleanup();
+                        result.completeExceptionally(ex);
+                    }
+
+                    @Override
+                    public void cancelled() {
+                        cleanup();
+                        result.completeExceptionally(new InterruptedIOException("Cancelled: " + request.getURI()));
+                    }
+
+                    protected void cleanup() {
+                        if (spooledBody != null) {
+                            spooledBody.delete();
+                        }
+                    }
+                });
+    }
+
+    @Nonnull
+    protected AsyncEntityProducer producer(@Nonnull SpooledHttpEntity entity) {
+        Header contentTypeHeader = entity.getContentType();
+        org.apache.hc.core5.http.ContentType contentType = contentTypeHeader != null
+                ? org.apache.hc.core5.http.ContentType.parse(contentTypeHeader.getValue())
+                : org.apache.hc.core5.http.ContentType.APPLICATION_OCTET_STREAM;
+        byte[] data = entity.getData();
+        return data != null ? AsyncEntityProducers.create(data, contentType)
+                : AsyncEntityProducers.create(entity.getFile(), contentType);
+    }
+
+    @Override
+    public void close() {
+        client.close(CloseMode.GRACEFUL);
+    }
+
+    /**
+     * True if the setup of the classic context can be taken over by {@link #convertContext(HttpClientContext)}: not
+     * if a proxy with authentication is configured, since the proxy authentication negotiated by the classic client
+     * (auth state, auth cache, the tunnel) has no equivalent here.
+     */
+    protected boolean canConvert(@Nonnull HttpClientContext context) {
+        RequestConfig requestConfig = context.getRequestConfig();
+        HttpHost proxy = requestConfig != null ? requestConfig.getProxy() : null;
+        CredentialsProvider credentialsProvider = context.getCredentialsProvider();
+        boolean proxyAuthentication = proxy != null && credentialsProvider != null
+                && credentialsProvider.getCredentials(new AuthScope(proxy)) != null;
+        if (proxyAuthentication && !fallbackLogged) {
+            fallbackLogged = true;
+            LOG.info("Proxy {} requires authentication - using HTTP/1.1 instead of HTTP/2", proxy);
+        }
+        return !proxyAuthentication;
+    }
+
+    /** Takes over proxy, credentials and timeouts from the classic context. */
+    @Nonnull
+    protected org.apache.hc.client5.http.protocol.HttpClientContext convertContext(@Nonnull HttpClientContext context) {
+        org.apache.hc.client5.http.protocol.HttpClientContext result =
+                org.apache.hc.client5.http.protocol.HttpClientContext.create();
+        AuthContext authContext = getAuthContext(context);
+        result.setCookieStore(authContext.cookieStore);
+        result.setAuthCache(authContext.authCache);
+        CredentialsProvider credentialsProvider = context.getCredentialsProvider();
+        if (credentialsProvider != null) {
+            result.setCredentialsProvider(new CredentialsBridge(credentialsProvider));
+        }
+        RequestConfig requestConfig = context.getRequestConfig();
+        if (requestConfig != null) {
+            org.apache.hc.client5.http.config.RequestConfig.Builder builder =
+                    org.apache.hc.client5.http.config.RequestConfig.custom();
+            HttpHost proxy = requestConfig.getProxy();
+            if (proxy != null) {
+                builder.setProxy(new org.apache.hc.core5.http.HttpHost(proxy.getSchemeName(), proxy.getHostName(),
+                        proxy.getPort()));
+            }
+            if (requestConfig.getConnectTimeout() > 0) {
+                builder.setConnectTimeout(Timeout.ofMilliseconds(requestConfig.getConnectTimeout()));
+            }
+            if (requestConfig.getSocketTimeout() > 0) {
+                builder.setResponseTimeout(Timeout.ofMilliseconds(requestConfig.getSocketTimeout()));
+            }
+            if (requestConfig.getConnectionRequestTimeout() > 0) {
+                builder.setConnectionRequestTimeout(
+                        Timeout.ofMilliseconds(requestConfig.getConnectionRequestTimeout()));
+            }
+            result.setRequestConfig(builder.build());
+        }
+        return result;
+    }
+
+    /**
+     * The cookies and the auth cache belonging to the shared context the classic context is derived from, or new
+     * ones if it has none since the
+     * {@link com.composum.platform.replication.remote.RemotePublisherService.Configuration#authContextTtl()} is 0.
+     */
+    @Nonnull
+    protected AuthContext getAuthContext(@Nonnull HttpClientContext context) {
+        AuthCache sharedAuthCache = context.getAuthCache();
+        if (sharedAuthCache == null) {
+            return new AuthContext();
+        }
+        return authContexts.computeIfAbsent(sharedAuthCache, (k) -> new AuthContext());
+    }
+
+    /** Cookies, e.g. a session, and the remembered authentication, so that the credentials are sent preemptively. */
+    protected static class AuthContext {
+
+        protected final BasicCookieStore cookieStore = new BasicCookieStore();
+
+        protected final BasicAuthCache authCache = new BasicAuthCache();
+    }
+
+    /** Converts the buffered response into a classic response, so that it can be processed as usual. */
+    @Nonnull
+    protected CloseableHttpResponse convertResponse(@Nonnull SimpleHttpResponse response) {
+        org.apache.hc.core5.http.ProtocolVersion version = response.getVersion();
+        ProtocolVersion protocolVersion = version != null
+                ? new ProtocolVersion(version.getProtocol(), version.getMajor(), version.getMinor())
+                : new ProtocolVersion("HTTP", 1, 1);
+        BufferedResponse result = new BufferedResponse(
+                new BasicStatusLine(protocolVersion, response.getCode(), response.getReasonPhrase()));
+        for (org.apache.hc.core5.http.Header header : response.getHeaders()) {
+            result.addHeader(header.getName(), header.getValue());
+        }
+        byte[] bodyBytes = response.getBodyBytes();
+        if (bodyBytes != null) {
+            org.apache.hc.core5.http.ContentType contentType = response.getContentType();
+            result.setEntity(new ByteArrayEntity(bodyBytes,
+                    contentType != null ? ContentType.parse(contentType.toString()) : null));
+        }
+        return result;
+    }
+
+    /** A response completely kept in memory - nothing to close. */
+    protected static class BufferedResponse extends BasicHttpResponse implements CloseableHttpResponse {
+
+        protected BufferedResponse(BasicStatusLine statusLine) {
+            super(statusLine);
+        }
+
+        @Override
+        public void close() {
+            // nothing to do
+        }
+    }
+
+    /** Supplies the credentials from the classic credentials provider. */
+    protected static class CredentialsBridge implements org.apache.hc.client5.http.auth.CredentialsProvider {
+
+        protected final CredentialsProvider credentialsProvider;
+
+        protected CredentialsBridge(@Nonnull CredentialsProvider credentialsProvider) {
+            this.credentialsProvider = credentialsProvider;
+        }
+
+        @Nullable
+        @Override
+        public org.apache.hc.client5.http.auth.Credentials getCredentials(
+                @Nonnull org.apache.hc.client5.http.auth.AuthScope authScope,
+                @Nullable org.apache.hc.core5.http.protocol.HttpContext context) {
+            org.apache.http.auth.Credentials credentials = credentialsProvider.getCredentials(
+                    new org.apache.http.auth.AuthScope(authScope.getHost(), authScope.getPort(),
+                            authScope.getRealm(), authScope.getSchemeName()));
+            if (credentials == null || credentials.getUserPrincipal() == null) {
+                return null;
+            }
+            String password = credentials.getPassword();
+            return new org.apache.hc.client5.http.auth.UsernamePasswordCredentials(
+                    credentials.getUserPrincipal().getName(), password != null ? password.toCharArray() : null);
+        }
+    }
+
+}
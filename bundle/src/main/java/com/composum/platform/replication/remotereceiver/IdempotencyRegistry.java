@@ -0,0 +1,264 @@
+package com.composum.platform.replication.remotereceiver;
+
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.api.wrappers.SlingHttpServletResponseWrapper;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.servlet.ServletOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers the responses of recently processed non idempotent requests by their
+ * {@link RemoteReceiverConstants#HEADER_IDEMPOTENCY_KEY}, so that a request the author repeats because it didn't
+ * receive the response (e.g. a connection reset after a successful commit) is answered with the original response
+ * instead of being processed twice. Only successful responses are kept - after a failure the request is processed
+ * again. The registry is bounded in size and age of the entries: completed entries are evicted, the oldest first.
+ * Running entries are kept since forgetting a running request would let its repetition be processed a second time -
+ * unless they are older than the maximum age, which no request takes, so they were apparently never completed. If it
+ * is full of running requests, new keys are rejected until some of them are done.
+ */
+public class IdempotencyRegistry {
+
+    /** Default for the maximum number of kept responses. */
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+
+    /** Default for the time responses are kept. */
+    public static final long DEFAULT_MAX_AGE_MILLIS = 60 * 60 * 1000L;
+
+    protected final Map<String, Entry> entries = new HashMap<>();
+
+    /** The completed entries in the order of their completion, so that the oldest are at the start. */
+    protected final Map<String, Entry> completedEntries = new LinkedHashMap<>();
+
+    protected final AtomicLong replays = new AtomicLong();
+
+    protected volatile int maxEntries = DEFAULT_MAX_ENTRIES;
+    protected volatile long maxAgeMillis = DEFAULT_MAX_AGE_MILLIS;
+
+    public void setLimits(int maxEntries, long maxAgeMillis) {
+        this.maxEntries = maxEntries > 0 ? maxEntries : DEFAULT_MAX_ENTRIES;
+        this.maxAgeMillis = maxAgeMillis > 0 ? maxAgeMillis : DEFAULT_MAX_AGE_MILLIS;
+    }
+
+    /**
+     * Registers the start of processing a request.
+     *
+     * @return a new entry {@link Entry#isOwner() owned} by the caller, who has to process the request and then call
+     * {@link #complete(Entry, int, String)} or {@link #fail(Entry)}; or the entry of the earlier request with the
+     * same key, whose response the caller can {@link Entry#await(long)}; or null if the registry is full of
+     * running requests - then the request has to be rejected.
+     */
+    @Nullable
+    public synchronized Entry begin(@Nonnull String key) {
+        removeExpiredEntries();
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            return new Entry(entry);
+        }
+        if (entries.size() >= maxEntries) {
+            return null;
+        }
+        entry = new Entry(key);
+        entries.put(key, entry);
+        return entry;
+    }
+
+    /** Stores the successful response for the owned entry and releases those waiting for it. */
+    public synchronized void complete(@Nonnull Entry entry, int statusCode, @Nonnull String body) {
+        entry.statusCode = statusCode;
+        entry.body = body;
+        entry.completed = System.currentTimeMillis();
+        if (entries.get(entry.key) == entry) {
+            completedEntries.put(entry.key, entry);
+        }
+        entry.done.countDown();
+    }
+
+    /** Forgets the owned entry since the request failed, so that repetitions are processed again. */
+    public synchronized void fail(@Nonnull Entry entry) {
+        entries.remove(entry.key, entry);
+        entry.done.countDown();
+    }
+
+    /** Counts a request that was answered from the registry; returns the total count. */
+    public long countReplay() {
+        return replays.incrementAndGet();
+    }
+
+    public long getReplays() {
+        return replays.get();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Removes the completed entries that are too old, and the oldest completed entries if there is no room for a new
+     * entry. If that isn't enough, running entries that were started before the maximum age are removed, too.
+     */
+    protected void removeExpiredEntries() {
+        long limit = System.currentTimeMillis() - maxAgeMillis;
+        for (Iterator<Entry> it = completedEntries.values().iterator(); it.hasNext(); ) {
+            Entry entry = it.next();
+            if (entry.completed >= limit && entries.size() < maxEntries) {
+                break; // in the order of completion, the rest is younger
+            }
+            it.remove();
+            entries.remove(entry.key, entry);
+        }
+        if (entries.size() >= maxEntries) {
+            entries.values().removeIf((entry) -> entry.completed == 0 && entry.started < limit);
+        }
+    }
+
+    /** The state of a request with a specific key. */
+    public static class Entry {
+
+        protected final String key;
+        protected final CountDownLatch done;
+        /** The entry of the request processing it, if this is only a view for a repeated request. */
+        protected final Entry original;
+        protected volatile int statusCode;
+        protected volatile String body;
+        protected long started;
+        protected volatile long completed;
+
+        protected Entry(@Nonnull String key) {
+            this.key = key;
+            this.done = new CountDownLatch(1);
+            this.original = null;
+            this.started = System.currentTimeMillis();
+        }
+
+        /** A view to an entry owned by another request. */
+        protected Entry(@Nonnull Entry original) {
+            this.key = original.key;
+            this.done = original.done;
+            this.original = original;
+            this.started = original.started;
+        }
+
+        /** True if the caller of {@link #begin(String)} has to process the request. */
+        public boolean isOwner() {
+            return original == null;
+        }
+
+        /**
+         * Waits until the request with the same key was processed.
+         *
+         * @return the entry with the stored response, or null if the request failed or is still running
+         */
+        @Nullable
+        public Entry await(long maxWaitMillis) throws InterruptedException {
+            if (!done.await(maxWaitMillis, TimeUnit.MILLISECONDS)) {
+                return null;
+            }
+            return getBody() != null ? this : null;
+        }
+
+        /** True if the request processing the entry has completed or failed. */
+        public boolean isDone() {
+            return done.getCount() == 0;
+        }
+
+        public int getStatusCode() {
+            return original != null ? original.statusCode : statusCode;
+        }
+
+        @Nullable
+        public String getBody() {
+            return original != null ? original.body : body;
+        }
+    }
+
+    /**
+     * Wraps the response to record the status and the written body, which can then be stored in the registry.
+     * Bodies written to the output stream instead of the writer are not recorded.
+     */
+    public static class RecordingResponse extends SlingHttpServletResponseWrapper {
+
+        protected final StringWriter recorded = new StringWriter();
+        protected PrintWriter writer;
+        protected int statusCode = SC_OK;
+        protected boolean recordable = true;
+
+        public RecordingResponse(@Nonnull SlingHttpServletResponse wrappedResponse) {
+            super(wrappedResponse);
+        }
+
+        @Override
+        public void setStatus(int sc) {
+            statusCode = sc;
+            super.setStatus(sc);
+        }
+
+        @Override
+        public void sendError(int sc, String msg) throws IOException {
+            statusCode = sc;
+            super.sendError(sc, msg);
+        }
+
+        @Override
+        public void sendError(int sc) throws IOException {
+            statusCode = sc;
+            super.sendError(sc);
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if (writer == null) {
+                PrintWriter original = super.getWriter();
+                writer = new PrintWriter(new Writer() {
+                    @Override
+                    public void write(@Nonnull char[] cbuf, int off, int len) {
+                        original.write(cbuf, off, len);
+                        recorded.write(cbuf, off, len);
+                    }
+
+                    @Override
+                    public void flush() {
+                        original.flush();
+                    }
+
+                    @Override
+                    public void close() {
+                        original.close();
+                    }
+                });
+            }
+            return writer;
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            recordable = false;
+            return super.getOutputStream();
+        }
+
+        public int getStatusCode() {
+            return statusCode;
+        }
+
+        /** The recorded body, or null if it could not be recorded. */
+        @Nullable
+        public String getRecordedBody() {
+            if (writer != null) {
+                writer.flush();
+            }
+            return recordable ? recorded.toString() : null;
+        }
+    }
+
+}
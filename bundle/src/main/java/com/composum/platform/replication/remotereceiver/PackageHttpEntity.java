@@ -12,6 +12,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.jcr.RepositoryException;
 import java.io.IOException;
 import java.io.InputStream;
@@ -19,25 +20,54 @@ import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 
 /** An {@link HttpEntity} that generates on the fly a package and writes it into the request. */
-public class PackageHttpEntity extends AbstractHttpEntity implements HttpEntity {
+public class PackageHttpEntity extends AbstractHttpEntity implements ThrottledHttpEntity {
 
     private static final Logger LOG = LoggerFactory.getLogger(PackageHttpEntity.class);
 
     private final NodesConfiguration nodesConfig;
     private final BeanContext context;
     private final Resource resource;
+    private final ReplicationThrottle throttle;
 
     /** @param resource that is the top-level of the package. */
     public PackageHttpEntity(@Nonnull NodesConfiguration nodesConfig,
                              @Nonnull BeanContext context, @Nonnull Resource resource) {
+        this(nodesConfig, context, resource, null);
+    }
+
+    /**
+     * @param resource that is the top-level of the package.
+     * @param throttle optional throttle limiting the bandwidth used to transmit the package
+     */
+    public PackageHttpEntity(@Nonnull NodesConfiguration nodesConfig,
+                             @Nonnull BeanContext context, @Nonnull Resource resource,
+                             @Nullable ReplicationThrottle throttle) {
         setContentType("application/zip");
         this.resource = resource;
         this.nodesConfig = nodesConfig;
         this.context = context;
+        this.throttle = throttle;
     }
 
     @Override
     public void writeTo(OutputStream outstream) throws IOException {
+        writeUnthrottledTo(throttle != null ? throttle.throttle(outstream) : outstream);
+    }
+
+    @Nullable
+    @Override
+    public ReplicationThrottle getThrottle() {
+        return throttle;
+    }
+
+    @Override
+    public void writeUnthrottledTo(@Nonnull OutputStream outstream) throws IOException {
+        writePackage(nodesConfig, context, resource, outstream);
+    }
+
+    /** Writes the package with the subtree at resource as it is transmitted to the receiver. */
+    public static void writePackage(@Nonnull NodesConfiguration nodesConfig, @Nonnull BeanContext context,
+                                    @Nonnull Resource resource, @Nonnull OutputStream outstream) throws IOException {
         try {
             Resource writeResource = resource;
             if (ResourceUtil.isFile(resource) && ResourceUtil.CONTENT_NODE.equals(resource.getName())) {
@@ -0,0 +1,231 @@
+package com.composum.platform.replication.remotereceiver;
+
+import com.composum.sling.platform.staging.replication.ReplicationPaths;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps track of the content paths the currently running updates at the publisher are working on, so that several
+ * updates can run concurrently as long as their paths do not overlap, while overlapping updates are rejected with a
+ * clear message. Locks of updates that show no activity for a configurable time are considered stale (e.g. the author
+ * died) and are removed; an update whose lock was removed must not be committed anymore.
+ */
+public class PathLockTable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PathLockTable.class);
+
+    /** Default for the time after which a lock without any activity is removed. */
+    public static final long DEFAULT_TIMEOUT_MILLIS = 5 * 60 * 1000L;
+
+    protected final List<PathLock> locks = new ArrayList<>();
+
+    /** Index of the locks that are already assigned to an update. */
+    protected final Map<String, PathLock> byUpdateId = new ConcurrentHashMap<>();
+
+    protected volatile long timeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+
+    public void setTimeoutMillis(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis > 0 ? timeoutMillis : DEFAULT_TIMEOUT_MILLIS;
+    }
+
+    /**
+     * Reserves the path for a new update.
+     *
+     * @param path             the content path the update will write to
+     * @param replicationPaths the paths of the replication, kept for later reference
+     * @return the lock, which has to be {@link #assign(PathLock, String)}ed to an update or
+     * {@link #release(PathLock)}d again
+     * @throws PathConflictException if the path overlaps with the path of a running update
+     */
+    @Nonnull
+    public PathLock reserve(@Nonnull String path, @Nullable ReplicationPaths replicationPaths)
+            throws PathConflictException {
+        return reserve(path, replicationPaths, false);
+    }
+
+    /**
+     * Reserves the path for a new update.
+     *
+     * @param dryRun if true, the update only compares and is never committed - its lock neither conflicts with
+     *               other updates nor do they conflict with it
+     * @see #reserve(String, ReplicationPaths)
+     */
+    @Nonnull
+    public synchronized PathLock reserve(@Nonnull String path, @Nullable ReplicationPaths replicationPaths,
+                                         boolean dryRun) throws PathConflictException {
+        removeStaleLocks();
+        for (PathLock lock : locks) {
+            if (!dryRun && !lock.isDryRun() && overlaps(lock.getPath(), path)) {
+                throw new PathConflictException(path, lock);
+            }
+        }
+        PathLock lock = new PathLock(path, replicationPaths, dryRun);
+        locks.add(lock);
+        return lock;
+    }
+
+    /** Associates a reserved lock with the id of the update that was created for it. */
+    public synchronized void assign(@Nonnull PathLock lock, @Nonnull String updateId) {
+        lock.updateId = updateId;
+        lock.touch();
+        byUpdateId.put(updateId, lock);
+    }
+
+    /** Registers activity for the update, so that its lock doesn't become stale. */
+    @Nullable
+    public PathLock touch(@Nullable String updateId) {
+        PathLock lock = updateId != null ? byUpdateId.get(updateId) : null;
+        if (lock != null) {
+            lock.touch();
+        }
+        return lock;
+    }
+
+    /** The lock held by the update, if there is one. */
+    @Nullable
+    public PathLock get(@Nullable String updateId) {
+        return updateId != null ? byUpdateId.get(updateId) : null;
+    }
+
+    /** Releases the lock of the given update, if there is one. */
+    public synchronized void release(@Nullable String updateId) {
+        PathLock lock = updateId != null ? byUpdateId.get(updateId) : null;
+        if (lock != null) {
+            release(lock);
+        }
+    }
+
+    public synchronized void release(@Nonnull PathLock lock) {
+        locks.remove(lock);
+        if (lock.getUpdateId() != null) {
+            byUpdateId.remove(lock.getUpdateId());
+        }
+    }
+
+    /** A snapshot of the currently held locks. */
+    @Nonnull
+    public synchronized List<PathLock> getLocks() {
+        return new ArrayList<>(locks);
+    }
+
+    protected void removeStaleLocks() {
+        long now = System.currentTimeMillis();
+        for (Iterator<PathLock> it = locks.iterator(); it.hasNext(); ) {
+            PathLock lock = it.next();
+            if (now - lock.lastActivity > timeoutMillis) {
+                LOG.warn("Removing stale lock {}", lock);
+                it.remove();
+                if (lock.getUpdateId() != null) {
+                    byUpdateId.remove(lock.getUpdateId());
+                }
+            }
+        }
+    }
+
+    /** True if one of the paths is the same as or an ancestor of the other. */
+    public static boolean overlaps(@Nonnull String path1, @Nonnull String path2) {
+        String p1 = StringUtils.removeEnd(path1, "/");
+        String p2 = StringUtils.removeEnd(path2, "/");
+        return p1.equals(p2) || p1.isEmpty() || p2.isEmpty()
+                || p1.startsWith(p2 + "/") || p2.startsWith(p1 + "/");
+    }
+
+    /** The lock of a single update for a path. */
+    public static class PathLock {
+
+        protected final String path;
+        protected final ReplicationPaths replicationPaths;
+        protected final boolean dryRun;
+        protected final long created;
+        protected volatile long lastActivity;
+        protected volatile String updateId;
+        protected final Map<String, String> versions = new ConcurrentHashMap<>();
+
+        protected PathLock(@Nonnull String path, @Nullable ReplicationPaths replicationPaths, boolean dryRun) {
+            this.path = path;
+            this.replicationPaths = replicationPaths;
+            this.dryRun = dryRun;
+            this.created = System.currentTimeMillis();
+            this.lastActivity = created;
+        }
+
+        @Nonnull
+        public String getPath() {
+            return path;
+        }
+
+        @Nullable
+        public ReplicationPaths getReplicationPaths() {
+            return replicationPaths;
+        }
+
+        /** True if the update is a dry run, which must not be committed. */
+        public boolean isDryRun() {
+            return dryRun;
+        }
+
+        /** The id of the update, null if it is only reserved yet. */
+        @Nullable
+        public String getUpdateId() {
+            return updateId;
+        }
+
+        public long getCreated() {
+            return created;
+        }
+
+        /** Remembers the version of a versionable the author compared, so that it can be restored from a cache. */
+        public void putVersion(@Nonnull String path, @Nullable String version) {
+            if (version != null) {
+                versions.put(path, version);
+            }
+        }
+
+        /** The version of the versionable at path the author compared, if known. */
+        @Nullable
+        public String getVersion(@Nullable String path) {
+            return path != null ? versions.get(path) : null;
+        }
+
+        protected void touch() {
+            lastActivity = System.currentTimeMillis();
+        }
+
+        @Override
+        public String toString() {
+            return new ToStringBuilder(this)
+                    .append("path", path)
+                    .append("updateId", updateId)
+                    .append("dryRun", dryRun)
+                    .append("created", created)
+                    .toString();
+        }
+    }
+
+    /** Signals that a path is already locked by another update. */
+    public static class PathConflictException extends Exception {
+
+        protected final transient PathLock conflictingLock;
+
+        public PathConflictException(@Nonnull String path, @Nonnull PathLock conflictingLock) {
+            super("Update for " + path + " conflicts with running update " + conflictingLock.getUpdateId()
+                    + " for " + conflictingLock.getPath());
+            this.conflictingLock = conflictingLock;
+        }
+
+        @Nonnull
+        public PathLock getConflictingLock() {
+            return conflictingLock;
+        }
+    }
+}
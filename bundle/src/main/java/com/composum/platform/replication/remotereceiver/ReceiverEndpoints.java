@@ -0,0 +1,82 @@
+package com.composum.platform.replication.remotereceiver;
+
+import com.composum.platform.replication.remotereceiver.RemotePublicationReceiverServlet.Extension;
+import com.composum.platform.replication.remotereceiver.RemotePublicationReceiverServlet.Operation;
+import com.composum.sling.core.util.LinkUtil;
+import org.apache.commons.lang3.StringUtils;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.net.URI;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The URLs of the operations of the {@link RemotePublicationReceiverServlet} of one target, built once from the
+ * parsed target URL for all operation / extension pairs, so that the facade only has to append the encoded path
+ * for a request. Immutable.
+ */
+public class ReceiverEndpoints {
+
+    @Nullable
+    protected final URI targetUrl;
+
+    protected final Map<Operation, Map<Extension, String>> urls = new EnumMap<>(Operation.class);
+
+    public ReceiverEndpoints(@Nullable URI targetUrl) {
+        this.targetUrl = targetUrl;
+        String base = String.valueOf(targetUrl);
+        for (Operation operation : Operation.values()) {
+            Map<Extension, String> operationUrls = new EnumMap<>(Extension.class);
+            for (Extension extension : Extension.values()) {
+                operationUrls.put(extension, base + "." + operation.name() + "." + extension.name());
+            }
+            urls.put(operation, operationUrls);
+        }
+    }
+
+    /** The target URL the endpoints were built for. */
+    @Nullable
+    public URI getTargetUrl() {
+        return targetUrl;
+    }
+
+    /** Whether the endpoints were built for the target URL. */
+    public boolean isFor(@Nullable URI targetUrl) {
+        return Objects.equals(this.targetUrl, targetUrl);
+    }
+
+    /** The URL of the operation without suffix. */
+    @Nonnull
+    public String url(@Nonnull Operation operation, @Nonnull Extension extension) {
+        return urls.get(operation).get(extension);
+    }
+
+    /** The URL of the operation with the encoded path as suffix, if given. */
+    @Nonnull
+    public String url(@Nonnull Operation operation, @Nonnull Extension extension, @Nullable String path) {
+        String url = url(operation, extension);
+        return StringUtils.isNotBlank(path) ? url + encodePath(path) : url;
+    }
+
+    /**
+     * Encodes the path like {@link LinkUtil#encodePath(String)}; most repository paths consist only of characters
+     * that need no encoding and are returned as they are without running the encoder.
+     */
+    @Nonnull
+    public static String encodePath(@Nonnull String path) {
+        for (int i = 0; i < path.length(); ++i) {
+            if (!isUnreserved(path.charAt(i))) {
+                return LinkUtil.encodePath(path);
+            }
+        }
+        return path;
+    }
+
+    protected static boolean isUnreserved(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                || c == '/' || c == '-' || c == '_' || c == '.';
+    }
+
+}
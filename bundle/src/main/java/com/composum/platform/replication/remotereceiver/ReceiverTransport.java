@@ -0,0 +1,51 @@
+package com.composum.platform.replication.remotereceiver;
+
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.HttpClientContext;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The way the {@link RemotePublicationReceiverFacade} transmits its requests to the remote receiver, selected by
+ * {@link RemotePublicationConfig#getTransport()}.
+ */
+public interface ReceiverTransport {
+
+    /**
+     * Executes the request.
+     *
+     * @param request the request
+     * @param context the context initialized by
+     *                {@link RemotePublicationConfig#initHttpContext(HttpClientContext,
+     *                com.composum.platform.commons.proxy.ProxyManagerService,
+     *                com.composum.platform.commons.credentials.CredentialService)} with proxy and credentials
+     * @return the response, which has to be closed by the caller
+     */
+    @Nonnull
+    CloseableHttpResponse execute(@Nonnull HttpUriRequest request, @Nonnull HttpClientContext context)
+            throws IOException;
+
+    /**
+     * Starts the request. The request entity is written in the calling thread, so it may access the JCR resources of
+     * the caller. The default implementation executes the request synchronously, so the calling thread is blocked
+     * during the transmission; transports with a non blocking client override this.
+     *
+     * @return the future for the response, which has to be closed by the caller; it fails with an
+     * {@link IOException} if the request could not be executed
+     */
+    @Nonnull
+    default CompletableFuture<CloseableHttpResponse> executeAsync(@Nonnull HttpUriRequest request,
+                                                                  @Nonnull HttpClientContext context) {
+        CompletableFuture<CloseableHttpResponse> result = new CompletableFuture<>();
+        try {
+            result.complete(execute(request, context));
+        } catch (IOException | RuntimeException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+}
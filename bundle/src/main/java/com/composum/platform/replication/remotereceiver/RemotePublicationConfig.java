@@ -25,36 +25,77 @@ import static org.apache.commons.lang3.StringUtils.isNotBlank;
  * Bean modeling a remote publication configuration - subnode below /conf/{sitepath}/{site}/replication/ .
  */
 public class RemotePublicationConfig extends AbstractReplicationConfig {
-    public static final ReplicationType REMOTE_REPLICATION_TYPE = new RemoteReplicationType();
+    public static final ReplicationType REMOTE_REPLICATION_TYPE = RemoteReplicationType.INSTANCE;
     /**
      * Property name for {@link #getCredentialId()}.
      */
     public static final String PROP_CREDENTIAL_ID = "credentialId";
+    /**
+     * Property name for {@link #getBandwidthLimit()}.
+     */
+    public static final String PROP_BANDWIDTH_LIMIT = "bandwidthLimit";
+    /**
+     * Property name for {@link #getRequestRateLimit()}.
+     */
+    public static final String PROP_REQUEST_RATE_LIMIT = "requestRateLimit";
+    /**
+     * Property name for {@link #getUnlimitedTimes()}.
+     */
+    public static final String PROP_UNLIMITED_TIMES = "unlimitedTimes";
+    /**
+     * Property name for {@link #getTransport()}.
+     */
+    public static final String PROP_TRANSPORT = "transport";
+    /**
+     * Value for {@link #PROP_TRANSPORT}: classic blocking requests over HTTP/1.1 - the default.
+     */
+    public static final String TRANSPORT_HTTP1 = "http1";
+    /**
+     * Value for {@link #PROP_TRANSPORT}: multiplexed requests over HTTP/2 if the target supports it.
+     */
+    public static final String TRANSPORT_HTTP2 = "http2";
 
     private static final Logger LOG = LoggerFactory.getLogger(RemotePublicationConfig.class);
 
     protected String targetUrl;
     protected String proxyKey;
     protected String credentialId;
+    protected long bandwidthLimit;
+    protected double requestRateLimit;
+    protected String unlimitedTimes;
+    protected String transport;
+
+    /** {@link #targetUrl} parsed on first use. */
+    private transient URI targetUri;
+    private transient boolean targetUriParsed;
 
     @Override
     public void initialize(BeanContext context, Resource resource) {
         super.initialize(context, resource);
         this.targetUrl = getProperty(PROP_URL, "");
+        this.targetUriParsed = false;
         this.proxyKey = getProperty(PROP_PROXY_KEY, String.class);
         this.credentialId = getProperty(PROP_CREDENTIAL_ID, "");
+        this.bandwidthLimit = getProperty(PROP_BANDWIDTH_LIMIT, 0L);
+        this.requestRateLimit = getProperty(PROP_REQUEST_RATE_LIMIT, 0.0);
+        this.unlimitedTimes = getProperty(PROP_UNLIMITED_TIMES, "");
+        this.transport = getProperty(PROP_TRANSPORT, TRANSPORT_HTTP1);
     }
 
     /**
      * URL of the {@link RemotePublicationReceiverServlet} on the remote system.
      */
     public URI getTargetUrl() {
-        try {
-            return targetUrl != null ? new URI(targetUrl) : null;
-        } catch (URISyntaxException e) {
-            LOG.error("Broken URI {} at {}", targetUrl, getPath(), e);
-            return null;
+        if (!targetUriParsed) {
+            try {
+                targetUri = targetUrl != null ? new URI(targetUrl) : null;
+            } catch (URISyntaxException e) {
+                LOG.error("Broken URI {} at {}", targetUrl, getPath(), e);
+                targetUri = null;
+            }
+            targetUriParsed = true;
         }
+        return targetUri;
     }
 
     @Override
@@ -89,6 +130,38 @@ public class RemotePublicationConfig extends AbstractReplicationConfig {
         return credentialId;
     }
 
+    /**
+     * Optional limit for the bandwidth used to transmit content to the remote system in kilobytes per second;
+     * 0 means unlimited.
+     */
+    public long getBandwidthLimit() {
+        return bandwidthLimit;
+    }
+
+    /**
+     * Optional limit for the number of requests per second sent to the remote system; 0 means unlimited.
+     */
+    public double getRequestRateLimit() {
+        return requestRateLimit;
+    }
+
+    /**
+     * Optional comma separated time windows like {@code 22:00-06:00} in which the bandwidth and request rate limits
+     * do not apply, e.g. to replicate at full speed at night.
+     */
+    public String getUnlimitedTimes() {
+        return unlimitedTimes;
+    }
+
+    /**
+     * The transport used to reach the remote system: {@link #TRANSPORT_HTTP1} (default) or
+     * {@link #TRANSPORT_HTTP2}.
+     */
+    @Nonnull
+    public String getTransport() {
+        return isNotBlank(transport) ? transport : TRANSPORT_HTTP1;
+    }
+
     /**
      * Initializes a HttpClientContext for httpclient with the saved data (auth, proxy).
      *
@@ -6,12 +6,16 @@ import com.composum.platform.commons.proxy.ProxyManagerService;
 import com.composum.platform.commons.util.ExceptionThrowingRunnable;
 import com.composum.platform.commons.util.ExceptionUtil;
 import com.composum.platform.replication.remote.RemotePublisherService;
+import com.composum.platform.replication.remote.ReplicationCostEstimate;
+import com.composum.platform.replication.remote.RemoteTarget;
+import com.composum.platform.replication.remote.ReplicationLanes;
+import com.composum.platform.replication.remote.ReplicationProgress;
+import com.composum.platform.replication.remote.TargetStatistics;
 import com.composum.platform.replication.remotereceiver.RemotePublicationReceiverServlet.Extension;
 import com.composum.platform.replication.remotereceiver.RemotePublicationReceiverServlet.Operation;
 import com.composum.sling.core.BeanContext;
 import com.composum.sling.core.logging.Message;
 import com.composum.sling.core.servlet.Status;
-import com.composum.sling.core.util.LinkUtil;
 import com.composum.sling.core.util.SlingResourceUtil;
 import com.composum.sling.nodes.NodesConfiguration;
 import com.composum.sling.platform.staging.replication.*;
@@ -23,7 +27,11 @@ import com.google.gson.GsonBuilder;
 import com.google.gson.stream.JsonWriter;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.http.Consts;
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpStatus;
 import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
 import org.apache.http.NameValuePair;
 import org.apache.http.StatusLine;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
@@ -32,9 +40,13 @@ import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.client.utils.DateUtils;
 import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.impl.client.BasicCookieStore;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.util.EntityUtils;
 import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ResourceResolver;
 import org.slf4j.Logger;
@@ -46,11 +58,21 @@ import javax.jcr.RepositoryException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.Reader;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -62,7 +84,7 @@ import static com.composum.platform.replication.remotereceiver.RemotePublication
 /**
  * Provides a Java interface for accessing the remote publication receiver.
  */
-public class RemotePublicationReceiverFacade implements PublicationReceiverFacade {
+public class RemotePublicationReceiverFacade implements AsyncPublicationReceiverFacade {
 
     private static final Logger LOG = LoggerFactory.getLogger(RemotePublicationReceiverFacade.class);
 
@@ -87,7 +109,46 @@ public class RemotePublicationReceiverFacade implements PublicationReceiverFacad
     @Nonnull
     protected final CloseableHttpClient httpClient;
 
-    protected HttpClientContext lazyHttpClientContext = null;
+    @Nonnull
+    protected final RemoteTarget target;
+
+    @Nonnull
+    protected final ReceiverTransport transport;
+
+    protected volatile HttpClientContext lazyHttpClientContext = null;
+
+    /** The uploads running in parallel to the process if {@link #getParallelUploads()} is > 1. */
+    protected final List<Future<Status>> pendingUploads = new ArrayList<>();
+
+    protected Semaphore uploadPermits;
+
+    /** The paths the receiver reported in compareContent as restorable from its {@link VersionSnapshotCache}. */
+    protected final Set<String> cachedPaths = ConcurrentHashMap.newKeySet();
+
+    /**
+     * The differing paths of the last compareContent, if they are so many that they are transmitted together with
+     * {@link #bulkUploadCall(UpdateInfo, List)} at the first pathupload of one of them.
+     */
+    protected volatile List<String> bulkPaths;
+
+    /** The paths transmitted by the last bulk upload that were not yet requested with pathupload. */
+    protected final Set<String> bulkUploaded = ConcurrentHashMap.newKeySet();
+
+    /**
+     * The priority class of the replication: urgent until compareContent reports more than
+     * {@link RemotePublisherService.Configuration#urgentMaxPaths()} differing paths.
+     */
+    protected volatile ReplicationLanes.Lane lane = ReplicationLanes.Lane.urgent;
+
+    /** If set, the facade only does a dry run: nothing is transmitted or committed, the costs are estimated. */
+    protected volatile ReplicationCostEstimate dryRun;
+
+    /** The progress shown on the dashboard - the target's, or a throwaway one for dry runs. */
+    @Nonnull
+    protected volatile ReplicationProgress progress;
+
+    /** The {@link System#nanoTime()} of the start of the current run, -1 if there is none. */
+    protected final AtomicLong runStartNanos = new AtomicLong(-1);
 
     public RemotePublicationReceiverFacade(@Nonnull RemotePublicationConfig replicationConfig,
                                            @Nonnull BeanContext context,
@@ -95,7 +156,8 @@ public class RemotePublicationReceiverFacade implements PublicationReceiverFacad
                                            @Nonnull Supplier<RemotePublisherService.Configuration> generalConfig,
                                            @Nonnull NodesConfiguration nodesConfiguration,
                                            @Nonnull ProxyManagerService proxyManagerService,
-                                           @Nonnull CredentialService credentialService
+                                           @Nonnull CredentialService credentialService,
+                                           @Nonnull RemoteTarget target
     ) {
         this.context = context;
         this.replicationConfig = replicationConfig;
@@ -104,6 +166,40 @@ public class RemotePublicationReceiverFacade implements PublicationReceiverFacad
         this.httpClient = httpClient;
         this.proxyManagerService = proxyManagerService;
         this.credentialService = credentialService;
+        this.target = target;
+        this.transport = target.getTransport(httpClient);
+        this.progress = target.getProgress();
+    }
+
+    /**
+     * Switches the facade into dry run mode: the receiver is queried as usual, but instead of uploading the
+     * content the costs are recorded in the estimate, and instead of committing the update is aborted.
+     */
+    public void setDryRun(@Nullable ReplicationCostEstimate estimate) {
+        this.dryRun = estimate;
+        this.progress = estimate != null ? new ReplicationProgress() : target.getProgress();
+    }
+
+    /** Registers the start of a run in the {@link #progress}, ending a previous run of this facade if necessary. */
+    protected void startRun() {
+        endRun(false);
+        runStartNanos.set(System.nanoTime());
+        progress.startRun();
+    }
+
+    /** Registers the end of the run in the {@link #progress}, if it wasn't ended yet. */
+    protected void endRun(boolean success) {
+        long start = runStartNanos.getAndSet(-1);
+        if (start >= 0) {
+            progress.endRun(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), success);
+        }
+    }
+
+    /** Counts a transmitted path in the {@link #progress}. */
+    @Nonnull
+    protected Status uploaded(@Nonnull Status status) {
+        progress.countPath();
+        return status;
     }
 
     protected URIBuilder uriBuilder(Operation operation, Extension ext, String path) throws ReplicationException {
@@ -117,12 +213,17 @@ public class RemotePublicationReceiverFacade implements PublicationReceiverFacad
     }
 
     protected String uriString(@Nonnull Operation operation, @Nonnull Extension ext, @Nullable String path) {
-        return uriString(operation, ext) +
-                (StringUtils.isNotBlank(path) ? LinkUtil.encodePath(path) : "");
+        return getEndpoints().url(operation, ext, path);
     }
 
     protected String uriString(@Nonnull Operation operation, @Nonnull Extension ext) {
-        return replicationConfig.getTargetUrl() + "." + operation.name() + "." + ext.name();
+        return getEndpoints().url(operation, ext);
+    }
+
+    /** The prebuilt operation URLs, shared by all facades of the target. */
+    @Nonnull
+    protected ReceiverEndpoints getEndpoints() {
+        return target.getEndpoints(replicationConfig.getTargetUrl());
     }
 
     protected URI buildUrl(URIBuilder uriBuilder) throws ReplicationException {
@@ -138,17 +239,54 @@ public class RemotePublicationReceiverFacade implements PublicationReceiverFacad
     @Override
     public StatusWithReleaseData startUpdate(@Nonnull ReplicationPaths replicationPaths)
             throws ReplicationException {
+        awaitUploads();
+        startRun();
+        try {
+            return checkUpdateId(execute(startUpdateCall(replicationPaths)));
+        } catch (ReplicationException | RuntimeException e) {
+            endRun(false);
+            throw e;
+        }
+    }
+
+    @Nonnull
+    @Override
+    public CompletableFuture<StatusWithReleaseData> startUpdateAsync(@Nonnull ReplicationPaths replicationPaths) {
+        startRun();
+        return executeAsync(() -> startUpdateCall(replicationPaths))
+                .thenApply((status) -> {
+                    try {
+                        return checkUpdateId(status);
+                    } catch (ReplicationException e) {
+                        throw new CompletionException(e);
+                    }
+                })
+                .whenComplete((status, ex) -> {
+                    if (ex != null) {
+                        endRun(false);
+                    }
+                });
+    }
+
+    @Nonnull
+    protected ReceiverCall<StatusWithReleaseData> startUpdateCall(@Nonnull ReplicationPaths replicationPaths) {
         List<NameValuePair> form = new ArrayList<>();
         replicationPaths.addToForm(form);
+        if (dryRun != null) { // the receiver doesn't lock the path for other updates then
+            form.add(new BasicNameValuePair(RemoteReceiverConstants.PARAM_DRYRUN, "true"));
+        }
         UrlEncodedFormEntity entity = new UrlEncodedFormEntity(form, Consts.UTF_8);
         String uri = uriString(startUpdate, json, replicationPaths.getContentPath());
         HttpPost post = new HttpPost(uri);
         post.setEntity(entity);
 
         LOG.info("Start update in {}", replicationPaths);
-        StatusWithReleaseData status =
-                callRemotePublicationReceiver("Starting update with " + replicationPaths,
-                        getHttpClientContext(), post, StatusWithReleaseData.class, null);
+        return new ReceiverCall<>("Starting update with " + replicationPaths,
+                post, StatusWithReleaseData.class, null, false);
+    }
+
+    @Nonnull
+    protected StatusWithReleaseData checkUpdateId(@Nonnull StatusWithReleaseData status) throws ReplicationException {
         if (status.updateInfo == null || StringUtils.isBlank(status.updateInfo.updateId)) { // impossible
             throw ExceptionUtil.logAndThrow(LOG,
                     new RemoteReplicationException(Message.error("Received no updateId"), null, status, null));
@@ -160,6 +298,18 @@ public class RemotePublicationReceiverFacade implements PublicationReceiverFacad
     @Override
     public StatusWithReleaseData releaseInfo(@Nonnull ReplicationPaths replicationPaths)
             throws ReplicationException {
+        awaitUploads();
+        return execute(releaseInfoCall(replicationPaths));
+    }
+
+    @Nonnull
+    @Override
+    public CompletableFuture<StatusWithReleaseData> releaseInfoAsync(@Nonnull ReplicationPaths replicationPaths) {
+        return executeAsync(() -> releaseInfoCall(replicationPaths));
+    }
+
+    @Nonnull
+    protected ReceiverCall<StatusWithReleaseData> releaseInfoCall(@Nonnull ReplicationPaths replicationPaths) {
         List<NameValuePair> form = new ArrayList<>();
         replicationPaths.addToForm(form);
         UrlEncodedFormEntity entity = new UrlEncodedFormEntity(form, Consts.UTF_8);
@@ -170,30 +320,74 @@ public class RemotePublicationReceiverFacade implements PublicationReceiverFacad
         if (LOG.isDebugEnabled()) {
             LOG.debug("Get releaseinfo for {}", replicationPaths);
         }
-        StatusWithReleaseData status =
-                callRemotePublicationReceiver("Get releaseinfo for " + replicationPaths,
-                        getHttpClientContext(), post, StatusWithReleaseData.class, null);
-        return status;
+        return new ReceiverCall<>("Get releaseinfo for " + replicationPaths,
+                post, StatusWithReleaseData.class, null, true);
     }
 
+    /**
+     * The context for the requests: derived from the authenticated context the target shares between its processes
+     * for {@link RemotePublisherService.Configuration#authContextTtl()}, or a context of its own if that is 0.
+     */
     @Nonnull
     protected HttpClientContext getHttpClientContext() throws ReplicationException {
         if (lazyHttpClientContext == null) {
-            try {
-                lazyHttpClientContext = replicationConfig.initHttpContext(HttpClientContext.create(),
-                        proxyManagerService, credentialService);
-            } catch (RepositoryException e) {
-                throw new ReplicationException(Message.error("Trouble initializing connection for {}", replicationConfig.getPath()), e);
+            long ttlMillis = getAuthContextTtl() * 1000L;
+            if (ttlMillis > 0) {
+                lazyHttpClientContext = target.getHttpClientContext(ttlMillis, this::initHttpClientContext);
+            } else {
+                HttpClientContext httpClientContext = HttpClientContext.create();
+                // the client is shared by all processes of the target, but the cookies are not
+                httpClientContext.setCookieStore(new BasicCookieStore());
+                initHttpClientContext(httpClientContext);
+                lazyHttpClientContext = httpClientContext;
             }
         }
         return lazyHttpClientContext;
     }
 
+    /** Sets the credentials and the proxy of the configuration. */
+    protected void initHttpClientContext(@Nonnull HttpClientContext httpClientContext) throws ReplicationException {
+        try {
+            replicationConfig.initHttpContext(httpClientContext, proxyManagerService, credentialService);
+        } catch (RepositoryException e) {
+            throw new ReplicationException(Message.error("Trouble initializing connection for {}", replicationConfig.getPath()), e);
+        }
+    }
+
+    /**
+     * The target rejected the credentials: the shared context is discarded, so that the next requests are made
+     * with a freshly initialized one - e.g. with changed credentials.
+     */
+    protected void unauthorized() {
+        target.getStatistics().countUnauthorized();
+        target.invalidateHttpClientContext();
+        lazyHttpClientContext = null;
+    }
+
+    protected long getAuthContextTtl() {
+        RemotePublisherService.Configuration config = generalConfig.get();
+        return config != null ? config.authContextTtl() : 0;
+    }
+
     @Override
     @Nonnull
     public ContentStateStatus contentState(
             @Nonnull UpdateInfo updateInfo, @Nonnull Collection<String> paths, @Nonnull ResourceResolver resolver, @Nonnull ReplicationPaths replicationPaths)
             throws ReplicationException {
+        awaitUploads();
+        return execute(contentStateCall(updateInfo, paths, resolver, replicationPaths));
+    }
+
+    @Override
+    @Nonnull
+    public CompletableFuture<ContentStateStatus> contentStateAsync(
+            @Nonnull UpdateInfo updateInfo, @Nonnull Collection<String> paths, @Nonnull ResourceResolver resolver, @Nonnull ReplicationPaths replicationPaths) {
+        return executeAsync(() -> contentStateCall(updateInfo, paths, resolver, replicationPaths));
+    }
+
+    @Nonnull
+    protected ReceiverCall<ContentStateStatus> contentStateCall(
+            @Nonnull UpdateInfo updateInfo, @Nonnull Collection<String> paths, @Nonnull ResourceResolver resolver, @Nonnull ReplicationPaths replicationPaths) {
         List<NameValuePair> form = new ArrayList<>();
         form.add(new BasicNameValuePair(RemoteReceiverConstants.PARAM_UPDATEID, updateInfo.updateId));
         replicationPaths.addToForm(form);
@@ -209,10 +403,7 @@ public class RemotePublicationReceiverFacade implements PublicationReceiverFacad
         Gson gson = new GsonBuilder().registerTypeAdapterFactory(
                 new VersionableTree.VersionableTreeDeserializer(null, resolver, replicationPaths.getOrigin())
         ).create();
-        ContentStateStatus status =
-                callRemotePublicationReceiver("Querying content for " + paths,
-                        getHttpClientContext(), post, ContentStateStatus.class, gson);
-        return status;
+        return new ReceiverCall<>("Querying content for " + paths, post, ContentStateStatus.class, gson, true);
     }
 
     @Override
@@ -220,6 +411,53 @@ public class RemotePublicationReceiverFacade implements PublicationReceiverFacad
     public Status compareContent(@Nonnull UpdateInfo updateInfo, @Nonnull Collection<String> paths,
                                  ResourceResolver resolver, ReplicationPaths replicationPaths)
             throws ReplicationException {
+        awaitUploads();
+        progress.setPhase(ReplicationProgress.Phase.comparing);
+        return rememberComparison(execute(compareContentCall(updateInfo, paths, resolver, replicationPaths)));
+    }
+
+    @Override
+    @Nonnull
+    public CompletableFuture<Status> compareContentAsync(@Nonnull UpdateInfo updateInfo, @Nonnull Collection<String> paths,
+                                                         ResourceResolver resolver, ReplicationPaths replicationPaths) {
+        progress.setPhase(ReplicationProgress.Phase.comparing);
+        return executeAsync(() -> compareContentCall(updateInfo, paths, resolver, replicationPaths))
+                .thenApply(this::rememberComparison);
+    }
+
+    /** Remembers which of the differing paths are restored from the receiver's cache or bulk uploaded. */
+    @Nonnull
+    protected Status rememberComparison(@Nonnull Status status) {
+        Object cached = status.data(Status.DATA).get(RemoteReceiverConstants.PARAM_CACHED);
+        if (cached instanceof Collection) {
+            for (Object path : (Collection<?>) cached) {
+                cachedPaths.add(String.valueOf(path));
+            }
+        }
+        Object diffpaths = status.data(Status.DATA).get(RemoteReceiverConstants.PARAM_PATH);
+        if (diffpaths instanceof Collection) {
+            progress.addPathsTotal(((Collection<?>) diffpaths).size());
+        }
+        if (diffpaths instanceof Collection && ((Collection<?>) diffpaths).size() > getUrgentMaxPaths()) {
+            lane = ReplicationLanes.Lane.bulk;
+        }
+        int threshold = getBulkUploadThreshold();
+        if (threshold > 0 && diffpaths instanceof Collection && ((Collection<?>) diffpaths).size() >= threshold) {
+            List<String> paths = new ArrayList<>();
+            for (Object path : (Collection<?>) diffpaths) {
+                if (!cachedPaths.contains(String.valueOf(path))) {
+                    paths.add(String.valueOf(path));
+                }
+            }
+            bulkPaths = paths;
+        }
+        return status;
+    }
+
+    @Nonnull
+    protected ReceiverCall<Status> compareContentCall(@Nonnull UpdateInfo updateInfo, @Nonnull Collection<String> paths,
+                                                      ResourceResolver resolver, ReplicationPaths replicationPaths)
+            throws ReplicationException {
         URIBuilder uriBuilder = uriBuilder(compareContent, json, replicationPaths.getContentPath())
                 .addParameter(RemoteReceiverConstants.PARAM_UPDATEID, updateInfo.updateId);
         replicationPaths.addToUriBuilder(uriBuilder);
@@ -237,23 +475,381 @@ public class RemotePublicationReceiverFacade implements PublicationReceiverFacad
         put.setEntity(new JsonHttpEntity<>(versionableTree, gson));
 
         LOG.info("Comparing content for {}", paths);
-        Status status = callRemotePublicationReceiver("compare content " + paths,
-                getHttpClientContext(), put, Status.class, null);
-        return status;
+        return new ReceiverCall<>("compare content " + paths, put, Status.class, null, true);
     }
 
     @Override
     @Nonnull
     public Status pathupload(@Nonnull UpdateInfo updateInfo, @Nonnull Resource resource) throws ReplicationException {
+        progress.setPhase(ReplicationProgress.Phase.uploading);
+        if (dryRun != null) {
+            return uploaded(estimateUpload(resource));
+        }
+        if (cachedPaths.remove(resource.getPath())) {
+            Status restoreStatus = execute(pathRestoreCall(updateInfo, resource));
+            if (isRestored(restoreStatus)) {
+                return uploaded(restoreStatus);
+            }
+        }
+        Status bulkStatus = bulkUpload(updateInfo, resource);
+        if (bulkStatus != null) {
+            return uploaded(bulkStatus);
+        }
+        int parallelUploads = getParallelUploads();
+        if (parallelUploads <= 1) {
+            return uploaded(execute(uploadCall(updateInfo, resource)));
+        }
+        return startParallelUpload(uploadCall(updateInfo, resource), parallelUploads);
+    }
+
+    /**
+     * The call transmitting the resource: a {@link ContentDelta} if {@link #isDeltaUploads()} and the receiver's
+     * copy allows one, otherwise a package of the whole subtree.
+     */
+    @Nonnull
+    protected ReceiverCall<Status> uploadCall(@Nonnull UpdateInfo updateInfo, @Nonnull Resource resource)
+            throws ReplicationException {
+        ReceiverCall<Status> call = isDeltaUploads() ? pathDeltaCall(updateInfo, resource) : null;
+        return call != null ? call : pathuploadCall(updateInfo, resource);
+    }
+
+    /**
+     * Creates the package in the calling thread and transmits it in a worker thread, so that the next package can
+     * be created in the meantime. The path is counted as transmitted in the {@link #progress} when the upload is
+     * through. Failures are reported by the next operation other than an upload, at the latest by the commit.
+     *
+     * @return a preliminary status: {@link HttpStatus#SC_ACCEPTED} - the upload was started, but is not done yet
+     */
+    @Nonnull
+    protected Status startParallelUpload(@Nonnull ReceiverCall<Status> call, int parallelUploads)
+            throws ReplicationException {
+        if (uploadPermits == null) {
+            uploadPermits = new Semaphore(parallelUploads);
+        }
+        checkFailedUploads();
+        HttpEntityEnclosingRequest request = (HttpEntityEnclosingRequest) call.request;
+        SpooledHttpEntity spooled;
+        try {
+            spooled = new SpooledHttpEntity(request.getEntity());
+        } catch (IOException e) {
+            throw ExceptionUtil.logAndThrow(LOG, new ReplicationException(
+                    Message.error("Could not create package for {}", call.logmessage), e));
+        }
+        request.setEntity(spooled);
+        // the context is not thread safe, so each upload gets a child context
+        call.httpClientContext = HttpClientContext.adapt(new BasicHttpContext(getHttpClientContext()));
+        try {
+            uploadPermits.acquire();
+        } catch (InterruptedException e) {
+            spooled.delete();
+            Thread.currentThread().interrupt();
+            throw new ReplicationException(Message.error("Interrupted while waiting for {}", call.logmessage), e);
+        }
+        try {
+            pendingUploads.add(target.getWorkers().submit(() -> {
+                try {
+                    return uploaded(execute(call));
+                } finally {
+                    spooled.delete();
+                    uploadPermits.release();
+                }
+            }));
+        } catch (RuntimeException e) {
+            spooled.delete();
+            uploadPermits.release();
+            throw e;
+        }
+        return syntheticStatus(HttpStatus.SC_ACCEPTED);
+    }
+
+    /** A successful status for an operation that was already done or is done later. */
+    @Nonnull
+    protected Status syntheticStatus(int statusCode) {
+        Status status = new Status(null, null, LOG);
+        status.setStatus(statusCode);
+        return status;
+    }
+
+    /**
+     * If the resource belongs to the paths to transmit in bulk, they are all transmitted with the first of them.
+     *
+     * @return the status if the resource was transmitted in bulk, null if it has to be uploaded as usual
+     */
+    @Nullable
+    protected Status bulkUpload(@Nonnull UpdateInfo updateInfo, @Nonnull Resource resource)
+            throws ReplicationException {
+        if (bulkUploaded.remove(resource.getPath())) {
+            return syntheticStatus(HttpStatus.SC_OK);
+        }
+        List<String> paths = bulkPaths;
+        if (paths == null || !paths.contains(resource.getPath())) {
+            return null;
+        }
+        bulkPaths = null;
+        ResourceResolver resolver = resource.getResourceResolver();
+        List<Resource> resources = paths.stream()
+                .map(resolver::getResource)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+        awaitUploads();
+        Status status = execute(bulkUploadCall(updateInfo, resources));
+        Object uploaded = status.data(Status.DATA).get(RemoteReceiverConstants.PARAM_PATH);
+        if (uploaded instanceof Collection) {
+            for (Object path : (Collection<?>) uploaded) {
+                bulkUploaded.add(String.valueOf(path));
+            }
+        }
+        return bulkUploaded.remove(resource.getPath()) ? status : null;
+    }
+
+    @Nonnull
+    protected ReceiverCall<Status> bulkUploadCall(@Nonnull UpdateInfo updateInfo, @Nonnull List<Resource> resources)
+            throws ReplicationException {
+        URI uri = buildUrl(uriBuilder(bulkUpload, zip, null)
+                .addParameter(RemoteReceiverConstants.PARAM_UPDATEID, updateInfo.updateId));
+        HttpPut put = new HttpPut(uri);
+        put.setEntity(new BulkPackageHttpEntity(nodesConfig, context, resources, target.getThrottle()));
+        put.setHeader(RemoteReceiverConstants.HEADER_IDEMPOTENCY_KEY, newIdempotencyKey());
+
+        LOG.info("Uploading {} packages in bulk for {}", resources.size(), updateInfo.updateId);
+        return new ReceiverCall<>("bulkupload of " + resources.size() + " packages", put, Status.class,
+                null, true);
+    }
+
+    protected int getUrgentMaxPaths() {
+        RemotePublisherService.Configuration config = generalConfig.get();
+        return config != null ? config.urgentMaxPaths() : 10;
+    }
+
+    protected int getBulkUploadThreshold() {
+        RemotePublisherService.Configuration config = generalConfig.get();
+        return config != null ? config.bulkUploadThreshold() : 0;
+    }
+
+    /** Throws the exception of the first failed parallel upload that is already done, if there is one. */
+    protected void checkFailedUploads() throws ReplicationException {
+        for (Future<Status> upload : pendingUploads) {
+            if (upload.isDone()) {
+                getUploadResult(upload);
+            }
+        }
+    }
+
+    /** Waits until all parallel uploads are done and throws the exception of the first failed upload. */
+    protected void awaitUploads() throws ReplicationException {
+        try {
+            for (Future<Status> upload : pendingUploads) {
+                getUploadResult(upload);
+            }
+        } finally {
+            cancelUploads();
+        }
+    }
+
+    /** Cancels the running parallel uploads. */
+    protected void cancelUploads() {
+        for (Future<Status> upload : pendingUploads) {
+            upload.cancel(true);
+        }
+        pendingUploads.clear();
+    }
+
+    protected void getUploadResult(@Nonnull Future<Status> upload) throws ReplicationException {
+        try {
+            upload.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ReplicationException(Message.error("Interrupted while waiting for uploads"), e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ReplicationException) {
+                throw (ReplicationException) e.getCause();
+            }
+            throw new ReplicationException(Message.error("Upload failed: {}", String.valueOf(e.getCause())),
+                    e.getCause());
+        }
+    }
+
+    protected int getParallelUploads() {
+        RemotePublisherService.Configuration config = generalConfig.get();
+        return config != null ? config.parallelUploads() : 1;
+    }
+
+    /**
+     * Doesn't restore from the receiver's {@link VersionSnapshotCache} like {@link #pathupload(UpdateInfo, Resource)},
+     * since the package would have to be created in the calling thread before it is known whether it is needed. The
+     * caller isn't blocked by the transmission, but with the {@link ClassicReceiverTransport} each transmission blocks
+     * a worker of the target while it runs; only the {@link Http2ReceiverTransport} is non blocking.
+     */
+    @Override
+    @Nonnull
+    public CompletableFuture<Status> pathuploadAsync(@Nonnull UpdateInfo updateInfo, @Nonnull Resource resource) {
+        progress.setPhase(ReplicationProgress.Phase.uploading);
+        if (dryRun != null) {
+            CompletableFuture<Status> result = new CompletableFuture<>();
+            try {
+                result.complete(uploaded(estimateUpload(resource)));
+            } catch (ReplicationException e) {
+                result.completeExceptionally(e);
+            }
+            return result;
+        }
+        if (isDeltaUploads()) {
+            return deltaUploadAsync(updateInfo, resource).thenApply(this::uploaded);
+        }
+        return executeAsync(() -> pathuploadCall(updateInfo, resource)).thenApply(this::uploaded);
+    }
+
+    /**
+     * The asynchronous variant of {@link #uploadCall(UpdateInfo, Resource)} with {@link #isDeltaUploads()}: the caller
+     * doesn't wait for the manifest of the receiver's copy. Since the resource must not be accessed by other threads,
+     * the caller takes a {@link ContentDelta.Snapshot} of it and spools the package in case no delta is possible; the
+     * delta is computed from the snapshot when the manifest is there.
+     */
+    @Nonnull
+    protected CompletableFuture<Status> deltaUploadAsync(@Nonnull UpdateInfo updateInfo, @Nonnull Resource resource) {
+        String path = resource.getPath();
+        ContentDelta.Snapshot snapshot;
+        ReceiverCall<Status> packageCall;
+        SpooledHttpEntity spooledPackage;
+        try {
+            snapshot = ContentDelta.snapshot(resource, null, getDeltaMaxBinarySize());
+            packageCall = pathuploadCall(updateInfo, resource);
+            spooledPackage = spool(packageCall);
+        } catch (IOException | RepositoryException e) {
+            CompletableFuture<Status> result = new CompletableFuture<>();
+            result.completeExceptionally(new ReplicationException(
+                    Message.error("Could not prepare upload of {}", path), e));
+            return result;
+        } catch (ReplicationException | RuntimeException e) {
+            CompletableFuture<Status> result = new CompletableFuture<>();
+            result.completeExceptionally(e);
+            return result;
+        }
+        CompletableFuture<Status> result = executeAsync(() -> pathManifestCall(updateInfo, resource))
+                .thenCompose((manifestStatus) -> executeAsync(() -> {
+                    ReceiverCall<Status> deltaCall = manifestStatus.manifest != null ? pathDeltaCall(updateInfo, path,
+                            ContentDelta.create(snapshot, manifestStatus.manifest)) : null;
+                    return deltaCall != null ? deltaCall : packageCall;
+                }));
+        if (spooledPackage != null) {
+            result.whenComplete((status, ex) -> spooledPackage.delete());
+        }
+        return result;
+    }
+
+    /** Records the resource in the {@link #dryRun} estimate instead of uploading it. */
+    @Nonnull
+    protected Status estimateUpload(@Nonnull Resource resource) throws ReplicationException {
+        try {
+            dryRun.addVersionable(resource, cachedPaths.remove(resource.getPath()));
+        } catch (RepositoryException e) {
+            throw ExceptionUtil.logAndThrow(LOG, new ReplicationException(
+                    Message.error("Could not estimate size of {}", resource.getPath()), e));
+        }
+        return syntheticStatus(HttpStatus.SC_OK);
+    }
+
+    /**
+     * Asks the receiver to restore the version of the resource from its {@link VersionSnapshotCache} - only
+     * sensible if it reported the path as cached in compareContent.
+     */
+    @Nonnull
+    protected ReceiverCall<Status> pathRestoreCall(@Nonnull UpdateInfo updateInfo, @Nonnull Resource resource) {
+        List<NameValuePair> form = new ArrayList<>();
+        form.add(new BasicNameValuePair(RemoteReceiverConstants.PARAM_UPDATEID, updateInfo.updateId));
+        HttpPost post = new HttpPost(uriString(pathRestore, json, resource.getPath()));
+        post.setEntity(new UrlEncodedFormEntity(form, Consts.UTF_8));
+        post.setHeader(RemoteReceiverConstants.HEADER_IDEMPOTENCY_KEY, newIdempotencyKey());
+
+        LOG.info("Restoring {} from cache of receiver", resource.getPath());
+        return new ReceiverCall<>("pathrestore " + resource.getPath(), post, Status.class, null, true);
+    }
+
+    protected boolean isRestored(@Nonnull Status restoreStatus) {
+        boolean restored = Boolean.TRUE.equals(restoreStatus.data(Status.DATA).get(RemoteReceiverConstants.PARAM_RESTORED));
+        if (!restored) {
+            LOG.info("Receiver could not restore from cache - uploading: {}", restoreStatus);
+        }
+        return restored;
+    }
+
+    @Nonnull
+    protected ReceiverCall<Status> pathuploadCall(@Nonnull UpdateInfo updateInfo, @Nonnull Resource resource)
+            throws ReplicationException {
         URI uri = buildUrl(uriBuilder(pathUpload, zip, resource.getPath())
                 .addParameter(RemoteReceiverConstants.PARAM_UPDATEID, updateInfo.updateId));
         HttpPut put = new HttpPut(uri);
-        put.setEntity(new PackageHttpEntity(nodesConfig, context, resource));
+        put.setEntity(new PackageHttpEntity(nodesConfig, context, resource, target.getThrottle()));
+        put.setHeader(RemoteReceiverConstants.HEADER_IDEMPOTENCY_KEY, newIdempotencyKey());
 
         LOG.info("Uploading package for {}", SlingResourceUtil.getPath(resource));
-        Status status = callRemotePublicationReceiver("pathupload " + resource.getPath(),
-                getHttpClientContext(), put, Status.class, null);
-        return status;
+        return new ReceiverCall<>("pathupload " + resource.getPath(), put, Status.class, null, true);
+    }
+
+    /**
+     * Fetches the manifest of the receiver's copy of the resource and creates a call transmitting the
+     * {@link ContentDelta} to it.
+     *
+     * @return the call, or null if a delta cannot be used for the resource
+     */
+    @Nullable
+    protected ReceiverCall<Status> pathDeltaCall(@Nonnull UpdateInfo updateInfo, @Nonnull Resource resource)
+            throws ReplicationException {
+        ContentDelta.ManifestStatus manifestStatus = execute(pathManifestCall(updateInfo, resource));
+        ContentDelta delta;
+        try {
+            delta = manifestStatus.manifest != null
+                    ? ContentDelta.create(resource, manifestStatus.manifest, getDeltaMaxBinarySize()) : null;
+        } catch (IOException | RepositoryException e) {
+            throw ExceptionUtil.logAndThrow(LOG, new ReplicationException(
+                    Message.error("Could not compute delta for {}", resource.getPath()), e));
+        }
+        return pathDeltaCall(updateInfo, resource.getPath(), delta);
+    }
+
+    /**
+     * Creates the call transmitting the delta for the resource at path.
+     *
+     * @return the call, or null if there is no delta
+     */
+    @Nullable
+    protected ReceiverCall<Status> pathDeltaCall(@Nonnull UpdateInfo updateInfo, @Nonnull String path,
+                                                 @Nullable ContentDelta delta) throws ReplicationException {
+        if (delta == null) {
+            LOG.info("No delta possible for {} - uploading package", path);
+            return null;
+        }
+        URI uri = buildUrl(uriBuilder(pathDelta, json, path)
+                .addParameter(RemoteReceiverConstants.PARAM_UPDATEID, updateInfo.updateId));
+        HttpPut put = new HttpPut(uri);
+        put.setEntity(new JsonHttpEntity<>(delta, new GsonBuilder().create()));
+        put.setHeader(RemoteReceiverConstants.HEADER_IDEMPOTENCY_KEY, newIdempotencyKey());
+
+        LOG.info("Uploading delta for {} with {} changes", path, delta.changes.size());
+        return new ReceiverCall<>("pathdelta " + path, put, Status.class, null, true);
+    }
+
+    @Nonnull
+    protected ReceiverCall<ContentDelta.ManifestStatus> pathManifestCall(@Nonnull UpdateInfo updateInfo,
+                                                                         @Nonnull Resource resource) {
+        List<NameValuePair> form = new ArrayList<>();
+        form.add(new BasicNameValuePair(RemoteReceiverConstants.PARAM_UPDATEID, updateInfo.updateId));
+        HttpPost post = new HttpPost(uriString(pathManifest, json, resource.getPath()));
+        post.setEntity(new UrlEncodedFormEntity(form, Consts.UTF_8));
+
+        LOG.debug("Querying manifest for {}", resource.getPath());
+        return new ReceiverCall<>("manifest " + resource.getPath(), post, ContentDelta.ManifestStatus.class,
+                null, true);
+    }
+
+    protected boolean isDeltaUploads() {
+        RemotePublisherService.Configuration config = generalConfig.get();
+        return config != null && config.deltaUploads();
+    }
+
+    protected long getDeltaMaxBinarySize() {
+        RemotePublisherService.Configuration config = generalConfig.get();
+        return (config != null ? config.deltaMaxBinarySize() : 0) * 1024L;
     }
 
     @Override
@@ -263,6 +859,51 @@ public class RemotePublicationReceiverFacade implements PublicationReceiverFacad
                                @Nonnull Supplier<Stream<ChildrenOrderInfo>> relevantOrderings,
                                @Nonnull ExceptionThrowingRunnable<? extends Exception> checkForParallelModifications)
             throws ReplicationException {
+        awaitUploads();
+        ReplicationCostEstimate estimate = dryRun;
+        if (estimate != null) {
+            estimate.setDeletedPaths(deletedPaths.size());
+            Status status = abortUpdate(updateInfo);
+            estimate.setCompleted();
+            return status;
+        }
+        progress.setPhase(ReplicationProgress.Phase.committing);
+        boolean success = false;
+        try {
+            Status status = execute(commitUpdateCall(updateInfo, newReleaseChangeNumber, deletedPaths,
+                    relevantOrderings, checkForParallelModifications));
+            success = true;
+            return status;
+        } finally {
+            endRun(success);
+        }
+    }
+
+    @Override
+    @Nonnull
+    public CompletableFuture<Status> commitUpdateAsync(@Nonnull UpdateInfo updateInfo, @Nonnull String newReleaseChangeNumber,
+                                                       @Nonnull Set<String> deletedPaths,
+                                                       @Nonnull Supplier<Stream<ChildrenOrderInfo>> relevantOrderings,
+                                                       @Nonnull ExceptionThrowingRunnable<? extends Exception> checkForParallelModifications) {
+        ReplicationCostEstimate estimate = dryRun;
+        if (estimate != null) {
+            estimate.setDeletedPaths(deletedPaths.size());
+            return abortUpdateAsync(updateInfo).thenApply((status) -> {
+                estimate.setCompleted();
+                return status;
+            });
+        }
+        progress.setPhase(ReplicationProgress.Phase.committing);
+        return executeAsync(() -> commitUpdateCall(updateInfo, newReleaseChangeNumber, deletedPaths,
+                relevantOrderings, checkForParallelModifications))
+                .whenComplete((status, ex) -> endRun(ex == null));
+    }
+
+    @Nonnull
+    protected ReceiverCall<Status> commitUpdateCall(@Nonnull UpdateInfo updateInfo, @Nonnull String newReleaseChangeNumber,
+                                                    @Nonnull Set<String> deletedPaths,
+                                                    @Nonnull Supplier<Stream<ChildrenOrderInfo>> relevantOrderings,
+                                                    @Nonnull ExceptionThrowingRunnable<? extends Exception> checkForParallelModifications) {
         Gson gson = new GsonBuilder().create();
         HttpEntity entity = new JsonHttpEntity(null, null) {
             @Override
@@ -298,16 +939,34 @@ public class RemotePublicationReceiverFacade implements PublicationReceiverFacad
         String uri = uriString(commitUpdate, json);
         HttpPut put = new HttpPut(uri);
         put.setEntity(entity);
+        put.setHeader(RemoteReceiverConstants.HEADER_IDEMPOTENCY_KEY, newIdempotencyKey());
 
         LOG.info("Comitting update {} deleting {}", updateInfo.updateId, deletedPaths);
-        Status status = callRemotePublicationReceiver("Committing update " + updateInfo.updateId,
-                getHttpClientContext(), put, Status.class, null);
-        return status;
+        return new ReceiverCall<>("Committing update " + updateInfo.updateId, put, Status.class, null, true);
     }
 
     @Override
     @Nonnull
     public Status abortUpdate(@Nonnull UpdateInfo updateInfo) throws ReplicationException {
+        cancelUploads();
+        progress.setPhase(ReplicationProgress.Phase.aborting);
+        try {
+            return execute(abortUpdateCall(updateInfo));
+        } finally {
+            endRun(false);
+        }
+    }
+
+    @Override
+    @Nonnull
+    public CompletableFuture<Status> abortUpdateAsync(@Nonnull UpdateInfo updateInfo) {
+        progress.setPhase(ReplicationProgress.Phase.aborting);
+        return executeAsync(() -> abortUpdateCall(updateInfo))
+                .whenComplete((status, ex) -> endRun(false));
+    }
+
+    @Nonnull
+    protected ReceiverCall<Status> abortUpdateCall(@Nonnull UpdateInfo updateInfo) {
         List<NameValuePair> form = new ArrayList<>();
         form.add(new BasicNameValuePair(RemoteReceiverConstants.PARAM_UPDATEID, updateInfo.updateId));
         UrlEncodedFormEntity entity = new UrlEncodedFormEntity(form, Consts.UTF_8);
@@ -316,10 +975,7 @@ public class RemotePublicationReceiverFacade implements PublicationReceiverFacad
         post.setEntity(entity);
 
         LOG.info("Aborting update for {}", updateInfo);
-        Status status =
-                callRemotePublicationReceiver("Aborting update of " + updateInfo.updateId,
-                        getHttpClientContext(), post, Status.class, null);
-        return status;
+        return new ReceiverCall<>("Aborting update of " + updateInfo.updateId, post, Status.class, null, false);
     }
 
     @Override
@@ -327,6 +983,22 @@ public class RemotePublicationReceiverFacade implements PublicationReceiverFacad
                                  @Nonnull Supplier<Stream<ChildrenOrderInfo>> relevantOrderings,
                                  @Nonnull Supplier<Stream<NodeAttributeComparisonInfo>> attributeInfos)
             throws ReplicationException {
+        awaitUploads();
+        return execute(compareParentsCall(replicationPaths, relevantOrderings, attributeInfos));
+    }
+
+    @Override
+    @Nonnull
+    public CompletableFuture<Status> compareParentsAsync(@Nonnull ReplicationPaths replicationPaths, @Nonnull ResourceResolver resolver,
+                                                         @Nonnull Supplier<Stream<ChildrenOrderInfo>> relevantOrderings,
+                                                         @Nonnull Supplier<Stream<NodeAttributeComparisonInfo>> attributeInfos) {
+        return executeAsync(() -> compareParentsCall(replicationPaths, relevantOrderings, attributeInfos));
+    }
+
+    @Nonnull
+    protected ReceiverCall<Status> compareParentsCall(@Nonnull ReplicationPaths replicationPaths,
+                                                      @Nonnull Supplier<Stream<ChildrenOrderInfo>> relevantOrderings,
+                                                      @Nonnull Supplier<Stream<NodeAttributeComparisonInfo>> attributeInfos) {
         Gson gson = new GsonBuilder().create();
         HttpEntity entity = new JsonHttpEntity(null, null) {
             @Override
@@ -355,42 +1027,448 @@ public class RemotePublicationReceiverFacade implements PublicationReceiverFacad
         put.setEntity(entity);
 
         LOG.info("Comparing parents for {}", replicationPaths);
-        Status status = callRemotePublicationReceiver("Comparing parents for " + replicationPaths,
-                getHttpClientContext(), put, Status.class, null);
-        return status;
+        return new ReceiverCall<>("Comparing parents for " + replicationPaths, put, Status.class, null, true);
     }
 
+    /** Calls the receiver without retrying on failures, since the operation must not be repeated. */
     @Nonnull
     protected <T extends Status> T callRemotePublicationReceiver(
             @Nonnull String logmessage, @Nonnull HttpClientContext httpClientContext, @Nonnull HttpUriRequest request,
             @Nonnull Class<T> statusClass, @Nullable Gson gson) throws ReplicationException {
-        LOG.debug("Executing request {}", request.getURI());
-        gson = gson != null ? gson : new GsonBuilder().create();
-        T status = null;
-        StatusLine statusLine = null;
-        try (CloseableHttpResponse response = httpClient.execute(request, httpClientContext)) {
-            statusLine = response.getStatusLine();
-            HttpEntity entity = response.getEntity();
-            if (entity != null) {
-                try (InputStream content = entity.getContent()) {
-                    Reader contentReader = new InputStreamReader(content, StandardCharsets.UTF_8);
-                    status = gson.fromJson(contentReader, statusClass);
+        return callRemotePublicationReceiver(logmessage, httpClientContext, request, statusClass, gson, false);
+    }
+
+    /**
+     * Calls the receiver.
+     *
+     * @param retryable if true, the request is repeated later if the receiver is overloaded, and with exponential
+     *                  backoff on transient failures (I/O errors, gateway errors) - only for requests that are
+     *                  idempotent or carry an {@link RemoteReceiverConstants#HEADER_IDEMPOTENCY_KEY} the receiver
+     *                  uses to discard replays
+     */
+    @Nonnull
+    protected <T extends Status> T callRemotePublicationReceiver(
+            @Nonnull String logmessage, @Nonnull HttpClientContext httpClientContext, @Nonnull HttpUriRequest request,
+            @Nonnull Class<T> statusClass, @Nullable Gson gson, boolean retryable) throws ReplicationException {
+        ReceiverCall<T> call = new ReceiverCall<>(logmessage, request, statusClass, gson, retryable);
+        call.httpClientContext = httpClientContext;
+        return execute(call);
+    }
+
+    /** Executes the call, waiting for the retries if necessary. */
+    @Nonnull
+    protected <T extends Status> T execute(@Nonnull ReceiverCall<T> call) throws ReplicationException {
+        LOG.debug("Executing request {}", call.request.getURI());
+        CountingHttpEntity.wrap(call.request);
+        while (true) {
+            long retryAfterMillis;
+            try {
+                beforeRequest(call);
+                long startNanos = System.nanoTime();
+                try (CloseableHttpResponse response = transport.execute(call.request, call.httpClientContext)) {
+                    retryAfterMillis = call.retryDelay(response);
+                    if (retryAfterMillis < 0) {
+                        T status = readStatus(call.logmessage, response, call.statusClass, call.gson);
+                        long bytes = requestBytes(call);
+                        if (bytes > 0) {
+                            target.getStatistics().recordTransfer(bytes, System.nanoTime() - startNanos);
+                            progress.countBytes(bytes);
+                        }
+                        return status;
+                    }
+                } catch (IOException e) {
+                    retryAfterMillis = call.retryDelay(e);
+                } finally {
+                    afterRequest(call);
                 }
+            } catch (ReplicationException | RuntimeException e) {
+                target.getStatistics().countFailure();
+                throw e;
+            }
+            try {
+                Thread.sleep(retryAfterMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ReplicationException(Message.error("Interrupted while waiting for retry of {}", call.logmessage), e);
             }
-            if (status != null && status.isValid() && status.isSuccess()) {
-                if (LOG.isDebugEnabled()) {
-                    LOG.debug("Remote call successful about {} with {}, {}", logmessage,
-                            statusLine.getStatusCode(), statusLine.getReasonPhrase());
+        }
+    }
+
+    /**
+     * Starts the call created in the calling thread. The request entity is spooled in the calling thread, too, so
+     * that resources of the caller are not accessed concurrently. Everything else is done by the workers of the
+     * target: waiting for the lane budget and the throttle, the transmission (non blocking if the transport supports
+     * this) and the processing of the response. The scheduler only times the retries and hands them to the workers,
+     * so that it is never blocked.
+     *
+     * @return a future for the status, which fails with a {@link ReplicationException} if the call was not successful
+     */
+    @Nonnull
+    protected <T extends Status> CompletableFuture<T> executeAsync(@Nonnull CallFactory<T> callFactory) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        try {
+            ReceiverCall<T> call = callFactory.create();
+            LOG.debug("Executing request asynchronously {}", call.request.getURI());
+            SpooledHttpEntity spooled = spool(call);
+            if (spooled != null) {
+                result.whenComplete((status, ex) -> spooled.delete());
+            }
+            submitAttempt(call, result);
+        } catch (IOException e) {
+            result.completeExceptionally(new ReplicationException(
+                    Message.error("Could not create request for remote service: {}", e.toString()), e));
+        } catch (ReplicationException | RuntimeException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    /**
+     * Replaces the entity of the call by a spooled copy, unless it is spooled already.
+     *
+     * @return the spooled entity, which the caller has to delete when the call is done; null if nothing was spooled
+     */
+    @Nullable
+    protected SpooledHttpEntity spool(@Nonnull ReceiverCall<?> call) throws IOException {
+        if (call.request instanceof HttpEntityEnclosingRequest) {
+            HttpEntityEnclosingRequest request = (HttpEntityEnclosingRequest) call.request;
+            if (request.getEntity() != null && !(request.getEntity() instanceof SpooledHttpEntity)) {
+                SpooledHttpEntity spooled = new SpooledHttpEntity(request.getEntity());
+                request.setEntity(spooled);
+                return spooled;
+            }
+        }
+        return null;
+    }
+
+    /** Hands the next attempt of the call to the workers. */
+    protected <T extends Status> void submitAttempt(@Nonnull ReceiverCall<T> call, @Nonnull CompletableFuture<T> result) {
+        try {
+            target.getWorkers().execute(() -> attemptAsync(call, result));
+        } catch (RuntimeException e) { // e.g. rejected during shutdown
+            target.getStatistics().countFailure();
+            result.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * One attempt of the call - to be run by a worker, since it might wait for the lane budget and the throttle.
+     * The lane is released as soon as the response is there, the response is processed by a worker.
+     */
+    protected <T extends Status> void attemptAsync(@Nonnull ReceiverCall<T> call, @Nonnull CompletableFuture<T> result) {
+        try {
+            beforeRequest(call);
+            transport.executeAsync(call.request, call.httpClientContext)
+                    .whenComplete((response, ex) -> afterRequest(call))
+                    .whenCompleteAsync((response, ex) -> handleAsync(call, result, response, ex),
+                            target.getWorkers());
+        } catch (ReplicationException | RuntimeException e) {
+            afterRequest(call);
+            target.getStatistics().countFailure();
+            result.completeExceptionally(e);
+        }
+    }
+
+    protected <T extends Status> void handleAsync(@Nonnull ReceiverCall<T> call, @Nonnull CompletableFuture<T> result,
+                                                  @Nullable CloseableHttpResponse response, @Nullable Throwable ex) {
+        try {
+            long retryAfterMillis;
+            if (response != null) {
+                try (CloseableHttpResponse theResponse = response) {
+                    retryAfterMillis = call.retryDelay(theResponse);
+                    if (retryAfterMillis < 0) {
+                        T status = readStatus(call.logmessage, theResponse, call.statusClass, call.gson);
+                        progress.countBytes(requestBytes(call));
+                        result.complete(status);
+                        return;
+                    }
+                } catch (IOException e) {
+                    retryAfterMillis = call.retryDelay(e);
                 }
             } else {
-                throw ExceptionUtil.logAndThrow(LOG,
-                        new RemoteReplicationException(Message.error("Received invalid status from remote system for {}", logmessage), null, status, statusLine));
+                Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+                retryAfterMillis = call.retryDelay(cause instanceof IOException ? (IOException) cause
+                        : new IOException(String.valueOf(cause), cause));
             }
-        } catch (IOException e) {
+            target.getScheduler().schedule(() -> submitAttempt(call, result), retryAfterMillis, TimeUnit.MILLISECONDS);
+        } catch (ReplicationException | RuntimeException e) {
+            target.getStatistics().countFailure();
+            result.completeExceptionally(e);
+        }
+    }
+
+    /** The size of the request entity of the last transmission of the call, 0 if unknown. */
+    protected long requestBytes(@Nonnull ReceiverCall<?> call) {
+        HttpEntity entity = call.request instanceof HttpEntityEnclosingRequest
+                ? ((HttpEntityEnclosingRequest) call.request).getEntity() : null;
+        if (entity instanceof CountingHttpEntity) {
+            return ((CountingHttpEntity) entity).getCount();
+        }
+        return entity != null ? Math.max(0, entity.getContentLength()) : 0;
+    }
+
+    /**
+     * Waits until the request may be sent according to the budget of the {@link #lane} and the throttle; has to be
+     * followed by {@link #afterRequest(ReceiverCall)}. The call gets a context if it has none yet, or a new one
+     * after the target rejected the credentials.
+     */
+    protected void beforeRequest(@Nonnull ReceiverCall<?> call) throws ReplicationException {
+        if (call.httpClientContext == null) {
+            call.httpClientContext = getHttpClientContext();
+        }
+        ReplicationLanes.Lane currentLane = lane;
+        try {
+            target.getLanes().acquire(currentLane);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ReplicationException(Message.error("Interrupted while waiting for {}", call.logmessage), e);
+        }
+        call.acquiredLane = currentLane;
+        try {
+            target.getThrottle().beforeRequest();
+        } catch (InterruptedIOException e) {
+            afterRequest(call);
+            throw new ReplicationException(Message.error("Interrupted while waiting for {}", call.logmessage), e);
+        }
+        target.getStatistics().countRequest();
+    }
+
+    /** Frees the lane budget taken by {@link #beforeRequest(ReceiverCall)}, if any. */
+    protected void afterRequest(@Nonnull ReceiverCall<?> call) {
+        ReplicationLanes.Lane acquiredLane = call.acquiredLane;
+        if (acquiredLane != null) {
+            call.acquiredLane = null;
+            target.getLanes().release(acquiredLane);
+        }
+    }
+
+    /** Reads the status from the response and checks whether the call was successful. */
+    @Nonnull
+    protected <T extends Status> T readStatus(@Nonnull String logmessage, @Nonnull CloseableHttpResponse response,
+                                              @Nonnull Class<T> statusClass, @Nonnull Gson gson)
+            throws IOException, ReplicationException {
+        T status = null;
+        StatusLine statusLine = response.getStatusLine();
+        HttpEntity entity = response.getEntity();
+        if (entity != null) {
+            try (InputStream content = entity.getContent()) {
+                Reader contentReader = new InputStreamReader(content, StandardCharsets.UTF_8);
+                status = gson.fromJson(contentReader, statusClass);
+            }
+        }
+        if (status != null && status.isValid() && status.isSuccess()) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Remote call successful about {} with {}, {}", logmessage,
+                        statusLine.getStatusCode(), statusLine.getReasonPhrase());
+            }
+        } else {
             throw ExceptionUtil.logAndThrow(LOG,
-                    new RemoteReplicationException(Message.error("Trouble accessing remote service for {}", logmessage), e, status, statusLine));
+                    new RemoteReplicationException(Message.error("Received invalid status from remote system for {}", logmessage), null, status, statusLine));
         }
         return status;
     }
 
+    /** True if the receiver rejected the request since it is currently overloaded, so we should retry later. */
+    protected boolean isBackpressure(@Nullable StatusLine statusLine) {
+        return statusLine != null && (statusLine.getStatusCode() == AdmissionControl.SC_TOO_MANY_REQUESTS
+                || statusLine.getStatusCode() == HttpStatus.SC_SERVICE_UNAVAILABLE);
+    }
+
+    /**
+     * True for failures that are likely to go away when the request is repeated: timeouts or errors of a gateway /
+     * proxy in between.
+     */
+    protected boolean isTransientFailure(@Nullable StatusLine statusLine) {
+        if (statusLine == null) {
+            return false;
+        }
+        int code = statusLine.getStatusCode();
+        return code == HttpStatus.SC_BAD_GATEWAY || code == HttpStatus.SC_GATEWAY_TIMEOUT
+                || code == HttpStatus.SC_REQUEST_TIMEOUT;
+    }
+
+    /** True if the request can be sent again: it has no entity, or one that can be written more than once. */
+    protected boolean isRepeatable(@Nonnull HttpUriRequest request) {
+        HttpEntity entity = request instanceof HttpEntityEnclosingRequest
+                ? ((HttpEntityEnclosingRequest) request).getEntity() : null;
+        return entity == null || entity.isRepeatable();
+    }
+
+    protected int getMaxRetries() {
+        RemotePublisherService.Configuration config = generalConfig.get();
+        return config != null ? config.maxRetries() : 0;
+    }
+
+    /**
+     * Exponential backoff for the given retry: the configured base delay doubled for each retry, limited by the
+     * configured maximum, with "equal jitter" (between half and the full time) to spread retries of several processes.
+     */
+    protected long backoffMillis(int retry) {
+        RemotePublisherService.Configuration config = generalConfig.get();
+        long baseMillis = Math.max(1, config != null ? config.retryDelay() : 1000);
+        long maxMillis = (config != null ? config.maxRetryWait() : 120) * 1000L;
+        long millis = Math.min(baseMillis << Math.min(retry - 1, 20), maxMillis);
+        return millis / 2 + (long) (ThreadLocalRandom.current().nextDouble() * millis / 2);
+    }
+
+    /** A new key marking repetitions of a request as the same request for the receiver. */
+    @Nonnull
+    protected String newIdempotencyKey() {
+        return UUID.randomUUID().toString();
+    }
+
+    protected int getBackpressureRetries() {
+        RemotePublisherService.Configuration config = generalConfig.get();
+        return config != null ? config.backpressureRetries() : 0;
+    }
+
+    /**
+     * The time to wait until the request is retried: the time given in the Retry-After header (seconds or a date),
+     * or an exponentially growing time if there is none, limited by the configured maximum and with up to 50%
+     * random jitter so that several authors don't come back at the same time.
+     */
+    protected long retryAfterMillis(@Nonnull CloseableHttpResponse response, int attempt) {
+        RemotePublisherService.Configuration config = generalConfig.get();
+        long maxMillis = (config != null ? config.maxRetryWait() : 120) * 1000L;
+        long millis = -1;
+        Header retryAfter = response.getFirstHeader(HttpHeaders.RETRY_AFTER);
+        if (retryAfter != null && StringUtils.isNotBlank(retryAfter.getValue())) {
+            String value = retryAfter.getValue().trim();
+            if (StringUtils.isNumeric(value)) {
+                millis = Long.parseLong(value) * 1000L;
+            } else {
+                Date date = DateUtils.parseDate(value);
+                if (date != null) {
+                    millis = date.getTime() - System.currentTimeMillis();
+                }
+            }
+        }
+        if (millis < 0) {
+            millis = 1000L << Math.min(attempt, 10);
+        }
+        millis = Math.min(millis, maxMillis);
+        return millis + (long) (ThreadLocalRandom.current().nextDouble() * millis / 2);
+    }
+
+    /** Creates a call; might throw an exception if the request cannot be built. */
+    @FunctionalInterface
+    protected interface CallFactory<T extends Status> {
+        @Nonnull
+        ReceiverCall<T> create() throws ReplicationException;
+    }
+
+    /** A request to the receiver together with its state during the retries. */
+    protected class ReceiverCall<T extends Status> {
+
+        @Nonnull
+        protected final String logmessage;
+        @Nonnull
+        protected final HttpUriRequest request;
+        @Nonnull
+        protected final Class<T> statusClass;
+        @Nonnull
+        protected final Gson gson;
+        /**
+         * If true, the request is repeated later if the receiver is overloaded, and with exponential backoff on
+         * transient failures (I/O errors, gateway errors) - only for requests that are idempotent or carry an
+         * {@link RemoteReceiverConstants#HEADER_IDEMPOTENCY_KEY} the receiver uses to discard replays. A 503 might
+         * also come from a proxy in between after the receiver got the request, so other requests are never repeated.
+         */
+        protected final boolean retryable;
+
+        protected HttpClientContext httpClientContext;
+        /** The lane whose budget the currently running attempt uses. */
+        protected volatile ReplicationLanes.Lane acquiredLane;
+        protected int backpressureCount;
+        protected int retryCount;
+        /** Whether the call was already repeated with a new context after a 401. */
+        protected boolean unauthorizedRetried;
+        protected StatusLine statusLine;
+
+        protected ReceiverCall(@Nonnull String logmessage, @Nonnull HttpUriRequest request,
+                               @Nonnull Class<T> statusClass, @Nullable Gson gson, boolean retryable) {
+            this.logmessage = logmessage;
+            this.request = request;
+            this.statusClass = statusClass;
+            this.gson = gson != null ? gson : new GsonBuilder().create();
+            this.retryable = retryable;
+        }
+
+        /**
+         * Checks whether the response requires a retry - only if the call is {@link #retryable} and its entity can be
+         * sent again: requests rejected because the receiver is overloaded are repeated later, transient failures
+         * with exponential backoff.
+         * A 401 is repeated once right away with a new context, whether retryable or not: the receiver didn't
+         * process the request, and e.g. an expired session or changed credentials shouldn't fail the replication.
+         *
+         * @return the time to wait before the retry, or -1 if the response is to be processed
+         */
+        protected long retryDelay(@Nonnull CloseableHttpResponse response) {
+            TargetStatistics statistics = target.getStatistics();
+            statusLine = response.getStatusLine();
+            Header loadHeader = response.getFirstHeader(RemoteReceiverConstants.HEADER_RECEIVER_LOAD);
+            if (loadHeader != null) {
+                target.getThrottle().adaptToLoad(loadHeader.getValue());
+            }
+            long retryAfterMillis = -1;
+            if (statusLine.getStatusCode() == HttpStatus.SC_UNAUTHORIZED) {
+                unauthorized();
+                if (!unauthorizedRetried && isRepeatable(request)) {
+                    unauthorizedRetried = true;
+                    httpClientContext = null;
+                    retryAfterMillis = 0;
+                    EntityUtils.consumeQuietly(response.getEntity());
+                    LOG.info("Unauthorized ({}) for {} - retrying with a new context for {}",
+                            statusLine, logmessage, replicationConfig.getPath());
+                }
+            } else if (retryable && isRepeatable(request) && isBackpressure(statusLine)
+                    && backpressureCount < getBackpressureRetries()) {
+                backpressureCount++;
+                retryAfterMillis = retryAfterMillis(response, backpressureCount);
+                EntityUtils.consumeQuietly(response.getEntity());
+                LOG.info("Remote system busy ({}) for {} - retry {} in {} ms, {} such retries for {}",
+                        statusLine, logmessage, backpressureCount, retryAfterMillis,
+                        statistics.countBackpressureRetry(), replicationConfig.getPath());
+            } else if (retryable && isRepeatable(request) && isTransientFailure(statusLine)
+                    && retryCount < getMaxRetries()) {
+                retryCount++;
+                retryAfterMillis = backoffMillis(retryCount);
+                EntityUtils.consumeQuietly(response.getEntity());
+                LOG.warn("Transient failure ({}) for {} - retry {} in {} ms, {} retries for {}",
+                        statusLine, logmessage, retryCount, retryAfterMillis,
+                        statistics.countRetry(), replicationConfig.getPath());
+            }
+            return retryAfterMillis;
+        }
+
+        /**
+         * Checks whether the call can be retried after the exception - only if it is {@link #retryable} and its entity
+         * can be sent again. Timeouts are retried like other I/O errors - only a real interruption of the thread ends
+         * the call.
+         *
+         * @return the time to wait before the retry
+         * @throws ReplicationException if there should be no retry
+         */
+        protected long retryDelay(@Nonnull IOException e) throws ReplicationException {
+            if (retryable && isRepeatable(request) && !isInterruption(e) && retryCount < getMaxRetries()) {
+                retryCount++;
+                long retryAfterMillis = backoffMillis(retryCount);
+                LOG.warn("Trouble accessing remote service for {} : {} - retry {} in {} ms, {} retries for {}",
+                        logmessage, e.toString(), retryCount, retryAfterMillis,
+                        target.getStatistics().countRetry(), replicationConfig.getPath());
+                return retryAfterMillis;
+            }
+            throw ExceptionUtil.logAndThrow(LOG,
+                    new RemoteReplicationException(Message.error("Trouble accessing remote service for {}", logmessage), e, (Status) null, statusLine));
+        }
+
+        /**
+         * True if the thread was interrupted - but not for the subclasses of {@link InterruptedIOException} like
+         * {@link java.net.SocketTimeoutException} or {@link org.apache.http.conn.ConnectTimeoutException}.
+         */
+        protected boolean isInterruption(@Nonnull IOException e) {
+            return e.getClass() == InterruptedIOException.class || Thread.currentThread().isInterrupted();
+        }
+    }
+
 }
@@ -1,12 +1,15 @@
 package com.composum.platform.replication.remotereceiver;
 
 import com.composum.platform.commons.json.JsonArrayAsIterable;
+import com.composum.sling.core.BeanContext;
 import com.composum.sling.core.ResourceHandle;
+import com.composum.sling.core.logging.Message;
 import com.composum.sling.core.servlet.AbstractServiceServlet;
 import com.composum.sling.core.servlet.ServletOperation;
 import com.composum.sling.core.servlet.ServletOperationSet;
 import com.composum.sling.core.servlet.Status;
 import com.composum.sling.core.util.XSS;
+import com.composum.sling.nodes.NodesConfiguration;
 import com.composum.sling.platform.staging.replication.PublicationReceiverFacade;
 import com.composum.sling.platform.staging.replication.ReplicationException;
 import com.composum.sling.platform.staging.replication.ReplicationPaths;
@@ -20,33 +23,61 @@ import com.google.gson.GsonBuilder;
 import com.google.gson.JsonParseException;
 import com.google.gson.stream.JsonReader;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.io.input.CloseShieldInputStream;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.entity.InputStreamEntity;
 import org.apache.sling.api.SlingHttpServletRequest;
 import org.apache.sling.api.SlingHttpServletResponse;
 import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.PersistenceException;
+import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ResourceResolver;
 import org.apache.sling.api.resource.ResourceResolverFactory;
 import org.apache.sling.api.servlets.HttpConstants;
 import org.apache.sling.api.servlets.ServletResolverConstants;
+import org.osgi.framework.BundleContext;
 import org.osgi.framework.Constants;
+import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Modified;
 import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import javax.jcr.RepositoryException;
 import javax.servlet.Servlet;
 import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
 import static com.composum.platform.replication.remotereceiver.RemoteReceiverConstants.PARAM_ATTRIBUTEINFOS;
 import static com.composum.platform.replication.remotereceiver.RemoteReceiverConstants.PARAM_CHILDORDERINGS;
 import static com.composum.platform.replication.remotereceiver.RemoteReceiverConstants.PARAM_DELETED_PATH;
+import static com.composum.platform.replication.remotereceiver.RemoteReceiverConstants.PARAM_DRYRUN;
 import static com.composum.platform.replication.remotereceiver.RemoteReceiverConstants.PARAM_RELEASE_CHANGENUMBER;
 import static com.composum.platform.replication.remotereceiver.RemoteReceiverConstants.PARAM_REPLICATIONPATHS;
 import static com.composum.platform.replication.remotereceiver.RemoteReceiverConstants.PARAM_UPDATEID;
@@ -62,6 +93,7 @@ import static org.apache.commons.lang3.StringUtils.isNotBlank;
                 ServletResolverConstants.SLING_SERVLET_METHODS + "=" + HttpConstants.METHOD_POST,
                 ServletResolverConstants.SLING_SERVLET_METHODS + "=" + HttpConstants.METHOD_PUT
         })
+@Designate(ocd = RemotePublicationReceiverServlet.Configuration.class)
 public class RemotePublicationReceiverServlet extends AbstractServiceServlet {
 
     private static final Logger LOG = LoggerFactory.getLogger(RemotePublicationReceiverServlet.class);
@@ -70,22 +102,77 @@ public class RemotePublicationReceiverServlet extends AbstractServiceServlet {
 
     public enum Operation {
         contentState, compareContent, startUpdate, pathUpload, commitUpdate, abortUpdate,
-        releaseInfo, compareParents
+        releaseInfo, compareParents, statistics, pathManifest, pathDelta, pathRestore, bulkUpload
     }
 
+    /** Name of the {@link TimingStatistics} for the prepare phase of a commit. */
+    public static final String TIMING_COMMIT_PREPARE = "commitPrepare";
+
+    /** Name of the {@link TimingStatistics} for the critical section of a commit, where the content is changed. */
+    public static final String TIMING_COMMIT_CRITICAL = "commitCritical";
+
     protected final ServletOperationSet<Extension, Operation> operations = new ServletOperationSet<>(Extension.json);
 
+    protected final Map<String, TimingStatistics> timings = new ConcurrentHashMap<>();
+
+    /** The paths the currently running updates are working on. */
+    protected final PathLockTable lockTable = new PathLockTable();
+
+    protected volatile Configuration config;
+
+    /** The number of requests currently processed, used to signal the load to the author. */
+    protected final AtomicInteger activeRequests = new AtomicInteger();
+
+    /** Limits the number of concurrently processed requests of the expensive operations. */
+    protected final AdmissionControl admissionControl = new AdmissionControl();
+
+    /** The responses of recent non idempotent requests, to answer replays of them. */
+    protected final IdempotencyRegistry idempotencyRegistry = new IdempotencyRegistry();
+
+    /** The packages of recently received versions, to restore them without upload. */
+    protected final VersionSnapshotCache versionCache = new VersionSnapshotCache();
+
+    /** The hashes of unchanged binaries for the manifests, to not read all binaries for each pathManifest. */
+    protected final ContentDelta.BinaryHashCache binaryHashCache = new ContentDelta.BinaryHashCache(0);
+
     @Reference
     protected ResourceResolverFactory resolverFactory;
 
     @Reference
     protected PublicationReceiverBackend service;
 
+    @Reference
+    protected NodesConfiguration nodesConfig;
+
     @Deprecated
     protected boolean isEnabled() {
         return service.isEnabled();
     }
 
+    @Activate
+    @Modified
+    protected void activate(Configuration configuration, BundleContext bundleContext) {
+        this.config = configuration;
+        versionCache.configure(bundleContext != null ? bundleContext.getDataFile("versioncache") : null,
+                configuration.versionCacheSize() * 1024L * 1024L);
+        binaryHashCache.setMaxEntries(configuration.binaryHashCacheSize());
+        lockTable.setTimeoutMillis(configuration.lockTimeout() * 1000L);
+        idempotencyRegistry.setLimits(configuration.idempotencyCacheSize(),
+                configuration.idempotencyCacheTime() * 1000L);
+        admissionControl.configure(Operation.pathUpload.name(),
+                configuration.maxConcurrentPathUploads(), configuration.maxQueuedRequests());
+        admissionControl.configure(Operation.bulkUpload.name(),
+                configuration.maxConcurrentPathUploads(), configuration.maxQueuedRequests());
+        admissionControl.configure(Operation.pathDelta.name(),
+                configuration.maxConcurrentPathUploads(), configuration.maxQueuedRequests());
+        admissionControl.configure(Operation.pathManifest.name(),
+                configuration.maxConcurrentContentState(), configuration.maxQueuedRequests());
+        admissionControl.configure(Operation.compareContent.name(),
+                configuration.maxConcurrentCompareContent(), configuration.maxQueuedRequests());
+        admissionControl.configure(Operation.contentState.name(),
+                configuration.maxConcurrentContentState(), configuration.maxQueuedRequests());
+    }
+
     @Override
     protected ServletOperationSet getOperations() {
         return operations;
@@ -112,6 +199,20 @@ public class RemotePublicationReceiverServlet extends AbstractServiceServlet {
         operations.setOperation(ServletOperationSet.Method.PUT, Extension.zip, Operation.pathUpload,
                 new PathUploadOperation());
 
+        // use PUT since request is a stream
+        operations.setOperation(ServletOperationSet.Method.PUT, Extension.zip, Operation.bulkUpload,
+                new BulkUploadOperation());
+
+        operations.setOperation(ServletOperationSet.Method.POST, Extension.json, Operation.pathRestore,
+                new PathRestoreOperation());
+
+        operations.setOperation(ServletOperationSet.Method.POST, Extension.json, Operation.pathManifest,
+                new PathManifestOperation());
+
+        // use PUT since the request replaces content like pathUpload
+        operations.setOperation(ServletOperationSet.Method.PUT, Extension.json, Operation.pathDelta,
+                new PathDeltaOperation());
+
         // use PUT since request is a potentially large JSON entity processable on the fly
         operations.setOperation(ServletOperationSet.Method.PUT, Extension.json, Operation.commitUpdate,
                 new CommitUpdateOperation());
@@ -127,6 +228,113 @@ public class RemotePublicationReceiverServlet extends AbstractServiceServlet {
         // use PUT since request is a potentially large JSON entity processable on the fly
         operations.setOperation(ServletOperationSet.Method.PUT, Extension.json, Operation.compareParents,
                 new CompareParentsOperation());
+
+        operations.setOperation(ServletOperationSet.Method.GET, Extension.json, Operation.statistics,
+                new StatisticsOperation());
+    }
+
+    /**
+     * Admits the request according to the concurrency limits of its operation ({@link AdmissionControl}) - if it is
+     * rejected, the author is told to come back later with a Retry-After header. Also signals the current load to the
+     * author with the {@link RemoteReceiverConstants#HEADER_RECEIVER_LOAD} header so that it can adapt its throttling.
+     */
+    @Override
+    protected void service(@Nonnull SlingHttpServletRequest request, @Nonnull SlingHttpServletResponse response)
+            throws ServletException, IOException {
+        Configuration theConfig = config;
+        String[] selectors = request.getRequestPathInfo().getSelectors();
+        String operation = selectors.length > 0 ? selectors[0] : "";
+        long maxWait = theConfig != null ? theConfig.maxQueueWait() * 1000L : 0;
+        try (AdmissionControl.Ticket ignored = admissionControl.admit(operation, maxWait)) {
+            int active = activeRequests.incrementAndGet();
+            try {
+                int referenceConcurrency = theConfig != null ? theConfig.loadReferenceConcurrency() : 0;
+                if (referenceConcurrency > 0) {
+                    response.setHeader(RemoteReceiverConstants.HEADER_RECEIVER_LOAD,
+                            String.format(Locale.ROOT, "%.2f", active / (double) referenceConcurrency));
+                }
+                String idempotencyKey = request.getHeader(RemoteReceiverConstants.HEADER_IDEMPOTENCY_KEY);
+                if (isNotBlank(idempotencyKey) && (Operation.pathUpload.name().equals(operation)
+                        || Operation.pathDelta.name().equals(operation)
+                        || Operation.pathRestore.name().equals(operation)
+                        || Operation.bulkUpload.name().equals(operation)
+                        || Operation.commitUpdate.name().equals(operation))) {
+                    serviceOnce(request, response, operation + ":" + idempotencyKey, maxWait);
+                } else {
+                    super.service(request, response);
+                }
+            } finally {
+                activeRequests.decrementAndGet();
+            }
+        } catch (AdmissionControl.AdmissionRejectedException e) {
+            LOG.info("{} - {} waiting", e.getMessage(), admissionControl.getWaiting(operation));
+            response.setHeader(HttpHeaders.RETRY_AFTER,
+                    String.valueOf(theConfig != null ? theConfig.retryAfter() : 10));
+            Status status = new Status(request, response, LOG);
+            status.error("Publish server is busy, please retry later: {}", e.getMessage());
+            status.setStatus(e.getStatusCode());
+            status.sendJson();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServletException("Interrupted while waiting for admission", e);
+        }
+    }
+
+    /**
+     * Processes a request with an idempotency key only once: if it was already successfully processed, the stored
+     * response is sent again; if it is currently processed, we wait for it - if it takes longer, the author is told to
+     * repeat the request later (503 with Retry-After), and if it failed, the request is processed now. If the registry
+     * is full of running requests, the request is rejected like one exceeding the admission limits.
+     */
+    protected void serviceOnce(@Nonnull SlingHttpServletRequest request, @Nonnull SlingHttpServletResponse response,
+                               @Nonnull String key, long maxWait)
+            throws ServletException, IOException, InterruptedException, AdmissionControl.AdmissionRejectedException {
+        IdempotencyRegistry.Entry entry = idempotencyRegistry.begin(key);
+        if (entry == null) {
+            throw new AdmissionControl.AdmissionRejectedException(key, HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+                    "too many requests in progress");
+        }
+        if (entry.isOwner()) {
+            IdempotencyRegistry.RecordingResponse recordingResponse =
+                    new IdempotencyRegistry.RecordingResponse(response);
+            boolean success = false;
+            try {
+                super.service(request, recordingResponse);
+                String body = recordingResponse.getRecordedBody();
+                int statusCode = recordingResponse.getStatusCode();
+                if (body != null && statusCode >= 200 && statusCode < 300) {
+                    idempotencyRegistry.complete(entry, statusCode, body);
+                    success = true;
+                }
+            } finally {
+                if (!success) {
+                    idempotencyRegistry.fail(entry);
+                }
+            }
+        } else {
+            IdempotencyRegistry.Entry processed = entry.await(maxWait);
+            if (processed != null) {
+                LOG.info("Replaying response for repeated request {} , {} replays", key,
+                        idempotencyRegistry.countReplay());
+                response.setStatus(processed.getStatusCode());
+                response.setContentType("application/json");
+                response.setCharacterEncoding("UTF-8");
+                response.getWriter().write(requireNonNull(processed.getBody()));
+            } else if (!entry.isDone()) {
+                throw new AdmissionControl.AdmissionRejectedException(key, HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+                        "the original request is still in progress");
+            } else { // the original request failed
+                serviceOnce(request, response, key, maxWait);
+            }
+        }
+    }
+
+    /**
+     * The accumulated timings for the given name, e.g. {@link #TIMING_COMMIT_CRITICAL}.
+     */
+    @Nonnull
+    protected TimingStatistics timing(@Nonnull String name) {
+        return timings.computeIfAbsent(name, (k) -> new TimingStatistics());
     }
 
     /**
@@ -196,6 +404,8 @@ public class RemotePublicationReceiverServlet extends AbstractServiceServlet {
      * Receives a number of {@link VersionableInfo} in a PUT request and
      * compares them to the current content. The paths that differ or do not exist are returned in the response
      * {@link Status#data(String)}({@value Status#DATA}) attribute {@link RemoteReceiverConstants#PARAM_PATH} as List&lt;String>.
+     * Those of them whose version can be restored from the {@link VersionSnapshotCache} are additionally returned
+     * in attribute {@link RemoteReceiverConstants#PARAM_CACHED}.
      */
     class CompareContentOperation implements ServletOperation {
 
@@ -204,6 +414,7 @@ public class RemotePublicationReceiverServlet extends AbstractServiceServlet {
                 throws IOException, ServletException {
             Status status = new Status(request, response, LOG);
             String updateId = XSS.filter(request.getParameter(PARAM_UPDATEID));
+            PathLockTable.PathLock lock = lockTable.touch(updateId);
             ReplicationPaths replicationPaths = null;
             Gson gson = new GsonBuilder().create();
             try (JsonReader jsonReader = new JsonReader(request.getReader());
@@ -211,8 +422,19 @@ public class RemotePublicationReceiverServlet extends AbstractServiceServlet {
                          new JsonArrayAsIterable<>(jsonReader, VersionableInfo.class, gson, null)
             ) {
                 replicationPaths = ReplicationPaths.optional(request);
-                List<String> diffpaths = service.compareContent(replicationPaths, updateId, versionableInfos.stream());
+                List<String> diffpaths = service.compareContent(replicationPaths, updateId,
+                        versionableInfos.stream().peek((info) -> {
+                            if (lock != null && info != null && info.getPath() != null) {
+                                lock.putVersion(info.getPath(), info.getVersion());
+                            }
+                        }));
                 status.data(Status.DATA).put(RemoteReceiverConstants.PARAM_PATH, diffpaths);
+                if (lock != null && versionCache.isEnabled()) {
+                    List<String> cached = diffpaths.stream()
+                            .filter((path) -> versionCache.contains(lock.getVersion(path), path))
+                            .collect(Collectors.toList());
+                    status.data(Status.DATA).put(RemoteReceiverConstants.PARAM_CACHED, cached);
+                }
             } catch (ReplicationException e) {
                 e.writeIntoStatus(status);
             } catch (RuntimeException e) {
@@ -223,7 +445,8 @@ public class RemotePublicationReceiverServlet extends AbstractServiceServlet {
     }
 
     /**
-     * Creates a temporary directory to unpack stuff to replace our content.
+     * Creates a temporary directory to unpack stuff to replace our content. An update for a dry run
+     * ({@link RemoteReceiverConstants#PARAM_DRYRUN}) doesn't block the path for other updates.
      */
     class StartUpdateOperation implements ServletOperation {
 
@@ -232,19 +455,42 @@ public class RemotePublicationReceiverServlet extends AbstractServiceServlet {
                 throws IOException, ServletException {
             PublicationReceiverFacade.StatusWithReleaseData status = new PublicationReceiverFacade.StatusWithReleaseData(request, response, LOG);
             ReplicationPaths replicationPaths = null;
+            PathLockTable.PathLock lock = null;
             try {
                 replicationPaths = new ReplicationPaths(request);
+                lock = lockTable.reserve(lockPath(replicationPaths), replicationPaths,
+                        Boolean.parseBoolean(request.getParameter(PARAM_DRYRUN)));
                 status.updateInfo = service.startUpdate(replicationPaths);
+                lockTable.assign(lock, status.updateInfo.updateId);
+                lock = null;
+            } catch (PathLockTable.PathConflictException e) {
+                LOG.warn("Rejecting update: {}", e.getMessage());
+                status.error("Conflict at publish server: {}", e.getMessage());
+                status.setStatus(HttpServletResponse.SC_CONFLICT);
             } catch (ReplicationException e) {
                 e.writeIntoStatus(status);
             } catch (RuntimeException e) {
                 status.error("Internal error at publish server starting update for {} , {}", replicationPaths, e.toString(), e);
+            } finally {
+                if (lock != null) { // update could not be started
+                    lockTable.release(lock);
+                }
             }
             status.sendJson();
         }
 
     }
 
+    /**
+     * The path that is locked while an update is running: the content path of the update, or the origin if the
+     * whole release is updated.
+     */
+    @Nonnull
+    protected String lockPath(@Nonnull ReplicationPaths replicationPaths) {
+        String path = replicationPaths.getContentPath();
+        return StringUtils.isNotBlank(path) ? path : StringUtils.defaultString(replicationPaths.getOrigin());
+    }
+
     /**
      * Receives a package and saves it in the temporary folder.
      */
@@ -257,9 +503,16 @@ public class RemotePublicationReceiverServlet extends AbstractServiceServlet {
             String packageRootPath = XSS.filter(request.getRequestPathInfo().getSuffix());
             String updateId = status.getRequiredParameter(PARAM_UPDATEID, PATTERN_UPDATEID, "UpdateId required");
             if (isNotBlank(packageRootPath) && status.isValid()) {
-
+                PathLockTable.PathLock lock = lockTable.touch(updateId);
+                String version = lock != null ? lock.getVersion(packageRootPath) : null;
                 try {
-                    service.pathUpload(updateId, packageRootPath, request.getInputStream());
+                    if (version != null && versionCache.isEnabled()
+                            && !versionCache.contains(version, packageRootPath)) {
+                        importAndCache(updateId, packageRootPath, version,
+                                new InputStreamEntity(request.getInputStream()));
+                    } else {
+                        service.pathUpload(updateId, packageRootPath, request.getInputStream());
+                    }
                 } catch (ReplicationException e) {
                     e.writeIntoStatus(status);
                 } catch (RuntimeException e) {
@@ -272,60 +525,375 @@ public class RemotePublicationReceiverServlet extends AbstractServiceServlet {
         }
     }
 
-    class CommitUpdateOperation implements ServletOperation {
+    /**
+     * Receives an archive with the packages of many paths (see {@link BulkPackageHttpEntity}), e.g. for the initial
+     * synchronization of a publisher, and saves them one by one in the temporary folder as they arrive, as if they
+     * were transmitted with {@link Operation#pathUpload}. The paths are returned in the response
+     * {@link Status#data(String)}({@value Status#DATA}) attribute {@link RemoteReceiverConstants#PARAM_PATH}.
+     */
+    class BulkUploadOperation implements ServletOperation {
+
         @Override
-        public void doIt(@Nonnull SlingHttpServletRequest request, @Nonnull SlingHttpServletResponse response, @Nullable ResourceHandle resource) throws IOException {
+        public void doIt(@Nonnull SlingHttpServletRequest request, @Nonnull SlingHttpServletResponse response, @Nullable ResourceHandle resource)
+                throws IOException {
             Status status = new Status(request, response, LOG);
-            Gson gson = new GsonBuilder().create();
-            String updateId = null;
+            String updateId = status.getRequiredParameter(PARAM_UPDATEID, PATTERN_UPDATEID, "UpdateId required");
+            PathLockTable.PathLock lock = lockTable.touch(updateId);
+            List<String> uploaded = new ArrayList<>();
+            if (lock != null && status.isValid()) {
+                String path = null;
+                try (ZipInputStream zip = new ZipInputStream(request.getInputStream())) {
+                    for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+                        path = XSS.filter(entry.getName());
+                        if (StringUtils.isBlank(path) || !PathLockTable.overlaps(lock.getPath(), path)) {
+                            status.error("Path {} is not within update {} at publish server", path, updateId);
+                            break;
+                        }
+                        lockTable.touch(updateId);
+                        service.pathUpload(updateId, path, new CloseShieldInputStream(zip));
+                        uploaded.add(path);
+                    }
+                } catch (ReplicationException e) {
+                    e.writeIntoStatus(status);
+                } catch (RuntimeException e) {
+                    status.error("Import of {} failed at publish server for {}", path, updateId, e);
+                }
+                LOG.info("Bulk upload of {} packages for {}", uploaded.size(), updateId);
+            } else {
+                status.error("Broken parameters at publish server: upd {}", updateId);
+            }
+            status.data(Status.DATA).put(RemoteReceiverConstants.PARAM_PATH, uploaded);
+            status.sendJson();
+        }
+    }
 
-            try (JsonReader jsonReader = new JsonReader(request.getReader())) {
-                jsonReader.beginObject();
+    /**
+     * Returns the {@link ContentDelta.Manifest} of our copy of a subtree, for which the author can compute a
+     * {@link ContentDelta} to transmit with {@link Operation#pathDelta} instead of a package of the whole subtree.
+     * If the path is translated by the replication, the manifest says the copy doesn't exist, since the delta would
+     * have to be translated, too.
+     */
+    class PathManifestOperation implements ServletOperation {
 
-                expectName(jsonReader, PARAM_UPDATEID, status);
-                updateId = jsonReader.nextString();
-                if (!PATTERN_UPDATEID.matcher(updateId).matches()) {
-                    status.error("Invalid updateId");
-                    throw new IllegalArgumentException("Invalid updateId");
+        @Override
+        public void doIt(@Nonnull SlingHttpServletRequest request, @Nonnull SlingHttpServletResponse response, @Nullable ResourceHandle resource)
+                throws IOException {
+            ContentDelta.ManifestStatus status = new ContentDelta.ManifestStatus(request, response, LOG);
+            String path = XSS.filter(request.getRequestPathInfo().getSuffix());
+            String updateId = status.getRequiredParameter(PARAM_UPDATEID, PATTERN_UPDATEID, "UpdateId required");
+            ReplicationPaths replicationPaths = replicationPaths(updateId);
+            if (isNotBlank(path) && replicationPaths != null && status.isValid()) {
+                try (ResourceResolver resolver = makeResolver()) {
+                    status.manifest = ContentDelta.manifest(path.equals(replicationPaths.translate(path))
+                            ? resolver.getResource(path) : null, binaryHashCache);
+                } catch (LoginException e) { // serious misconfiguration
+                    LOG.error("Could not get service resolver: " + e, e);
+                    status.error("Could not get service resolver in publish server", e);
+                } catch (IOException | RepositoryException | RuntimeException e) {
+                    status.error("Manifest of {} failed at publish server for {}", path, updateId, e);
                 }
+            } else {
+                status.error("Broken parameters at publish server: path {}, upd {}", path, updateId);
+            }
+            status.sendJson();
+        }
+    }
 
-                expectName(jsonReader, PARAM_RELEASE_CHANGENUMBER, status);
-                String newReleaseChangeId = jsonReader.nextString();
-                if (StringUtils.isBlank(newReleaseChangeId)) {
-                    status.error("Missing releaseChangeNumber");
-                    throw new IllegalArgumentException("Missing releaseChangeNumber");
-                }
+    /**
+     * Receives a {@link ContentDelta} for a subtree, applies it transiently to our copy and processes an export of
+     * the result like a package received with {@link Operation#pathUpload}.
+     */
+    class PathDeltaOperation implements ServletOperation {
 
-                Set<String> deletedPaths = new HashSet<>();
-                expectName(jsonReader, PARAM_DELETED_PATH, status);
-                jsonReader.beginArray();
-                while (jsonReader.hasNext()) {
-                    deletedPaths.add(jsonReader.nextString());
+        @Override
+        public void doIt(@Nonnull SlingHttpServletRequest request, @Nonnull SlingHttpServletResponse response, @Nullable ResourceHandle ignored)
+                throws IOException {
+            Status status = new Status(request, response, LOG);
+            String packageRootPath = XSS.filter(request.getRequestPathInfo().getSuffix());
+            String updateId = status.getRequiredParameter(PARAM_UPDATEID, PATTERN_UPDATEID, "UpdateId required");
+            ReplicationPaths replicationPaths = replicationPaths(updateId);
+            if (isNotBlank(packageRootPath) && replicationPaths != null && status.isValid()
+                    && packageRootPath.equals(replicationPaths.translate(packageRootPath))) {
+                SpooledHttpEntity spooledPackage = null;
+                try (ResourceResolver resolver = makeResolver()) {
+                    ContentDelta delta = new GsonBuilder().create().fromJson(request.getReader(), ContentDelta.class);
+                    Resource resource = resolver.getResource(packageRootPath);
+                    if (delta == null || resource == null || !packageRootPath.equals(delta.path)) {
+                        status.error("No content to apply delta at publish server: {}", packageRootPath);
+                    } else {
+                        try {
+                            delta.apply(resource);
+                            spooledPackage = new SpooledHttpEntity(new PackageHttpEntity(nodesConfig,
+                                    new BeanContext.Service(resolver), resource));
+                        } finally {
+                            resolver.revert();
+                        }
+                        LOG.info("Applied delta to {} with {} changes for {}", packageRootPath,
+                                delta.changes.size(), updateId);
+                        try (InputStream packageStream = spooledPackage.getContent()) {
+                            service.pathUpload(updateId, packageRootPath, packageStream);
+                        }
+                        PathLockTable.PathLock lock = lockTable.get(updateId);
+                        cache(lock != null ? lock.getVersion(packageRootPath) : null, packageRootPath,
+                                spooledPackage);
+                    }
+                } catch (LoginException e) { // serious misconfiguration
+                    LOG.error("Could not get service resolver: " + e, e);
+                    status.error("Could not get service resolver in publish server", e);
+                } catch (ReplicationException e) {
+                    e.writeIntoStatus(status);
+                } catch (RepositoryException | JsonParseException e) {
+                    status.error("Delta for {} could not be applied at publish server for {}", packageRootPath,
+                            updateId, e);
+                } catch (RuntimeException e) {
+                    status.error("Import of delta for {} failed at publish server for {}", packageRootPath,
+                            updateId, e);
+                } finally {
+                    if (spooledPackage != null) {
+                        spooledPackage.delete();
+                    }
                 }
-                jsonReader.endArray();
+            } else {
+                status.error("Broken parameters at publish server: pkg {}, upd {}", packageRootPath, updateId);
+            }
+            status.sendJson();
+        }
+    }
 
-                expectName(jsonReader, PARAM_CHILDORDERINGS, status);
-                JsonArrayAsIterable<ChildrenOrderInfo> childOrderings =
-                        new JsonArrayAsIterable<>(jsonReader, ChildrenOrderInfo.class, gson, null);
+    /**
+     * Imports a package for a versionable from the {@link VersionSnapshotCache}, if the cache has the version the
+     * author compared in {@link Operation#compareContent}. The response says in
+     * {@link RemoteReceiverConstants#PARAM_RESTORED} whether it was restored - if not, the author has to upload it.
+     */
+    class PathRestoreOperation implements ServletOperation {
 
-                if (status.isValid()) {
-                    LOG.info("Commit on {} deleting {}", updateId, deletedPaths);
-                    try {
-                        service.commit(updateId, deletedPaths, childOrderings, newReleaseChangeId);
-                        jsonReader.endObject();
+        @Override
+        public void doIt(@Nonnull SlingHttpServletRequest request, @Nonnull SlingHttpServletResponse response, @Nullable ResourceHandle resource)
+                throws IOException {
+            Status status = new Status(request, response, LOG);
+            String packageRootPath = XSS.filter(request.getRequestPathInfo().getSuffix());
+            String updateId = status.getRequiredParameter(PARAM_UPDATEID, PATTERN_UPDATEID, "UpdateId required");
+            PathLockTable.PathLock lock = lockTable.touch(updateId);
+            if (isNotBlank(packageRootPath) && lock != null && status.isValid()) {
+                boolean restored = false;
+                String version = lock.getVersion(packageRootPath);
+                File packageFile = versionCache.getPackage(version, packageRootPath);
+                if (packageFile != null) {
+                    try (InputStream packageStream = new FileInputStream(packageFile)) {
+                        service.pathUpload(updateId, packageRootPath, packageStream);
+                        restored = true;
+                        LOG.info("Restored {} version {} from cache for {}", packageRootPath, version, updateId);
+                    } catch (FileNotFoundException e) { // just removed from the cache
+                        LOG.info("Cache miss for {} version {} : {}", packageRootPath, version, e.toString());
                     } catch (ReplicationException e) {
                         e.writeIntoStatus(status);
                     } catch (RuntimeException e) {
-                        status.error("Import failed at publish server for {}: {}", updateId, e.toString(), e);
+                        status.error("Restore of {} failed at publish server for {}", packageRootPath, updateId, e);
                     }
                 }
+                status.data(Status.DATA).put(RemoteReceiverConstants.PARAM_RESTORED, restored);
+            } else {
+                status.error("Broken parameters at publish server: pkg {}, upd {}", packageRootPath, updateId);
+            }
+            status.sendJson();
+        }
+    }
+
+    /** Spools the package, imports it and puts it into the {@link VersionSnapshotCache} if that succeeded. */
+    protected void importAndCache(@Nonnull String updateId, @Nonnull String packageRootPath, @Nonnull String version,
+                                  @Nonnull HttpEntity packageEntity)
+            throws IOException, ReplicationException {
+        SpooledHttpEntity spooledPackage = new SpooledHttpEntity(packageEntity);
+        try {
+            try (InputStream packageStream = spooledPackage.getContent()) {
+                service.pathUpload(updateId, packageRootPath, packageStream);
+            }
+            cache(version, packageRootPath, spooledPackage);
+        } finally {
+            spooledPackage.delete();
+        }
+    }
+
+    /** Stores the package in the {@link VersionSnapshotCache}; failures are just logged. */
+    protected void cache(@Nullable String version, @Nonnull String packageRootPath,
+                         @Nonnull SpooledHttpEntity spooledPackage) {
+        if (version != null && versionCache.isEnabled()) {
+            try (InputStream packageStream = spooledPackage.getContent()) {
+                versionCache.put(version, packageRootPath, packageStream);
+            } catch (IOException | RuntimeException e) {
+                LOG.warn("Could not cache {} version {} : {}", packageRootPath, version, e.toString());
+            }
+        }
+    }
+
+    /** The paths of the running update, or null if there is none. Registers activity for the update, too. */
+    @Nullable
+    protected ReplicationPaths replicationPaths(@Nullable String updateId) {
+        PathLockTable.PathLock lock = lockTable.touch(updateId);
+        return lock != null ? lock.getReplicationPaths() : null;
+    }
+
+    /**
+     * Commits an update in two phases: first the whole request (deleted paths and child orderings) is received and
+     * validated into a {@link StagedCommit}, and only then the actual commit is done at the publisher - the critical
+     * section, whose duration is measured and exported via the {@link Operation#statistics} operation.
+     */
+    class CommitUpdateOperation implements ServletOperation {
+        @Override
+        public void doIt(@Nonnull SlingHttpServletRequest request, @Nonnull SlingHttpServletResponse response, @Nullable ResourceHandle resource) throws IOException {
+            Status status = new Status(request, response, LOG);
+            StagedCommit staged = new StagedCommit();
+
+            long prepareStart = System.nanoTime();
+            try (JsonReader jsonReader = new JsonReader(request.getReader())) {
+                prepareCommit(jsonReader, staged, status);
             } catch (IOException | RuntimeException e) {
-                status.error("Reading request for commit failed at publish server for update {}", updateId, e);
+                status.error("Reading request for commit failed at publish server for update {}",
+                        staged.getUpdateId(), e);
+            }
+            long prepareNanos = System.nanoTime() - prepareStart;
+            timing(TIMING_COMMIT_PREPARE).record(prepareNanos);
+
+            if (status.isValid()) {
+                long commitStart = System.nanoTime();
+                try {
+                    commit(staged, status);
+                } finally {
+                    long commitNanos = System.nanoTime() - commitStart;
+                    timing(TIMING_COMMIT_CRITICAL).record(commitNanos);
+                    status.data(TIMING_COMMIT_CRITICAL).put("prepareMillis", TimeUnit.NANOSECONDS.toMillis(prepareNanos));
+                    status.data(TIMING_COMMIT_CRITICAL).put("criticalMillis", TimeUnit.NANOSECONDS.toMillis(commitNanos));
+                    LOG.info("Commit of {} : prepare {} ms, critical section {} ms", staged,
+                            TimeUnit.NANOSECONDS.toMillis(prepareNanos), TimeUnit.NANOSECONDS.toMillis(commitNanos));
+                }
             }
 
             status.sendJson();
         }
 
+        /**
+         * The critical section: commits the validated update in the backend and releases its path lock. An update
+         * whose lock was removed as stale is aborted instead, since another update of its path might be running. If
+         * batched deletion is configured, the deleted subtrees within the update are not passed to the backend but
+         * removed in batches after the backend commit succeeded - the backend commit is one save, and removing them
+         * before it would persist the deletions even if the commit fails afterwards.
+         */
+        protected void commit(@Nonnull StagedCommit staged, @Nonnull Status status) {
+            String updateId = staged.getUpdateId();
+            PathLockTable.PathLock lock = lockTable.touch(updateId);
+            LOG.info("Commit on {} deleting {}", updateId, staged.getDeletedPaths());
+            try {
+                if (lock == null) {
+                    status.error("Update {} holds no lock at publish server anymore and cannot be committed", updateId);
+                    status.setStatus(HttpServletResponse.SC_CONFLICT);
+                    service.abort(updateId);
+                    return;
+                }
+                if (lock.isDryRun()) {
+                    status.error("Update {} is a dry run and cannot be committed", updateId);
+                    service.abort(updateId);
+                    return;
+                }
+                Set<String> batchedPaths = batchedDeletionPaths(lock, staged);
+                Set<String> deletedPaths = new LinkedHashSet<>(staged.getDeletedPaths());
+                deletedPaths.removeAll(batchedPaths);
+                service.commit(updateId, deletedPaths, staged.getChildOrderings(), staged.getReleaseChangeNumber());
+                if (!batchedPaths.isEmpty()) {
+                    deleteInBatches(lock, staged, batchedPaths, status);
+                }
+            } catch (ReplicationException e) {
+                e.writeIntoStatus(status);
+            } catch (RuntimeException e) {
+                status.error("Import failed at publish server for {}: {}", updateId, e.toString(), e);
+            } finally {
+                lockTable.release(updateId);
+            }
+        }
+
+        /**
+         * The deleted paths which are removed in batches if configured: only the path of the update itself or
+         * paths below it, which are covered by its lock.
+         */
+        @Nonnull
+        protected Set<String> batchedDeletionPaths(@Nullable PathLockTable.PathLock lock,
+                                                   @Nonnull StagedCommit staged) {
+            Configuration theConfig = config;
+            int batchSize = theConfig != null ? theConfig.deleteBatchSize() : 0;
+            Set<String> paths = new LinkedHashSet<>();
+            if (batchSize > 0 && lock != null && lock.getReplicationPaths() != null) {
+                for (String deletedPath : staged.getDeletedPaths()) {
+                    if (PathLockTable.overlaps(lock.getPath(), deletedPath)
+                            && deletedPath.length() >= lock.getPath().length()) {
+                        paths.add(deletedPath);
+                    }
+                }
+            }
+            return paths;
+        }
+
+        /**
+         * Removes the deleted subtrees in batches with intermediate saves after the backend commit, so that large
+         * deletions don't fill the transient space of the commit. If that fails, the commit is reported as failed
+         * although the new content is already in place; the next replication removes the remaining subtrees.
+         */
+        protected void deleteInBatches(@Nonnull PathLockTable.PathLock lock, @Nonnull StagedCommit staged,
+                                       @Nonnull Set<String> deletedPaths, @Nonnull Status status)
+                throws ReplicationException {
+            ReplicationPaths replicationPaths = requireNonNull(lock.getReplicationPaths());
+            Configuration theConfig = requireNonNull(config);
+            List<String> paths = new ArrayList<>();
+            for (String deletedPath : deletedPaths) {
+                paths.add(replicationPaths.translate(deletedPath));
+            }
+            long start = System.nanoTime();
+            try (ResourceResolver resolver = makeResolver()) {
+                BatchedDeletion deletion = new BatchedDeletion(theConfig.deleteBatchSize(), theConfig.deleteRetries());
+                int deleted = deletion.delete(resolver, paths);
+                status.data(TIMING_COMMIT_CRITICAL).put("deletedNodes", deleted);
+                LOG.info("Deleted {} nodes for {} in {} ms", deleted, staged.getUpdateId(),
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            } catch (LoginException | PersistenceException e) {
+                throw new ReplicationException(Message.error("Deleting paths failed at publish server for {}",
+                        staged.getUpdateId()), e);
+            }
+        }
+
+        /**
+         * Prepare phase: reads the whole request into the {@link StagedCommit} and validates it. If there are
+         * problems, the status is made invalid.
+         */
+        protected void prepareCommit(@Nonnull JsonReader jsonReader, @Nonnull StagedCommit staged,
+                                     @Nonnull Status status) throws IOException {
+            Gson gson = new GsonBuilder().create();
+            jsonReader.beginObject();
+
+            expectName(jsonReader, PARAM_UPDATEID, status);
+            staged.updateId = jsonReader.nextString();
+
+            expectName(jsonReader, PARAM_RELEASE_CHANGENUMBER, status);
+            staged.releaseChangeNumber = jsonReader.nextString();
+
+            expectName(jsonReader, PARAM_DELETED_PATH, status);
+            jsonReader.beginArray();
+            while (jsonReader.hasNext()) {
+                staged.deletedPaths.add(jsonReader.nextString());
+            }
+            jsonReader.endArray();
+
+            expectName(jsonReader, PARAM_CHILDORDERINGS, status);
+            JsonArrayAsIterable<ChildrenOrderInfo> childOrderings =
+                    new JsonArrayAsIterable<>(jsonReader, ChildrenOrderInfo.class, gson, null);
+            for (ChildrenOrderInfo childOrdering : childOrderings) {
+                staged.childOrderings.add(childOrdering);
+            }
+            jsonReader.endObject();
+
+            String error = staged.validate();
+            if (error != null) {
+                status.error(error);
+            }
+        }
+
     }
 
     class AbortUpdateOperation implements ServletOperation {
@@ -339,6 +907,7 @@ public class RemotePublicationReceiverServlet extends AbstractServiceServlet {
             if (status.isValid()) {
                 try {
                     service.abort(updateId);
+                    lockTable.release(updateId);
                 } catch (ReplicationException e) {
                     e.writeIntoStatus(status);
                 } catch (RuntimeException e) {
@@ -402,4 +971,125 @@ public class RemotePublicationReceiverServlet extends AbstractServiceServlet {
             status.sendJson();
         }
     }
+
+    /** Exports the accumulated {@link TimingStatistics} of this servlet. */
+    class StatisticsOperation implements ServletOperation {
+        @Override
+        public void doIt(@Nonnull SlingHttpServletRequest request, @Nonnull SlingHttpServletResponse response, @Nullable ResourceHandle resource)
+                throws IOException {
+            Status status = new Status(request, response, LOG);
+            Map<String, Object> data = status.data("timings");
+            for (Map.Entry<String, TimingStatistics> entry : timings.entrySet()) {
+                data.put(entry.getKey(), entry.getValue().toMap());
+            }
+            for (PathLockTable.PathLock lock : lockTable.getLocks()) {
+                Map<String, Object> lockData = new LinkedHashMap<>();
+                lockData.put("updateId", lock.getUpdateId());
+                lockData.put("created", lock.getCreated());
+                status.data("locks").put(lock.getPath(), lockData);
+            }
+            status.data("idempotency").put("replays", idempotencyRegistry.getReplays());
+            status.data("idempotency").put("entries", idempotencyRegistry.size());
+            status.data("versionCache").put("entries", versionCache.size());
+            status.data("versionCache").put("bytes", versionCache.getBytes());
+            status.data("binaryHashCache").put("entries", binaryHashCache.size());
+            status.sendJson();
+        }
+    }
+
+    @ObjectClassDefinition(
+            name = "Composum Platform Remote Publication Receiver Configuration",
+            description = "Configures the servlet that receives content replicated from an author host"
+    )
+    public @interface Configuration {
+
+        @AttributeDefinition(
+                description = "Time in seconds after which the path lock of an update without any activity is " +
+                        "considered stale and removed, so that other updates of the path can start. An update whose " +
+                        "lock was removed cannot be committed anymore."
+        )
+        long lockTimeout() default 300;
+
+        @AttributeDefinition(
+                description = "The number of concurrently processed replication requests that is considered full " +
+                        "load. The ratio of the currently processed requests to this number is sent to the author, " +
+                        "which slows down if it is above 1. 0 switches this off."
+        )
+        int loadReferenceConcurrency() default 8;
+
+        @AttributeDefinition(
+                description = "Maximum number of concurrently processed pathUpload requests, and separately of " +
+                        "pathDelta requests; 0 for unlimited."
+        )
+        int maxConcurrentPathUploads() default 4;
+
+        @AttributeDefinition(
+                description = "Maximum number of concurrently processed compareContent requests; 0 for unlimited."
+        )
+        int maxConcurrentCompareContent() default 4;
+
+        @AttributeDefinition(
+                description = "Maximum number of concurrently processed contentState requests, and separately of " +
+                        "pathManifest requests; 0 for unlimited."
+        )
+        int maxConcurrentContentState() default 4;
+
+        @AttributeDefinition(
+                description = "Maximum number of requests per operation waiting for admission if the concurrency " +
+                        "limit is reached. If more arrive, they are rejected with status 429."
+        )
+        int maxQueuedRequests() default 16;
+
+        @AttributeDefinition(
+                description = "Maximum time in seconds a request waits for admission before being rejected " +
+                        "with status 503; 0 rejects at once. Waiting requests hold a request thread of the " +
+                        "publisher, so this should stay short - the author retries after the Retry-After time."
+        )
+        int maxQueueWait() default 2;
+
+        @AttributeDefinition(
+                description = "The time in seconds sent in the Retry-After header of rejected requests."
+        )
+        int retryAfter() default 10;
+
+        @AttributeDefinition(
+                description = "Maximum number of responses of pathUpload, pathDelta and commitUpdate requests kept to answer " +
+                        "repetitions of them with the same idempotency key."
+        )
+        int idempotencyCacheSize() default 1000;
+
+        @AttributeDefinition(
+                description = "Time in seconds the responses for repeated requests are kept."
+        )
+        long idempotencyCacheTime() default 3600;
+
+        @AttributeDefinition(
+                description = "Maximum size in MB of the cache on disk of the packages of recently received " +
+                        "versions, from which versionables reverted to one of these versions are restored without " +
+                        "upload. Each received package of a version is spooled to disk a second time for it. " +
+                        "0 (default) disables the cache; e.g. 256 for authors that often revert content."
+        )
+        int versionCacheSize() default 0;
+
+        @AttributeDefinition(
+                description = "Maximum number of hashes of binary properties kept for the manifests the author " +
+                        "computes deltas against, so that unchanged binaries are not read again. 0 disables " +
+                        "the cache."
+        )
+        int binaryHashCacheSize() default 10000;
+
+        @AttributeDefinition(
+                description = "If > 0, the subtrees deleted by a commit are removed after the commit in batches " +
+                        "of this many nodes with a save after each batch, which keeps the memory usage flat for " +
+                        "large deletions. 0 leaves the deletion to the commit."
+        )
+        int deleteBatchSize() default 0;
+
+        @AttributeDefinition(
+                description = "How often the batched deletion of a subtree is repeated after the session was " +
+                        "refreshed if saving fails, e.g. because of a concurrent modification."
+        )
+        int deleteRetries() default 3;
+
+    }
 }
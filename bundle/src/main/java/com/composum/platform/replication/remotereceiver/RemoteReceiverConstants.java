@@ -8,4 +8,31 @@ import com.composum.sling.platform.staging.replication.ReplicationConstants;
  */
 public interface RemoteReceiverConstants extends ReplicationConstants {
 
+    /**
+     * Response header with which the receiver signals its current load: a decimal number where values above 1 mean
+     * that the receiver is overloaded and the author should slow down.
+     */
+    String HEADER_RECEIVER_LOAD = "X-Composum-Replication-Load";
+
+    /**
+     * Request header with a key that is the same for all repetitions of a non idempotent request, so that the
+     * receiver can answer a replay of an already processed request with the original response.
+     */
+    String HEADER_IDEMPOTENCY_KEY = "Idempotency-Key";
+
+    /**
+     * Key in the {@link com.composum.sling.core.servlet.Status#DATA} of the compareContent response: the paths that
+     * differ but can be restored from the {@link VersionSnapshotCache} of the receiver.
+     */
+    String PARAM_CACHED = "cached";
+
+    /** Key in the {@link com.composum.sling.core.servlet.Status#DATA} of the pathRestore response: true if restored. */
+    String PARAM_RESTORED = "restored";
+
+    /**
+     * Parameter of startUpdate: if true, the update is only a dry run that compares and is aborted. It doesn't lock
+     * its path against other updates, and it cannot be committed.
+     */
+    String PARAM_DRYRUN = "dryRun";
+
 }
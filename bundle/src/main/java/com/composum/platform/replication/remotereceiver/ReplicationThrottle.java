@@ -0,0 +1,173 @@
+package com.composum.platform.replication.remotereceiver;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Limits the bandwidth and the request rate of the replication to one remote target. The limits are taken from the
+ * {@link RemotePublicationConfig} - except in the configured time windows where the replication may run at full speed
+ * (e.g. at night) - and are additionally reduced when the receiver signals a high load with the
+ * {@link RemoteReceiverConstants#HEADER_RECEIVER_LOAD} header. One instance is kept per target and shared between the
+ * replication processes for it.
+ */
+public class ReplicationThrottle {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ReplicationThrottle.class);
+
+    /**
+     * If the receiver signals a high load but no request rate limit is configured, we start throttling the requests
+     * from this rate.
+     */
+    public static final double ADAPTIVE_REQUEST_RATE = 20.0;
+
+    /** The factor the configured limits are never reduced below when adapting to the receivers load. */
+    public static final double MIN_LOAD_FACTOR = 0.1;
+
+    protected final TokenBucket bandwidth = new TokenBucket();
+    protected final TokenBucket requests = new TokenBucket();
+
+    /** Bandwidth limit in bytes per second, &lt;= 0 for unlimited. */
+    protected volatile long bandwidthLimit;
+    /** Request rate limit in requests per second, &lt;= 0 for unlimited. */
+    protected volatile double requestRateLimit;
+    protected volatile List<LocalTime[]> unlimitedTimes = new ArrayList<>();
+
+    /** Factor &lt;= 1 with which the limits are reduced because of the load signalled by the receiver. */
+    protected volatile double loadFactor = 1.0;
+
+    /** Takes over the limits from the configuration. */
+    public void configure(@Nonnull RemotePublicationConfig config) {
+        this.bandwidthLimit = config.getBandwidthLimit() * 1024;
+        this.requestRateLimit = config.getRequestRateLimit();
+        this.unlimitedTimes = parseTimeWindows(config.getUnlimitedTimes());
+        updateRates();
+    }
+
+    /** Waits until the next request to the target is allowed. */
+    public void beforeRequest() throws InterruptedIOException {
+        updateRates();
+        try {
+            requests.acquire(1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for request rate limit");
+        }
+    }
+
+    /** Wraps the stream the content is transmitted with into a stream limiting the bandwidth. */
+    @Nonnull
+    public ThrottledOutputStream throttle(@Nonnull OutputStream outputStream) {
+        updateRates();
+        return new ThrottledOutputStream(outputStream, bandwidth);
+    }
+
+    /**
+     * Waits until the given number of bytes may be transmitted - for transmissions that are not written through
+     * {@link #throttle(OutputStream)}, e.g. a spooled request body handed over to an asynchronous client.
+     */
+    public void acquireBandwidth(long bytes) throws InterruptedIOException {
+        updateRates();
+        try {
+            bandwidth.acquire(bytes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for bandwidth limit");
+        }
+    }
+
+    /**
+     * Adapts the limits to the load signalled by the receiver: a load above 1 means that the receiver is
+     * overloaded and the limits are reduced accordingly; for a load below 0.8 the limits slowly recover.
+     *
+     * @param headerValue value of the {@link RemoteReceiverConstants#HEADER_RECEIVER_LOAD} header, might be null
+     */
+    public void adaptToLoad(@Nullable String headerValue) {
+        if (StringUtils.isBlank(headerValue)) {
+            return;
+        }
+        double load = NumberUtils.toDouble(headerValue.trim(), -1);
+        if (load < 0) {
+            LOG.debug("Ignoring invalid load value {}", headerValue);
+            return;
+        }
+        double oldFactor = loadFactor;
+        if (load > 1.0) {
+            loadFactor = Math.max(MIN_LOAD_FACTOR, oldFactor / load);
+        } else if (load < 0.8) {
+            loadFactor = Math.min(1.0, oldFactor + 0.1);
+        }
+        if (loadFactor != oldFactor) {
+            LOG.info("Receiver load {} - changing throttling factor from {} to {}", load, oldFactor, loadFactor);
+            updateRates();
+        }
+    }
+
+    public double getLoadFactor() {
+        return loadFactor;
+    }
+
+    /** True if the configured limits don't apply at the given time. */
+    public boolean isUnlimitedTime(@Nonnull LocalTime time) {
+        for (LocalTime[] window : unlimitedTimes) {
+            boolean inWindow = window[0].isBefore(window[1])
+                    ? !time.isBefore(window[0]) && time.isBefore(window[1])
+                    : !time.isBefore(window[0]) || time.isBefore(window[1]); // window over midnight
+            if (inWindow) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    protected void updateRates() {
+        boolean unlimitedTime = isUnlimitedTime(LocalTime.now());
+        double factor = loadFactor;
+
+        long bytesPerSecond = unlimitedTime ? 0 : bandwidthLimit;
+        double newBandwidth = bytesPerSecond > 0 ? Math.max(1024, bytesPerSecond * factor) : 0;
+        if (newBandwidth != bandwidth.getRate()) {
+            bandwidth.setRate(newBandwidth, 0);
+        }
+
+        double requestRate = unlimitedTime ? 0 : requestRateLimit;
+        if (requestRate <= 0 && factor < 1.0) {
+            requestRate = ADAPTIVE_REQUEST_RATE;
+        }
+        double newRequestRate = requestRate > 0 ? requestRate * factor : 0;
+        if (newRequestRate != requests.getRate()) {
+            requests.setRate(newRequestRate, 0);
+        }
+    }
+
+    /**
+     * Parses time windows like {@code 22:00-06:00,12:00-13:30}; broken entries are logged and ignored.
+     */
+    @Nonnull
+    protected static List<LocalTime[]> parseTimeWindows(@Nullable String windows) {
+        List<LocalTime[]> result = new ArrayList<>();
+        for (String window : StringUtils.split(StringUtils.defaultString(windows), ",; ")) {
+            String[] times = StringUtils.split(window, "-");
+            try {
+                if (times.length != 2) {
+                    throw new DateTimeParseException("Expected start-end", window, 0);
+                }
+                result.add(new LocalTime[]{LocalTime.parse(times[0].trim()), LocalTime.parse(times[1].trim())});
+            } catch (DateTimeParseException e) {
+                LOG.error("Ignoring invalid time window {} in {}", window, windows);
+            }
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,109 @@
+package com.composum.platform.replication.remotereceiver;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.DeferredFileOutputStream;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.AbstractHttpEntity;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A repeatable copy of an {@link HttpEntity} that is produced once - in memory, or in a temporary file if it is
+ * large. This way an entity that is generated from JCR resources (e.g. a {@link PackageHttpEntity}) can be
+ * transmitted (and retransmitted) from another thread than the one owning the resource resolver. The temporary file
+ * has to be removed with {@link #delete()} when the entity isn't needed anymore. The throttle of a
+ * {@link ThrottledHttpEntity} is not applied to the spooling but to the transmission of the copy.
+ */
+public class SpooledHttpEntity extends AbstractHttpEntity {
+
+    /** Entities larger than that are spooled into a temporary file. */
+    public static final int SPOOL_THRESHOLD = 1024 * 1024;
+
+    protected final DeferredFileOutputStream buffer;
+
+    @Nullable
+    protected final ReplicationThrottle throttle;
+
+    public SpooledHttpEntity(@Nonnull HttpEntity entity) throws IOException {
+        Header contentType = entity.getContentType();
+        if (contentType != null) {
+            setContentType(contentType);
+        }
+        Header contentEncoding = entity.getContentEncoding();
+        if (contentEncoding != null) {
+            setContentEncoding(contentEncoding);
+        }
+        throttle = entity instanceof ThrottledHttpEntity ? ((ThrottledHttpEntity) entity).getThrottle() : null;
+        buffer = new DeferredFileOutputStream(SPOOL_THRESHOLD, "replication", ".tmp", null);
+        try {
+            if (entity instanceof ThrottledHttpEntity) {
+                ((ThrottledHttpEntity) entity).writeUnthrottledTo(buffer);
+            } else {
+                entity.writeTo(buffer);
+            }
+        } finally {
+            buffer.close();
+        }
+    }
+
+    /** The content if it is kept in memory, else null. */
+    @Nullable
+    public byte[] getData() {
+        return buffer.isInMemory() ? buffer.getData() : null;
+    }
+
+    /** The temporary file with the content if it is too large for memory, else null. */
+    @Nullable
+    public File getFile() {
+        return buffer.isInMemory() ? null : buffer.getFile();
+    }
+
+    /** The throttle of the original entity, to be applied when transmitting the copy. */
+    @Nullable
+    public ReplicationThrottle getThrottle() {
+        return throttle;
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public long getContentLength() {
+        return buffer.getByteCount();
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+        return buffer.isInMemory() ? new ByteArrayInputStream(buffer.getData())
+                : new FileInputStream(buffer.getFile());
+    }
+
+    @Override
+    public void writeTo(OutputStream outstream) throws IOException {
+        buffer.writeTo(throttle != null ? throttle.throttle(outstream) : outstream);
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+
+    /** Removes the temporary file, if there is one. */
+    public void delete() {
+        File file = getFile();
+        if (file != null) {
+            FileUtils.deleteQuietly(file);
+        }
+    }
+
+}
@@ -0,0 +1,78 @@
+package com.composum.platform.replication.remotereceiver;
+
+import com.composum.sling.platform.staging.replication.json.ChildrenOrderInfo;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The data of a commit request, completely received and validated before the actual commit is done at the
+ * publisher. This way the commit itself (the critical section that modifies the live content) does not depend on
+ * the speed of the network transfer of the request.
+ */
+public class StagedCommit {
+
+    protected String updateId;
+    protected String releaseChangeNumber;
+    protected final Set<String> deletedPaths = new LinkedHashSet<>();
+    protected final List<ChildrenOrderInfo> childOrderings = new ArrayList<>();
+
+    public String getUpdateId() {
+        return updateId;
+    }
+
+    public String getReleaseChangeNumber() {
+        return releaseChangeNumber;
+    }
+
+    @Nonnull
+    public Set<String> getDeletedPaths() {
+        return deletedPaths;
+    }
+
+    @Nonnull
+    public List<ChildrenOrderInfo> getChildOrderings() {
+        return childOrderings;
+    }
+
+    /**
+     * Checks the received data for consistency.
+     *
+     * @return an error message if something is wrong, null if everything is fine
+     */
+    public String validate() {
+        if (StringUtils.isBlank(updateId) || !RemoteReceiverConstants.PATTERN_UPDATEID.matcher(updateId).matches()) {
+            return "Invalid updateId";
+        }
+        if (StringUtils.isBlank(releaseChangeNumber)) {
+            return "Missing releaseChangeNumber";
+        }
+        for (String deletedPath : deletedPaths) {
+            if (StringUtils.isBlank(deletedPath) || !deletedPath.startsWith("/")) {
+                return "Invalid deleted path " + deletedPath;
+            }
+        }
+        for (ChildrenOrderInfo childOrdering : childOrderings) {
+            if (childOrdering == null) {
+                return "Invalid child ordering";
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this)
+                .append("updateId", updateId)
+                .append("releaseChangeNumber", releaseChangeNumber)
+                .append("deleted", deletedPaths.size())
+                .append("childOrderings", childOrderings.size())
+                .toString();
+    }
+
+}
@@ -0,0 +1,24 @@
+package com.composum.platform.replication.remotereceiver;
+
+import org.apache.http.HttpEntity;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An entity limiting the bandwidth of its transmission with a {@link ReplicationThrottle}. If it is spooled before
+ * the transmission (a {@link SpooledHttpEntity}), the spooling is not throttled - the throttle is applied when the
+ * spooled copy is transmitted.
+ */
+public interface ThrottledHttpEntity extends HttpEntity {
+
+    /** The throttle applied in {@link #writeTo(OutputStream)}, if any. */
+    @Nullable
+    ReplicationThrottle getThrottle();
+
+    /** Writes the content without throttling, e.g. into a local buffer. */
+    void writeUnthrottledTo(@Nonnull OutputStream outstream) throws IOException;
+
+}
@@ -0,0 +1,62 @@
+package com.composum.platform.replication.remotereceiver;
+
+import javax.annotation.Nonnull;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/**
+ * Limits the bandwidth of the written data with a {@link TokenBucket} (one token per byte) and counts the written
+ * bytes.
+ */
+public class ThrottledOutputStream extends FilterOutputStream {
+
+    /** The maximum number of bytes that are written at once, so that the throttling is smooth. */
+    protected static final int CHUNKSIZE = 8192;
+
+    protected final TokenBucket bucket;
+
+    protected long count;
+
+    public ThrottledOutputStream(@Nonnull OutputStream out, @Nonnull TokenBucket bucket) {
+        super(out);
+        this.bucket = bucket;
+    }
+
+    /** The number of bytes written so far. */
+    public long getCount() {
+        return count;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        acquire(1);
+        out.write(b);
+        count++;
+    }
+
+    @Override
+    public void write(@Nonnull byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int chunk = Math.min(len, CHUNKSIZE);
+            acquire(chunk);
+            out.write(b, off, chunk);
+            count += chunk;
+            off += chunk;
+            len -= chunk;
+        }
+    }
+
+    protected void acquire(int amount) throws InterruptedIOException {
+        try {
+            bucket.acquire(amount);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            InterruptedIOException ioe = new InterruptedIOException("Interrupted while throttling");
+            ioe.initCause(e);
+            throw ioe;
+        }
+    }
+
+}
@@ -0,0 +1,55 @@
+package com.composum.platform.replication.remotereceiver;
+
+import javax.annotation.Nonnull;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Simple thread safe in-memory accumulator for the durations of a recurring step, e.g. the critical section of a
+ * commit at the publisher. Is exported as JSON by the {@link RemotePublicationReceiverServlet}.
+ */
+public class TimingStatistics {
+
+    protected long count;
+    protected long totalNanos;
+    protected long maxNanos;
+    protected long lastNanos;
+
+    /** Records one measured duration. */
+    public synchronized void record(long nanos) {
+        count++;
+        totalNanos += nanos;
+        lastNanos = nanos;
+        maxNanos = Math.max(maxNanos, nanos);
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /** The average duration in milliseconds, 0 if nothing was measured yet. */
+    public synchronized long getAverageMillis() {
+        return count > 0 ? TimeUnit.NANOSECONDS.toMillis(totalNanos / count) : 0;
+    }
+
+    public synchronized long getMaxMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxNanos);
+    }
+
+    public synchronized long getLastMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(lastNanos);
+    }
+
+    /** A snapshot of the values for the JSON export. */
+    @Nonnull
+    public synchronized Map<String, Object> toMap() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("count", getCount());
+        result.put("averageMillis", getAverageMillis());
+        result.put("maxMillis", getMaxMillis());
+        result.put("lastMillis", getLastMillis());
+        return result;
+    }
+
+}
@@ -0,0 +1,87 @@
+package com.composum.platform.replication.remotereceiver;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A simple thread safe token bucket: tokens are refilled with a given rate up to a maximum capacity (the allowed
+ * burst), and {@link #acquire(long)} waits until the requested amount is available. Larger amounts than the capacity
+ * are possible - the bucket goes into debt and the caller waits until the debt is paid. A rate &lt;= 0 means unlimited.
+ */
+public class TokenBucket {
+
+    protected double ratePerSecond;
+    protected double capacity;
+    protected double tokens;
+    protected long lastRefill = System.nanoTime();
+
+    /** Creates an unlimited bucket. */
+    public TokenBucket() {
+        this(0, 0);
+    }
+
+    public TokenBucket(double ratePerSecond, double capacity) {
+        setRate(ratePerSecond, capacity);
+        this.tokens = this.capacity;
+    }
+
+    /**
+     * Changes the rate; the currently available tokens are kept but limited to the new capacity.
+     *
+     * @param ratePerSecond the rate, &lt;= 0 for unlimited
+     * @param capacity      the maximum burst; if &lt;= 0 this is the amount of one second
+     */
+    public synchronized void setRate(double ratePerSecond, double capacity) {
+        refill();
+        this.ratePerSecond = ratePerSecond;
+        this.capacity = capacity > 0 ? capacity : Math.max(ratePerSecond, 1);
+        this.tokens = Math.min(tokens, this.capacity);
+    }
+
+    public synchronized double getRate() {
+        return ratePerSecond;
+    }
+
+    public synchronized boolean isUnlimited() {
+        return ratePerSecond <= 0;
+    }
+
+    /** Takes the given amount of tokens, waiting as long as necessary. */
+    public void acquire(long amount) throws InterruptedException {
+        long waitNanos;
+        synchronized (this) {
+            if (ratePerSecond <= 0) {
+                return;
+            }
+            refill();
+            tokens -= amount;
+            if (tokens >= 0) {
+                return;
+            }
+            waitNanos = (long) (-tokens / ratePerSecond * TimeUnit.SECONDS.toNanos(1));
+        }
+        TimeUnit.NANOSECONDS.sleep(waitNanos);
+    }
+
+    /** Takes the given amount of tokens only if they are available right now. */
+    public synchronized boolean tryAcquire(long amount) {
+        if (ratePerSecond <= 0) {
+            return true;
+        }
+        refill();
+        if (tokens >= amount) {
+            tokens -= amount;
+            return true;
+        }
+        return false;
+    }
+
+    protected void refill() {
+        long now = System.nanoTime();
+        if (ratePerSecond > 0) {
+            double elapsedSeconds = (now - lastRefill) / (double) TimeUnit.SECONDS.toNanos(1);
+            tokens = Math.min(capacity, tokens + elapsedSeconds * ratePerSecond);
+        }
+        lastRefill = now;
+    }
+
+}
@@ -0,0 +1,221 @@
+package com.composum.platform.replication.remotereceiver;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * A bounded cache on disk of the packages received for versionables, keyed by the version UUID. Since a version
+ * never changes, a versionable that is reverted to a version the receiver already had - e.g. a rollback or the
+ * re-publication of an earlier release - can be restored from the cache with
+ * {@link RemotePublicationReceiverServlet.Operation#pathRestore} instead of being uploaded again.
+ * <p>
+ * The least recently used packages are removed if the configured size is exceeded. The cache survives restarts:
+ * each package is stored as a zip file named after the version, together with a file with the path of the
+ * versionable, since the package can only be imported at the same path.
+ */
+public class VersionSnapshotCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(VersionSnapshotCache.class);
+
+    /** Version UUIDs are used as file names, so we only accept harmless ones. */
+    protected static final Pattern VERSION_PATTERN = Pattern.compile("[0-9a-zA-Z-]{1,64}");
+
+    protected static final String PACKAGE_SUFFIX = ".zip";
+    protected static final String PATH_SUFFIX = ".path";
+    protected static final String TMP_SUFFIX = ".tmp";
+
+    @Nullable
+    protected File directory;
+
+    protected long maxBytes;
+
+    protected long bytes;
+
+    /** Sizes of the stored packages in order of access. */
+    protected final Map<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * (Re-)configures the cache and reads the index of the packages already in the directory.
+     *
+     * @param directory the directory for the packages; null disables the cache
+     * @param maxBytes  the maximum size of the stored packages; &lt;= 0 disables the cache and removes the packages
+     */
+    public synchronized void configure(@Nullable File directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        entries.clear();
+        bytes = 0;
+        if (directory == null) {
+            return;
+        }
+        if (maxBytes <= 0) {
+            FileUtils.deleteQuietly(directory);
+            this.directory = null;
+            return;
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            LOG.error("Could not create directory for version cache {}", directory);
+            this.directory = null;
+            return;
+        }
+        File[] leftovers = directory.listFiles((dir, name) -> name.endsWith(TMP_SUFFIX));
+        if (leftovers != null) {
+            for (File leftover : leftovers) {
+                FileUtils.deleteQuietly(leftover);
+            }
+        }
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(PACKAGE_SUFFIX));
+        if (files != null) {
+            Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+            for (File file : files) {
+                entries.put(StringUtils.removeEnd(file.getName(), PACKAGE_SUFFIX), file.length());
+                bytes += file.length();
+            }
+        }
+        evict();
+    }
+
+    public synchronized boolean isEnabled() {
+        return directory != null;
+    }
+
+    /** True if the package of the version at the given path is in the cache. */
+    public boolean contains(@Nullable String version, @Nullable String path) {
+        return getPackage(version, path) != null;
+    }
+
+    /**
+     * The stored package of the version, if there is one for the given path.
+     * The file can be removed anytime by other threads - if reading it fails, just handle it like a cache miss.
+     * The path file is read outside of the lock; that's safe since both files are only replaced by renaming.
+     */
+    @Nullable
+    public File getPackage(@Nullable String version, @Nullable String path) {
+        File dir;
+        synchronized (this) {
+            dir = directory;
+            if (dir == null || version == null || path == null || entries.get(version) == null) {
+                return null;
+            }
+        }
+        try {
+            String storedPath = FileUtils.readFileToString(new File(dir, version + PATH_SUFFIX),
+                    StandardCharsets.UTF_8);
+            return path.equals(storedPath) ? new File(dir, version + PACKAGE_SUFFIX) : null;
+        } catch (IOException e) {
+            LOG.warn("Removing broken cache entry {} : {}", version, e.toString());
+            synchronized (this) {
+                if (dir == directory) {
+                    remove(version);
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Stores the package of the version of the versionable at the given path, if the version isn't already stored.
+     * The stream is read completely in any case. Both files are written as temporary files outside of the lock and
+     * renamed into place together within the lock, so that readers never see a package with a foreign path.
+     */
+    public void put(@Nullable String version, @Nonnull String path, @Nonnull InputStream packageStream)
+            throws IOException {
+        File dir;
+        synchronized (this) {
+            dir = directory;
+            if (dir == null || version == null || !VERSION_PATTERN.matcher(version).matches()
+                    || entries.containsKey(version)) {
+                dir = null;
+            }
+        }
+        if (dir == null) {
+            IOUtils.copy(packageStream, NullOutputStream.NULL_OUTPUT_STREAM);
+            return;
+        }
+        File tmpFile = File.createTempFile("version-" + version, TMP_SUFFIX, dir);
+        File tmpPathFile = File.createTempFile("path-" + version, TMP_SUFFIX, dir);
+        try {
+            try (OutputStream out = new FileOutputStream(tmpFile)) {
+                IOUtils.copy(packageStream, out);
+            }
+            FileUtils.writeStringToFile(tmpPathFile, path, StandardCharsets.UTF_8);
+            File packageFile = new File(dir, version + PACKAGE_SUFFIX);
+            File pathFile = new File(dir, version + PATH_SUFFIX);
+            synchronized (this) {
+                if (dir != directory || entries.containsKey(version)) {
+                    return; // reconfigured or stored concurrently
+                }
+                FileUtils.deleteQuietly(packageFile);
+                FileUtils.deleteQuietly(pathFile);
+                if (!tmpPathFile.renameTo(pathFile)) {
+                    throw new IOException("Could not rename " + tmpPathFile + " to " + pathFile);
+                }
+                if (!tmpFile.renameTo(packageFile)) {
+                    FileUtils.deleteQuietly(pathFile);
+                    throw new IOException("Could not rename " + tmpFile + " to " + packageFile);
+                }
+                entries.put(version, packageFile.length());
+                bytes += packageFile.length();
+                evict();
+            }
+        } finally {
+            FileUtils.deleteQuietly(tmpFile);
+            FileUtils.deleteQuietly(tmpPathFile);
+        }
+    }
+
+    /** The number of stored packages. */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /** The size of the stored packages. */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    protected void evict() {
+        for (Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+             bytes > maxBytes && it.hasNext(); ) {
+            Map.Entry<String, Long> entry = it.next();
+            it.remove();
+            bytes -= entry.getValue();
+            deleteFiles(entry.getKey());
+        }
+    }
+
+    protected void remove(@Nonnull String version) {
+        Long size = entries.remove(version);
+        if (size != null) {
+            bytes -= size;
+        }
+        deleteFiles(version);
+    }
+
+    protected void deleteFiles(@Nonnull String version) {
+        if (directory != null) {
+            FileUtils.deleteQuietly(new File(directory, version + PACKAGE_SUFFIX));
+            FileUtils.deleteQuietly(new File(directory, version + PATH_SUFFIX));
+        }
+    }
+
+}
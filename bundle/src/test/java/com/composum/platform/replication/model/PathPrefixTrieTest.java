@@ -0,0 +1,49 @@
+package com.composum.platform.replication.model;
+
+import com.composum.sling.platform.testing.testutil.ErrorCollectorAlwaysPrintingFailures;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.is;
+
+/** Tests for {@link PathPrefixTrie}. */
+public class PathPrefixTrieTest {
+
+    @Rule
+    public final ErrorCollectorAlwaysPrintingFailures ec = new ErrorCollectorAlwaysPrintingFailures();
+
+    @Test
+    public void prefixValues() {
+        PathPrefixTrie<String> trie = new PathPrefixTrie<>();
+        trie.add("/content/site", "site");
+        trie.add("/content/site/sub", "sub");
+        trie.add("/content/site/sub", "sub2");
+        trie.add("/content/other", "other");
+        trie.add("/", "root");
+
+        ec.checkThat(trie.size(), is(5));
+        ec.checkThat(trie.getPrefixValues("/content/site/sub/page/jcr:content").toString(),
+                is("[root, site, sub, sub2]"));
+        ec.checkThat(trie.getPrefixValues("/content/site").toString(), is("[root, site]"));
+        ec.checkThat(trie.getPrefixValues("/content/sitemap").toString(), is("[root]"));
+        ec.checkThat(trie.getPrefixValues("/content").toString(), is("[root]"));
+    }
+
+    @Test
+    public void remove() {
+        PathPrefixTrie<String> trie = new PathPrefixTrie<>();
+        trie.add("/content/site", "site");
+        trie.add("/content/site/sub/deep", "deep");
+
+        ec.checkThat(trie.remove("/content/site/sub", "deep"), is(false));
+        ec.checkThat(trie.remove("/content/site/sub/deep", "deep"), is(true));
+        ec.checkThat(trie.remove("/content/site/sub/deep", "deep"), is(false));
+        ec.checkThat(trie.size(), is(1));
+        ec.checkThat(trie.root.children.get("content").children.get("site").children.isEmpty(), is(true));
+        ec.checkThat(trie.getPrefixValues("/content/site/sub/deep").toString(), is("[site]"));
+
+        ec.checkThat(trie.remove("/content/site", "site"), is(true));
+        ec.checkThat(trie.root.isEmpty(), is(true));
+    }
+
+}
@@ -0,0 +1,66 @@
+package com.composum.platform.replication.model;
+
+import com.composum.platform.commons.proxy.ProxyManagerService;
+import com.composum.platform.commons.proxy.ProxyService;
+import com.composum.sling.platform.testing.testutil.ErrorCollectorAlwaysPrintingFailures;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+
+import static org.hamcrest.Matchers.is;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/** Tests for {@link ProxyOptionsCache}. */
+public class ProxyOptionsCacheTest {
+
+    @Rule
+    public final ErrorCollectorAlwaysPrintingFailures ec = new ErrorCollectorAlwaysPrintingFailures();
+
+    protected ProxyManagerService proxyManager;
+
+    protected ProxyOptionsCache cache;
+
+    @Before
+    public void setup() {
+        proxyManager = mock(ProxyManagerService.class);
+        doReturn(new LinkedHashSet<>(Arrays.asList("corporate", "plain", "gone"))).when(proxyManager).getProxyKeys();
+        ProxyService corporate = proxy("Corporate Proxy");
+        when(proxyManager.findProxyService("corporate")).thenReturn(corporate);
+        ProxyService plain = proxy(null);
+        when(proxyManager.findProxyService("plain")).thenReturn(plain);
+        cache = new ProxyOptionsCache();
+        cache.proxyManager = proxyManager;
+    }
+
+    @Test
+    public void optionsAreCached() {
+        ec.checkThat(cache.getOptions("no proxy"), is(":no proxy,corporate:Corporate Proxy,plain"));
+        ec.checkThat(cache.getProxies().get(1).getTitle(), is("plain"));
+        ec.checkThat(cache.getOptions("kein Proxy"), is(":kein Proxy,corporate:Corporate Proxy,plain"));
+        verify(proxyManager, times(1)).getProxyKeys();
+    }
+
+    @Test
+    public void invalidatedByProxyServices() {
+        cache.getProxies();
+        cache.bindProxyService(proxy("new"));
+        cache.getProxies();
+        cache.unbindProxyService(proxy("old"));
+        cache.getProxies();
+        verify(proxyManager, times(3)).getProxyKeys();
+    }
+
+    protected ProxyService proxy(String title) {
+        ProxyService proxy = mock(ProxyService.class);
+        when(proxy.getTitle()).thenReturn(title);
+        return proxy;
+    }
+
+}
@@ -0,0 +1,134 @@
+package com.composum.platform.replication.model;
+
+import com.composum.platform.replication.model.ReplicationConfigResolver.Index;
+import com.composum.platform.replication.remote.RemoteReplicationType;
+import com.composum.sling.platform.staging.replication.ReplicationConfig;
+import com.composum.sling.platform.testing.testutil.ErrorCollectorAlwaysPrintingFailures;
+import org.apache.sling.api.resource.ModifiableValueMap;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.testing.mock.sling.ResourceResolverType;
+import org.apache.sling.testing.mock.sling.junit.SlingContext;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import java.util.Collections;
+import java.util.function.Function;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+
+/** Tests for {@link ReplicationConfigResolver}. */
+public class ReplicationConfigResolverTest {
+
+    protected static final String SETUP = "/conf/content/site/replication";
+
+    @Rule
+    public final SlingContext context = new SlingContext(ResourceResolverType.RESOURCERESOLVER_MOCK);
+
+    @Rule
+    public final ErrorCollectorAlwaysPrintingFailures ec = new ErrorCollectorAlwaysPrintingFailures();
+
+    protected ReplicationConfigResolver resolver;
+
+    @Before
+    public void setup() throws Exception {
+        context.build().resource(SETUP + "/publicRemote", ReplicationConfig.PN_STAGE, "public",
+                "jcr:title", "B remote", ReplicationConfig.PN_IS_ENABLED, true,
+                ReplicationConfig.PN_SOURCE_PATH, "/content/site",
+                ReplicationConfig.PN_REPLICATION_TYPE, RemoteReplicationType.SERVICE_ID)
+                .resource(SETUP + "/publicSub", ReplicationConfig.PN_STAGE, "public",
+                        "jcr:title", "A sub", ReplicationConfig.PN_IS_ENABLED, true,
+                        ReplicationConfig.PN_SOURCE_PATH, "/content/site/sub")
+                .resource(SETUP + "/disabled", ReplicationConfig.PN_STAGE, "public",
+                        "jcr:title", "D disabled", ReplicationConfig.PN_IS_ENABLED, false)
+                .resource(SETUP + "/preview", ReplicationConfig.PN_STAGE, "preview",
+                        "jcr:title", "C preview", ReplicationConfig.PN_IS_ENABLED, true,
+                        ReplicationConfig.PN_SOURCE_PATH, "/content/site")
+                .resource("/conf/other/replication/other", ReplicationConfig.PN_STAGE, "public",
+                        ReplicationConfig.PN_IS_ENABLED, true, ReplicationConfig.PN_SOURCE_PATH, "/content")
+                .resource("/conf/content/site/sling:configs/other", "some", "value")
+                .commit();
+        resolver = new ReplicationConfigResolver() {
+            @Override
+            protected <T> T withServiceResolver(@Nonnull Function<ResourceResolver, T> function) {
+                return function.apply(context.resourceResolver());
+            }
+        };
+    }
+
+    @Test
+    public void lookup() {
+        ec.checkThat(resolver.findTargets("public", "/content/site/sub/page").toString(),
+                is("[" + SETUP + "/publicRemote, " + SETUP + "/publicSub]"));
+        ec.checkThat(resolver.findTargets("public", "/content/site/other").toString(),
+                is("[" + SETUP + "/publicRemote]"));
+        ec.checkThat(resolver.findTargets("preview", "/content/site/sub").toString(), is("[" + SETUP + "/preview]"));
+        ec.checkThat(resolver.findTargets("public", "/content/sitemap").toString(), is("[]"));
+        ec.checkThat(resolver.findTargets("unknown", "/content/site").toString(), is("[]"));
+        // the disabled configuration without source path replicates the site path
+        ec.checkThat(resolver.findConfigs("public", "/content/site/page").toString(),
+                is("[" + SETUP + "/publicRemote, " + SETUP + "/disabled]"));
+        ec.checkThat(resolver.getConfig(SETUP + "/publicRemote").getReplicationType(),
+                is(RemoteReplicationType.SERVICE_ID));
+        // only the setups of the looked up paths are read, not everything below /conf
+        ec.checkThat(resolver.setups.containsKey("/conf/other/replication"), is(false));
+        ec.checkThat(resolver.getConfig("/conf/other/replication/other").getSourcePath(), is("/content"));
+        ec.checkThat(resolver.findTargets("public", "/content/site/other").toString(),
+                is("[" + SETUP + "/publicRemote]"));
+    }
+
+    @Test
+    public void setupIndexes() {
+        ReplicationConfigResolver.Snapshot snapshot = resolver.getSetup(SETUP);
+        ec.checkThat(snapshot.getIndex(Index.stage).keySet().toString(), is("[preview, public]"));
+        ec.checkThat(snapshot.getIndex(Index.stage).get("public").toString(),
+                is("[" + SETUP + "/publicSub, " + SETUP + "/publicRemote, " + SETUP + "/disabled]"));
+        ec.checkThat(snapshot.getIndex(Index.path).keySet().toString(), is("[/content/site, /content/site/sub]"));
+        ec.checkThat(snapshot.getIndex(Index.type).size(), is(2));
+        // kept as long as nothing changes in the setup
+        resolver.onChange(Collections.singletonList(change(ResourceChange.ChangeType.CHANGED,
+                "/conf/other/replication/other")));
+        ec.checkThat(resolver.getSetup(SETUP), sameInstance(snapshot));
+    }
+
+    @Test
+    public void incrementalUpdates() throws Exception {
+        resolver.findTargets("public", "/content/site");
+        ReplicationConfigResolver.Snapshot snapshot = resolver.getSetup(SETUP);
+        ResourceResolver resourceResolver = context.resourceResolver();
+        resourceResolver.getResource(SETUP + "/preview").adaptTo(ModifiableValueMap.class)
+                .put(ReplicationConfig.PN_STAGE, "public");
+        resourceResolver.delete(resourceResolver.getResource(SETUP + "/publicSub"));
+        context.build().resource("/conf/content/replication/added", ReplicationConfig.PN_STAGE, "public",
+                ReplicationConfig.PN_IS_ENABLED, true, ReplicationConfig.PN_SOURCE_PATH, "/content")
+                .commit();
+        resourceResolver.commit();
+        resolver.onChange(Collections.singletonList(change(ResourceChange.ChangeType.CHANGED, SETUP + "/preview")));
+        resolver.onChange(Collections.singletonList(change(ResourceChange.ChangeType.REMOVED, SETUP + "/publicSub")));
+        resolver.onChange(Collections.singletonList(change(ResourceChange.ChangeType.ADDED,
+                "/conf/content/replication")));
+
+        ec.checkThat(resolver.findTargets("public", "/content/site/sub/page").toString(),
+                is("[/conf/content/replication/added, " + SETUP + "/publicRemote, " + SETUP + "/preview]"));
+        ec.checkThat(resolver.findTargets("preview", "/content/site").toString(), is("[]"));
+        ec.checkThat(resolver.getSetup(SETUP).getIndex(Index.stage).keySet().toString(), is("[public]"));
+        ec.checkThat(resolver.getSetup(SETUP) == snapshot, is(false));
+
+        resourceResolver.delete(resourceResolver.getResource("/conf/content/site"));
+        resourceResolver.commit();
+        resolver.onChange(Collections.singletonList(change(ResourceChange.ChangeType.REMOVED, "/conf/content/site")));
+        ec.checkThat(resolver.findTargets("public", "/content/site/sub/page").toString(),
+                is("[/conf/content/replication/added]"));
+        ec.checkThat(resolver.getConfig(SETUP + "/publicRemote"), nullValue());
+    }
+
+    @SuppressWarnings("deprecation")
+    protected ResourceChange change(ResourceChange.ChangeType type, String path) {
+        return new ResourceChange(type, path, false, null, null, null);
+    }
+
+}
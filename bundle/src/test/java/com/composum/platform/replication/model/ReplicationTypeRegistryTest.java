@@ -0,0 +1,59 @@
+package com.composum.platform.replication.model;
+
+import com.composum.platform.replication.remote.RemoteReplicationType;
+import com.composum.sling.platform.staging.replication.ReplicationType;
+import com.composum.sling.platform.staging.replication.inplace.InplaceReplicationType;
+import com.composum.sling.platform.testing.testutil.ErrorCollectorAlwaysPrintingFailures;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/** Tests for {@link ReplicationTypeRegistry}. */
+public class ReplicationTypeRegistryTest {
+
+    @Rule
+    public final ErrorCollectorAlwaysPrintingFailures ec = new ErrorCollectorAlwaysPrintingFailures();
+
+    @Test
+    public void builtinTypes() {
+        ReplicationTypeRegistry registry = new ReplicationTypeRegistry();
+        ec.checkThat(registry.getTypes().keySet().toString(), is("[remote, inplace]"));
+        ec.checkThat(registry.getType(InplaceReplicationType.SERVICE_ID),
+                sameInstance(registry.getType(InplaceReplicationType.SERVICE_ID)));
+        ec.checkThat(registry.getType("unknown"), nullValue());
+        ec.checkThat(ReplicationTypeRegistry.getBuiltinType("unknown"), sameInstance(RemoteReplicationType.INSTANCE));
+        ec.checkThat(ReplicationTypeRegistry.getBuiltinType(InplaceReplicationType.SERVICE_ID),
+                sameInstance(ReplicationTypeRegistry.INPLACE_TYPE));
+    }
+
+    @Test
+    public void whiteboard() {
+        ReplicationTypeRegistry registry = new ReplicationTypeRegistry();
+        ReplicationType fileDrop = type("filedrop");
+        ReplicationType remote = type(RemoteReplicationType.SERVICE_ID);
+        registry.addReplicationType(fileDrop);
+        registry.addReplicationType(remote);
+        ec.checkThat(registry.getTypes().keySet().toString(), is("[remote, inplace, filedrop]"));
+        ec.checkThat(registry.getType("filedrop"), sameInstance(fileDrop));
+        ec.checkThat(registry.getType(RemoteReplicationType.SERVICE_ID), sameInstance(remote));
+
+        registry.removeReplicationType(fileDrop);
+        registry.removeReplicationType(remote);
+        ec.checkThat(registry.getTypes().keySet().toString(), is("[remote, inplace]"));
+        ec.checkThat(registry.getType("filedrop"), nullValue());
+        ec.checkThat(registry.getType(RemoteReplicationType.SERVICE_ID),
+                sameInstance(RemoteReplicationType.INSTANCE));
+    }
+
+    protected ReplicationType type(String serviceId) {
+        ReplicationType type = mock(ReplicationType.class);
+        when(type.getServiceId()).thenReturn(serviceId);
+        return type;
+    }
+
+}
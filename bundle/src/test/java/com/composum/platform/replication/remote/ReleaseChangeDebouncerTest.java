@@ -0,0 +1,98 @@
+package com.composum.platform.replication.remote;
+
+import com.composum.sling.platform.testing.testutil.ErrorCollectorAlwaysPrintingFailures;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.Matchers.is;
+
+/** Tests for {@link ReleaseChangeDebouncer} with a simulated clock. */
+public class ReleaseChangeDebouncerTest {
+
+    @Rule
+    public final ErrorCollectorAlwaysPrintingFailures ec = new ErrorCollectorAlwaysPrintingFailures();
+
+    protected final AtomicLong clock = new AtomicLong(100000);
+
+    protected final ReleaseChangeDebouncer debouncer = new ReleaseChangeDebouncer(clock::get);
+
+    @Test
+    public void switchedOff() {
+        debouncer.triggered();
+        debouncer.triggered();
+        ec.checkThat(debouncer.startRun(0, 1000), is(0L));
+        ec.checkThat(debouncer.startRun(0, 1000), is(0L));
+    }
+
+    @Test
+    public void coalescesRuns() {
+        debouncer.triggered();
+        clock.addAndGet(10);
+        debouncer.triggered();
+        clock.addAndGet(10);
+        debouncer.triggered();
+        ec.checkThat(debouncer.startRun(50, 1000), is(50L));
+        ec.checkThat(debouncer.isDeferred(), is(true));
+        // the runs started by the other events are skipped, whether they come before or after the next event
+        ec.checkThat(debouncer.startRun(50, 1000), is(ReleaseChangeDebouncer.SKIP));
+        clock.addAndGet(20);
+        debouncer.triggered();
+        ec.checkThat(debouncer.startRun(50, 1000), is(ReleaseChangeDebouncer.SKIP));
+
+        // the deferred run is deferred again by the later event
+        clock.addAndGet(30);
+        debouncer.deferredRunDue();
+        ec.checkThat(debouncer.startRun(50, 1000), is(20L));
+        clock.addAndGet(20);
+        debouncer.deferredRunDue();
+        ec.checkThat(debouncer.startRun(50, 1000), is(0L));
+        ec.checkThat(debouncer.getPendingTriggers(), is(0));
+        ec.checkThat(debouncer.isDeferred(), is(false));
+    }
+
+    @Test
+    public void runWithoutEvent() {
+        // e.g. a repetition: nothing to wait for
+        ec.checkThat(debouncer.startRun(50, 1000), is(0L));
+    }
+
+    @Test
+    public void maximumDelay() {
+        debouncer.triggered();
+        ec.checkThat(debouncer.startRun(100, 200), is(100L));
+        // an editor keeps activating pages every 20 ms
+        triggerEvery20Millis(4);
+        clock.addAndGet(20);
+        debouncer.deferredRunDue();
+        ec.checkThat(debouncer.startRun(100, 200), is(80L));
+        triggerEvery20Millis(4);
+        debouncer.deferredRunDue();
+        // 180 ms after the first event: the window would end 100 ms after the last event, but the maximum is due
+        ec.checkThat(debouncer.startRun(100, 200), is(20L));
+        clock.addAndGet(20);
+        debouncer.deferredRunDue();
+        ec.checkThat(debouncer.startRun(100, 200), is(0L));
+    }
+
+    @Test
+    public void deferredForOtherReason() {
+        ec.checkThat(debouncer.startRun(50, 1000), is(0L));
+        // e.g. the target is unhealthy
+        debouncer.defer();
+        debouncer.triggered();
+        ec.checkThat(debouncer.startRun(50, 1000), is(ReleaseChangeDebouncer.SKIP));
+        clock.addAndGet(100);
+        debouncer.deferredRunDue();
+        ec.checkThat(debouncer.startRun(50, 1000), is(0L));
+    }
+
+    protected void triggerEvery20Millis(int count) {
+        for (int i = 0; i < count; ++i) {
+            clock.addAndGet(20);
+            debouncer.triggered();
+        }
+    }
+
+}
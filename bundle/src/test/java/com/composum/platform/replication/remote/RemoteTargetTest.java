@@ -0,0 +1,101 @@
+package com.composum.platform.replication.remote;
+
+import com.composum.platform.replication.remotereceiver.RemotePublicationConfig;
+import com.composum.sling.platform.testing.testutil.ErrorCollectorAlwaysPrintingFailures;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/** Tests for the shared authenticated context of {@link RemoteTarget} with a simulated clock. */
+public class RemoteTargetTest {
+
+    @Rule
+    public final ErrorCollectorAlwaysPrintingFailures ec = new ErrorCollectorAlwaysPrintingFailures();
+
+    protected ReplicationExecutors executors;
+
+    protected RemoteTarget target;
+
+    protected final AtomicLong clock = new AtomicLong(100000);
+
+    protected final AtomicInteger initializations = new AtomicInteger();
+
+    protected final RemoteTarget.HttpClientContextInitializer initializer =
+            (context) -> initializations.incrementAndGet();
+
+    @Before
+    public void setup() {
+        executors = new ReplicationExecutors();
+        target = new RemoteTarget("/conf/site/replication/publish", executors, clock::get);
+    }
+
+    @After
+    public void teardown() {
+        target.close();
+        executors.shutdown();
+    }
+
+    @Test
+    public void contextIsShared() throws Exception {
+        HttpClientContext first = target.getHttpClientContext(60000, initializer);
+        HttpClientContext second = target.getHttpClientContext(60000, initializer);
+        ec.checkThat(initializations.get(), is(1));
+        ec.checkThat(target.getStatistics().getContextCreations(), is(1L));
+        // each process gets its own child, but cookies and auth cache are shared
+        ec.checkThat(first, not(sameInstance(second)));
+        ec.checkThat(first.getCookieStore(), notNullValue());
+        ec.checkThat(first.getCookieStore(), sameInstance(second.getCookieStore()));
+        ec.checkThat(first.getAuthCache(), sameInstance(second.getAuthCache()));
+    }
+
+    @Test
+    public void contextExpires() throws Exception {
+        target.getHttpClientContext(1000, initializer);
+        clock.addAndGet(999);
+        target.getHttpClientContext(1000, initializer);
+        ec.checkThat(initializations.get(), is(1));
+        clock.addAndGet(1);
+        target.getHttpClientContext(1000, initializer);
+        ec.checkThat(initializations.get(), is(2));
+    }
+
+    @Test
+    public void contextInvalidated() throws Exception {
+        target.configure(config("cred1"));
+        HttpClientContext first = target.getHttpClientContext(60000, initializer);
+        target.invalidateHttpClientContext();
+        HttpClientContext second = target.getHttpClientContext(60000, initializer);
+        ec.checkThat(initializations.get(), is(2));
+        ec.checkThat(first.getCookieStore(), not(sameInstance(second.getCookieStore())));
+
+        // the same configuration again keeps the context, changed credentials discard it
+        target.configure(config("cred1"));
+        target.getHttpClientContext(60000, initializer);
+        ec.checkThat(initializations.get(), is(2));
+        target.configure(config("cred2"));
+        target.getHttpClientContext(60000, initializer);
+        ec.checkThat(initializations.get(), is(3));
+    }
+
+    protected RemotePublicationConfig config(String credentialId) {
+        RemotePublicationConfig config = mock(RemotePublicationConfig.class);
+        when(config.getTargetUrl()).thenReturn(URI.create("https://publisher.example.com/bin/receiver"));
+        when(config.getCredentialId()).thenReturn(credentialId);
+        when(config.getTransport()).thenReturn(RemotePublicationConfig.TRANSPORT_HTTP1);
+        return config;
+    }
+
+}
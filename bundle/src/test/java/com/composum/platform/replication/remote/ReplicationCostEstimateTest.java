@@ -0,0 +1,60 @@
+package com.composum.platform.replication.remote;
+
+import com.composum.sling.platform.testing.testutil.ErrorCollectorAlwaysPrintingFailures;
+import org.apache.sling.api.resource.ModifiableValueMap;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.testing.mock.sling.ResourceResolverType;
+import org.apache.sling.testing.mock.sling.junit.SlingContext;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.nullValue;
+
+/** Tests for {@link ReplicationCostEstimate}. */
+public class ReplicationCostEstimateTest {
+
+    @Rule
+    public final SlingContext context = new SlingContext(ResourceResolverType.JCR_OAK);
+
+    @Rule
+    public final ErrorCollectorAlwaysPrintingFailures ec = new ErrorCollectorAlwaysPrintingFailures();
+
+    @Test
+    public void estimatesFromContent() throws Exception {
+        context.build().resource("/content/site/page/jcr:content",
+                "jcr:primaryType", "nt:unstructured", "title", "Title")
+                .resource("/content/site/page/jcr:content/main", "jcr:primaryType", "nt:unstructured",
+                        "text", "Some text")
+                .resource("/content/site/other/jcr:content", "jcr:primaryType", "nt:unstructured")
+                .commit();
+        Resource page = context.resourceResolver().getResource("/content/site/page/jcr:content");
+        Resource other = context.resourceResolver().getResource("/content/site/other/jcr:content");
+        page.getChild("main").adaptTo(ModifiableValueMap.class).put("data",
+                new ByteArrayInputStream(new byte[100000]));
+        context.resourceResolver().commit();
+
+        ReplicationCostEstimate estimate = new ReplicationCostEstimate();
+        estimate.addVersionable(page, false);
+        estimate.addVersionable(other, true);
+        estimate.setDeletedPaths(3);
+
+        ec.checkThat(estimate.getChangedVersionables(), is(2));
+        ec.checkThat(estimate.getRestorableVersionables(), is(1));
+        ec.checkThat(estimate.toMap().get("binaryBytes"), is(100000L));
+        ec.checkThat(estimate.toMap().get("nodes"), is(2L));
+        ec.checkThat(estimate.getEstimatedBytes(), greaterThan(100000L));
+        ec.checkThat(estimate.getEstimatedBytes(), lessThan(101000L));
+        ec.checkThat(estimate.isCompleted(), is(false));
+
+        // no throughput observed yet
+        ec.checkThat(estimate.getProjectedMillis(), nullValue());
+        estimate.setTimes(500, estimate.getEstimatedBytes() / 2.0);
+        ec.checkThat(estimate.getProjectedMillis(), is(2500L));
+    }
+
+}
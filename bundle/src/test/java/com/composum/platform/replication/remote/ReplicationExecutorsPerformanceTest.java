@@ -0,0 +1,106 @@
+package com.composum.platform.replication.remote;
+
+import com.composum.sling.platform.testing.testutil.ErrorCollectorAlwaysPrintingFailures;
+import org.junit.Rule;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+/**
+ * Compares the throughput of the execution modes of {@link ReplicationExecutors} for many targets: each simulated
+ * replication process creates its packages one after another and hands them to the workers for a transmission with
+ * a blocking wait for the network. The virtual mode needs Java 21+, otherwise it falls back to the platform mode.
+ * Set with the system properties executors.targets, executors.uploads (per target), executors.latency (ms of a
+ * transmission) and executors.platformThreads. Not part of the regular build since it takes long; it runs with the
+ * Maven profile 'performance', e.g. {@code mvn test -Pperformance -Dexecutors.targets=100}.
+ */
+public class ReplicationExecutorsPerformanceTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ReplicationExecutorsPerformanceTest.class);
+
+    @Rule
+    public final ErrorCollectorAlwaysPrintingFailures ec = new ErrorCollectorAlwaysPrintingFailures();
+
+    protected final int targets = Integer.getInteger("executors.targets", 60);
+    protected final int uploads = Integer.getInteger("executors.uploads", 50);
+    protected final long latency = Long.getLong("executors.latency", 50);
+    protected final int platformThreads = Integer.getInteger("executors.platformThreads", 16);
+
+    @Test
+    public void compareModes() throws Exception {
+        LOG.info("Virtual threads supported: {}", ReplicationExecutors.isVirtualThreadsSupported());
+        run(ReplicationExecutors.MODE_PLATFORM); // warmup
+        run(ReplicationExecutors.MODE_VIRTUAL);
+        long platformMillis = run(ReplicationExecutors.MODE_PLATFORM);
+        long virtualMillis = run(ReplicationExecutors.MODE_VIRTUAL);
+        // the platform workers can't transmit more than one package per thread at a time
+        long minimumPlatformMillis = (long) targets * uploads * latency / platformThreads;
+        ec.checkThat(platformMillis, greaterThanOrEqualTo(minimumPlatformMillis));
+        if (ReplicationExecutors.isVirtualThreadsSupported() && targets * uploads > 2 * platformThreads) {
+            // a virtual thread per transmission doesn't wait for a free worker
+            ec.checkThat(virtualMillis, lessThan(platformMillis));
+        }
+    }
+
+    /** @return the time all processes took in milliseconds */
+    protected long run(String mode) throws Exception {
+        ReplicationExecutors executors = new ReplicationExecutors();
+        executors.configure(mode, platformThreads);
+        ExecutorService workers = executors.getWorkers();
+        // the processes themselves run in a pool of the release change publisher - simulated by one thread each
+        ExecutorService processes = ReplicationExecutors.newPlatformThreadExecutor(targets);
+        AtomicInteger transmitted = new AtomicInteger();
+        try {
+            long start = System.nanoTime();
+            List<Future<?>> processResults = new ArrayList<>();
+            for (int t = 0; t < targets; ++t) {
+                processResults.add(processes.submit(() -> {
+                    List<Future<?>> pending = new ArrayList<>();
+                    for (int u = 0; u < uploads; ++u) {
+                        createPackage();
+                        pending.add(workers.submit(() -> {
+                            Thread.sleep(latency); // transmission: blocked by the network
+                            return transmitted.incrementAndGet();
+                        }));
+                    }
+                    for (Future<?> upload : pending) { // the commit waits for all uploads
+                        upload.get();
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> processResult : processResults) {
+                processResult.get(10, TimeUnit.MINUTES);
+            }
+            long millis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            LOG.info("{} (effective {}): {} targets x {} uploads in {} ms = {} uploads/s", mode,
+                    executors.getMode(), targets, uploads, millis, targets * uploads * 1000L / millis);
+            ec.checkThat(transmitted.get(), is(targets * uploads));
+            return millis;
+        } finally {
+            processes.shutdown();
+            executors.shutdown();
+        }
+    }
+
+    /** Some CPU work standing in for reading the JCR and writing the zip. */
+    protected static long createPackage() {
+        long hash = 0;
+        for (int i = 0; i < 20000; ++i) {
+            hash = hash * 31 + i;
+        }
+        return hash;
+    }
+
+}
@@ -0,0 +1,63 @@
+package com.composum.platform.replication.remote;
+
+import com.composum.sling.platform.testing.testutil.ErrorCollectorAlwaysPrintingFailures;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.is;
+
+/** Tests for {@link ReplicationExecutors}. */
+public class ReplicationExecutorsTest {
+
+    @Rule
+    public final ErrorCollectorAlwaysPrintingFailures ec = new ErrorCollectorAlwaysPrintingFailures();
+
+    protected ReplicationExecutors executors;
+
+    @Before
+    public void setup() {
+        executors = new ReplicationExecutors();
+    }
+
+    @After
+    public void teardown() {
+        executors.shutdown();
+    }
+
+    @Test
+    public void platformWorkersRunInParallel() throws Exception {
+        executors.configure(ReplicationExecutors.MODE_PLATFORM, 4);
+        ec.checkThat(executors.getMode(), is(ReplicationExecutors.MODE_PLATFORM));
+        checkParallel(4);
+    }
+
+    @Test
+    public void virtualModeIfSupported() throws Exception {
+        executors.configure(ReplicationExecutors.MODE_VIRTUAL, 2);
+        ec.checkThat(executors.getMode(), is(ReplicationExecutors.isVirtualThreadsSupported()
+                ? ReplicationExecutors.MODE_VIRTUAL : ReplicationExecutors.MODE_PLATFORM));
+        checkParallel(2);
+    }
+
+    /** Checks that the given number of blocking tasks - e.g. uploads waiting for the network - run at once. */
+    protected void checkParallel(int parties) throws Exception {
+        CyclicBarrier barrier = new CyclicBarrier(parties);
+        List<Future<Integer>> results = new ArrayList<>();
+        for (int i = 0; i < parties; ++i) {
+            results.add(executors.getWorkers().submit(() -> barrier.await(10, TimeUnit.SECONDS)));
+        }
+        for (Future<Integer> result : results) {
+            result.get(20, TimeUnit.SECONDS); // fails with a timeout if the tasks don't run in parallel
+        }
+        ec.checkThat(barrier.isBroken(), is(false));
+    }
+
+}
@@ -0,0 +1,109 @@
+package com.composum.platform.replication.remote;
+
+import com.composum.platform.replication.remote.ReplicationLanes.Lane;
+import com.composum.sling.platform.testing.testutil.ErrorCollectorAlwaysPrintingFailures;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.is;
+
+/** Tests for {@link ReplicationLanes}. */
+public class ReplicationLanesTest {
+
+    @Rule
+    public final ErrorCollectorAlwaysPrintingFailures ec = new ErrorCollectorAlwaysPrintingFailures();
+
+    @Test
+    public void separateBudgets() throws Exception {
+        ReplicationLanes lanes = new ReplicationLanes();
+        lanes.configure(1, 1);
+        lanes.acquire(Lane.bulk);
+        // a running bulk request doesn't keep an urgent request waiting
+        lanes.acquire(Lane.urgent);
+        ec.checkThat(lanes.getActive(Lane.bulk), is(1));
+        ec.checkThat(lanes.getActive(Lane.urgent), is(1));
+        lanes.release(Lane.bulk);
+        lanes.release(Lane.urgent);
+        ec.checkThat(lanes.getActive(Lane.bulk), is(0));
+    }
+
+    @Test
+    public void bulkGivesWayToUrgent() throws Exception {
+        ReplicationLanes lanes = new ReplicationLanes();
+        lanes.configure(1, 2);
+        lanes.acquire(Lane.urgent);
+        Thread urgent = new Thread(() -> acquire(lanes, Lane.urgent));
+        urgent.start();
+        awaitWaiting(lanes, Lane.urgent);
+        Thread bulk = new Thread(() -> acquire(lanes, Lane.bulk));
+        bulk.start();
+        awaitWaiting(lanes, Lane.bulk);
+        // the bulk lane has budget left, but waits since an urgent request is waiting
+        ec.checkThat(lanes.getActive(Lane.bulk), is(0));
+
+        // the waiting urgent request goes first, and the bulk request waits while it runs
+        lanes.release(Lane.urgent);
+        urgent.join(5000);
+        ec.checkThat(lanes.getActive(Lane.urgent), is(1));
+        ec.checkThat(lanes.getWaiting(Lane.bulk), is(1));
+        ec.checkThat(lanes.getActive(Lane.bulk), is(0));
+
+        lanes.release(Lane.urgent);
+        bulk.join(5000);
+        ec.checkThat(lanes.getActive(Lane.bulk), is(1));
+        ec.checkThat(lanes.getWaiting(Lane.bulk), is(0));
+    }
+
+    @Test
+    public void bulkWaitsWhileUrgentRuns() throws Exception {
+        ReplicationLanes lanes = new ReplicationLanes();
+        lanes.configure(4, 2);
+        lanes.acquire(Lane.bulk);
+        lanes.acquire(Lane.urgent);
+        Thread bulk = new Thread(() -> acquire(lanes, Lane.bulk));
+        bulk.start();
+        awaitWaiting(lanes, Lane.bulk);
+        // a running urgent request has priority over a new bulk request, running bulk requests continue
+        ec.checkThat(lanes.getActive(Lane.bulk), is(1));
+
+        lanes.release(Lane.urgent);
+        bulk.join(5000);
+        ec.checkThat(lanes.getActive(Lane.bulk), is(2));
+        ec.checkThat(lanes.getWaiting(Lane.bulk), is(0));
+    }
+
+    @Test
+    public void bulkDoesNotStarve() throws Exception {
+        ReplicationLanes lanes = new ReplicationLanes();
+        lanes.configure(1, 2, 100);
+        lanes.acquire(Lane.urgent);
+        Thread urgent = new Thread(() -> acquire(lanes, Lane.urgent));
+        urgent.start();
+        awaitWaiting(lanes, Lane.urgent);
+        // urgent requests are pending all the time, but the bulk request starts after the maximum wait
+        long start = System.nanoTime();
+        lanes.acquire(Lane.bulk);
+        ec.checkThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 90, is(true));
+        ec.checkThat(lanes.getActive(Lane.bulk), is(1));
+        lanes.release(Lane.urgent);
+        urgent.join(5000);
+    }
+
+    protected void acquire(ReplicationLanes lanes, Lane lane) {
+        try {
+            lanes.acquire(lane);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    protected void awaitWaiting(ReplicationLanes lanes, Lane lane) throws InterruptedException {
+        for (int i = 0; i < 500 && lanes.getWaiting(lane) == 0; ++i) {
+            Thread.sleep(10);
+        }
+        ec.checkThat(lanes.getWaiting(lane), is(1));
+    }
+
+}
@@ -0,0 +1,80 @@
+package com.composum.platform.replication.remote;
+
+import com.composum.platform.replication.remote.ReplicationProgress.Phase;
+import com.composum.sling.platform.testing.testutil.ErrorCollectorAlwaysPrintingFailures;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+
+/** Tests for {@link ReplicationProgress}. */
+public class ReplicationProgressTest {
+
+    @Rule
+    public final ErrorCollectorAlwaysPrintingFailures ec = new ErrorCollectorAlwaysPrintingFailures();
+
+    @Test
+    public void runLifecycle() {
+        ReplicationProgress progress = new ReplicationProgress();
+        ec.checkThat(progress.getPhase(), is(Phase.idle));
+        progress.startRun();
+        ec.checkThat(progress.getPhase(), is(Phase.starting));
+        progress.setPhase(Phase.comparing);
+        progress.addPathsTotal(3);
+        progress.setPhase(Phase.uploading);
+        progress.countPath();
+        progress.countPath();
+        progress.countBytes(50000);
+        ec.checkThat(progress.getPathsDone(), is(2L));
+        ec.checkThat(progress.getPathsTotal(), is(3L));
+        ec.checkThat(progress.getBytesPerSecond(), greaterThan(0L));
+        progress.endRun(1200, true);
+        ec.checkThat(progress.getPhase(), is(Phase.idle));
+        ec.checkThat(progress.getActiveRuns(), is(0));
+        ec.checkThat(progress.getRuns(), is(1L));
+
+        // the counts of the last run are kept until the next run starts
+        ec.checkThat(progress.getPathsDone(), is(2L));
+        progress.startRun();
+        ec.checkThat(progress.getPathsDone(), is(0L));
+        ec.checkThat(progress.getPathsTotal(), is(0L));
+    }
+
+    @Test
+    public void overlappingRunsAddUp() {
+        ReplicationProgress progress = new ReplicationProgress();
+        progress.startRun();
+        progress.addPathsTotal(100);
+        progress.countPath();
+        progress.startRun();
+        progress.addPathsTotal(1);
+        ec.checkThat(progress.getActiveRuns(), is(2));
+        ec.checkThat(progress.getPathsTotal(), is(101L));
+        ec.checkThat(progress.getPathsDone(), is(1L));
+        progress.endRun(10, true);
+        ec.checkThat(progress.getPhase(), is(Phase.starting));
+        progress.endRun(20, false);
+        ec.checkThat(progress.getPhase(), is(Phase.idle));
+        ec.checkThat(progress.getFailedRuns(), is(1L));
+    }
+
+    @Test
+    public void lastRunsLatestFirst() {
+        ReplicationProgress progress = new ReplicationProgress();
+        for (int i = 1; i <= ReplicationProgress.LAST_RUNS + 3; ++i) {
+            progress.startRun();
+            progress.endRun(i, i % 2 == 0);
+        }
+        List<Map<String, Object>> lastRuns = progress.getLastRuns();
+        ec.checkThat(lastRuns.size(), is(ReplicationProgress.LAST_RUNS));
+        ec.checkThat(lastRuns.get(0).get("millis"), is((Object) (long) (ReplicationProgress.LAST_RUNS + 3)));
+        ec.checkThat(lastRuns.get(0).get("success"), is((Object) false));
+        ec.checkThat(lastRuns.get(ReplicationProgress.LAST_RUNS - 1).get("millis"), is((Object) 4L));
+        ec.checkThat(progress.getRuns(), is((long) ReplicationProgress.LAST_RUNS + 3));
+    }
+
+}
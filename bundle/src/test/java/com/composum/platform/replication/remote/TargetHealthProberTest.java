@@ -0,0 +1,92 @@
+package com.composum.platform.replication.remote;
+
+import com.composum.platform.replication.remotereceiver.LoopbackReceiver;
+import com.composum.sling.platform.testing.testutil.ErrorCollectorAlwaysPrintingFailures;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.sling.testing.mock.sling.ResourceResolverType;
+import org.apache.sling.testing.mock.sling.junit.SlingContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.net.ServerSocket;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+
+/** Tests for {@link TargetHealthProber} and {@link TargetHealth}. */
+public class TargetHealthProberTest {
+
+    @Rule
+    public final SlingContext context = new SlingContext(ResourceResolverType.RESOURCERESOLVER_MOCK);
+
+    @Rule
+    public final ErrorCollectorAlwaysPrintingFailures ec = new ErrorCollectorAlwaysPrintingFailures();
+
+    protected ReplicationExecutors executors;
+
+    protected RemoteTarget target;
+
+    @Before
+    public void setup() {
+        executors = new ReplicationExecutors();
+        target = new RemoteTarget("/conf/site/replication/publish", executors);
+        target.getHealth().configure(2);
+    }
+
+    @After
+    public void teardown() {
+        target.close();
+        executors.shutdown();
+    }
+
+    @Test
+    public void reachableTarget() throws Exception {
+        try (LoopbackReceiver receiver = new LoopbackReceiver(context).start(1)) {
+            TargetHealthProber.probe(target, receiver.getTargetUrl(), HttpClientContext.create());
+        }
+        ec.checkThat(target.getHealth().isHealthy(), is(true));
+        ec.checkThat(target.getHealth().getLastRoundTripMillis(), greaterThanOrEqualTo(0L));
+        ec.checkThat(target.getHealth().getConsecutiveFailures(), is(0));
+    }
+
+    @Test
+    public void unreachableTargetBecomesUnhealthy() throws Exception {
+        URI closedPort;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            closedPort = URI.create("http://localhost:" + socket.getLocalPort() + "/bin/receiver");
+        }
+        TargetHealthProber.probe(target, closedPort, HttpClientContext.create());
+        ec.checkThat(target.getHealth().isHealthy(), is(true)); // below the threshold
+        TargetHealthProber.probe(target, closedPort, HttpClientContext.create());
+        ec.checkThat(target.getHealth().isHealthy(), is(false));
+        ec.checkThat(target.getHealth().getLastError(), notNullValue());
+
+        target.getHealth().recordSuccess(5);
+        ec.checkThat(target.getHealth().isHealthy(), is(true));
+    }
+
+    @Test
+    public void roundsRunOnTheWorkers() {
+        List<Runnable> queued = new ArrayList<>();
+        AtomicInteger rounds = new AtomicInteger();
+        try (TargetHealthProber prober = new TargetHealthProber()) {
+            prober.startRound(queued::add, rounds::incrementAndGet);
+            ec.checkThat(rounds.get(), is(0));
+            // a round isn't started again while the last one waits or runs
+            prober.startRound(queued::add, rounds::incrementAndGet);
+            ec.checkThat(queued.size(), is(1));
+            queued.remove(0).run();
+            ec.checkThat(rounds.get(), is(1));
+            prober.startRound(queued::add, rounds::incrementAndGet);
+            ec.checkThat(queued.size(), is(1));
+        }
+    }
+
+}
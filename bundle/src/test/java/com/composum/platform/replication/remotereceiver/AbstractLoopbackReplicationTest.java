@@ -0,0 +1,224 @@
+package com.composum.platform.replication.remotereceiver;
+
+import com.composum.platform.commons.credentials.CredentialService;
+import com.composum.platform.commons.proxy.ProxyManagerService;
+import com.composum.platform.replication.remote.RemotePublisherService;
+import com.composum.platform.replication.remote.RemoteReplicationType;
+import com.composum.platform.replication.remote.RemoteTarget;
+import com.composum.platform.replication.remote.ReplicationExecutors;
+import com.composum.sling.core.BeanContext;
+import com.composum.sling.core.servlet.Status;
+import com.composum.sling.core.util.ResourceUtil;
+import com.composum.sling.nodes.NodesConfiguration;
+import com.composum.sling.platform.staging.replication.ReplicationConfig;
+import com.composum.sling.platform.staging.replication.ReplicationPaths;
+import com.composum.sling.platform.staging.replication.StatusWithReleaseData;
+import com.composum.sling.platform.staging.replication.UpdateInfo;
+import com.composum.sling.platform.testing.testutil.AnnotationWithDefaults;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.jackrabbit.commons.cnd.CndImporter;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.resourcebuilder.api.ResourceBuilder;
+import org.apache.sling.testing.mock.sling.ResourceResolverType;
+import org.apache.sling.testing.mock.sling.junit.SlingContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.jcr.Session;
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static com.composum.sling.core.util.CoreConstants.TYPE_VERSIONABLE;
+import static com.composum.sling.platform.staging.StagingConstants.TYPE_MIX_RELEASE_ROOT;
+import static com.composum.sling.platform.testing.testutil.JcrTestUtils.array;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Base for the tests replicating synthetic releases from an author repository through the
+ * {@link RemotePublicationReceiverFacade} over HTTP to a {@link LoopbackReceiver} in the same JVM. The shape of the
+ * release is set with system properties: loopback.pages (number of pages), loopback.depth (nesting of the pages),
+ * loopback.binaries (files per page), loopback.binarySize (bytes per file), loopback.threads (parallel requests on
+ * the receiver); subclasses can set smaller defaults.
+ */
+public abstract class AbstractLoopbackReplicationTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AbstractLoopbackReplicationTest.class);
+
+    protected static final String RELEASE_ROOT = "/content/loopback/site";
+
+    protected static final String CONFIG_PATH = "/conf/loopback/site/replication/loopback";
+
+    @Rule
+    public final SlingContext author = new SlingContext(ResourceResolverType.JCR_OAK);
+
+    @Rule
+    public final SlingContext publisher = new SlingContext(ResourceResolverType.JCR_OAK);
+
+    protected int pages = Integer.getInteger("loopback.pages", 200);
+    protected int depth = Integer.getInteger("loopback.depth", 3);
+    protected int binaries = Integer.getInteger("loopback.binaries", 1);
+    protected int binarySize = Integer.getInteger("loopback.binarySize", 64 * 1024);
+    protected int threads = Integer.getInteger("loopback.threads", 1);
+
+    protected LoopbackReceiver receiver;
+
+    protected ReplicationExecutors executors;
+
+    protected CloseableHttpClient httpClient;
+
+    protected ProxyManagerService proxyManager = mock(ProxyManagerService.class);
+
+    protected RemotePublisherService.Configuration generalConfig =
+            AnnotationWithDefaults.of(RemotePublisherService.Configuration.class);
+
+    @Before
+    public void setup() throws Exception {
+        registerNodeTypes(author);
+        registerNodeTypes(publisher);
+        receiver = new LoopbackReceiver(publisher).start(threads);
+        executors = new ReplicationExecutors();
+        executors.configure(ReplicationExecutors.MODE_PLATFORM, 4);
+        httpClient = createHttpClient();
+    }
+
+    @Nonnull
+    protected CloseableHttpClient createHttpClient() {
+        return HttpClients.createDefault();
+    }
+
+    @After
+    public void teardown() throws Exception {
+        httpClient.close();
+        receiver.close();
+        executors.shutdown();
+    }
+
+    /**
+     * Replicates the versionables with a new facade, like one run of a replication process.
+     *
+     * @return the duration in milliseconds
+     */
+    protected long replicate(@Nonnull RemotePublicationConfig config, @Nonnull RemoteTarget target,
+                             @Nonnull List<Resource> versionables, @Nonnull String releaseChangeNumber)
+            throws Exception {
+        TimingStatistics uploadTimes = new TimingStatistics();
+        RemotePublicationReceiverFacade facade = new RemotePublicationReceiverFacade(config,
+                new BeanContext.Service(author.resourceResolver()), httpClient, () -> generalConfig,
+                mock(NodesConfiguration.class), proxyManager, mock(CredentialService.class), target);
+        long start = System.nanoTime();
+
+        ReplicationPaths replicationPaths = new ReplicationPaths(RELEASE_ROOT, RELEASE_ROOT, null, RELEASE_ROOT);
+        StatusWithReleaseData startStatus = facade.startUpdate(replicationPaths);
+        UpdateInfo updateInfo = startStatus.updateInfo;
+        for (Resource versionable : versionables) {
+            long uploadStart = System.nanoTime();
+            Status status = facade.pathupload(updateInfo, versionable);
+            uploadTimes.record(System.nanoTime() - uploadStart);
+            assertThat(status.getStatus() + " " + versionable.getPath(), status.isValid(), is(true));
+        }
+        Status commitStatus = facade.commitUpdate(updateInfo, releaseChangeNumber, Collections.emptySet(),
+                Stream::empty, () -> {});
+        assertThat(String.valueOf(commitStatus.getStatus()), commitStatus.isValid(), is(true));
+
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        LOG.info("{}: {} versionables in {} ms = {} versionables/s, {} KB/s; upload latency avg {} ms, max {} ms",
+                releaseChangeNumber, versionables.size(), millis, versionables.size() * 1000L / Math.max(1, millis),
+                Math.round(target.getStatistics().getThroughput() / 1024), uploadTimes.getAverageMillis(),
+                uploadTimes.getMaxMillis());
+        return millis;
+    }
+
+    /**
+     * Creates the pages: a tree of the configured depth with versionable jcr:content nodes, each with some
+     * properties and the configured binaries.
+     *
+     * @return the versionables
+     */
+    @Nonnull
+    protected List<Resource> createRelease(@Nonnull ResourceResolver resolver) throws Exception {
+        ResourceBuilder root = author.build().resource(RELEASE_ROOT, ResourceUtil.PROP_MIXINTYPES,
+                array(TYPE_MIX_RELEASE_ROOT)).commit();
+        Random random = new Random(4711);
+        byte[] data = new byte[binarySize];
+        List<String> paths = new ArrayList<>();
+        int fanOut = Math.max(2, (int) Math.ceil(Math.pow(pages, 1.0 / Math.max(1, depth))));
+        for (int page = 0; page < pages; ++page) {
+            StringBuilder path = new StringBuilder();
+            for (int level = depth - 1, rest = page; level >= 0; --level) {
+                path.append("/p").append((int) (rest / Math.pow(fanOut, level)) % fanOut);
+            }
+            path.append("-").append(page).append("/jcr:content");
+            ResourceBuilder content = root.resource(path.substring(1),
+                    ResourceUtil.PROP_MIXINTYPES, new String[]{TYPE_VERSIONABLE},
+                    ResourceUtil.JCR_TITLE, "Page " + page, "text", "Some text of page " + page);
+            for (int binary = 0; binary < binaries; ++binary) {
+                random.nextBytes(data);
+                content.file("file" + binary + ".bin", new ByteArrayInputStream(data));
+            }
+            paths.add(RELEASE_ROOT + path);
+            if (page % 50 == 0) {
+                root.commit();
+            }
+        }
+        root.commit();
+        List<Resource> result = new ArrayList<>();
+        for (String path : paths) {
+            result.add(resolver.getResource(path));
+        }
+        return result;
+    }
+
+    /**
+     * Creates the replication configuration for the URL.
+     *
+     * @param properties additional properties of the configuration as name, value, name, value, ...
+     */
+    @Nonnull
+    protected RemotePublicationConfig createConfig(@Nonnull ResourceResolver resolver, @Nonnull URI targetUrl,
+                                                   Object... properties) {
+        List<Object> values = new ArrayList<>(Arrays.asList(
+                ReplicationConfig.PN_STAGE, "public", ReplicationConfig.PN_IS_ENABLED, true,
+                ReplicationConfig.PN_SOURCE_PATH, RELEASE_ROOT,
+                ReplicationConfig.PN_REPLICATION_TYPE, RemoteReplicationType.SERVICE_ID,
+                RemotePublicationConfig.PROP_URL, targetUrl.toString()));
+        values.addAll(Arrays.asList(properties));
+        author.build().resource(CONFIG_PATH, values.toArray()).commit();
+        return new BeanContext.Service(resolver).withResource(resolver.getResource(CONFIG_PATH))
+                .adaptTo(RemotePublicationConfig.class);
+    }
+
+    /** Checks that all versionables arrived at the publisher with their properties. */
+    protected void checkReplicated(@Nonnull List<Resource> versionables) {
+        ResourceResolver publisherResolver = publisher.resourceResolver();
+        publisherResolver.refresh();
+        for (Resource versionable : versionables) {
+            Resource replicated = publisherResolver.getResource(versionable.getPath());
+            assertThat(versionable.getPath(), replicated, notNullValue());
+            assertThat(versionable.getPath(), replicated.getValueMap().get(ResourceUtil.JCR_TITLE, String.class),
+                    is(versionable.getValueMap().get(ResourceUtil.JCR_TITLE, String.class)));
+        }
+    }
+
+    protected void registerNodeTypes(@Nonnull SlingContext context) throws Exception {
+        InputStreamReader cndReader = new InputStreamReader(getClass().getResourceAsStream("/stagingNodetypes.cnd"));
+        CndImporter.registerNodeTypes(cndReader, context.resourceResolver().adaptTo(Session.class));
+    }
+
+}
@@ -0,0 +1,57 @@
+package com.composum.platform.replication.remotereceiver;
+
+import com.composum.sling.platform.testing.testutil.ErrorCollectorAlwaysPrintingFailures;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.fail;
+
+/** Tests for {@link AdmissionControl}. */
+public class AdmissionControlTest {
+
+    @Rule
+    public final ErrorCollectorAlwaysPrintingFailures ec = new ErrorCollectorAlwaysPrintingFailures();
+
+    @Test
+    public void unlimitedIfNotConfigured() throws Exception {
+        AdmissionControl control = new AdmissionControl();
+        try (AdmissionControl.Ticket t1 = control.admit("pathUpload", 0);
+             AdmissionControl.Ticket t2 = control.admit("pathUpload", 0)) {
+            ec.checkThat(control.getActive("pathUpload"), is(0));
+        }
+    }
+
+    @Test
+    public void rejectsWhenFull() throws Exception {
+        AdmissionControl control = new AdmissionControl();
+        control.configure("pathUpload", 1, 0);
+        try (AdmissionControl.Ticket ticket = control.admit("pathUpload", 0)) {
+            ec.checkThat(control.getActive("pathUpload"), is(1));
+            try {
+                control.admit("pathUpload", 10);
+                fail("Rejection expected");
+            } catch (AdmissionControl.AdmissionRejectedException e) {
+                ec.checkThat(e.getStatusCode(), is(AdmissionControl.SC_TOO_MANY_REQUESTS));
+            }
+        }
+        ec.checkThat(control.getActive("pathUpload"), is(0));
+        control.admit("pathUpload", 0).close();
+    }
+
+    @Test
+    public void timeoutInQueue() throws Exception {
+        AdmissionControl control = new AdmissionControl();
+        control.configure("contentState", 1, 1);
+        try (AdmissionControl.Ticket ticket = control.admit("contentState", 0)) {
+            try {
+                control.admit("contentState", 10);
+                fail("Rejection expected");
+            } catch (AdmissionControl.AdmissionRejectedException e) {
+                ec.checkThat(e.getStatusCode(), is(503));
+            }
+            ec.checkThat(control.getWaiting("contentState"), is(0));
+        }
+    }
+
+}
@@ -0,0 +1,46 @@
+package com.composum.platform.replication.remotereceiver;
+
+import com.composum.sling.platform.testing.testutil.ErrorCollectorAlwaysPrintingFailures;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.testing.mock.sling.ResourceResolverType;
+import org.apache.sling.testing.mock.sling.junit.SlingContext;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+
+/** Tests for {@link BatchedDeletion}. */
+public class BatchedDeletionTest {
+
+    @Rule
+    public final SlingContext context = new SlingContext(ResourceResolverType.JCR_OAK);
+
+    @Rule
+    public final ErrorCollectorAlwaysPrintingFailures ec = new ErrorCollectorAlwaysPrintingFailures();
+
+    @Test
+    public void deletesInBatches() throws Exception {
+        for (int i = 0; i < 5; ++i) {
+            for (int j = 0; j < 4; ++j) {
+                context.build().resource("/content/site/page" + i + "/jcr:content/par" + j, "text", "x");
+            }
+        }
+        context.build().resource("/content/site/other/jcr:content").commit();
+        ResourceResolver resolver = context.resourceResolver();
+
+        BatchedDeletion deletion = new BatchedDeletion(7, 3);
+        int deleted = deletion.delete(resolver, Arrays.asList("/content/site/page0", "/content/site/page1",
+                "/content/site/page2", "/content/site/page3", "/content/site/page4", "/content/site/nonexisting"));
+        // 5 pages with jcr:content and 4 paragraphs each
+        ec.checkThat(deleted, is(30));
+        ec.checkThat(resolver.hasChanges(), is(false));
+        resolver.refresh();
+        ec.checkThat(resolver.getResource("/content/site/page3"), nullValue());
+        ec.checkThat(resolver.getResource("/content/site/other/jcr:content"), notNullValue());
+    }
+
+}
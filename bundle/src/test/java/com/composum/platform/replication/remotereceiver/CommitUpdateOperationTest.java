@@ -0,0 +1,137 @@
+package com.composum.platform.replication.remotereceiver;
+
+import com.composum.sling.core.logging.Message;
+import com.composum.sling.core.servlet.Status;
+import com.composum.sling.platform.staging.replication.ReplicationException;
+import com.composum.sling.platform.staging.replication.ReplicationPaths;
+import com.composum.sling.platform.staging.replication.impl.PublicationReceiverBackend;
+import com.composum.sling.platform.testing.testutil.ErrorCollectorAlwaysPrintingFailures;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.testing.mock.sling.ResourceResolverType;
+import org.apache.sling.testing.mock.sling.junit.SlingContext;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.Set;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/** Tests the batched deletion of {@link RemotePublicationReceiverServlet.CommitUpdateOperation}. */
+public class CommitUpdateOperationTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CommitUpdateOperationTest.class);
+
+    protected static final String SITE = "/content/site";
+
+    @Rule
+    public final SlingContext context = new SlingContext(ResourceResolverType.JCR_OAK);
+
+    @Rule
+    public final ErrorCollectorAlwaysPrintingFailures ec = new ErrorCollectorAlwaysPrintingFailures();
+
+    protected RemotePublicationReceiverServlet servlet;
+
+    protected PublicationReceiverBackend service;
+
+    protected StagedCommit staged;
+
+    @Before
+    public void setup() throws Exception {
+        ResourceResolverFactory resolverFactory = mock(ResourceResolverFactory.class);
+        ResourceResolver uncloseableResourceResolver = Mockito.spy(context.resourceResolver());
+        Mockito.doNothing().when(uncloseableResourceResolver).close();
+        when(resolverFactory.getServiceResourceResolver(null)).thenReturn(uncloseableResourceResolver);
+        RemotePublicationReceiverServlet.Configuration config =
+                mock(RemotePublicationReceiverServlet.Configuration.class);
+        when(config.deleteBatchSize()).thenReturn(2);
+        when(config.deleteRetries()).thenReturn(1);
+
+        servlet = new RemotePublicationReceiverServlet();
+        service = mock(PublicationReceiverBackend.class);
+        servlet.service = service;
+        servlet.resolverFactory = resolverFactory;
+        servlet.config = config;
+
+        for (int i = 0; i < 3; ++i) {
+            context.build().resource(SITE + "/old/page" + i + "/jcr:content", "title", "Page " + i);
+        }
+        context.build().resource(SITE + "/kept/jcr:content").commit();
+
+        ReplicationPaths replicationPaths = new ReplicationPaths(SITE, SITE, null, SITE);
+        servlet.lockTable.assign(servlet.lockTable.reserve(SITE, replicationPaths), "upd-1");
+        staged = new StagedCommit();
+        staged.updateId = "upd-1";
+        staged.releaseChangeNumber = "cn-1";
+        staged.deletedPaths.add(SITE + "/old");
+    }
+
+    @Test
+    public void deletesInBatchesAfterCommit() throws Exception {
+        Status status = commit();
+        ec.checkThat(status.isValid(), is(true));
+        // the backend doesn't delete the path itself
+        verify(service).commit(eq("upd-1"), eq(Collections.<String>emptySet()), any(), eq("cn-1"));
+        context.resourceResolver().refresh();
+        ec.checkThat(context.resourceResolver().getResource(SITE + "/old"), nullValue());
+        ec.checkThat(context.resourceResolver().getResource(SITE + "/kept/jcr:content"), notNullValue());
+        ec.checkThat(servlet.lockTable.get("upd-1"), nullValue());
+    }
+
+    @Test
+    public void failedCommitKeepsDeletedContent() throws Exception {
+        doThrow(new ReplicationException(Message.error("Commit failed"), null))
+                .when(service).commit(any(), any(Set.class), any(), any());
+        Status status = commit();
+        ec.checkThat(status.isValid(), is(false));
+        context.resourceResolver().refresh();
+        ec.checkThat(context.resourceResolver().getResource(SITE + "/old/page1/jcr:content"), notNullValue());
+        ec.checkThat(servlet.lockTable.get("upd-1"), nullValue());
+    }
+
+    @Test
+    public void dryRunIsNotCommitted() throws Exception {
+        ReplicationPaths replicationPaths = new ReplicationPaths(SITE, SITE, null, SITE);
+        servlet.lockTable.assign(servlet.lockTable.reserve(SITE, replicationPaths, true), "upd-dry");
+        staged.updateId = "upd-dry";
+        Status status = commit();
+        ec.checkThat(status.isValid(), is(false));
+        verify(service, never()).commit(any(), any(Set.class), any(), any());
+        verify(service).abort("upd-dry");
+        context.resourceResolver().refresh();
+        ec.checkThat(context.resourceResolver().getResource(SITE + "/old/page1/jcr:content"), notNullValue());
+    }
+
+    @Test
+    public void updateWithoutLockIsRejected() throws Exception {
+        // e.g. removed as stale while the author was still uploading
+        servlet.lockTable.release("upd-1");
+        Status status = commit();
+        ec.checkThat(status.isValid(), is(false));
+        verify(service, never()).commit(any(), any(Set.class), any(), any());
+        verify(service).abort("upd-1");
+        context.resourceResolver().refresh();
+        ec.checkThat(context.resourceResolver().getResource(SITE + "/old/page1/jcr:content"), notNullValue());
+    }
+
+    protected Status commit() {
+        Status status = new Status(context.request(), context.response(), LOG);
+        servlet.new CommitUpdateOperation().commit(staged, status);
+        return status;
+    }
+
+}
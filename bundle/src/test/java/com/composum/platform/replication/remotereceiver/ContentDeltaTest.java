@@ -0,0 +1,216 @@
+package com.composum.platform.replication.remotereceiver;
+
+import com.composum.sling.platform.testing.testutil.ErrorCollectorAlwaysPrintingFailures;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import org.apache.commons.io.IOUtils;
+import org.apache.sling.api.resource.ModifiableValueMap;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.testing.mock.sling.ResourceResolverType;
+import org.apache.sling.testing.mock.sling.junit.SlingContext;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import javax.jcr.Node;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+
+/** Tests for {@link ContentDelta}: the receiver's copy has to be equal to the author's content after applying it. */
+public class ContentDeltaTest {
+
+    @Rule
+    public final SlingContext context = new SlingContext(ResourceResolverType.JCR_OAK);
+
+    @Rule
+    public final ErrorCollectorAlwaysPrintingFailures ec = new ErrorCollectorAlwaysPrintingFailures();
+
+    protected ResourceResolver resolver;
+
+    @Before
+    public void setup() throws Exception {
+        resolver = context.resourceResolver();
+        for (String root : new String[]{"/content/author", "/content/receiver"}) {
+            context.build().resource(root + "/page/jcr:content", "jcr:primaryType", "nt:unstructured",
+                    "title", "Title", "tags", new String[]{"a", "b"}, "count", 3L)
+                    .resource(root + "/page/jcr:content/main", "jcr:primaryType", "nt:unstructured",
+                            "text", "Some text")
+                    .resource(root + "/page/jcr:content/main/image", "jcr:primaryType", "nt:unstructured",
+                            "alt", "An image")
+                    .resource(root + "/page/jcr:content/main/teaser", "jcr:primaryType", "nt:unstructured",
+                            "text", "Teaser")
+                    .commit();
+        }
+    }
+
+    @Test
+    public void noChanges() throws Exception {
+        ContentDelta delta = delta();
+        ec.checkThat(delta, notNullValue());
+        ec.checkThat(delta.isEmpty(), is(true));
+    }
+
+    @Test
+    public void propertyChanges() throws Exception {
+        ModifiableValueMap props = author("jcr:content").adaptTo(ModifiableValueMap.class);
+        props.put("title", "New title");
+        props.put("tags", new String[]{"a", "c"});
+        props.remove("count");
+        props.put("added", true);
+        resolver.commit();
+
+        ContentDelta delta = delta();
+        ec.checkThat(delta.changes.size(), is(1));
+        ec.checkThat(delta.changes.get(0).properties.size(), is(3));
+        ec.checkThat(delta.changes.get(0).removedProperties.size(), is(1));
+        checkApply(delta);
+        ec.checkThat(receiver("jcr:content").getValueMap().get("added", Boolean.class), is(true));
+    }
+
+    @Test
+    public void nodeChanges() throws Exception {
+        resolver.delete(author("jcr:content/main/image"));
+        Resource main = author("jcr:content/main");
+        Resource added = resolver.create(main, "added", null);
+        resolver.create(added, "child", null);
+        main.adaptTo(Node.class).orderBefore("added", "teaser");
+        resolver.commit();
+
+        ContentDelta delta = delta();
+        ec.checkThat(delta.toString(), is("ContentDelta(/content/author/page, " +
+                "[remove:jcr:content/main/image, update:jcr:content/main, add:jcr:content/main/added, " +
+                "add:jcr:content/main/added/child])"));
+        checkApply(delta);
+    }
+
+    @Test
+    public void binaryChanges() throws Exception {
+        author("jcr:content").adaptTo(ModifiableValueMap.class).put("data",
+                new ByteArrayInputStream("binary".getBytes(StandardCharsets.UTF_8)));
+        resolver.commit();
+
+        checkApply(delta());
+        ec.checkThat(ContentDelta.create(author(""), manifest(), 3), nullValue());
+    }
+
+    @Test
+    public void changedBinary() throws Exception {
+        setBinary(author("jcr:content"), "binary", 1000L);
+        setBinary(receiver("jcr:content"), "binary", 1000L);
+        setBinary(author("jcr:content"), "changed binary", 2000L);
+
+        ContentDelta delta = delta();
+        ec.checkThat(delta.changes.size(), is(1));
+        ec.checkThat(delta.changes.get(0).properties.size(), is(2));
+        delta.apply(receiver(""));
+        ec.checkThat(IOUtils.toString(receiver("jcr:content").getValueMap().get("data", InputStream.class),
+                StandardCharsets.UTF_8), is("changed binary"));
+        resolver.revert();
+        checkApply(delta);
+    }
+
+    @Test
+    public void datesInOtherTimeZone() throws Exception {
+        Calendar authorDate = Calendar.getInstance(TimeZone.getTimeZone("GMT+05:00"));
+        authorDate.setTimeInMillis(1500000000000L);
+        Calendar receiverDate = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        receiverDate.setTimeInMillis(1500000000000L);
+        author("jcr:content").adaptTo(ModifiableValueMap.class).put("published", authorDate);
+        receiver("jcr:content").adaptTo(ModifiableValueMap.class).put("published", receiverDate);
+        resolver.commit();
+
+        ec.checkThat(delta().isEmpty(), is(true));
+    }
+
+    @Test
+    public void deltaFromSnapshot() throws Exception {
+        ModifiableValueMap props = author("jcr:content").adaptTo(ModifiableValueMap.class);
+        props.put("title", "New title");
+        props.put("data", new ByteArrayInputStream("binary".getBytes(StandardCharsets.UTF_8)));
+        resolver.delete(author("jcr:content/main/image"));
+        resolver.commit();
+
+        // taken before the manifest is known, e.g. for an asynchronous upload
+        ContentDelta.Snapshot snapshot = ContentDelta.snapshot(author(""), null, 1024);
+        Gson gson = new GsonBuilder().create();
+        ec.checkThat(gson.toJson(ContentDelta.create(snapshot, manifest())),
+                is(gson.toJson(ContentDelta.create(author(""), manifest(), 1024))));
+        checkApply(ContentDelta.create(snapshot, manifest()));
+        // the snapshot has no room for the changed binary
+        ec.checkThat(ContentDelta.create(ContentDelta.snapshot(author(""), null, 3), manifest()), nullValue());
+    }
+
+    @Test
+    public void binaryHashesAreCached() throws Exception {
+        ContentDelta.BinaryHashCache hashCache = new ContentDelta.BinaryHashCache(100);
+        setBinary(receiver("jcr:content"), "binary", 1000L);
+        String hash = hashOfData(ContentDelta.manifest(receiver(""), hashCache));
+        ec.checkThat(hashCache.size(), is(1));
+        ec.checkThat(hash, is(hashOfData(ContentDelta.manifest(receiver(""), null))));
+        ec.checkThat(hashOfData(ContentDelta.manifest(receiver(""), hashCache)), is(hash));
+
+        // a changed binary has a new identity, so it's hashed again
+        setBinary(receiver("jcr:content"), "changed", 2000L);
+        String changedHash = hashOfData(ContentDelta.manifest(receiver(""), hashCache));
+        ec.checkThat(changedHash, is(hashOfData(ContentDelta.manifest(receiver(""), null))));
+        ec.checkThat(changedHash.equals(hash), is(false));
+        ec.checkThat(hashCache.size(), is(1));
+    }
+
+    @Test
+    public void noDeltaWithoutCopy() throws Exception {
+        ec.checkThat(ContentDelta.create(author(""), ContentDelta.manifest(null), 1024), nullValue());
+    }
+
+    protected ContentDelta delta() throws Exception {
+        Gson gson = new GsonBuilder().create();
+        ContentDelta delta = ContentDelta.create(author(""), manifest(), 1024);
+        // transmitted as JSON
+        return delta != null ? gson.fromJson(gson.toJson(delta), ContentDelta.class) : null;
+    }
+
+    protected ContentDelta.Manifest manifest() throws Exception {
+        Gson gson = new GsonBuilder().create();
+        return gson.fromJson(gson.toJson(ContentDelta.manifest(receiver(""))), ContentDelta.Manifest.class);
+    }
+
+    protected void checkApply(ContentDelta delta) throws Exception {
+        delta.apply(receiver(""));
+        Gson gson = new GsonBuilder().create();
+        ec.checkThat(gson.toJson(ContentDelta.manifest(receiver(""))),
+                is(gson.toJson(ContentDelta.manifest(author("")))));
+        ContentDelta again = delta();
+        ec.checkThat(again != null && again.isEmpty(), is(true));
+        resolver.revert();
+    }
+
+    protected void setBinary(Resource resource, String content, long lastModified) throws Exception {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(lastModified);
+        ModifiableValueMap props = resource.adaptTo(ModifiableValueMap.class);
+        props.put("data", new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)));
+        props.put("jcr:lastModified", calendar);
+        resolver.commit();
+    }
+
+    protected String hashOfData(ContentDelta.Manifest manifest) {
+        return manifest.nodes.get("jcr:content").properties.get("data");
+    }
+
+    protected Resource author(String path) {
+        return resolver.getResource("/content/author/page" + (path.isEmpty() ? "" : "/" + path));
+    }
+
+    protected Resource receiver(String path) {
+        return resolver.getResource("/content/receiver/page" + (path.isEmpty() ? "" : "/" + path));
+    }
+
+}
@@ -0,0 +1,324 @@
+package com.composum.platform.replication.remotereceiver;
+
+import com.composum.platform.commons.proxy.ProxyManagerService;
+import org.apache.http.HttpHost;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.mock;
+
+/**
+ * A TCP relay to one upstream host that simulates a bad network link: it delays the data, caps the bandwidth,
+ * resets connections, cuts responses short and answers like an overloaded server. It can be used directly as target host, or as HTTP proxy - the
+ * upstream (e.g. the {@link LoopbackReceiver}) then gets the requests with absolute URIs, which HTTP/1.1 servers
+ * accept. {@link #proxyManager(String)} creates a {@link ProxyManagerService} that routes the requests of a
+ * replication configuration with that proxy key through the relay, as a real proxy would be configured. Only for
+ * tests.
+ */
+public class FaultInjectionProxy implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FaultInjectionProxy.class);
+
+    protected final InetSocketAddress upstream;
+
+    protected final Random random;
+
+    protected volatile long latencyMillis;
+
+    protected final TokenBucket bandwidth = new TokenBucket();
+
+    protected volatile double resetProbability;
+
+    protected volatile double truncateProbability;
+
+    protected volatile int faultRange = 4096;
+
+    protected volatile double unavailableProbability;
+
+    protected volatile int retryAfterSeconds;
+
+    protected volatile int faultsFrom = 1;
+
+    protected volatile int maxFaults = Integer.MAX_VALUE;
+
+    /** The number of connections that got a fault; guarded by {@link #random}. */
+    protected int faults;
+
+    protected final AtomicInteger connections = new AtomicInteger();
+    protected final AtomicInteger resets = new AtomicInteger();
+    protected final AtomicInteger truncations = new AtomicInteger();
+    protected final AtomicInteger unavailable = new AtomicInteger();
+
+    protected ServerSocket serverSocket;
+
+    protected ExecutorService threads;
+
+    /**
+     * @param upstream the URL of the host all connections are relayed to
+     * @param seed     for the random faults, to get reproducible runs
+     */
+    public FaultInjectionProxy(@Nonnull URI upstream, long seed) {
+        this.upstream = new InetSocketAddress(upstream.getHost(), upstream.getPort());
+        this.random = new Random(seed);
+    }
+
+    /** A delay for each chunk of data in each direction, simulating the round trip time. */
+    public FaultInjectionProxy latency(long millis) {
+        this.latencyMillis = millis;
+        return this;
+    }
+
+    /** Caps the bandwidth in bytes per second, shared by all connections and both directions; 0 is unlimited. */
+    public FaultInjectionProxy bandwidth(long bytesPerSecond) {
+        bandwidth.setRate(bytesPerSecond, Math.max(bytesPerSecond / 10, 1024));
+        return this;
+    }
+
+    /** The probability a connection is reset (TCP RST) after some of the request has been relayed. */
+    public FaultInjectionProxy resets(double probability) {
+        this.resetProbability = probability;
+        return this;
+    }
+
+    /** The probability a response is cut off after some bytes, and the connection closed. */
+    public FaultInjectionProxy truncations(double probability) {
+        this.truncateProbability = probability;
+        return this;
+    }
+
+    /** The faults happen after a random number of bytes below this; small values hit the HTTP headers. */
+    public FaultInjectionProxy faultRange(int bytes) {
+        this.faultRange = Math.max(1, bytes);
+        return this;
+    }
+
+    /**
+     * The probability a connection is answered with '503 Service Unavailable' and a Retry-After header instead of
+     * being relayed.
+     */
+    public FaultInjectionProxy unavailable(double probability, int retryAfterSeconds) {
+        this.unavailableProbability = probability;
+        this.retryAfterSeconds = retryAfterSeconds;
+        return this;
+    }
+
+    /** Only the connections from this one on (counting from 1) can get faults, e.g. to let an update start. */
+    public FaultInjectionProxy faultsFrom(int connection) {
+        this.faultsFrom = connection;
+        return this;
+    }
+
+    /** At most this many connections get faults; the later ones are relayed without. */
+    public FaultInjectionProxy maxFaults(int count) {
+        this.maxFaults = count;
+        return this;
+    }
+
+    /** Starts listening on a free local port. */
+    public FaultInjectionProxy start() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        threads = Executors.newCachedThreadPool();
+        threads.submit(this::acceptLoop);
+        LOG.info("Fault injection proxy at port {} relaying to {}", getPort(), upstream);
+        return this;
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /** The URL to use instead of the upstream URL to connect directly through the relay. */
+    @Nonnull
+    public URI relayed(@Nonnull URI url) {
+        return URI.create(url.getScheme() + "://" + serverSocket.getInetAddress().getHostAddress() + ":" + getPort()
+                + url.getRawPath());
+    }
+
+    /** A proxy manager that configures the relay as HTTP proxy for the given proxy key. */
+    @Nonnull
+    public ProxyManagerService proxyManager(@Nonnull String proxyKey) throws Exception {
+        ProxyManagerService proxyManager = mock(ProxyManagerService.class);
+        doAnswer(invocation -> {
+            HttpClientContext context = (HttpClientContext) invocation.getArguments()[1];
+            RequestConfig requestConfig = context.getRequestConfig();
+            context.setRequestConfig(RequestConfig.copy(requestConfig != null ? requestConfig : RequestConfig.DEFAULT)
+                    .setProxy(new HttpHost(serverSocket.getInetAddress().getHostAddress(), getPort())).build());
+            return null;
+        }).when(proxyManager).initHttpContext(eq(proxyKey), any(HttpClientContext.class), any());
+        return proxyManager;
+    }
+
+    public int getConnections() {
+        return connections.get();
+    }
+
+    public int getResets() {
+        return resets.get();
+    }
+
+    public int getTruncations() {
+        return truncations.get();
+    }
+
+    /** The number of connections answered with '503 Service Unavailable'. */
+    public int getUnavailable() {
+        return unavailable.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (serverSocket != null) {
+            serverSocket.close();
+            threads.shutdownNow();
+            serverSocket = null;
+        }
+    }
+
+    protected void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket client = serverSocket.accept();
+                int connection = connections.incrementAndGet();
+                threads.submit(() -> relay(client, connection));
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    LOG.error("Accept failed", e);
+                }
+            }
+        }
+    }
+
+    protected void relay(@Nonnull Socket client, int connection) {
+        boolean reset;
+        boolean truncate;
+        boolean unavailable;
+        long faultAfter;
+        synchronized (random) {
+            boolean faulty = connection >= faultsFrom && faults < maxFaults;
+            reset = faulty && random.nextDouble() < resetProbability;
+            truncate = faulty && !reset && random.nextDouble() < truncateProbability;
+            unavailable = faulty && !reset && !truncate && random.nextDouble() < unavailableProbability;
+            faultAfter = random.nextInt(faultRange);
+            if (reset || truncate || unavailable) {
+                faults++;
+            }
+        }
+        if (unavailable) {
+            answerUnavailable(client);
+            return;
+        }
+        try (Socket server = new Socket(upstream.getAddress(), upstream.getPort())) {
+            threads.submit(() -> pump(client, server, reset ? faultAfter : -1, true));
+            pump(server, client, truncate ? faultAfter : -1, false);
+        } catch (IOException e) {
+            LOG.debug("Relay failed: {}", e.toString());
+        } finally {
+            close(client);
+        }
+    }
+
+    /**
+     * Copies the data from one socket to the other, with the configured delay and bandwidth.
+     *
+     * @param faultAfter the number of bytes after which the connection is reset (resp. truncated); -1 for none
+     * @param reset      whether the fault is a reset or a clean close after the partial data
+     */
+    protected void pump(@Nonnull Socket from, @Nonnull Socket to, long faultAfter, boolean reset) {
+        byte[] buffer = new byte[8192];
+        long transferred = 0;
+        try {
+            InputStream in = from.getInputStream();
+            OutputStream out = to.getOutputStream();
+            int count;
+            while ((count = in.read(buffer)) >= 0) {
+                if (faultAfter >= 0 && transferred + count > faultAfter) {
+                    count = (int) (faultAfter - transferred);
+                    out.write(buffer, 0, count);
+                    out.flush();
+                    if (reset) {
+                        resets.incrementAndGet();
+                        from.setSoLinger(true, 0);
+                        to.setSoLinger(true, 0);
+                    } else {
+                        truncations.incrementAndGet();
+                    }
+                    break;
+                }
+                if (latencyMillis > 0) {
+                    Thread.sleep(latencyMillis);
+                }
+                bandwidth.acquire(count);
+                out.write(buffer, 0, count);
+                out.flush();
+                transferred += count;
+            }
+        } catch (IOException e) {
+            LOG.debug("Pump ended: {}", e.toString());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            close(from);
+            close(to);
+        }
+    }
+
+    /**
+     * Reads the request head and answers with '503 Service Unavailable'; the rest of the request is read and
+     * discarded, so that the client gets the answer and not a reset.
+     */
+    protected void answerUnavailable(@Nonnull Socket client) {
+        unavailable.incrementAndGet();
+        try {
+            client.setSoTimeout(5000);
+            InputStream in = client.getInputStream();
+            int last = 0;
+            int read;
+            while (last != 0x0D0A0D0A && (read = in.read()) >= 0) {
+                last = (last << 8) | read;
+            }
+            OutputStream out = client.getOutputStream();
+            out.write(("HTTP/1.1 503 Service Unavailable\r\nRetry-After: " + retryAfterSeconds
+                    + "\r\nContent-Length: 0\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            client.shutdownOutput();
+            byte[] buffer = new byte[8192];
+            while (in.read(buffer) >= 0) {
+                // until the client closes the connection
+            }
+        } catch (IOException e) {
+            LOG.debug("Unavailable answer ended: {}", e.toString());
+        } finally {
+            close(client);
+        }
+    }
+
+    protected void close(@Nonnull Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            LOG.debug("Close failed: {}", e.toString());
+        }
+    }
+
+}
@@ -0,0 +1,131 @@
+package com.composum.platform.replication.remotereceiver;
+
+import com.composum.platform.commons.proxy.ProxyManagerService;
+import com.composum.sling.platform.testing.testutil.ErrorCollectorAlwaysPrintingFailures;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+import org.apache.sling.testing.mock.sling.ResourceResolverType;
+import org.apache.sling.testing.mock.sling.junit.SlingContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URI;
+
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+
+/** Tests for {@link FaultInjectionProxy}, with the {@link LoopbackReceiver} as upstream. */
+public class FaultInjectionProxyTest {
+
+    @Rule
+    public final SlingContext context = new SlingContext(ResourceResolverType.RESOURCERESOLVER_MOCK);
+
+    @Rule
+    public final ErrorCollectorAlwaysPrintingFailures ec = new ErrorCollectorAlwaysPrintingFailures();
+
+    protected LoopbackReceiver receiver;
+
+    protected FaultInjectionProxy proxy;
+
+    protected CloseableHttpClient httpClient;
+
+    @Before
+    public void setup() throws Exception {
+        receiver = new LoopbackReceiver(context).start(1);
+        proxy = new FaultInjectionProxy(receiver.getTargetUrl(), 4711);
+        // no automatic retries - each request should be exactly one connection
+        httpClient = HttpClients.custom().disableAutomaticRetries().build();
+    }
+
+    @After
+    public void teardown() throws Exception {
+        httpClient.close();
+        proxy.close();
+        receiver.close();
+    }
+
+    @Test
+    public void relaysWithLatency() throws Exception {
+        proxy.latency(100).start();
+        long start = System.currentTimeMillis();
+        ec.checkThat(statistics(proxy.relayed(receiver.getTargetUrl()), null), is(200));
+        // at least one chunk in each direction
+        ec.checkThat(System.currentTimeMillis() - start, greaterThanOrEqualTo(200L));
+        ec.checkThat(proxy.getConnections(), is(1));
+    }
+
+    @Test
+    public void capsBandwidth() throws Exception {
+        proxy.bandwidth(20000).start();
+        HttpPost post = new HttpPost(proxy.relayed(receiver.getTargetUrl()) + ".statistics.json");
+        post.setEntity(new ByteArrayEntity(new byte[30000]));
+        long start = System.currentTimeMillis();
+        try (CloseableHttpResponse response = httpClient.execute(post)) {
+            EntityUtils.consume(response.getEntity());
+        }
+        // 30000 bytes at 20000 bytes/s, the burst is only 2000 bytes
+        ec.checkThat(System.currentTimeMillis() - start, greaterThanOrEqualTo(1300L));
+    }
+
+    @Test
+    public void worksAsHttpProxy() throws Exception {
+        proxy.start();
+        ProxyManagerService proxyManager = proxy.proxyManager("faulty");
+        HttpClientContext clientContext = HttpClientContext.create();
+        proxyManager.initHttpContext("faulty", clientContext, context.resourceResolver());
+        ec.checkThat(statistics(receiver.getTargetUrl(), clientContext), is(200));
+        ec.checkThat(proxy.getConnections(), is(1));
+    }
+
+    @Test
+    public void resetsConnections() throws Exception {
+        proxy.resets(1.0).faultRange(16).start();
+        ec.checkThat(failure(proxy.relayed(receiver.getTargetUrl())), is(true));
+        ec.checkThat(proxy.getResets(), is(1));
+    }
+
+    @Test
+    public void truncatesResponses() throws Exception {
+        proxy.truncations(1.0).faultRange(16).start();
+        ec.checkThat(failure(proxy.relayed(receiver.getTargetUrl())), is(true));
+        ec.checkThat(proxy.getTruncations(), is(1));
+    }
+
+    @Test
+    public void answersUnavailable() throws Exception {
+        proxy.unavailable(1.0, 3).faultsFrom(2).maxFaults(1).start();
+        URI relayed = proxy.relayed(receiver.getTargetUrl());
+        ec.checkThat(statistics(relayed, null), is(200));
+        ec.checkThat(statistics(relayed, null), is(503));
+        ec.checkThat(statistics(relayed, null), is(200));
+        ec.checkThat(proxy.getUnavailable(), is(1));
+    }
+
+    protected int statistics(URI targetUrl, HttpClientContext clientContext) throws IOException {
+        try (CloseableHttpResponse response = httpClient.execute(new HttpGet(targetUrl + ".statistics.json"),
+                clientContext)) {
+            EntityUtils.consume(response.getEntity());
+            return response.getStatusLine().getStatusCode();
+        }
+    }
+
+    /** True if the request failed with an I/O error. */
+    protected boolean failure(URI targetUrl) {
+        try {
+            statistics(targetUrl, null);
+            return false;
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+}
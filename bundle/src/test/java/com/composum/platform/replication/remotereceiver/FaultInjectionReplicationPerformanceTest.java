@@ -0,0 +1,61 @@
+package com.composum.platform.replication.remotereceiver;
+
+import com.composum.platform.replication.remote.RemoteTarget;
+import org.apache.sling.api.resource.Resource;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Replicates a synthetic release to the {@link LoopbackReceiver} through a {@link FaultInjectionProxy} configured
+ * as proxy of the replication configuration, under several network conditions, checks that the content arrived
+ * completely and reports the replication time per condition. The release shape is configured as in
+ * {@link AbstractLoopbackReplicationTest}. Not part of the regular build since it takes long; it runs with the Maven
+ * profile 'performance'. {@link FaultInjectionReplicationTest} checks single faults in the regular build.
+ */
+public class FaultInjectionReplicationPerformanceTest extends AbstractLoopbackReplicationTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FaultInjectionReplicationPerformanceTest.class);
+
+    protected static final String PROXY_KEY = "faultinjection";
+
+    @Test
+    public void replicateUnderFaults() throws Exception {
+        Map<String, Consumer<FaultInjectionProxy>> conditions = new LinkedHashMap<>();
+        conditions.put("clean", (proxy) -> {
+        });
+        conditions.put("latency 50ms", (proxy) -> proxy.latency(50));
+        conditions.put("bandwidth 1MB/s", (proxy) -> proxy.bandwidth(1024 * 1024));
+        conditions.put("latency 20ms, bandwidth 256KB/s", (proxy) -> proxy.latency(20).bandwidth(256 * 1024));
+        conditions.put("5% resets", (proxy) -> proxy.resets(0.05));
+        conditions.put("5% truncated responses", (proxy) -> proxy.truncations(0.05));
+
+        List<Resource> versionables = createRelease(author.resourceResolver());
+        Map<String, Long> times = new LinkedHashMap<>();
+        int run = 0;
+        for (Map.Entry<String, Consumer<FaultInjectionProxy>> condition : conditions.entrySet()) {
+            try (FaultInjectionProxy proxy = new FaultInjectionProxy(receiver.getTargetUrl(), 4711)) {
+                // the start of the update is not repeatable
+                condition.getValue().accept(proxy.faultsFrom(2));
+                proxy.start();
+                proxyManager = proxy.proxyManager(PROXY_KEY);
+                RemotePublicationConfig config = createConfig(author.resourceResolver(), receiver.getTargetUrl(),
+                        RemotePublicationConfig.PROP_PROXY_KEY, PROXY_KEY);
+                RemoteTarget target = new RemoteTarget(CONFIG_PATH, executors);
+                target.configure(config);
+                times.put(condition.getKey(), replicate(config, target, versionables, "run" + (++run)));
+                checkReplicated(versionables);
+                LOG.info("{}: {} connections, {} resets, {} truncations, {} retries", condition.getKey(),
+                        proxy.getConnections(), proxy.getResets(), proxy.getTruncations(),
+                        target.getStatistics().getRetries());
+            }
+        }
+        LOG.info("Replication times in ms: {}", times);
+    }
+
+}
@@ -0,0 +1,86 @@
+package com.composum.platform.replication.remotereceiver;
+
+import com.composum.platform.replication.remote.RemoteTarget;
+import com.composum.sling.platform.testing.testutil.ErrorCollectorAlwaysPrintingFailures;
+import org.apache.http.impl.NoConnectionReuseStrategy;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.sling.api.resource.Resource;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import java.util.List;
+
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Replicates a small release to the {@link LoopbackReceiver} through a {@link FaultInjectionProxy} that disturbs
+ * one or two requests after the update was started, and checks that the facade retries them and the content
+ * arrives completely. Each request is sent over a new connection, so that the faults hit the chosen requests.
+ */
+public class FaultInjectionReplicationTest extends AbstractLoopbackReplicationTest {
+
+    protected static final String PROXY_KEY = "faultinjection";
+
+    @Rule
+    public final ErrorCollectorAlwaysPrintingFailures ec = new ErrorCollectorAlwaysPrintingFailures();
+
+    protected FaultInjectionProxy proxy;
+
+    public FaultInjectionReplicationTest() {
+        pages = 4;
+        depth = 1;
+        binaries = 1;
+        binarySize = 1024;
+        threads = 1;
+    }
+
+    @Nonnull
+    @Override
+    protected CloseableHttpClient createHttpClient() {
+        // the facade has to see the faults, not the retries of the client
+        return HttpClients.custom().disableAutomaticRetries()
+                .setConnectionReuseStrategy(NoConnectionReuseStrategy.INSTANCE).build();
+    }
+
+    @After
+    public void closeProxy() throws Exception {
+        if (proxy != null) {
+            proxy.close();
+        }
+    }
+
+    @Test
+    public void resetIsRetried() throws Exception {
+        // the first connection starts the update, which is not repeatable
+        RemoteTarget target = replicateThroughProxy(new FaultInjectionProxy(receiver.getTargetUrl(), 4711)
+                .resets(1.0).faultRange(16).faultsFrom(2).maxFaults(1));
+        ec.checkThat(proxy.getResets(), is(1));
+        ec.checkThat(target.getStatistics().getRetries(), is(1L));
+    }
+
+    @Test
+    public void unavailableIsRetriedLater() throws Exception {
+        RemoteTarget target = replicateThroughProxy(new FaultInjectionProxy(receiver.getTargetUrl(), 4711)
+                .unavailable(1.0, 1).faultsFrom(2).maxFaults(2));
+        ec.checkThat(proxy.getUnavailable(), is(2));
+        ec.checkThat(target.getStatistics().getBackpressureRetries(), is(2L));
+    }
+
+    @Nonnull
+    protected RemoteTarget replicateThroughProxy(@Nonnull FaultInjectionProxy faultInjectionProxy) throws Exception {
+        proxy = faultInjectionProxy.start();
+        proxyManager = proxy.proxyManager(PROXY_KEY);
+        List<Resource> versionables = createRelease(author.resourceResolver());
+        RemotePublicationConfig config = createConfig(author.resourceResolver(), receiver.getTargetUrl(),
+                RemotePublicationConfig.PROP_PROXY_KEY, PROXY_KEY);
+        RemoteTarget target = new RemoteTarget(CONFIG_PATH, executors);
+        target.configure(config);
+        replicate(config, target, versionables, "faulty");
+        checkReplicated(versionables);
+        return target;
+    }
+
+}
@@ -0,0 +1,97 @@
+package com.composum.platform.replication.remotereceiver;
+
+import com.composum.platform.replication.remote.RemoteTarget;
+import com.composum.platform.replication.remote.ReplicationExecutors;
+import com.composum.sling.platform.testing.testutil.ErrorCollectorAlwaysPrintingFailures;
+import org.apache.http.HttpHost;
+import org.apache.http.auth.AuthScope;
+import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/** Tests for the fallback and the authentication state of the {@link Http2ReceiverTransport}. */
+public class Http2ReceiverTransportTest {
+
+    @Rule
+    public final ErrorCollectorAlwaysPrintingFailures ec = new ErrorCollectorAlwaysPrintingFailures();
+
+    protected ReceiverTransport fallback;
+
+    protected Http2ReceiverTransport transport;
+
+    @Before
+    public void setup() {
+        fallback = mock(ReceiverTransport.class);
+        transport = new Http2ReceiverTransport(fallback);
+    }
+
+    @After
+    public void teardown() {
+        transport.close();
+    }
+
+    @Test
+    public void proxyWithAuthenticationUsesFallback() throws Exception {
+        HttpHost proxy = new HttpHost("proxy.example.com", 3128);
+        HttpClientContext context = HttpClientContext.create();
+        context.setRequestConfig(RequestConfig.custom().setProxy(proxy).build());
+        ec.checkThat(transport.canConvert(context), is(true));
+
+        BasicCredentialsProvider credentialsProvider = new BasicCredentialsProvider();
+        credentialsProvider.setCredentials(new AuthScope(proxy), new UsernamePasswordCredentials("user", "pw"));
+        context.setCredentialsProvider(credentialsProvider);
+        ec.checkThat(transport.canConvert(context), is(false));
+
+        HttpGet request = new HttpGet("https://publisher.example.com/bin/receiver");
+        CloseableHttpResponse response = mock(CloseableHttpResponse.class);
+        when(fallback.execute(request, context)).thenReturn(response);
+        ec.checkThat(transport.execute(request, context), sameInstance(response));
+    }
+
+    @Test
+    public void authContextFollowsSharedContext() throws Exception {
+        AtomicLong clock = new AtomicLong(100000);
+        ReplicationExecutors executors = new ReplicationExecutors();
+        RemoteTarget target = new RemoteTarget("/conf/site/replication/publish", executors, clock::get);
+        try {
+            RemoteTarget.HttpClientContextInitializer initializer = (context) -> {};
+            Http2ReceiverTransport.AuthContext first =
+                    transport.getAuthContext(target.getHttpClientContext(60000, initializer));
+            ec.checkThat(transport.getAuthContext(target.getHttpClientContext(60000, initializer)),
+                    sameInstance(first));
+
+            // expires with the shared context of the target
+            clock.addAndGet(60000);
+            Http2ReceiverTransport.AuthContext renewed =
+                    transport.getAuthContext(target.getHttpClientContext(60000, initializer));
+            ec.checkThat(renewed, not(sameInstance(first)));
+
+            target.invalidateHttpClientContext();
+            ec.checkThat(transport.getAuthContext(target.getHttpClientContext(60000, initializer)),
+                    not(sameInstance(renewed)));
+        } finally {
+            target.close();
+            executors.shutdown();
+        }
+
+        // authContextTtl 0: the facade's context has no shared auth cache - nothing is kept between requests
+        HttpClientContext unshared = HttpClientContext.create();
+        ec.checkThat(transport.getAuthContext(unshared), not(sameInstance(transport.getAuthContext(unshared))));
+    }
+
+}
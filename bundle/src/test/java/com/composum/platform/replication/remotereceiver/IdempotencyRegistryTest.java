@@ -0,0 +1,103 @@
+package com.composum.platform.replication.remotereceiver;
+
+import com.composum.sling.platform.testing.testutil.ErrorCollectorAlwaysPrintingFailures;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+
+/** Tests for {@link IdempotencyRegistry}. */
+public class IdempotencyRegistryTest {
+
+    @Rule
+    public final ErrorCollectorAlwaysPrintingFailures ec = new ErrorCollectorAlwaysPrintingFailures();
+
+    @Test
+    public void replaysCompletedRequest() throws Exception {
+        IdempotencyRegistry registry = new IdempotencyRegistry();
+        IdempotencyRegistry.Entry first = registry.begin("commitUpdate:k1");
+        ec.checkThat(first.isOwner(), is(true));
+        IdempotencyRegistry.Entry concurrent = registry.begin("commitUpdate:k1");
+        ec.checkThat(concurrent.isOwner(), is(false));
+        ec.checkThat(concurrent.await(10), nullValue());
+
+        registry.complete(first, 200, "{\"success\":true}");
+        IdempotencyRegistry.Entry replayed = concurrent.await(10);
+        ec.checkThat(replayed, notNullValue());
+        ec.checkThat(replayed.getStatusCode(), is(200));
+        ec.checkThat(replayed.getBody(), is("{\"success\":true}"));
+
+        IdempotencyRegistry.Entry later = registry.begin("commitUpdate:k1");
+        ec.checkThat(later.isOwner(), is(false));
+        ec.checkThat(later.await(0).getBody(), is("{\"success\":true}"));
+
+        ec.checkThat(registry.begin("commitUpdate:k2").isOwner(), is(true));
+    }
+
+    @Test
+    public void failedRequestIsProcessedAgain() throws Exception {
+        IdempotencyRegistry registry = new IdempotencyRegistry();
+        IdempotencyRegistry.Entry first = registry.begin("pathUpload:k1");
+        IdempotencyRegistry.Entry concurrent = registry.begin("pathUpload:k1");
+        registry.fail(first);
+        ec.checkThat(concurrent.await(10), nullValue());
+        ec.checkThat(registry.begin("pathUpload:k1").isOwner(), is(true));
+    }
+
+    @Test
+    public void sizeIsLimited() {
+        IdempotencyRegistry registry = new IdempotencyRegistry();
+        registry.setLimits(2, 60000);
+        for (int i = 0; i < 5; ++i) {
+            registry.complete(registry.begin("k" + i), 200, "{}");
+        }
+        registry.begin("k5");
+        ec.checkThat(registry.size(), is(2));
+        ec.checkThat(registry.begin("k0").isOwner(), is(true));
+    }
+
+    @Test
+    public void runningRequestsAreNotEvicted() {
+        IdempotencyRegistry registry = new IdempotencyRegistry();
+        registry.setLimits(2, 60000);
+        IdempotencyRegistry.Entry first = registry.begin("k1");
+        registry.begin("k2");
+        ec.checkThat(registry.begin("k3"), nullValue());
+        ec.checkThat(registry.begin("k1").isOwner(), is(false));
+
+        registry.complete(first, 200, "{}");
+        ec.checkThat(registry.begin("k3").isOwner(), is(true));
+        ec.checkThat(registry.begin("k2").isOwner(), is(false)); // still running
+        ec.checkThat(registry.size(), is(2));
+    }
+
+    @Test
+    public void abandonedRunningRequestsExpire() {
+        IdempotencyRegistry registry = new IdempotencyRegistry();
+        registry.setLimits(2, 60000);
+        IdempotencyRegistry.Entry abandoned = registry.begin("k1");
+        registry.begin("k2");
+        ec.checkThat(registry.begin("k3"), nullValue());
+        // e.g. never completed since the thread hangs
+        abandoned.started -= 120000;
+        ec.checkThat(registry.begin("k3").isOwner(), is(true));
+        ec.checkThat(registry.begin("k2").isOwner(), is(false));
+        ec.checkThat(registry.begin("k1"), nullValue());
+    }
+
+    @Test
+    public void expiryInCompletionOrder() {
+        IdempotencyRegistry registry = new IdempotencyRegistry();
+        registry.setLimits(10, 60000);
+        IdempotencyRegistry.Entry longRunning = registry.begin("k1");
+        IdempotencyRegistry.Entry quick = registry.begin("k2");
+        registry.complete(quick, 200, "{}");
+        quick.completed -= 120000; // completed long ago
+        registry.complete(longRunning, 200, "{}");
+        ec.checkThat(registry.begin("k2").isOwner(), is(true));
+        ec.checkThat(registry.begin("k1").isOwner(), is(false));
+    }
+
+}
@@ -0,0 +1,204 @@
+package com.composum.platform.replication.remotereceiver;
+
+import com.composum.sling.nodes.NodesConfiguration;
+import com.composum.sling.platform.staging.replication.impl.PublicationReceiverBackendService;
+import com.composum.sling.platform.testing.testutil.AnnotationWithDefaults;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.reflect.FieldUtils;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.utils.URLEncodedUtils;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.servlethelpers.MockRequestPathInfo;
+import org.apache.sling.testing.mock.sling.junit.SlingContext;
+import org.apache.sling.testing.mock.sling.servlet.MockSlingHttpServletRequest;
+import org.apache.sling.testing.mock.sling.servlet.MockSlingHttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.servlet.ServletRequest;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.mockito.Mockito.mock;
+
+/**
+ * A stand-in for a publisher in the same JVM: the {@link RemotePublicationReceiverServlet} with a
+ * {@link PublicationReceiverBackendService} working on the repository of a {@link SlingContext}, reachable over
+ * HTTP on a local port, so that a {@link RemotePublicationReceiverFacade} can replicate to it as to a real
+ * publisher. The HTTP requests are translated into mock Sling requests; there is no Sling servlet resolution, no
+ * authentication and no request filters. Only for tests.
+ */
+public class LoopbackReceiver implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LoopbackReceiver.class);
+
+    public static final String SERVLET_PATH = "/bin/cpm/platform/replication/publishreceiver";
+
+    protected final SlingContext context;
+
+    protected final RemotePublicationReceiverServlet servlet;
+
+    protected final PublicationReceiverBackendService backend;
+
+    protected HttpServer server;
+
+    protected ExecutorService requestThreads;
+
+    /**
+     * @param context the publisher - its repository has to know the staging node types
+     */
+    public LoopbackReceiver(@Nonnull SlingContext context) throws Exception {
+        this.context = context;
+        ResourceResolverFactory resolverFactory = context.getService(ResourceResolverFactory.class);
+        backend = new PublicationReceiverBackendService();
+        FieldUtils.writeDeclaredField(backend, "config", enabled(
+                AnnotationWithDefaults.of(PublicationReceiverBackendService.Configuration.class)), true);
+        FieldUtils.writeDeclaredField(backend, "resolverFactory", resolverFactory, true);
+        servlet = new RemotePublicationReceiverServlet();
+        servlet.resolverFactory = resolverFactory;
+        servlet.service = backend;
+        servlet.nodesConfig = mock(NodesConfiguration.class);
+        servlet.activate(AnnotationWithDefaults.of(RemotePublicationReceiverServlet.Configuration.class), null);
+        servlet.init();
+    }
+
+    /**
+     * Starts to listen on a free local port.
+     *
+     * @param threads the number of requests processed in parallel; the mock repositories are not necessarily made
+     *                for concurrent use, so 1 is the safe choice
+     */
+    public LoopbackReceiver start(int threads) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        requestThreads = Executors.newFixedThreadPool(Math.max(1, threads));
+        server.setExecutor(requestThreads);
+        server.createContext(SERVLET_PATH, this::handle);
+        server.start();
+        LOG.info("Loopback receiver listening at {}", getTargetUrl());
+        return this;
+    }
+
+    /** The URL to configure as target URL of the replication configuration. */
+    @Nonnull
+    public URI getTargetUrl() {
+        return URI.create("http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort()
+                + SERVLET_PATH);
+    }
+
+    @Nonnull
+    public RemotePublicationReceiverServlet getServlet() {
+        return servlet;
+    }
+
+    @Override
+    public void close() {
+        if (server != null) {
+            server.stop(0);
+            requestThreads.shutdownNow();
+            server = null;
+        }
+    }
+
+    protected void handle(@Nonnull HttpExchange exchange) throws IOException {
+        try {
+            MockSlingHttpServletRequest request = new MockSlingHttpServletRequest(context.resourceResolver(),
+                    context.bundleContext());
+            MockSlingHttpServletResponse response = new MockSlingHttpServletResponse();
+            toRequest(exchange, request);
+            servlet.service((ServletRequest) request, response);
+            byte[] body = response.getOutput();
+            Headers headers = exchange.getResponseHeaders();
+            for (String name : response.getHeaderNames()) {
+                headers.put(name, new ArrayList<>(response.getHeaders(name)));
+            }
+            if (response.getContentType() != null) {
+                headers.set("Content-Type", response.getContentType());
+            }
+            exchange.sendResponseHeaders(response.getStatus(), body.length > 0 ? body.length : -1);
+            if (body.length > 0) {
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+        } catch (Exception | AssertionError e) {
+            LOG.error("Error processing {}", exchange.getRequestURI(), e);
+            exchange.sendResponseHeaders(500, -1);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /** Transfers method, path info, parameters, headers and body of the HTTP request into the mock request. */
+    protected void toRequest(@Nonnull HttpExchange exchange, @Nonnull MockSlingHttpServletRequest request)
+            throws IOException {
+        URI uri = exchange.getRequestURI();
+        request.setMethod(exchange.getRequestMethod());
+        // e.g. /bin/cpm/platform/replication/publishreceiver.pathUpload.zip/content/site/page
+        String rest = uri.getPath().substring(SERVLET_PATH.length());
+        int suffixStart = rest.indexOf('/');
+        String selectorsAndExtension = StringUtils.removeStart(
+                suffixStart >= 0 ? rest.substring(0, suffixStart) : rest, ".");
+        MockRequestPathInfo pathInfo = (MockRequestPathInfo) request.getRequestPathInfo();
+        pathInfo.setResourcePath(SERVLET_PATH);
+        pathInfo.setSelectorString(StringUtils.substringBeforeLast(selectorsAndExtension, "."));
+        pathInfo.setExtension(StringUtils.substringAfterLast(selectorsAndExtension, "."));
+        pathInfo.setSuffix(suffixStart >= 0 ? rest.substring(suffixStart) : null);
+
+        Map<String, Object> parameters = new LinkedHashMap<>();
+        addParameters(parameters, URLEncodedUtils.parse(uri, StandardCharsets.UTF_8));
+        for (Map.Entry<String, List<String>> header : exchange.getRequestHeaders().entrySet()) {
+            for (String value : header.getValue()) {
+                request.addHeader(header.getKey(), value);
+            }
+        }
+        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        request.setContentType(contentType);
+        byte[] body = IOUtils.toByteArray(exchange.getRequestBody());
+        if (contentType != null && contentType.startsWith("application/x-www-form-urlencoded")) {
+            addParameters(parameters, URLEncodedUtils.parse(new String(body, StandardCharsets.UTF_8),
+                    StandardCharsets.UTF_8));
+        } else {
+            request.setContent(body);
+        }
+        request.setParameterMap(parameters);
+    }
+
+    protected void addParameters(@Nonnull Map<String, Object> parameters, @Nonnull List<NameValuePair> pairs) {
+        for (NameValuePair pair : pairs) {
+            String[] values = (String[]) parameters.get(pair.getName());
+            String[] added = values != null ? new String[values.length + 1] : new String[1];
+            if (values != null) {
+                System.arraycopy(values, 0, added, 0, values.length);
+            }
+            added[added.length - 1] = pair.getValue();
+            parameters.put(pair.getName(), added);
+        }
+    }
+
+    /** The configuration with the receiver switched on. */
+    @SuppressWarnings("unchecked")
+    protected static <T> T enabled(@Nonnull T configuration) {
+        Class<?> type = configuration.getClass().getInterfaces()[0];
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> "enabled".equals(method.getName()) ? Boolean.TRUE
+                        : method.invoke(configuration, args));
+    }
+
+}
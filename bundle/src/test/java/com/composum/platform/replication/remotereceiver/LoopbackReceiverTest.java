@@ -0,0 +1,37 @@
+package com.composum.platform.replication.remotereceiver;
+
+import com.composum.sling.platform.testing.testutil.ErrorCollectorAlwaysPrintingFailures;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+import org.apache.sling.testing.mock.sling.ResourceResolverType;
+import org.apache.sling.testing.mock.sling.junit.SlingContext;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+
+/** Tests for the HTTP bridge of the {@link LoopbackReceiver}. */
+public class LoopbackReceiverTest {
+
+    @Rule
+    public final SlingContext context = new SlingContext(ResourceResolverType.RESOURCERESOLVER_MOCK);
+
+    @Rule
+    public final ErrorCollectorAlwaysPrintingFailures ec = new ErrorCollectorAlwaysPrintingFailures();
+
+    @Test
+    public void statisticsOverHttp() throws Exception {
+        try (LoopbackReceiver receiver = new LoopbackReceiver(context).start(1);
+             CloseableHttpClient httpClient = HttpClients.createDefault();
+             CloseableHttpResponse response = httpClient.execute(
+                     new HttpGet(receiver.getTargetUrl() + ".statistics.json"))) {
+            ec.checkThat(response.getStatusLine().getStatusCode(), is(200));
+            ec.checkThat(EntityUtils.toString(response.getEntity()), containsString("\"success\":true"));
+        }
+    }
+
+}
@@ -0,0 +1,61 @@
+package com.composum.platform.replication.remotereceiver;
+
+import com.composum.platform.replication.remote.RemoteTarget;
+import com.composum.platform.replication.remote.TargetStatistics;
+import com.composum.sling.platform.testing.testutil.ErrorCollectorAlwaysPrintingFailures;
+import org.apache.sling.api.resource.Resource;
+import org.junit.Rule;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+/**
+ * Replicates synthetic releases to a {@link LoopbackReceiver} in the same JVM and reports the throughput and the
+ * latencies of the requests. The shape of the release is set with the system properties described in
+ * {@link AbstractLoopbackReplicationTest}, loopback.rounds (replications, the first ones are the warmup) and
+ * loopback.maxMillisPerVersionable (a generous bound for the duration of a round). Not
+ * part of the regular build since it takes long; it runs with the Maven profile 'performance', e.g.
+ * {@code mvn test -Pperformance -Dloopback.pages=1000}.
+ */
+public class LoopbackReplicationPerformanceTest extends AbstractLoopbackReplicationTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LoopbackReplicationPerformanceTest.class);
+
+    @Rule
+    public final ErrorCollectorAlwaysPrintingFailures ec = new ErrorCollectorAlwaysPrintingFailures();
+
+    protected final int rounds = Integer.getInteger("loopback.rounds", 3);
+    protected final long maxMillisPerVersionable = Long.getLong("loopback.maxMillisPerVersionable", 1000);
+
+    @Test
+    public void replicateSyntheticRelease() throws Exception {
+        List<Resource> versionables = createRelease(author.resourceResolver());
+        RemotePublicationConfig config = createConfig(author.resourceResolver(), receiver.getTargetUrl());
+        RemoteTarget target = new RemoteTarget(CONFIG_PATH, executors);
+        target.configure(config);
+        LOG.info("Replicating {} versionables with {} binaries of {} bytes each", versionables.size(),
+                binaries, binarySize);
+        for (int round = 1; round <= rounds; ++round) {
+            long millis = replicate(config, target, versionables, "round" + round);
+            ec.checkThat("round" + round, millis, lessThanOrEqualTo(versionables.size() * maxMillisPerVersionable));
+        }
+        LOG.info("Receiver timings: {}", receiver.getServlet().timings);
+        LOG.info("Target statistics: {}", target.getStatistics().toMap());
+
+        checkReplicated(versionables);
+        TargetStatistics statistics = target.getStatistics();
+        // at least the uploads of the versionables of each round went over the wire, without failures
+        ec.checkThat(statistics.getRequests(), greaterThanOrEqualTo((long) rounds * versionables.size()));
+        ec.checkThat(statistics.getFailures(), is(0L));
+        ec.checkThat(statistics.getTransferredBytes(), greaterThan(0L));
+        ec.checkThat(statistics.getThroughput(), greaterThan(0.0));
+    }
+
+}
@@ -0,0 +1,74 @@
+package com.composum.platform.replication.remotereceiver;
+
+import com.composum.sling.platform.testing.testutil.ErrorCollectorAlwaysPrintingFailures;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.fail;
+
+/** Tests for {@link PathLockTable}. */
+public class PathLockTableTest {
+
+    @Rule
+    public final ErrorCollectorAlwaysPrintingFailures ec = new ErrorCollectorAlwaysPrintingFailures();
+
+    @Test
+    public void overlaps() {
+        ec.checkThat(PathLockTable.overlaps("/content/site1", "/content/site1"), is(true));
+        ec.checkThat(PathLockTable.overlaps("/content/site1", "/content/site1/page"), is(true));
+        ec.checkThat(PathLockTable.overlaps("/content/site1/page", "/content/site1"), is(true));
+        ec.checkThat(PathLockTable.overlaps("/content/site1/", "/content/site1"), is(true));
+        ec.checkThat(PathLockTable.overlaps("/content/site1", "/content/site12"), is(false));
+        ec.checkThat(PathLockTable.overlaps("/content/site1", "/content/site2"), is(false));
+        ec.checkThat(PathLockTable.overlaps("/", "/content/site2"), is(true));
+    }
+
+    @Test
+    public void disjointUpdatesRunConcurrently() throws Exception {
+        PathLockTable table = new PathLockTable();
+        PathLockTable.PathLock lock1 = table.reserve("/content/site1", null);
+        table.assign(lock1, "upd1");
+        PathLockTable.PathLock lock2 = table.reserve("/content/site2", null);
+        table.assign(lock2, "upd2");
+        ec.checkThat(table.getLocks().size(), is(2));
+
+        try {
+            table.reserve("/content/site1/page", null);
+            fail("conflict expected");
+        } catch (PathLockTable.PathConflictException e) {
+            ec.checkThat(e.getConflictingLock().getUpdateId(), is("upd1"));
+        }
+
+        table.release("upd1");
+        ec.checkThat(table.get("upd1"), nullValue());
+        PathLockTable.PathLock lock3 = table.reserve("/content/site1/page", null);
+        table.release(lock3);
+        ec.checkThat(table.getLocks().size(), is(1));
+    }
+
+    @Test
+    public void dryRunsDoNotConflict() throws Exception {
+        PathLockTable table = new PathLockTable();
+        table.assign(table.reserve("/content/site1", null, true), "dry1");
+        // a real update isn't blocked by a dry run, and a dry run not by a real update
+        table.assign(table.reserve("/content/site1", null), "upd1");
+        table.assign(table.reserve("/content/site1", null, true), "dry2");
+        ec.checkThat(table.getLocks().size(), is(3));
+        ec.checkThat(table.get("dry2").isDryRun(), is(true));
+        ec.checkThat(table.get("upd1").isDryRun(), is(false));
+    }
+
+    @Test
+    public void staleLocksAreRemoved() throws Exception {
+        PathLockTable table = new PathLockTable();
+        table.setTimeoutMillis(1);
+        table.assign(table.reserve("/content/site1", null), "upd1");
+        Thread.sleep(20);
+        table.assign(table.reserve("/content/site1", null), "upd2");
+        ec.checkThat(table.get("upd1"), nullValue());
+        ec.checkThat(table.get("upd2").getPath(), is("/content/site1"));
+    }
+
+}
@@ -0,0 +1,97 @@
+package com.composum.platform.replication.remotereceiver;
+
+import com.composum.platform.replication.remotereceiver.RemotePublicationReceiverServlet.Extension;
+import com.composum.platform.replication.remotereceiver.RemotePublicationReceiverServlet.Operation;
+import com.composum.sling.core.util.LinkUtil;
+import com.composum.sling.platform.testing.testutil.ErrorCollectorAlwaysPrintingFailures;
+import org.apache.http.client.utils.URIBuilder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+/**
+ * Compares the request URL building of the {@link RemotePublicationReceiverFacade} before the
+ * {@link ReceiverEndpoints} - parsing the target URL and concatenating the operation URL for each request - with
+ * the prebuilt endpoints, each with the {@link URIBuilder} the facade uses for requests with parameters. Set with the
+ * system properties endpoints.requests (per round) and endpoints.rounds; the first rounds are the warmup. Not part
+ * of the regular build; it runs with the Maven profile 'performance', e.g.
+ * {@code mvn test -Pperformance -Dendpoints.requests=1000000}.
+ */
+public class ReceiverEndpointsPerformanceTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ReceiverEndpointsPerformanceTest.class);
+
+    protected static final String TARGET = "https://publisher.example.com/bin/cpm/platform/replication/receiver";
+
+    protected static final String[] PATHS = {"/content/site/home/jcr:content", "/content/site/home/about",
+            "/content/site/assets/logo.png", "/content/site/home/news/2020/a-longer-article-name"};
+
+    @Rule
+    public final ErrorCollectorAlwaysPrintingFailures ec = new ErrorCollectorAlwaysPrintingFailures();
+
+    protected final int requests = Integer.getInteger("endpoints.requests", 200000);
+    protected final int rounds = Integer.getInteger("endpoints.rounds", 5);
+
+    @Test
+    public void compareUrlBuilding() throws Exception {
+        long perRequestNanos = 0;
+        long prebuiltNanos = 0;
+        for (int round = 0; round < rounds; ++round) {
+            perRequestNanos = report("per request", perRequest());
+            prebuiltNanos = report("endpoints", prebuilt());
+        }
+        // both build the same URLs - the prebuilt endpoints only skip the parsing, so they are never much slower
+        ec.checkThat(hash(true), is(hash(false)));
+        ec.checkThat(prebuiltNanos, lessThanOrEqualTo(2 * perRequestNanos));
+    }
+
+    /** The former way: the config parses the target URL on each call, the facade concatenates and encodes. */
+    protected long perRequest() throws Exception {
+        long start = System.nanoTime();
+        consume(hash(false));
+        return System.nanoTime() - start;
+    }
+
+    protected long prebuilt() throws Exception {
+        long start = System.nanoTime();
+        consume(hash(true));
+        return System.nanoTime() - start;
+    }
+
+    protected long hash(boolean prebuilt) throws Exception {
+        long hash = 0;
+        ReceiverEndpoints endpoints = new ReceiverEndpoints(new URI(TARGET));
+        for (int i = 0; i < requests; ++i) {
+            String url;
+            if (prebuilt) {
+                url = endpoints.url(Operation.pathUpload, Extension.zip, PATHS[i % PATHS.length]);
+            } else {
+                URI targetUrl = new URI(TARGET);
+                url = targetUrl + "." + Operation.pathUpload.name() + "." + Extension.zip.name()
+                        + LinkUtil.encodePath(PATHS[i % PATHS.length]);
+            }
+            hash += new URIBuilder(url).addParameter("updateId", "upd-1").build().hashCode();
+        }
+        return hash;
+    }
+
+    protected long report(String mode, long nanos) {
+        LOG.info("{}: {} requests in {} ms = {} ns/request", mode, requests,
+                TimeUnit.NANOSECONDS.toMillis(nanos), nanos / requests);
+        return nanos;
+    }
+
+    protected static void consume(long hash) {
+        if (hash == 42) {
+            LOG.debug("{}", hash);
+        }
+    }
+
+}
@@ -0,0 +1,41 @@
+package com.composum.platform.replication.remotereceiver;
+
+import com.composum.platform.replication.remotereceiver.RemotePublicationReceiverServlet.Extension;
+import com.composum.platform.replication.remotereceiver.RemotePublicationReceiverServlet.Operation;
+import com.composum.sling.core.util.LinkUtil;
+import com.composum.sling.platform.testing.testutil.ErrorCollectorAlwaysPrintingFailures;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.net.URI;
+
+import static org.hamcrest.Matchers.is;
+
+/** Tests for {@link ReceiverEndpoints}. */
+public class ReceiverEndpointsTest {
+
+    protected static final String TARGET = "https://publisher.example.com:8443/bin/cpm/platform/replication/receiver";
+
+    @Rule
+    public final ErrorCollectorAlwaysPrintingFailures ec = new ErrorCollectorAlwaysPrintingFailures();
+
+    @Test
+    public void urls() throws Exception {
+        ReceiverEndpoints endpoints = new ReceiverEndpoints(new URI(TARGET));
+        ec.checkThat(endpoints.url(Operation.commitUpdate, Extension.json), is(TARGET + ".commitUpdate.json"));
+        ec.checkThat(endpoints.url(Operation.pathUpload, Extension.zip, "/content/site/jcr:content"),
+                is(TARGET + ".pathUpload.zip" + LinkUtil.encodePath("/content/site/jcr:content")));
+        ec.checkThat(endpoints.url(Operation.pathUpload, Extension.zip, " "), is(TARGET + ".pathUpload.zip"));
+        ec.checkThat(endpoints.isFor(new URI(TARGET)), is(true));
+        ec.checkThat(endpoints.isFor(new URI(TARGET + "x")), is(false));
+    }
+
+    @Test
+    public void encodePath() {
+        for (String path : new String[]{"/content/site/page-1/image_2.png", "/content/site/jcr:content",
+                "/content/site/a page", "/content/site/ümlaut", "/content/site/a%20b", "/content/a+b?c#d"}) {
+            ec.checkThat(path, ReceiverEndpoints.encodePath(path), is(LinkUtil.encodePath(path)));
+        }
+    }
+
+}
@@ -0,0 +1,204 @@
+package com.composum.platform.replication.remotereceiver;
+
+import com.composum.platform.commons.credentials.CredentialService;
+import com.composum.platform.commons.proxy.ProxyManagerService;
+import com.composum.platform.replication.remote.RemotePublisherService;
+import com.composum.platform.replication.remote.RemoteTarget;
+import com.composum.platform.replication.remote.ReplicationLanes;
+import com.composum.platform.replication.remote.ReplicationExecutors;
+import com.composum.sling.core.BeanContext;
+import com.composum.sling.core.servlet.Status;
+import com.composum.sling.nodes.NodesConfiguration;
+import com.composum.sling.platform.staging.replication.ReplicationException;
+import com.composum.sling.platform.testing.testutil.ErrorCollectorAlwaysPrintingFailures;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.message.BasicStatusLine;
+import org.apache.http.protocol.HttpContext;
+import org.apache.sling.testing.mock.sling.ResourceResolverType;
+import org.apache.sling.testing.mock.sling.junit.SlingContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/** Tests for the retries of the {@link RemotePublicationReceiverFacade} against a mocked client. */
+public class RemotePublicationReceiverFacadeTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RemotePublicationReceiverFacadeTest.class);
+
+    protected static final URI TARGET_URL = URI.create("https://publisher.example.com/bin/receiver");
+
+    @Rule
+    public final SlingContext context = new SlingContext(ResourceResolverType.RESOURCERESOLVER_MOCK);
+
+    @Rule
+    public final ErrorCollectorAlwaysPrintingFailures ec = new ErrorCollectorAlwaysPrintingFailures();
+
+    protected ReplicationExecutors executors;
+
+    protected RemoteTarget target;
+
+    protected CloseableHttpClient httpClient;
+
+    protected RemotePublicationReceiverFacade facade;
+
+    @Before
+    public void setup() {
+        executors = new ReplicationExecutors();
+        target = new RemoteTarget("/conf/site/replication/publish", executors);
+        httpClient = mock(CloseableHttpClient.class);
+        RemotePublisherService.Configuration config = mock(RemotePublisherService.Configuration.class);
+        when(config.maxRetries()).thenReturn(3);
+        when(config.retryDelay()).thenReturn(1);
+        when(config.maxRetryWait()).thenReturn(1);
+        when(config.backpressureRetries()).thenReturn(3);
+        RemotePublicationConfig replicationConfig = mock(RemotePublicationConfig.class);
+        when(replicationConfig.getTargetUrl()).thenReturn(TARGET_URL);
+        when(replicationConfig.getPath()).thenReturn(target.getConfigPath());
+        facade = new RemotePublicationReceiverFacade(replicationConfig, mock(BeanContext.class), httpClient,
+                () -> config, mock(NodesConfiguration.class), mock(ProxyManagerService.class),
+                mock(CredentialService.class), target);
+    }
+
+    @After
+    public void teardown() {
+        target.close();
+        executors.shutdown();
+    }
+
+    @Test
+    public void timeoutsAreRetried() throws Exception {
+        when(httpClient.execute(any(HttpUriRequest.class), any(HttpContext.class)))
+                .thenThrow(new SocketTimeoutException("Read timed out"))
+                .thenThrow(new ConnectTimeoutException("Connect timed out"))
+                .thenReturn(response(200));
+        Status status = call(true);
+        ec.checkThat(status, notNullValue());
+        ec.checkThat(status.isSuccess(), is(true));
+        verify(httpClient, times(3)).execute(any(HttpUriRequest.class), any(HttpContext.class));
+        ec.checkThat(target.getStatistics().getRetries(), is(2L));
+    }
+
+    @Test
+    public void interruptionIsNotRetried() throws Exception {
+        when(httpClient.execute(any(HttpUriRequest.class), any(HttpContext.class)))
+                .thenThrow(new InterruptedIOException())
+                .thenReturn(response(200));
+        ec.checkThat(callFails(true), is(true));
+        verify(httpClient, times(1)).execute(any(HttpUriRequest.class), any(HttpContext.class));
+    }
+
+    @Test
+    public void notRetryableCallIsNotRepeated() throws Exception {
+        when(httpClient.execute(any(HttpUriRequest.class), any(HttpContext.class)))
+                .thenThrow(new SocketTimeoutException("Read timed out"))
+                .thenReturn(response(200));
+        ec.checkThat(callFails(false), is(true));
+        verify(httpClient, times(1)).execute(any(HttpUriRequest.class), any(HttpContext.class));
+    }
+
+    @Test
+    public void unauthorizedIsRetriedOnceWithNewContext() throws Exception {
+        when(httpClient.execute(any(HttpUriRequest.class), any(HttpContext.class)))
+                .thenReturn(response(401))
+                .thenReturn(response(200));
+        // also if the call is not retryable, since the receiver didn't process it
+        ec.checkThat(call(false).isSuccess(), is(true));
+        verify(httpClient, times(2)).execute(any(HttpUriRequest.class), any(HttpContext.class));
+        ec.checkThat(target.getStatistics().getUnauthorized(), is(1L));
+
+        when(httpClient.execute(any(HttpUriRequest.class), any(HttpContext.class)))
+                .thenReturn(response(401));
+        ec.checkThat(callFails(true), is(true));
+        verify(httpClient, times(4)).execute(any(HttpUriRequest.class), any(HttpContext.class));
+        ec.checkThat(target.getStatistics().getUnauthorized(), is(3L));
+    }
+
+    @Test
+    public void notRepeatableEntityIsNotResent() throws Exception {
+        when(httpClient.execute(any(HttpUriRequest.class), any(HttpContext.class)))
+                .thenThrow(new SocketTimeoutException("Read timed out"))
+                .thenReturn(response(200));
+        HttpPut put = new HttpPut(TARGET_URL);
+        put.setEntity(new InputStreamEntity(new ByteArrayInputStream(new byte[100])));
+        try {
+            facade.callRemotePublicationReceiver("test call", facade.getHttpClientContext(), put, Status.class,
+                    null, true);
+            fail("failure expected");
+        } catch (ReplicationException e) {
+            verify(httpClient, times(1)).execute(any(HttpUriRequest.class), any(HttpContext.class));
+        }
+    }
+
+    @Test
+    public void asyncCallDoesNotBlockCaller() throws Exception {
+        when(httpClient.execute(any(HttpUriRequest.class), any(HttpContext.class)))
+                .thenThrow(new SocketTimeoutException("Read timed out"))
+                .thenReturn(response(200));
+        target.getLanes().configure(1, 1);
+        target.getLanes().acquire(ReplicationLanes.Lane.urgent);
+        CompletableFuture<Status> future = facade.executeAsync(() -> facade.new ReceiverCall<>("test call",
+                new HttpGet(TARGET_URL), Status.class, null, true));
+        // the lane is exhausted: a worker waits for it, not the caller
+        ec.checkThat(future.isDone(), is(false));
+        target.getLanes().release(ReplicationLanes.Lane.urgent);
+        ec.checkThat(future.get(10, TimeUnit.SECONDS).isSuccess(), is(true));
+        verify(httpClient, times(2)).execute(any(HttpUriRequest.class), any(HttpContext.class));
+        ec.checkThat(target.getLanes().getActive(ReplicationLanes.Lane.urgent), is(0));
+    }
+
+    protected Status call(boolean retryable) throws ReplicationException {
+        return facade.callRemotePublicationReceiver("test call", facade.getHttpClientContext(),
+                new HttpGet(TARGET_URL), Status.class, null, retryable);
+    }
+
+    protected boolean callFails(boolean retryable) {
+        try {
+            call(retryable);
+            return false;
+        } catch (ReplicationException e) {
+            return true;
+        }
+    }
+
+    /** A response with a status JSON as the receiver servlet sends it. */
+    protected CloseableHttpResponse response(int statusCode) throws Exception {
+        context.response().reset();
+        Status status = new Status(context.request(), context.response(), LOG);
+        status.setStatus(statusCode);
+        status.sendJson();
+        CloseableHttpResponse response = mock(CloseableHttpResponse.class);
+        when(response.getStatusLine()).thenReturn(new BasicStatusLine(HttpVersion.HTTP_1_1, statusCode, null));
+        when(response.getEntity()).thenReturn(new StringEntity(context.response().getOutputAsString(),
+                ContentType.APPLICATION_JSON));
+        return response;
+    }
+
+}
@@ -0,0 +1,66 @@
+package com.composum.platform.replication.remotereceiver;
+
+import com.composum.sling.platform.testing.testutil.ErrorCollectorAlwaysPrintingFailures;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.time.LocalTime;
+
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+/** Tests for {@link ReplicationThrottle} and {@link TokenBucket}. */
+public class ReplicationThrottleTest {
+
+    @Rule
+    public final ErrorCollectorAlwaysPrintingFailures ec = new ErrorCollectorAlwaysPrintingFailures();
+
+    @Test
+    public void tokenBucketLimitsRate() throws Exception {
+        TokenBucket bucket = new TokenBucket(100000, 10000);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long start = System.nanoTime();
+        try (ThrottledOutputStream throttled = new ThrottledOutputStream(out, bucket)) {
+            throttled.write(new byte[60000]);
+        }
+        long millis = (System.nanoTime() - start) / 1000000;
+        // 10000 bytes burst, the other 50000 need 0.5 seconds.
+        ec.checkThat(millis, greaterThanOrEqualTo(400L));
+        ec.checkThat(millis, lessThan(3000L));
+        ec.checkThat(out.size(), is(60000));
+    }
+
+    @Test
+    public void unlimitedBucket() throws Exception {
+        TokenBucket bucket = new TokenBucket();
+        ec.checkThat(bucket.isUnlimited(), is(true));
+        ec.checkThat(bucket.tryAcquire(Long.MAX_VALUE), is(true));
+    }
+
+    @Test
+    public void timeWindows() {
+        ReplicationThrottle throttle = new ReplicationThrottle();
+        throttle.unlimitedTimes = ReplicationThrottle.parseTimeWindows("22:00-06:00, 12:00-13:30, broken");
+        ec.checkThat(throttle.unlimitedTimes.size(), is(2));
+        ec.checkThat(throttle.isUnlimitedTime(LocalTime.of(23, 0)), is(true));
+        ec.checkThat(throttle.isUnlimitedTime(LocalTime.of(3, 0)), is(true));
+        ec.checkThat(throttle.isUnlimitedTime(LocalTime.of(6, 0)), is(false));
+        ec.checkThat(throttle.isUnlimitedTime(LocalTime.of(12, 30)), is(true));
+        ec.checkThat(throttle.isUnlimitedTime(LocalTime.of(14, 0)), is(false));
+    }
+
+    @Test
+    public void adaptsToLoad() {
+        ReplicationThrottle throttle = new ReplicationThrottle();
+        throttle.adaptToLoad("2.0");
+        ec.checkThat(throttle.getLoadFactor(), is(0.5));
+        throttle.adaptToLoad("garbage");
+        ec.checkThat(throttle.getLoadFactor(), is(0.5));
+        ec.checkThat(throttle.requests.getRate(), is(ReplicationThrottle.ADAPTIVE_REQUEST_RATE * 0.5));
+        throttle.adaptToLoad("0.1");
+        ec.checkThat(Math.abs(throttle.getLoadFactor() - 0.6) < 0.0001, is(true));
+    }
+
+}
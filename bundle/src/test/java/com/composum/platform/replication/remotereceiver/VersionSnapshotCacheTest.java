@@ -0,0 +1,86 @@
+package com.composum.platform.replication.remotereceiver;
+
+import com.composum.sling.platform.testing.testutil.ErrorCollectorAlwaysPrintingFailures;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+
+/** Tests for {@link VersionSnapshotCache}. */
+public class VersionSnapshotCacheTest {
+
+    @Rule
+    public final ErrorCollectorAlwaysPrintingFailures ec = new ErrorCollectorAlwaysPrintingFailures();
+
+    @Rule
+    public final TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void storesAndEvicts() throws Exception {
+        File dir = new File(tmp.getRoot(), "cache");
+        VersionSnapshotCache cache = new VersionSnapshotCache();
+        cache.configure(dir, 25);
+        put(cache, "v1", "/content/a/jcr:content", "0123456789");
+        put(cache, "v2", "/content/b/jcr:content", "0123456789");
+        ec.checkThat(cache.size(), is(2));
+        ec.checkThat(cache.contains("v1", "/content/a/jcr:content"), is(true));
+        ec.checkThat(cache.contains("v1", "/content/b/jcr:content"), is(false)); // wrong path
+        ec.checkThat(FileUtils.readFileToString(cache.getPackage("v2", "/content/b/jcr:content"),
+                StandardCharsets.UTF_8), is("0123456789"));
+
+        // v1 was used more recently than v2, so v2 is evicted
+        cache.getPackage("v1", "/content/a/jcr:content");
+        put(cache, "v3", "/content/c/jcr:content", "0123456789");
+        ec.checkThat(cache.size(), is(2));
+        ec.checkThat(cache.getBytes(), is(20L));
+        ec.checkThat(cache.getPackage("v2", "/content/b/jcr:content"), nullValue());
+        ec.checkThat(cache.getPackage("v1", "/content/a/jcr:content"), notNullValue());
+        ec.checkThat(new File(dir, "v2.zip").exists(), is(false));
+
+        // survives restart
+        VersionSnapshotCache restarted = new VersionSnapshotCache();
+        restarted.configure(dir, 25);
+        ec.checkThat(restarted.size(), is(2));
+        ec.checkThat(restarted.contains("v3", "/content/c/jcr:content"), is(true));
+
+        // disabling removes everything
+        restarted.configure(dir, 0);
+        ec.checkThat(restarted.isEnabled(), is(false));
+        ec.checkThat(dir.exists(), is(false));
+    }
+
+    @Test
+    public void storedPathIsNotReplaced() throws Exception {
+        File dir = new File(tmp.getRoot(), "cache");
+        VersionSnapshotCache cache = new VersionSnapshotCache();
+        cache.configure(dir, 1000);
+        put(cache, "v1", "/content/a/jcr:content", "0123456789");
+        put(cache, "v1", "/content/b/jcr:content", "9876543210");
+        ec.checkThat(cache.contains("v1", "/content/a/jcr:content"), is(true));
+        ec.checkThat(cache.contains("v1", "/content/b/jcr:content"), is(false));
+        // no temporary files are left over
+        ec.checkThat(dir.list().length, is(2));
+    }
+
+    @Test
+    public void rejectsStrangeVersions() throws Exception {
+        VersionSnapshotCache cache = new VersionSnapshotCache();
+        cache.configure(tmp.getRoot(), 1000);
+        put(cache, "../v1", "/content/a/jcr:content", "0123456789");
+        put(cache, null, "/content/a/jcr:content", "0123456789");
+        ec.checkThat(cache.size(), is(0));
+    }
+
+    protected void put(VersionSnapshotCache cache, String version, String path, String content) throws Exception {
+        cache.put(version, path, new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)));
+    }
+
+}
@@ -20,13 +20,28 @@
                 _view: '_view',
                 _form: '_form',
                 _type: '_type',
-                _title: '_title'
+                _title: '_title',
+                _dryRun: '_dry-run',
+                _proxy: '_proxy',
+                _dashboard: '_dashboard',
+                _targets: '-targets',
+                _start: '-start',
+                _result: '-result'
             },
             url: {
                 base: '/libs/composum/platform/replication',
                 setup: '/libs/composum/platform/replication/setup.reload.html',
                 create: '/libs/composum/platform/replication/node.create.html',
-                delete: '/libs/composum/platform/replication/node.delete.html'
+                delete: '/libs/composum/platform/replication/node.delete.html',
+                publisher: '/bin/cpm/platform/replication/remotepublisher',
+                dashboard: '/bin/cpm/platform/replication/remotepublisher.dashboard.json',
+                proxies: '/bin/cpm/platform/replication/remotepublisher.proxies.json'
+            },
+            dashboard: {
+                pollInterval: 2000
+            },
+            dryRun: {
+                pollInterval: 1000
             }
         });
 
@@ -42,6 +57,95 @@
                 };
                 components.FormDialog.prototype.initialize.call(this, options);
                 this.$('button.delete').click(_.bind(this.deleteConfig, this));
+                var c = replication.const.css;
+                this.$dryRunResult = this.$('.' + c.base + c._node + c._dryRun + c._result);
+                this.$('.' + c.base + c._node + c._dryRun + c._start).click(_.bind(this.dryRun, this));
+                this.loadProxyOptions();
+            },
+
+            /**
+             * the proxy selection is rendered with the current value only; the available proxies are loaded now
+             */
+            loadProxyOptions: function () {
+                var c = replication.const.css;
+                var $select = this.$('select.' + c.base + c._node + c._proxy);
+                if ($select.length > 0) {
+                    $.getJSON(replication.const.url.proxies, function (result) {
+                        var value = $select.val();
+                        $select.find('option').not(':first').remove();
+                        var keys = _.pluck(result.proxies || [], 'key');
+                        if (value && !_.contains(keys, value)) { // keep a configured proxy which is gone
+                            $select.append($('<option></option>').attr('value', value).text(value));
+                        }
+                        _.each(result.proxies || [], function (proxy) {
+                            $select.append($('<option></option>').attr('value', proxy.key).text(proxy.title));
+                        });
+                        $select.val(value);
+                    });
+                }
+            },
+
+            /**
+             * estimates the costs of a replication to the target without transmitting anything
+             */
+            dryRun: function (event) {
+                event.preventDefault();
+                this.$dryRunResult.html('<i class="fa fa-spinner fa-pulse"></i>');
+                core.ajaxPost(replication.const.url.publisher + '.dryRun.json' + core.encodePath(this.data.path), {},
+                    {}, _.bind(this.dryRunState, this), _.bind(this.dryRunFailed, this));
+                return false;
+            },
+
+            /**
+             * the dry run runs in the background on the server; its state is polled until it's done
+             */
+            dryRunState: function (result) {
+                if (result.data.dryRun && result.data.dryRun.running) {
+                    setTimeout(_.bind(function () {
+                        $.ajax({
+                            url: replication.const.url.publisher + '.dryRun.json' + core.encodePath(this.data.path),
+                            dataType: 'json',
+                            cache: false,
+                            success: _.bind(this.dryRunState, this),
+                            error: _.bind(this.dryRunFailed, this)
+                        });
+                    }, this), replication.const.dryRun.pollInterval);
+                } else if (result.data.estimate) {
+                    this.showEstimate(result.data.estimate, result.messages);
+                } else {
+                    this.$dryRunResult.text(result.messages && result.messages.length > 0
+                        ? result.messages[0].text : '');
+                }
+            },
+
+            dryRunFailed: function (xhr) {
+                var result = xhr.responseJSON;
+                this.$dryRunResult.text(result && result.messages && result.messages.length > 0
+                    ? result.messages[0].text : xhr.statusText);
+            },
+
+            showEstimate: function (estimate, messages) {
+                var kB = function (bytes) {
+                    return Math.round(bytes / 1024) + ' kB';
+                };
+                var duration = estimate.projectedMillis !== undefined && estimate.projectedMillis !== null
+                    ? Math.round(estimate.projectedMillis / 1000) + ' s' : '?';
+                var $list = $('<dl class="dl-horizontal"></dl>');
+                var add = function (key, value) {
+                    $list.append($('<dt></dt>').text(core.i18n.get(key)));
+                    $list.append($('<dd></dd>').text(value));
+                };
+                add('Changed', estimate.changedVersionables +
+                    (estimate.restorableVersionables > 0 ? ' (' + estimate.restorableVersionables + ' '
+                        + core.i18n.get('from cache') + ')' : ''));
+                add('Deleted', estimate.deletedPaths);
+                add('Package Size', kB(estimate.estimatedBytes));
+                add('Throughput', estimate.throughput > 0 ? kB(estimate.throughput) + '/s' : '?');
+                add('Duration', duration);
+                this.$dryRunResult.empty().append($list);
+                if (messages && messages.length > 0) {
+                    this.$dryRunResult.append($('<div class="alert alert-warning"></div>').text(messages[0].text));
+                }
             },
 
             deleteConfig: function () {
@@ -110,6 +214,79 @@
             }
         });
 
+        /**
+         * the live state of the replication targets; polled from the dashboard operation of the publisher servlet
+         * while the dashboard is visible, the next request is sent when the answer to the last one is there
+         */
+        replication.Dashboard = Backbone.View.extend({
+
+            initialize: function (options) {
+                var c = replication.const.css;
+                this.$targets = this.$('.' + c.base + c._setup + c._dashboard + c._targets);
+            },
+
+            start: function () {
+                this.stop();
+                this.running = true;
+                this.poll();
+            },
+
+            stop: function () {
+                this.running = false;
+                this.generation = (this.generation || 0) + 1; // ignores the answer of a running request
+                if (this.timer) {
+                    clearTimeout(this.timer);
+                    this.timer = undefined;
+                }
+            },
+
+            poll: function () {
+                var generation = this.generation;
+                this.timer = undefined;
+                $.getJSON(replication.const.url.dashboard, _.bind(function (result) {
+                    if (generation === this.generation) {
+                        this.render(result.targets || []);
+                    }
+                }, this)).always(_.bind(function () {
+                    if (this.running && generation === this.generation) {
+                        this.timer = setTimeout(_.bind(this.poll, this), replication.const.dashboard.pollInterval);
+                    }
+                }, this));
+            },
+
+            render: function (targets) {
+                if (targets.length < 1) {
+                    return;
+                }
+                var kB = function (bytes) {
+                    return Math.round(bytes / 1024) + ' kB';
+                };
+                this.$targets.empty();
+                _.each(targets, _.bind(function (target) {
+                    var $runs = $('<td></td>');
+                    _.each(target.lastRuns, function (run) {
+                        $runs.append($('<span></span>').addClass(run.success ? 'run-ok' : 'run-failed')
+                            .text(Math.round(run.millis / 1000) + 's '));
+                    });
+                    var health = target.health || {};
+                    var $row = $('<tr></tr>');
+                    if (health.healthy === false) {
+                        $row.addClass('danger').attr('title', health.lastError);
+                    }
+                    this.$targets.append($row
+                        .append($('<td></td>').text(target.path + (health.roundTripMillis >= 0
+                            ? ' (' + health.roundTripMillis + ' ms)' : '')))
+                        .append($('<td></td>').addClass('phase-' + target.phase).text(core.i18n.get(target.phase)
+                            + (target.activeRuns > 1 ? ' (' + target.activeRuns + ')' : '')))
+                        .append($('<td></td>').text(target.pathsDone + ' / ' + target.pathsTotal))
+                        .append($('<td></td>').text(kB(target.bytesPerSecond) + '/s'))
+                        .append($('<td></td>').text(target.queueDepth))
+                        .append($runs)
+                        .append($('<td></td>').text((target.errorRate * 100).toFixed(1) + ' %')));
+                }, this));
+            }
+        });
+
         replication.SetupForm = components.FormWidget.extend({
 
             initialize: function (options) {
@@ -117,10 +294,13 @@
                 var c = replication.const.css;
                 components.FormWidget.prototype.initialize.call(this, options);
                 this.tabbed.$nav.find('a[data-key="' + replication.profile.get('setup', 'formTab', 'path') + '"]').tab('show');
+                this.dashboard = core.getView(this.$('.' + c.base + c._setup + c._dashboard), replication.Dashboard);
                 this.tabbed.$nav.find('a').on('shown.bs.tab.FormTabs', _.bind(function (event) {
                     var $tab = $(event.target);
                     replication.profile.set('setup', 'formTab', $tab.data('key'));
+                    this.showDashboard($tab.data('key') === 'dashboard');
                 }, this));
+                this.showDashboard(replication.profile.get('setup', 'formTab', 'path') === 'dashboard');
                 var that = this;
                 this.$('.' + c.base + c._node + c._view + '.editable').each(function () {
                     core.getView($(this), replication.ConfigNode, {setupForm: that});
@@ -128,6 +308,17 @@
                 this.$('.' + c.base + c._setup + c._add).click(_.bind(this.addConfig, this));
             },
 
+            /**
+             * the dashboard receives the updates only while it is visible
+             */
+            showDashboard: function (visible) {
+                if (visible) {
+                    this.dashboard.start();
+                } else {
+                    this.dashboard.stop();
+                }
+            },
+
             addConfig: function (event) {
                 event.preventDefault();
                 core.openFormDialog(replication.const.url.create + this.configSetup.$el.data('path'),
@@ -156,6 +347,9 @@
             },
 
             reload: function () {
+                if (this.form) {
+                    this.form.showDashboard(false);
+                }
                 core.getHtml(replication.const.url.setup + core.encodePath(this.$el.data('path')),
                     _.bind(function (content) {
                         this.$el.html(content);
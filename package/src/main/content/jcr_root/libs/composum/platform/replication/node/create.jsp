@@ -2,6 +2,8 @@
 <%@taglib prefix="sling" uri="http://sling.apache.org/taglibs/sling/1.2" %>
 <%@taglib prefix="cpn" uri="http://sling.composum.com/cpnl/1.0" %>
 <sling:defineObjects/>
+<cpn:component var="setup" type="com.composum.platform.replication.model.ReplicationSetup" scope="request"
+               path="${cpn:filter(slingRequest.requestPathInfo.suffix)}">
 <div class="composum-platform-replication-node_dialog dialog modal fade" role="dialog" aria-hidden="true">
     <div class="modal-dialog modal-lg">
         <div class="modal-content form-panel default">
@@ -28,7 +30,7 @@
                             <div class="form-group">
                                 <label>${cpn:i18n(slingRequest,'Type')}</label>
                                 <select name="replicationType" data-rules="required"
-                                        data-options="remote:${cpn:i18n(slingRequest,'Standard Remote')},inplace:${cpn:i18n(slingRequest,'In-Place')}"
+                                        data-options="${setup.replicationTypeOptions}"
                                         class="composum-platform-replication-node_type widget select-widget form-control"></select>
                             </div>
                         </div>
@@ -53,3 +55,4 @@
         </div>
     </div>
 </div>
+</cpn:component>
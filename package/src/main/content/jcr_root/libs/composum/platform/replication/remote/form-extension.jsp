@@ -1,6 +1,7 @@
 <%@page session="false" pageEncoding="UTF-8" %>
 <%@taglib prefix="sling" uri="http://sling.apache.org/taglibs/sling/1.2" %>
 <%@taglib prefix="cpn" uri="http://sling.composum.com/cpnl/1.0" %>
+<%@taglib prefix="c" uri="http://java.sun.com/jsp/jstl/core" %>
 <sling:defineObjects/>
 <cpn:component var="model" type="com.composum.platform.replication.model.ReplicationConfigNode" scope="request">
     <div class="row">
@@ -9,7 +10,7 @@
                 <input type="hidden" name="proxyKey@Delete" value="true" class="sling-post-delete-hint"/>
                 <label>${cpn:i18n(slingRequest,'Proxy')}</label>
                 <select name="proxyKey" data-value="${model.property.proxyKey}"
-                        data-options="${model.proxyOptions}" data-default=""
+                        data-options="${model.proxyKeyOptions}" data-default=""
                         class="composum-platform-replication-node_proxy widget select-widget form-control"></select>
             </div>
         </div>
@@ -27,4 +28,58 @@
             </div>
         </div>
     </div>
+    <div class="row">
+        <div class="col col-xs-3">
+            <div class="form-group">
+                <input type="hidden" name="bandwidthLimit@Delete" value="true" class="sling-post-delete-hint"/>
+                <input type="hidden" name="bandwidthLimit@TypeHint" value="Long" class="sling-post-type-hint"/>
+                <label>${cpn:i18n(slingRequest,'Bandwidth Limit (kB/s)')}</label>
+                <input type="text" name="bandwidthLimit" value="${model.property.bandwidthLimit}"
+                       data-pattern="^[0-9]*$"
+                       class="composum-platform-replication-node_bandwidth-limit form-control widget text-field-widget"/>
+            </div>
+        </div>
+        <div class="col col-xs-3">
+            <div class="form-group">
+                <input type="hidden" name="requestRateLimit@Delete" value="true" class="sling-post-delete-hint"/>
+                <input type="hidden" name="requestRateLimit@TypeHint" value="Double" class="sling-post-type-hint"/>
+                <label>${cpn:i18n(slingRequest,'Request Limit (1/s)')}</label>
+                <input type="text" name="requestRateLimit" value="${model.property.requestRateLimit}"
+                       data-pattern="^[0-9]*(\.[0-9]+)?$"
+                       class="composum-platform-replication-node_request-limit form-control widget text-field-widget"/>
+            </div>
+        </div>
+        <div class="col col-xs-3">
+            <div class="form-group">
+                <input type="hidden" name="unlimitedTimes@Delete" value="true" class="sling-post-delete-hint"/>
+                <label>${cpn:i18n(slingRequest,'Unlimited Times')}</label>
+                <input type="text" name="unlimitedTimes" value="${model.property.unlimitedTimes}"
+                       placeholder="22:00-06:00"
+                       class="composum-platform-replication-node_unlimited-times form-control widget text-field-widget"/>
+            </div>
+        </div>
+        <div class="col col-xs-3">
+            <div class="form-group">
+                <input type="hidden" name="transport@Delete" value="true" class="sling-post-delete-hint"/>
+                <label>${cpn:i18n(slingRequest,'Transport')}</label>
+                <select name="transport" data-value="${model.property.transport}"
+                        data-options="http1:HTTP/1.1,http2:HTTP/2" data-default="http1"
+                        class="composum-platform-replication-node_transport widget select-widget form-control"></select>
+            </div>
+        </div>
+    </div>
+    <c:if test="${not empty model.property.targetUrl}">
+        <div class="composum-platform-replication-node_dry-run row">
+            <div class="col col-xs-3">
+                <div class="form-group">
+                    <label>${cpn:i18n(slingRequest,'Cost Estimation')}</label>
+                    <button type="button" class="composum-platform-replication-node_dry-run-start btn btn-default form-control"
+                            title="${cpn:i18n(slingRequest,'Compares the release with the target without transmitting anything')}">${cpn:i18n(slingRequest,'Dry Run')}</button>
+                </div>
+            </div>
+            <div class="col col-xs-9">
+                <div class="composum-platform-replication-node_dry-run-result form-group"></div>
+            </div>
+        </div>
+    </c:if>
 </cpn:component>
@@ -28,6 +28,11 @@
                      class="composum-commons-form-tab-panel tab-pane" role="tabpanel">
                     <sling:call script="bytype.jsp"/>
                 </div>
+                <div id="${model.domId}_dashboard" data-key="dashboard"
+                     data-label="${cpn:i18n(slingRequest,'Dashboard')}"
+                     class="composum-commons-form-tab-panel tab-pane" role="tabpanel">
+                    <sling:call script="dashboard.jsp"/>
+                </div>
             </div>
         </div>
     </form>
@@ -0,0 +1,26 @@
+<%@page session="false" pageEncoding="UTF-8" %>
+<%@taglib prefix="sling" uri="http://sling.apache.org/taglibs/sling/1.2" %>
+<%@taglib prefix="cpn" uri="http://sling.composum.com/cpnl/1.0" %>
+<sling:defineObjects/>
+<cpn:component var="model" type="com.composum.platform.replication.model.ReplicationSetup" scope="request">
+    <div class="composum-platform-replication-setup_dashboard">
+        <table class="table table-condensed">
+            <thead>
+            <tr>
+                <th>${cpn:i18n(slingRequest,'Target')}</th>
+                <th>${cpn:i18n(slingRequest,'Phase')}</th>
+                <th>${cpn:i18n(slingRequest,'Paths')}</th>
+                <th>${cpn:i18n(slingRequest,'Throughput')}</th>
+                <th>${cpn:i18n(slingRequest,'Queue')}</th>
+                <th>${cpn:i18n(slingRequest,'Last Runs')}</th>
+                <th>${cpn:i18n(slingRequest,'Error Rate')}</th>
+            </tr>
+            </thead>
+            <tbody class="composum-platform-replication-setup_dashboard-targets">
+            <tr>
+                <td colspan="7">${cpn:i18n(slingRequest,'No replication since the start of the server.')}</td>
+            </tr>
+            </tbody>
+        </table>
+    </div>
+</cpn:component>